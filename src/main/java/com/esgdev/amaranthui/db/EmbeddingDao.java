@@ -1,5 +1,8 @@
 package com.esgdev.amaranthui.db;
 
+import com.esgdev.amaranthui.db.filter.SearchFilter;
+
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -10,8 +13,50 @@ public interface EmbeddingDao<T> {
     T getEmbeddingById(Long id);
     List<T> getAllEmbeddings();
     void addEmbedding(T embedding);
-    void addEmbedding(List<T> embeddings); // New overload
-    void updateEmbedding(T embedding);
+
+    /**
+     * @return false if the embeddings could not be stored, e.g. because the database failed
+     */
+    boolean addEmbedding(List<T> embeddings);
+
+
+    /**
+     * @return false if no stored embedding has the id of the given one, or if the update failed
+     */
+    boolean updateEmbedding(T embedding);
     void deleteEmbedding(Long id);
+
+    /**
+     * Deletes the embeddings with ids from firstId to lastId inclusive, e.g. the chunks of a document,
+     * which are stored with consecutive ids.
+     */
+    default void deleteEmbeddings(long firstId, long lastId) {
+        for (long id = firstId; id <= lastId; id++) {
+            deleteEmbedding(id);
+        }
+    }
+
+    /**
+     * Deletes every embedding of the model, e.g. after switching to another embedding model.
+     */
+    void deleteEmbeddingModel(String embeddingModel);
     List<T> findEmbeddingsNear(T sourceEmbedding, int limit);
+
+    /**
+     * Searches only the rows matching the metadata filter; the rows of other embedding models never match.
+     * Only the matching rows are scored, so narrow filters are cheap even on large tables.
+     */
+    List<T> findEmbeddingsNear(T sourceEmbedding, SearchFilter filter, int limit);
+
+    /**
+     * Searches several query embeddings at once; implementations may score them all in a single pass.
+     * @return the results of each query, in the order of the queries
+     */
+    default List<List<T>> findEmbeddingsNear(List<T> sourceEmbeddings, int limit) {
+        List<List<T>> results = new ArrayList<>(sourceEmbeddings.size());
+        for (T sourceEmbedding : sourceEmbeddings) {
+            results.add(findEmbeddingsNear(sourceEmbedding, limit));
+        }
+        return results;
+    }
 }
\ No newline at end of file
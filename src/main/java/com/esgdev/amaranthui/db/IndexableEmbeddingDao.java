@@ -0,0 +1,34 @@
+package com.esgdev.amaranthui.db;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * An EmbeddingDao that can feed an in-memory vector index.
+ * The index needs to stream every stored vector once when it is loaded, and to
+ * hydrate the few rows that make it into a result set.
+ * @param <T> The type of the embedding object.
+ */
+public interface IndexableEmbeddingDao<T> extends EmbeddingDao<T> {
+    /**
+     * Loads the rows with the given ids. Ids that do not exist are silently skipped.
+     * @param ids the row ids
+     * @return the matching rows, in no particular order
+     */
+    List<T> getEmbeddingsByIds(List<Long> ids);
+
+    /**
+     * Streams every stored embedding of the given model, in ascending id order, without materialising the whole table.
+     * @param embeddingModel the embedding model to filter on
+     * @param consumer receives each row
+     */
+    void forEachEmbedding(String embeddingModel, Consumer<T> consumer);
+
+    /**
+     * Streams the ids of every stored embedding of the given model.
+     * @param embeddingModel the embedding model to filter on
+     * @param consumer receives each id
+     */
+    void forEachEmbeddingId(String embeddingModel, LongConsumer consumer);
+}
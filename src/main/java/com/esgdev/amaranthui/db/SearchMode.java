@@ -0,0 +1,23 @@
+package com.esgdev.amaranthui.db;
+
+/**
+ * How an embedding table scores the rows in a similarity search.
+ */
+public enum SearchMode {
+    /**
+     * Cosine similarity over the full-precision vectors of every row.
+     */
+    EXACT,
+    /**
+     * Integer dot products over the int8 copies of the vectors, then the shortlist is rescored exactly.
+     */
+    INT8,
+    /**
+     * Hamming distance over the sign bits of the vectors, then a larger shortlist is rescored exactly.
+     */
+    BINARY;
+
+    public static SearchMode fromString(String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+}
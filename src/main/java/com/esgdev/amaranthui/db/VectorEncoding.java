@@ -0,0 +1,19 @@
+package com.esgdev.amaranthui.db;
+
+/**
+ * Storage format of the embedding vectors.
+ */
+public enum VectorEncoding {
+    /**
+     * Four bytes per dimension, lossless for the float embeddings of the models.
+     */
+    FLOAT32,
+    /**
+     * Two bytes per dimension, about three significant digits, plenty for unit vectors.
+     */
+    FLOAT16;
+
+    public static VectorEncoding fromString(String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+}
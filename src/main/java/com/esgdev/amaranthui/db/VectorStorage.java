@@ -0,0 +1,19 @@
+package com.esgdev.amaranthui.db;
+
+/**
+ * Where the embedding vectors are kept.
+ */
+public enum VectorStorage {
+    /**
+     * In the embedding column of the H2 tables.
+     */
+    H2,
+    /**
+     * In memory-mapped segment files next to the database, H2 keeps only a pointer to the vector.
+     */
+    SEGMENTS;
+
+    public static VectorStorage fromString(String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,311 @@
+package com.esgdev.amaranthui.db.filter;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongConsumer;
+
+/**
+ * Compressed set of row ids, in the style of a Roaring bitmap.
+ * <p>
+ * Ids are split into a high part, which selects a container, and their low 16 bits, which are stored in it.
+ * A container holds up to 4096 values as a sorted char array and switches to a 65536 bit bitset when it grows
+ * beyond that, so sparse and dense id ranges both stay compact. Intersections work container by container
+ * and only touch the containers both sides have. Not thread safe.
+ */
+public final class IdBitmap {
+    private static final int ARRAY_LIMIT = 4096;
+
+    private final TreeMap<Long, Container> containers = new TreeMap<>();
+
+    public void add(long id) {
+        long key = id >>> 16;
+        Container container = containers.get(key);
+        if (container == null) {
+            container = new ArrayContainer();
+        }
+        containers.put(key, container.add((char) id));
+    }
+
+    public void remove(long id) {
+        long key = id >>> 16;
+        Container container = containers.get(key);
+        if (container == null) {
+            return;
+        }
+        container = container.remove((char) id);
+        if (container.cardinality() == 0) {
+            containers.remove(key);
+        } else {
+            containers.put(key, container);
+        }
+    }
+
+    public boolean contains(long id) {
+        Container container = containers.get(id >>> 16);
+        return container != null && container.contains((char) id);
+    }
+
+    public int cardinality() {
+        int cardinality = 0;
+        for (Container container : containers.values()) {
+            cardinality += container.cardinality();
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return containers.isEmpty();
+    }
+
+    /**
+     * @return a new bitmap of the ids in both bitmaps
+     */
+    public IdBitmap and(IdBitmap other) {
+        IdBitmap smaller = containers.size() <= other.containers.size() ? this : other;
+        IdBitmap larger = smaller == this ? other : this;
+        IdBitmap result = new IdBitmap();
+        for (Map.Entry<Long, Container> entry : smaller.containers.entrySet()) {
+            Container match = larger.containers.get(entry.getKey());
+            if (match != null) {
+                Container container = entry.getValue().and(match);
+                if (container.cardinality() > 0) {
+                    result.containers.put(entry.getKey(), container);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds all ids of the other bitmap to this one.
+     */
+    public void or(IdBitmap other) {
+        for (Map.Entry<Long, Container> entry : other.containers.entrySet()) {
+            Container container = containers.get(entry.getKey());
+            containers.put(entry.getKey(), container == null ? entry.getValue().copy() : container.or(entry.getValue()));
+        }
+    }
+
+    /**
+     * Visits the ids in ascending order.
+     */
+    public void forEach(LongConsumer consumer) {
+        for (Map.Entry<Long, Container> entry : containers.entrySet()) {
+            long high = entry.getKey() << 16;
+            entry.getValue().forEach(high, consumer);
+        }
+    }
+
+    public long[] toArray() {
+        long[] ids = new long[cardinality()];
+        int[] count = new int[1];
+        forEach(id -> ids[count[0]++] = id);
+        return ids;
+    }
+
+    public IdBitmap copy() {
+        IdBitmap copy = new IdBitmap();
+        for (Map.Entry<Long, Container> entry : containers.entrySet()) {
+            copy.containers.put(entry.getKey(), entry.getValue().copy());
+        }
+        return copy;
+    }
+
+    /**
+     * The low 16 bits of the ids sharing one high part. Mutators return the container to keep, which is a
+     * different type when the representation changes.
+     */
+    private interface Container {
+        Container add(char value);
+
+        Container remove(char value);
+
+        boolean contains(char value);
+
+        int cardinality();
+
+        Container and(Container other);
+
+        Container or(Container other);
+
+        void forEach(long high, LongConsumer consumer);
+
+        Container copy();
+    }
+
+    private static final class ArrayContainer implements Container {
+        private char[] values = new char[4];
+        private int size;
+
+        @Override
+        public Container add(char value) {
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index >= 0) {
+                return this;
+            }
+            if (size == ARRAY_LIMIT) {
+                return toBitmap().add(value);
+            }
+            index = -index - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, size * 2));
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = value;
+            size++;
+            return this;
+        }
+
+        @Override
+        public Container remove(char value) {
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index >= 0) {
+                System.arraycopy(values, index + 1, values, index, size - index - 1);
+                size--;
+            }
+            return this;
+        }
+
+        @Override
+        public boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, size, value) >= 0;
+        }
+
+        @Override
+        public int cardinality() {
+            return size;
+        }
+
+        @Override
+        public Container and(Container other) {
+            ArrayContainer result = new ArrayContainer();
+            result.values = new char[size];
+            for (int i = 0; i < size; i++) {
+                if (other.contains(values[i])) {
+                    result.values[result.size++] = values[i];
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public Container or(Container other) {
+            Container result = other.copy();
+            for (int i = 0; i < size; i++) {
+                result = result.add(values[i]);
+            }
+            return result;
+        }
+
+        @Override
+        public void forEach(long high, LongConsumer consumer) {
+            for (int i = 0; i < size; i++) {
+                consumer.accept(high | values[i]);
+            }
+        }
+
+        @Override
+        public Container copy() {
+            ArrayContainer copy = new ArrayContainer();
+            copy.values = Arrays.copyOf(values, Math.max(4, size));
+            copy.size = size;
+            return copy;
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < size; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer implements Container {
+        private final long[] words = new long[1024];
+        private int cardinality;
+
+        @Override
+        public Container add(char value) {
+            long word = words[value >>> 6];
+            long bit = 1L << value;
+            if ((word & bit) == 0) {
+                words[value >>> 6] = word | bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        public Container remove(char value) {
+            long word = words[value >>> 6];
+            long bit = 1L << value;
+            if ((word & bit) != 0) {
+                words[value >>> 6] = word & ~bit;
+                cardinality--;
+            }
+            if (cardinality <= ARRAY_LIMIT / 2) {
+                ArrayContainer array = new ArrayContainer();
+                forEach(0, id -> array.add((char) id));
+                return array;
+            }
+            return this;
+        }
+
+        @Override
+        public boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        public int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        public Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            BitmapContainer bitmap = (BitmapContainer) other;
+            BitmapContainer result = new BitmapContainer();
+            for (int i = 0; i < words.length; i++) {
+                result.words[i] = words[i] & bitmap.words[i];
+                result.cardinality += Long.bitCount(result.words[i]);
+            }
+            if (result.cardinality <= ARRAY_LIMIT) {
+                ArrayContainer array = new ArrayContainer();
+                result.forEach(0, id -> array.add((char) id));
+                return array;
+            }
+            return result;
+        }
+
+        @Override
+        public Container or(Container other) {
+            BitmapContainer result = (BitmapContainer) copy();
+            other.forEach(0, id -> result.add((char) id));
+            return result;
+        }
+
+        @Override
+        public void forEach(long high, LongConsumer consumer) {
+            for (int i = 0; i < words.length; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    consumer.accept(high | (i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        public Container copy() {
+            BitmapContainer copy = new BitmapContainer();
+            System.arraycopy(words, 0, copy.words, 0, words.length);
+            copy.cardinality = cardinality;
+            return copy;
+        }
+    }
+}
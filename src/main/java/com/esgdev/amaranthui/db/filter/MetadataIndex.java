@@ -0,0 +1,212 @@
+package com.esgdev.amaranthui.db.filter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory columnar copy of the metadata of an embedding table, used to resolve a {@link SearchFilter}
+ * to row ids before any vector is scored.
+ * <p>
+ * Every distinct value of the embedding model, topic, role, conversation and user columns has an
+ * {@link IdBitmap} of the rows holding it, and creation dates are bucketed by day. A filter is resolved by
+ * intersecting the bitmaps of its conditions, smallest first, so the cost follows the size of the matching
+ * set rather than the size of the table. The owning DAO keeps the index in sync with its writes.
+ */
+public final class MetadataIndex {
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int MODEL = 0;
+    private static final int TOPIC = 1;
+    private static final int ROLE = 2;
+    private static final int CONVERSATION_ID = 3;
+    private static final int USER_ID = 4;
+    private static final int FIELDS = 5;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Map<Object, IdBitmap>> columns = new ArrayList<>();
+    private final TreeMap<Long, IdBitmap> days = new TreeMap<>();
+    private final Map<Long, Row> rows = new HashMap<>();
+
+    /**
+     * The indexed values of one row, needed to take it out of its bitmaps again.
+     */
+    private static final class Row {
+        private final Object[] values;
+        private final Long created;
+
+        Row(Object[] values, Long created) {
+            this.values = values;
+            this.created = created;
+        }
+    }
+
+    public MetadataIndex() {
+        for (int i = 0; i < FIELDS; i++) {
+            columns.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Indexes a row, replacing what was indexed for its id before.
+     *
+     * @param creationDate the creation date, or null to keep the one already indexed for the row
+     */
+    public void put(long id, String embeddingModel, Date creationDate, String topic, String role, Long conversationId, Long userId) {
+        Object[] values = {embeddingModel, topic, role, conversationId, userId};
+        lock.writeLock().lock();
+        try {
+            Row previous = removeRow(id);
+            Long created = creationDate != null ? Long.valueOf(creationDate.getTime()) : previous != null ? previous.created : null;
+            for (int i = 0; i < FIELDS; i++) {
+                if (values[i] != null) {
+                    columns.get(i).computeIfAbsent(values[i], key -> new IdBitmap()).add(id);
+                }
+            }
+            if (created != null) {
+                days.computeIfAbsent(Math.floorDiv(created, DAY_MILLIS), key -> new IdBitmap()).add(id);
+            }
+            rows.put(id, new Row(values, created));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            removeRow(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeAll(IdBitmap ids) {
+        lock.writeLock().lock();
+        try {
+            ids.forEach(this::removeRow);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            columns.forEach(Map::clear);
+            days.clear();
+            rows.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rows.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param filter the metadata conditions, or null for all rows of the model
+     * @return the ids of the rows of the model that match the filter
+     */
+    public IdBitmap match(String embeddingModel, SearchFilter filter) {
+        lock.readLock().lock();
+        try {
+            List<IdBitmap> conditions = new ArrayList<>();
+            conditions.add(lookup(MODEL, embeddingModel));
+            if (filter != null) {
+                if (filter.getTopic() != null) {
+                    conditions.add(lookup(TOPIC, filter.getTopic()));
+                }
+                if (filter.getRole() != null) {
+                    conditions.add(lookup(ROLE, filter.getRole()));
+                }
+                if (filter.getConversationId() != null) {
+                    conditions.add(lookup(CONVERSATION_ID, filter.getConversationId()));
+                }
+                if (filter.getUserId() != null) {
+                    conditions.add(lookup(USER_ID, filter.getUserId()));
+                }
+            }
+            conditions.sort(Comparator.comparingInt(IdBitmap::cardinality));
+            IdBitmap result = conditions.get(0).copy();
+            for (int i = 1; i < conditions.size() && !result.isEmpty(); i++) {
+                result = result.and(conditions.get(i));
+            }
+            if (filter != null && (filter.getCreatedFrom() != null || filter.getCreatedTo() != null) && !result.isEmpty()) {
+                result = result.and(createdBetween(filter.getCreatedFrom(), filter.getCreatedTo()));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private IdBitmap lookup(int field, Object value) {
+        IdBitmap bitmap = columns.get(field).get(value);
+        return bitmap != null ? bitmap : new IdBitmap();
+    }
+
+    /**
+     * Whole days inside the range contribute their bitmap as is; only the rows of the two boundary days
+     * are compared with the exact bounds.
+     */
+    private IdBitmap createdBetween(Date from, Date to) {
+        long start = from != null ? from.getTime() : Long.MIN_VALUE;
+        long end = to != null ? to.getTime() : Long.MAX_VALUE;
+        IdBitmap range = new IdBitmap();
+        if (start > end) {
+            return range;
+        }
+        for (Map.Entry<Long, IdBitmap> day : days.subMap(Math.floorDiv(start, DAY_MILLIS), true, Math.floorDiv(end, DAY_MILLIS), true).entrySet()) {
+            long dayStart = day.getKey() * DAY_MILLIS;
+            if (dayStart >= start && dayStart + DAY_MILLIS - 1 <= end) {
+                range.or(day.getValue());
+            } else {
+                day.getValue().forEach(id -> {
+                    long created = rows.get(id).created;
+                    if (created >= start && created <= end) {
+                        range.add(id);
+                    }
+                });
+            }
+        }
+        return range;
+    }
+
+    private Row removeRow(long id) {
+        Row row = rows.remove(id);
+        if (row == null) {
+            return null;
+        }
+        for (int i = 0; i < FIELDS; i++) {
+            if (row.values[i] != null) {
+                Map<Object, IdBitmap> column = columns.get(i);
+                IdBitmap bitmap = column.get(row.values[i]);
+                bitmap.remove(id);
+                if (bitmap.isEmpty()) {
+                    column.remove(row.values[i]);
+                }
+            }
+        }
+        if (row.created != null) {
+            long key = Math.floorDiv(row.created, DAY_MILLIS);
+            IdBitmap bitmap = days.get(key);
+            bitmap.remove(id);
+            if (bitmap.isEmpty()) {
+                days.remove(key);
+            }
+        }
+        return row;
+    }
+}
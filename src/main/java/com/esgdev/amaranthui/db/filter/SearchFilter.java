@@ -0,0 +1,76 @@
+package com.esgdev.amaranthui.db.filter;
+
+import java.util.Date;
+
+/**
+ * Metadata conditions of a similarity search, on top of the embedding model of the query.
+ * Conditions left null match every row; the creation date range includes both ends.
+ */
+public class SearchFilter {
+    private String topic;
+    private String role;
+    private Long conversationId;
+    private Long userId;
+    private Date createdFrom;
+    private Date createdTo;
+
+    public SearchFilter() {
+    }
+
+    /**
+     * @return a filter for the chunks of one conversation
+     */
+    public static SearchFilter conversation(Long conversationId) {
+        SearchFilter filter = new SearchFilter();
+        filter.setConversationId(conversationId);
+        return filter;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public void setRole(String role) {
+        this.role = role;
+    }
+
+    public Long getConversationId() {
+        return conversationId;
+    }
+
+    public void setConversationId(Long conversationId) {
+        this.conversationId = conversationId;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public Date getCreatedFrom() {
+        return createdFrom;
+    }
+
+    public void setCreatedFrom(Date createdFrom) {
+        this.createdFrom = createdFrom;
+    }
+
+    public Date getCreatedTo() {
+        return createdTo;
+    }
+
+    public void setCreatedTo(Date createdTo) {
+        this.createdTo = createdTo;
+    }
+}
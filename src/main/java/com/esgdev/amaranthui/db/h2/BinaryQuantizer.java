@@ -0,0 +1,38 @@
+package com.esgdev.amaranthui.db.h2;
+
+import com.esgdev.amaranthui.engine.embedding.EmbeddingVector;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Sign hashing of embeddings to one bit per dimension, packed into longs.
+ * <p>
+ * Bit i of the code is set when dimension i is positive. The number of differing bits of two codes
+ * (their Hamming distance) grows with the angle between the vectors, which makes it a cheap first
+ * stage before an exact rerank. A 768 dimensional vector becomes 96 bytes.
+ */
+final class BinaryQuantizer {
+
+    private BinaryQuantizer() {
+    }
+
+    static byte[] encode(List<Double> embedding) {
+        return encode(EmbeddingVector.of(embedding));
+    }
+
+    static byte[] encode(EmbeddingVector embedding) {
+        int dimension = embedding.dimension();
+        long[] words = new long[(dimension + 63) / 64];
+        for (int i = 0; i < dimension; i++) {
+            if (embedding.get(i) > 0f) {
+                words[i >>> 6] |= 1L << (i & 63);
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(words.length * Long.BYTES);
+        for (long word : words) {
+            buffer.putLong(word);
+        }
+        return buffer.array();
+    }
+}
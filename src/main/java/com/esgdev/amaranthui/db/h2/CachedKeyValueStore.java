@@ -0,0 +1,135 @@
+package com.esgdev.amaranthui.db.h2;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+/**
+ * Write-through cache in front of the key-value store.
+ * <p>
+ * The whole key_value_store table is loaded once, and reads are served from memory. A write goes to H2 first
+ * and only updates the cache once it is stored, so the cache never shows a value that was not persisted.
+ * Components that mirror a stored setting, e.g. the configured chat model, bind a listener to its key
+ * instead of being updated by hand after every write.
+ */
+public class CachedKeyValueStore {
+    private final KeyValueStoreDaoH2 dao;
+    private final Map<String, String> values;
+    private final Map<String, List<ChangeListener>> listeners = new ConcurrentHashMap<>();
+    private final Logger logger = Logger.getLogger(CachedKeyValueStore.class.getName());
+
+    /**
+     * Told about the new value of a key after it was stored.
+     */
+    public interface ChangeListener {
+        void changed(String value);
+    }
+
+    public CachedKeyValueStore(KeyValueStoreDaoH2 dao) {
+        this.dao = dao;
+        this.values = new ConcurrentHashMap<>(dao.getAllValues());
+        logger.fine("Loaded " + values.size() + " stored values");
+    }
+
+    /**
+     * @return the stored value, or null if there is none
+     */
+    public String getValue(String key) {
+        return values.get(key);
+    }
+
+    /**
+     * @return the stored value, or the default if there is none or it is empty
+     */
+    public String getValue(String key, String defaultValue) {
+        String value = values.get(key);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = values.get(key);
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warning("Stored value of " + key + " is not an integer: " + value);
+            return defaultValue;
+        }
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        String value = values.get(key);
+        try {
+            return value == null ? defaultValue : Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warning("Stored value of " + key + " is not a number: " + value);
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = values.get(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * Stores the value in H2, then in the cache, and notifies the listeners of the key if it changed.
+     *
+     * @return false if the value could not be stored; the cache keeps the old value then
+     */
+    public boolean saveValue(String key, String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null.");
+        }
+        // Writes and their notifications are serialized, so listeners see the changes in the order they were stored
+        synchronized (this) {
+            if (!dao.saveValue(key, value)) {
+                return false;
+            }
+            String previous = values.put(key, value);
+            if (!Objects.equals(previous, value)) {
+                for (ChangeListener listener : listeners.getOrDefault(key, List.of())) {
+                    listener.changed(value);
+                }
+            }
+        }
+        return true;
+    }
+
+    public boolean saveInt(String key, int value) {
+        return saveValue(key, String.valueOf(value));
+    }
+
+    public boolean saveDouble(String key, double value) {
+        return saveValue(key, String.valueOf(value));
+    }
+
+    public boolean saveBoolean(String key, boolean value) {
+        return saveValue(key, String.valueOf(value));
+    }
+
+    public void addChangeListener(String key, ChangeListener listener) {
+        listeners.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    public void removeChangeListener(String key, ChangeListener listener) {
+        List<ChangeListener> keyListeners = listeners.get(key);
+        if (keyListeners != null) {
+            keyListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Keeps a setting in sync with the store: applies the stored value right away, if there is a non-empty
+     * one, and every later change.
+     */
+    public void bind(String key, ChangeListener listener) {
+        String value = values.get(key);
+        if (value != null && !value.isEmpty()) {
+            listener.changed(value);
+        }
+        addChangeListener(key, listener);
+    }
+}
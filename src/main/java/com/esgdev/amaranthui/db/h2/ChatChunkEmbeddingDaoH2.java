@@ -1,50 +1,97 @@
 package com.esgdev.amaranthui.db.h2;
 
+import com.esgdev.amaranthui.db.IndexableEmbeddingDao;
+import com.esgdev.amaranthui.db.SearchMode;
+import com.esgdev.amaranthui.db.VectorEncoding;
+import com.esgdev.amaranthui.db.filter.IdBitmap;
+import com.esgdev.amaranthui.db.filter.MetadataIndex;
+import com.esgdev.amaranthui.db.filter.SearchFilter;
+import com.esgdev.amaranthui.db.index.ParallelSearch;
+import com.esgdev.amaranthui.db.index.ScoredId;
 import com.esgdev.amaranthui.engine.embedding.ChatChunkEmbedding;
-import com.esgdev.amaranthui.db.EmbeddingDao;
 import com.esgdev.amaranthui.engine.embedding.EmbeddingConfiguration;
 
+import javax.sql.DataSource;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 import java.util.logging.Logger;
 
 /**
  * H2 implementation of the EmbeddingDao interface for ChatChunkEmbedding.
  * This class handles the database operations for storing and retrieving chat chunk embeddings.
+ * The rows of each embedding model live in their own partition table (see {@link ModelPartitions}).
  */
-public class ChatChunkEmbeddingDaoH2 implements EmbeddingDao<ChatChunkEmbedding> {
+public class ChatChunkEmbeddingDaoH2 implements IndexableEmbeddingDao<ChatChunkEmbedding> {
+    private static final String PARTITION_COLUMNS = """
+            chunk VARCHAR NOT NULL,
+            embedding VARBINARY,
+            creation_date TIMESTAMP NOT NULL,
+            last_accessed TIMESTAMP NOT NULL,
+            embedding_model VARCHAR NOT NULL,
+            conversation_id BIGINT,
+            user_id BIGINT,
+            role VARCHAR,
+            reply_to_chunk_id BIGINT,
+            topic VARCHAR,
+            embedding_q8 VARBINARY,
+            embedding_bits VARBINARY,
+            norm DOUBLE,
+            segment_id INT,
+            segment_offset BIGINT,
+            time_segment BIGINT
+            """;
+
     private final EmbeddingConfiguration config;
+    private final DataSource dataSource;
+    private final ModelPartitions partitions;
+    private final SegmentStorage segments;
+    private final TimeSegments timeSegments;
+    private final MetadataIndex metadata = new MetadataIndex();
     Logger logger = Logger.getLogger(ChatChunkEmbeddingDaoH2.class.getName());
 
     public ChatChunkEmbeddingDaoH2(EmbeddingConfiguration config) {
+        this(config, new ConnectionPool(config.getJdbcUrl(), config.getJdbcUser(), config.getJdbcPassword(), config.getSearchParallelism()));
+    }
+
+    /**
+     * @param dataSource the connections to use, usually a {@link ConnectionPool} shared with the other DAOs
+     */
+    public ChatChunkEmbeddingDaoH2(EmbeddingConfiguration config, DataSource dataSource) {
         this.config = config;
+        this.dataSource = dataSource;
+        this.partitions = new ModelPartitions("chat_chunk_embeddings", PARTITION_COLUMNS, logger);
+        this.segments = new SegmentStorage(config, partitions, this::getConnection, logger);
+        this.timeSegments = new TimeSegments(config.getTimeSegmentDays(), logger);
         initializeDatabase();
     }
 
     private Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(config.getJdbcUrl(), config.getJdbcUser(), config.getJdbcPassword());
+        return dataSource.getConnection();
     }
 
     private void initializeDatabase() {
-        String createTableSQL = """
-                CREATE TABLE IF NOT EXISTS chat_chunk_embeddings (
-                    id BIGINT PRIMARY KEY AUTO_INCREMENT,
-                    chunk VARCHAR NOT NULL,
-                    embedding DOUBLE ARRAY NOT NULL,
-                    creation_date TIMESTAMP NOT NULL,
-                    last_accessed TIMESTAMP NOT NULL,
-                    embedding_model VARCHAR NOT NULL,
-                    conversation_id BIGINT,
-                    user_id BIGINT,
-                    role VARCHAR,
-                    reply_to_chunk_id BIGINT,
-                    topic VARCHAR -- New column for topic
-                );
-                """;
-        try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement()) {
-            stmt.execute(createTableSQL);
+        try (Connection conn = getConnection()) {
+            EmbeddingSchema.registerVectorFunctions(conn);
+            if (partitions.initialize(conn)) {
+                // The single table of an older version: bring its columns up to date, then split it by model
+                EmbeddingSchema.migrateColumns(conn, "chat_chunk_embeddings", config.getVectorEncoding(), config.getSearchMode("chat_chunk_embeddings"), logger);
+                partitions.split(conn);
+            }
+            for (ModelPartitions.Partition partition : partitions.all()) {
+                EmbeddingSchema.migrateColumns(conn, partition.getTable(), config.getVectorEncoding(), config.getSearchMode("chat_chunk_embeddings"), logger);
+            }
+            segments.migrate(conn);
+            for (ModelPartitions.Partition partition : partitions.all()) {
+                timeSegments.prepare(conn, partition, segments);
+            }
+            loadMetadata(conn);
         } catch (SQLException e) {
             throw new RuntimeException("Failed to initialize database schema", e);
         }
@@ -52,41 +99,78 @@ public class ChatChunkEmbeddingDaoH2 implements EmbeddingDao<ChatChunkEmbedding>
 
     @Override
     public void addEmbedding(ChatChunkEmbedding embedding) {
-        String sql = """
-                INSERT INTO chat_chunk_embeddings 
-                (chunk, embedding, creation_date, last_accessed, embedding_model, conversation_id, user_id, role, reply_to_chunk_id, topic) 
-                VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?);
-                """;
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            stmt.setString(1, embedding.getChunk());
-            stmt.setArray(2, conn.createArrayOf("DOUBLE", embedding.getEmbedding().toArray()));
-            stmt.setTimestamp(3, new Timestamp(embedding.getCreationDate().getTime()));
-            stmt.setTimestamp(4, new Timestamp(embedding.getLastAccessed().getTime()));
-            stmt.setString(5, embedding.getEmbeddingModel());
-            stmt.setObject(6, embedding.getConversationId());
-            stmt.setObject(7, embedding.getUserId());
-            stmt.setString(8, embedding.getRole());
-            stmt.setObject(9, embedding.getReplyToChunkId());
-            stmt.setString(10, embedding.getTopic());
-            stmt.executeUpdate();
+        List<ChatChunkEmbedding> embeddings = new ArrayList<>();
+        embeddings.add(embedding);
+        addEmbedding(embeddings);
+    }
+
+    @Override
+    public boolean addEmbedding(List<ChatChunkEmbedding> embeddings) {
+        Map<String, List<ChatChunkEmbedding>> byModel = new LinkedHashMap<>();
+        for (ChatChunkEmbedding embedding : embeddings) {
+            byModel.computeIfAbsent(embedding.getEmbeddingModel(), key -> new ArrayList<>()).add(embedding);
+        }
+        try (Connection conn = getConnection()) {
+            // Partitions are created first, since creating a table would commit the open transaction
+            Map<ModelPartitions.Partition, List<ChatChunkEmbedding>> byPartition = new LinkedHashMap<>();
+            for (List<ChatChunkEmbedding> modelEmbeddings : byModel.values()) {
+                ChatChunkEmbedding first = modelEmbeddings.get(0);
+                byPartition.put(partitions.forWrite(conn, first.getEmbeddingModel(), first.getVector().dimension()), modelEmbeddings);
+            }
+            Map<ModelPartitions.Partition, Set<Long>> written = new LinkedHashMap<>();
+            conn.setAutoCommit(false);
+            try {
+                for (Map.Entry<ModelPartitions.Partition, List<ChatChunkEmbedding>> entry : byPartition.entrySet()) {
+                    written.put(entry.getKey(), insert(conn, entry.getKey(), entry.getValue()));
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                embeddings.forEach(embedding -> embedding.setId(null));
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            // Only committed rows are indexed, have their vectors appended to the segments and are counted in the time segments
+            for (Map.Entry<ModelPartitions.Partition, List<ChatChunkEmbedding>> entry : byPartition.entrySet()) {
+                try {
+                    segments.append(conn, entry.getKey(), entry.getValue());
+                    timeSegments.refresh(conn, entry.getKey(), segments, written.get(entry.getKey()));
+                } catch (SQLException e) {
+                    // Rows without their vectors would never be found, so the batch is undone
+                    for (Map.Entry<ModelPartitions.Partition, List<ChatChunkEmbedding>> stored : byPartition.entrySet()) {
+                        for (ChatChunkEmbedding embedding : stored.getValue()) {
+                            delete(conn, stored.getKey(), embedding.getId());
+                            embedding.setId(null);
+                        }
+                    }
+                    throw e;
+                }
+            }
+            for (ChatChunkEmbedding embedding : embeddings) {
+                index(embedding, embedding.getCreationDate());
+            }
+            return true;
         } catch (SQLException e) {
-            logger.log(java.util.logging.Level.SEVERE, "Failed to add embedding", e);
+            logger.log(java.util.logging.Level.SEVERE, "Failed to add embeddings", e);
+            return false;
         }
     }
 
-    @Override
-    public void addEmbedding(List<ChatChunkEmbedding> embeddings) {
+    /**
+     * @return the time segments written to
+     */
+    private Set<Long> insert(Connection conn, ModelPartitions.Partition partition, List<ChatChunkEmbedding> embeddings) throws SQLException {
+        Set<Long> written = new TreeSet<>();
         String sql = """
-                INSERT INTO chat_chunk_embeddings 
-                (chunk, embedding, creation_date, last_accessed, embedding_model, conversation_id, user_id, role, reply_to_chunk_id, topic) 
-                VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?);
-                """;
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+                INSERT INTO %s
+                (chunk, embedding, creation_date, last_accessed, embedding_model, conversation_id, user_id, role, reply_to_chunk_id, topic, embedding_q8, embedding_bits, norm, time_segment)
+                VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);
+                """.formatted(partition.getTable());
+        try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             for (ChatChunkEmbedding embedding : embeddings) {
                 stmt.setString(1, embedding.getChunk());
-                stmt.setArray(2, conn.createArrayOf("DOUBLE", embedding.getEmbedding().toArray()));
+                setVector(stmt, 2, embedding);
                 stmt.setTimestamp(3, new Timestamp(embedding.getCreationDate().getTime()));
                 stmt.setTimestamp(4, new Timestamp(embedding.getLastAccessed().getTime()));
                 stmt.setString(5, embedding.getEmbeddingModel());
@@ -95,60 +179,305 @@ public class ChatChunkEmbeddingDaoH2 implements EmbeddingDao<ChatChunkEmbedding>
                 stmt.setString(8, embedding.getRole());
                 stmt.setObject(9, embedding.getReplyToChunkId());
                 stmt.setString(10, embedding.getTopic());
+                setCodes(stmt, 11, embedding);
+                stmt.setDouble(13, embedding.getVector().norm());
+                if (timeSegments.isEnabled()) {
+                    long segment = timeSegments.segmentOf(embedding.getCreationDate());
+                    written.add(segment);
+                    stmt.setLong(14, segment);
+                } else {
+                    stmt.setNull(14, Types.BIGINT);
+                }
                 stmt.addBatch();
             }
             stmt.executeBatch();
-        } catch (SQLException e) {
-            logger.log(java.util.logging.Level.SEVERE, "Failed to add embeddings", e);
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                for (int i = 0; i < embeddings.size() && keys.next(); i++) {
+                    embeddings.get(i).setId(keys.getLong(1));
+                }
+            }
         }
+        return written;
     }
 
     @Override
-    public void updateEmbedding(ChatChunkEmbedding embedding) {
-        String sql = """
-                UPDATE chat_chunk_embeddings
-                SET chunk = ?, embedding = ?, last_accessed = ?, embedding_model = ?,
-                    conversation_id = ?, user_id = ?, role = ?, reply_to_chunk_id = ?, topic = ?
-                WHERE id = ?;
-                """;
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, embedding.getChunk());
-            stmt.setArray(2, conn.createArrayOf("DOUBLE", embedding.getEmbedding().toArray()));
-            stmt.setTimestamp(3, new Timestamp(embedding.getLastAccessed().getTime()));
-            stmt.setString(4, embedding.getEmbeddingModel());
-            stmt.setObject(5, embedding.getConversationId());
-            stmt.setObject(6, embedding.getUserId());
-            stmt.setString(7, embedding.getRole());
-            stmt.setObject(8, embedding.getReplyToChunkId());
-            stmt.setLong(9, embedding.getId());
-            stmt.setString(10, embedding.getTopic()); // Set topic
-            stmt.executeUpdate();
+    public boolean updateEmbedding(ChatChunkEmbedding embedding) {
+        try (Connection conn = getConnection()) {
+            ModelPartitions.Partition partition = partitions.forWrite(conn, embedding.getEmbeddingModel(), embedding.getVector().dimension());
+            String sql = """
+                    UPDATE %s
+                    SET chunk = ?, embedding = ?, last_accessed = ?, embedding_model = ?,
+                        conversation_id = ?, user_id = ?, role = ?, reply_to_chunk_id = ?, topic = ?, embedding_q8 = ?, embedding_bits = ?, norm = ?
+                    WHERE id = ?;
+                    """.formatted(partition.getTable());
+            int updated;
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                setColumns(stmt, embedding);
+                stmt.setLong(13, embedding.getId());
+                updated = stmt.executeUpdate();
+            }
+            if (updated == 0 && !move(conn, embedding, partition)) {
+                logger.warning("No embedding with id " + embedding.getId() + " to update");
+                return false;
+            }
+            // The creation date is not updated, so the indexed one stays
+            index(embedding, null);
+            segments.append(conn, partition, List.of(embedding));
+            timeSegments.refresh(conn, partition, segments, timeSegments.segmentsOf(conn, partition, List.of(embedding.getId())));
+            return true;
         } catch (SQLException e) {
             logger.log(java.util.logging.Level.SEVERE, "Failed to update embeddings", e);
+            return false;
         }
     }
 
+    /**
+     * Moves a row whose embedding model changed to the partition of the new model, keeping its id and creation date.
+     * @return false if no partition holds the row
+     */
+    private boolean move(Connection conn, ChatChunkEmbedding embedding, ModelPartitions.Partition target) throws SQLException {
+        ModelPartitions.Partition source = partitions.holding(conn, embedding.getId());
+        if (source == null) {
+            return false;
+        }
+        String sql = """
+                INSERT INTO %s
+                (chunk, embedding, last_accessed, embedding_model, conversation_id, user_id, role, reply_to_chunk_id, topic, embedding_q8, embedding_bits, norm, id, creation_date, time_segment)
+                SELECT ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, id, creation_date, time_segment FROM %s WHERE id = ?;
+                """.formatted(target.getTable(), source.getTable());
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            setColumns(stmt, embedding);
+            stmt.setLong(13, embedding.getId());
+            if (stmt.executeUpdate() == 0) {
+                return false;
+            }
+        }
+        delete(conn, source, embedding.getId());
+        return true;
+    }
+
+    /**
+     * Binds the updatable columns, in the order of the UPDATE statement.
+     */
+    private void setColumns(PreparedStatement stmt, ChatChunkEmbedding embedding) throws SQLException {
+        stmt.setString(1, embedding.getChunk());
+        setVector(stmt, 2, embedding);
+        stmt.setTimestamp(3, new Timestamp(embedding.getLastAccessed().getTime()));
+        stmt.setString(4, embedding.getEmbeddingModel());
+        stmt.setObject(5, embedding.getConversationId());
+        stmt.setObject(6, embedding.getUserId());
+        stmt.setString(7, embedding.getRole());
+        stmt.setObject(8, embedding.getReplyToChunkId());
+        stmt.setString(9, embedding.getTopic());
+        setCodes(stmt, 10, embedding);
+        stmt.setDouble(12, embedding.getVector().norm());
+    }
+
+    /**
+     * Binds the packed vector, or NULL if it goes to the segment store once the row is written.
+     */
+    private void setVector(PreparedStatement stmt, int index, ChatChunkEmbedding embedding) throws SQLException {
+        if (segments.isEnabled()) {
+            stmt.setNull(index, Types.VARBINARY);
+        } else {
+            stmt.setBytes(index, VectorCodec.encode(embedding.getVector().normalize(), config.getVectorEncoding()));
+        }
+    }
+
+    /**
+     * Binds the int8 code and the binary code, each only if the search mode of the table reads it.
+     */
+    private void setCodes(PreparedStatement stmt, int index, ChatChunkEmbedding embedding) throws SQLException {
+        SearchMode searchMode = config.getSearchMode("chat_chunk_embeddings");
+        stmt.setBytes(index, searchMode == SearchMode.INT8 ? Int8Quantizer.encode(embedding.getVector()) : null);
+        stmt.setBytes(index + 1, searchMode == SearchMode.BINARY ? BinaryQuantizer.encode(embedding.getVector()) : null);
+    }
+
     @Override
     public void deleteEmbedding(Long id) {
-        String sql = "DELETE FROM chat_chunk_embeddings WHERE id = ?";
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (Connection conn = getConnection()) {
+            ModelPartitions.Partition partition = partitions.holding(conn, id);
+            if (partition != null) {
+                delete(conn, partition, id);
+            }
+            metadata.remove(id);
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to delete embeddings", e);
+        }
+    }
+
+    private void delete(Connection conn, ModelPartitions.Partition partition, long id) throws SQLException {
+        Set<Long> written = timeSegments.segmentsOf(conn, partition, List.of(id));
+        segments.delete(partition.getModel(), id);
+        try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM " + partition.getTable() + " WHERE id = ?")) {
             stmt.setLong(1, id);
             stmt.executeUpdate();
+        }
+        timeSegments.refresh(conn, partition, segments, written);
+    }
+
+    /**
+     * Deletes the rows with ids from firstId to lastId inclusive with one statement per partition.
+     */
+    @Override
+    public void deleteEmbeddings(long firstId, long lastId) {
+        try (Connection conn = getConnection()) {
+            for (ModelPartitions.Partition partition : partitions.all()) {
+                deleteBetween(conn, partition, firstId, lastId);
+            }
+            IdBitmap deleted = new IdBitmap();
+            for (long id = firstId; id <= lastId; id++) {
+                deleted.add(id);
+            }
+            metadata.removeAll(deleted);
         } catch (SQLException e) {
             logger.log(java.util.logging.Level.SEVERE, "Failed to delete embeddings", e);
         }
     }
 
+    private void deleteBetween(Connection conn, ModelPartitions.Partition partition, long firstId, long lastId) throws SQLException {
+        List<Long> ids = segments.isEnabled() || timeSegments.isEnabled()
+                ? ModelPartitions.idsBetween(conn, partition, firstId, lastId) : List.of();
+        Set<Long> written = timeSegments.segmentsOf(conn, partition, ids);
+        for (long id : ids) {
+            segments.delete(partition.getModel(), id);
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM " + partition.getTable() + " WHERE id BETWEEN ? AND ?")) {
+            stmt.setLong(1, firstId);
+            stmt.setLong(2, lastId);
+            stmt.executeUpdate();
+        }
+        timeSegments.refresh(conn, partition, segments, written);
+    }
+
+    /**
+     * Drops the partition of the model with all its rows, e.g. after switching to another embedding model.
+     */
+    @Override
+    public void deleteEmbeddingModel(String embeddingModel) {
+        try (Connection conn = getConnection()) {
+            ModelPartitions.Partition partition = partitions.drop(conn, embeddingModel);
+            if (partition != null) {
+                timeSegments.drop(conn, partition);
+                segments.drop(embeddingModel);
+                metadata.removeAll(metadata.match(embeddingModel, null));
+            }
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to delete embedding model", e);
+        }
+    }
+
     @Override
     public List<ChatChunkEmbedding> findEmbeddingsNear(ChatChunkEmbedding sourceEmbedding, int limit) {
+        ModelPartitions.Partition partition;
+        try {
+            partition = partitions.find(this::getConnection, sourceEmbedding.getEmbeddingModel());
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to find similar embeddings", e);
+            return new ArrayList<>();
+        }
+        if (partition == null) {
+            return new ArrayList<>();
+        }
+        if (segments.isEnabled()) {
+            return hydrate(partition.getTable(), segments.search(sourceEmbedding.getEmbeddingModel(), sourceEmbedding.getVector(), limit));
+        }
+        SearchMode searchMode = config.getSearchMode("chat_chunk_embeddings");
+        if (searchMode != SearchMode.EXACT) {
+            return findEmbeddingsNearQuantized(partition, sourceEmbedding, limit, searchMode);
+        }
+        if (timeSegments.isEnabled()) {
+            try {
+                return hydrate(partition.getTable(), timeSegments.search(this::getConnection, partition, segments,
+                        sourceEmbedding.getVector().normalize().toArray(), limit, null, null, ParallelSearch.of(config.getSearchParallelism())));
+            } catch (SQLException e) {
+                logger.log(java.util.logging.Level.SEVERE, "Failed to find similar embeddings", e);
+                return new ArrayList<>();
+            }
+        }
+        if (config.getSearchParallelism() > 1) {
+            try {
+                return hydrate(partition.getTable(), PartitionedScan.search(this::getConnection, "chat_chunk_embeddings", partition,
+                        VectorCodec.encode(sourceEmbedding.getVector().normalize(), VectorEncoding.FLOAT32), limit,
+                        ParallelSearch.of(config.getSearchParallelism())));
+            } catch (SQLException e) {
+                logger.log(java.util.logging.Level.SEVERE, "Failed to find similar embeddings", e);
+                return new ArrayList<>();
+            }
+        }
+        // TOP_K keeps only the best rows while it scans, so only those are joined back and sorted
         String sql = """
-                WITH Similarities AS (
-                    SELECT id, chunk, embedding, creation_date, last_accessed, conversation_id, user_id, role, reply_to_chunk_id, embedding_model, topic,
-                           COSINE_SIMILARITY(embedding, ?) AS similarity
-                    FROM chat_chunk_embeddings
-                    WHERE embedding_model = ? -- Filter by the current embedding model
+                SELECT e.id, e.chunk, e.embedding, e.creation_date, e.last_accessed, e.conversation_id, e.user_id, e.role,
+                       e.reply_to_chunk_id, e.embedding_model, e.topic, t.score AS similarity
+                FROM TOP_K('chat_chunk_embeddings', ?, ?, ?) t
+                JOIN %s e ON e.id = t.id
+                ORDER BY t.score DESC;
+                """.formatted(partition.getTable());
+
+        List<ChatChunkEmbedding> similarEmbeddings = new ArrayList<>();
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, sourceEmbedding.getEmbeddingModel()); // Selects the partition to scan
+            // Pack the normalized query like the stored vectors, in full precision
+            stmt.setBytes(2, VectorCodec.encode(sourceEmbedding.getVector().normalize(), VectorEncoding.FLOAT32));
+            stmt.setInt(3, limit);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    similarEmbeddings.add(mapResultSetToChatChunkEmbedding(rs));
+                }
+            }
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to find similar embeddings", e);
+        }
+        return similarEmbeddings;
+    }
+
+    /**
+     * Resolves the filter on the metadata bitmaps first, then scores only the vectors of the matching rows.
+     * A filter on the creation date alone is searched in the time segments of the range instead.
+     */
+    @Override
+    public List<ChatChunkEmbedding> findEmbeddingsNear(ChatChunkEmbedding sourceEmbedding, SearchFilter filter, int limit) {
+        try {
+            ModelPartitions.Partition partition = partitions.find(this::getConnection, sourceEmbedding.getEmbeddingModel());
+            if (partition == null) {
+                return new ArrayList<>();
+            }
+            if (timeSegments.isEnabled() && filter != null && filter.getTopic() == null && filter.getRole() == null
+                    && filter.getConversationId() == null && filter.getUserId() == null) {
+                return hydrate(partition.getTable(), timeSegments.search(this::getConnection, partition, segments,
+                        sourceEmbedding.getVector().normalize().toArray(), limit, filter.getCreatedFrom(), filter.getCreatedTo(),
+                        ParallelSearch.of(config.getSearchParallelism())));
+            }
+            IdBitmap matches = metadata.match(sourceEmbedding.getEmbeddingModel(), filter);
+            return hydrate(partition.getTable(), FilteredScan.search(this::getConnection, partition.getTable(), segments, matches,
+                    sourceEmbedding.getVector().normalize().toArray(), limit, ParallelSearch.of(config.getSearchParallelism())));
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to find similar embeddings", e);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Two-phase search: ranks every row by a cheap score over a quantized column, then rescores the
+     * shortlist with the full-precision vectors.
+     */
+    private List<ChatChunkEmbedding> findEmbeddingsNearQuantized(ModelPartitions.Partition partition, ChatChunkEmbedding sourceEmbedding,
+                                                                 int limit, SearchMode searchMode) {
+        String sql = """
+                WITH Candidates AS (
+                    SELECT id
+                    FROM %1$s
+                    WHERE %2$s IS NOT NULL
+                    ORDER BY %3$s
+                    LIMIT ?
+                ), Similarities AS (
+                    SELECT e.id, e.chunk, e.embedding, e.creation_date, e.last_accessed, e.conversation_id, e.user_id, e.role,
+                           e.reply_to_chunk_id, e.embedding_model, e.topic,
+                           PACKED_DOT_PRODUCT(e.embedding, ?) AS similarity
+                    FROM %1$s e
+                    JOIN Candidates c ON e.id = c.id
                 )
                 SELECT id, chunk, embedding, creation_date, last_accessed, conversation_id, user_id, role, reply_to_chunk_id, embedding_model, topic, similarity
                 FROM Similarities
@@ -156,15 +485,18 @@ public class ChatChunkEmbeddingDaoH2 implements EmbeddingDao<ChatChunkEmbedding>
                 ORDER BY similarity DESC
                 LIMIT ?;
                 """;
+        boolean binary = searchMode == SearchMode.BINARY;
+        sql = String.format(sql, partition.getTable(), binary ? "embedding_bits" : "embedding_q8",
+                binary ? "HAMMING_DISTANCE(embedding_bits, ?) ASC" : "INT8_SIMILARITY(embedding_q8, ?) DESC");
 
         List<ChatChunkEmbedding> similarEmbeddings = new ArrayList<>();
         try (Connection conn = getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
-            // Convert sourceEmbedding's embedding to SQL array
-            Array embeddingArray = conn.createArrayOf("DOUBLE", sourceEmbedding.getEmbedding().toArray());
-            stmt.setObject(1, embeddingArray);
-            stmt.setString(2, sourceEmbedding.getEmbeddingModel()); // Set the embedding model filter
-            stmt.setInt(3, limit);
+            stmt.setBytes(1, binary ? BinaryQuantizer.encode(sourceEmbedding.getVector())
+                    : Int8Quantizer.encode(sourceEmbedding.getVector()));
+            stmt.setInt(2, limit * (binary ? config.getBinaryRerankFactor() : config.getRerankFactor()));
+            stmt.setBytes(3, VectorCodec.encode(sourceEmbedding.getVector().normalize(), VectorEncoding.FLOAT32));
+            stmt.setInt(4, limit);
 
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
@@ -179,13 +511,15 @@ public class ChatChunkEmbeddingDaoH2 implements EmbeddingDao<ChatChunkEmbedding>
 
     @Override
     public ChatChunkEmbedding getEmbeddingById(Long id) {
-        String sql = "SELECT * FROM chat_chunk_embeddings WHERE id = ?";
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, id);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return mapResultSetToChatChunkEmbedding(rs);
+        try (Connection conn = getConnection()) {
+            for (ModelPartitions.Partition partition : partitions.all()) {
+                try (PreparedStatement stmt = conn.prepareStatement("SELECT * FROM " + partition.getTable() + " WHERE id = ?")) {
+                    stmt.setLong(1, id);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        if (rs.next()) {
+                            return mapResultSetToChatChunkEmbedding(rs);
+                        }
+                    }
                 }
             }
         } catch (SQLException e) {
@@ -196,13 +530,15 @@ public class ChatChunkEmbeddingDaoH2 implements EmbeddingDao<ChatChunkEmbedding>
 
     @Override
     public List<ChatChunkEmbedding> getAllEmbeddings() {
-        String sql = "SELECT * FROM chat_chunk_embeddings";
         List<ChatChunkEmbedding> embeddings = new ArrayList<>();
         try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            while (rs.next()) {
-                embeddings.add(mapResultSetToChatChunkEmbedding(rs));
+             Statement stmt = conn.createStatement()) {
+            for (ModelPartitions.Partition partition : partitions.all()) {
+                try (ResultSet rs = stmt.executeQuery("SELECT * FROM " + partition.getTable())) {
+                    while (rs.next()) {
+                        embeddings.add(mapResultSetToChatChunkEmbedding(rs));
+                    }
+                }
             }
         } catch (SQLException e) {
             logger.log(java.util.logging.Level.SEVERE, "Failed to get all embeddings", e); // Handle exceptions properly
@@ -210,18 +546,137 @@ public class ChatChunkEmbeddingDaoH2 implements EmbeddingDao<ChatChunkEmbedding>
         return embeddings;
     }
 
+    /**
+     * Exact searches read the table once for the whole batch; the other modes search each query on its own.
+     */
+    @Override
+    public List<List<ChatChunkEmbedding>> findEmbeddingsNear(List<ChatChunkEmbedding> sourceEmbeddings, int limit) {
+        if (sourceEmbeddings.size() < 2 || segments.isEnabled() || config.getSearchMode("chat_chunk_embeddings") != SearchMode.EXACT) {
+            return IndexableEmbeddingDao.super.findEmbeddingsNear(sourceEmbeddings, limit);
+        }
+        try {
+            return PartitionedScan.searchBatch(this::getConnection, partitions, sourceEmbeddings, limit,
+                    ParallelSearch.of(config.getSearchParallelism()), this::hydrate);
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to find similar embeddings", e);
+            List<List<ChatChunkEmbedding>> empty = new ArrayList<>();
+            for (int i = 0; i < sourceEmbeddings.size(); i++) {
+                empty.add(new ArrayList<>());
+            }
+            return empty;
+        }
+    }
+
+    /**
+     * Loads the rows of the search hits from the partition, in the order of the hits and with their scores.
+     */
+    private List<ChatChunkEmbedding> hydrate(String table, List<ScoredId> hits) {
+        List<Long> ids = new ArrayList<>();
+        for (ScoredId hit : hits) {
+            ids.add(hit.getId());
+        }
+        List<ChatChunkEmbedding> rows = new ArrayList<>();
+        try (Connection conn = getConnection()) {
+            rows = getEmbeddingsByIds(conn, table, ids);
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to get embeddings by id", e);
+        }
+        return SegmentStorage.rank(hits, rows);
+    }
+
+    @Override
+    public List<ChatChunkEmbedding> getEmbeddingsByIds(List<Long> ids) {
+        List<ChatChunkEmbedding> embeddings = new ArrayList<>();
+        try (Connection conn = getConnection()) {
+            for (ModelPartitions.Partition partition : partitions.all()) {
+                embeddings.addAll(getEmbeddingsByIds(conn, partition.getTable(), ids));
+            }
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to get embeddings by id", e);
+        }
+        return embeddings;
+    }
+
+    private List<ChatChunkEmbedding> getEmbeddingsByIds(Connection conn, String table, List<Long> ids) throws SQLException {
+        List<ChatChunkEmbedding> embeddings = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT * FROM " + table + " WHERE id = ANY(?)")) {
+            stmt.setArray(1, conn.createArrayOf("BIGINT", ids.toArray()));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    embeddings.add(mapResultSetToChatChunkEmbedding(rs));
+                }
+            }
+        }
+        return embeddings;
+    }
+
+    @Override
+    public void forEachEmbedding(String embeddingModel, Consumer<ChatChunkEmbedding> consumer) {
+        try (Connection conn = getConnection()) {
+            ModelPartitions.Partition partition = partitions.find(conn, embeddingModel);
+            if (partition == null) {
+                return;
+            }
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT * FROM " + partition.getTable() + " ORDER BY id")) {
+                while (rs.next()) {
+                    consumer.accept(mapResultSetToChatChunkEmbedding(rs));
+                }
+            }
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to scan embeddings", e);
+        }
+    }
+
+    @Override
+    public void forEachEmbeddingId(String embeddingModel, LongConsumer consumer) {
+        try (Connection conn = getConnection()) {
+            ModelPartitions.Partition partition = partitions.find(conn, embeddingModel);
+            if (partition == null) {
+                return;
+            }
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT id FROM " + partition.getTable())) {
+                while (rs.next()) {
+                    consumer.accept(rs.getLong(1));
+                }
+            }
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to scan embedding ids", e);
+        }
+    }
+
+    private void index(ChatChunkEmbedding embedding, java.util.Date creationDate) {
+        metadata.put(embedding.getId(), embedding.getEmbeddingModel(), creationDate, embedding.getTopic(), embedding.getRole(),
+                embedding.getConversationId(), embedding.getUserId());
+    }
+
+    /**
+     * Builds the metadata bitmaps from the partitions, reading only the filterable columns.
+     */
+    private void loadMetadata(Connection conn) throws SQLException {
+        metadata.clear();
+        for (ModelPartitions.Partition partition : partitions.all()) {
+            String sql = "SELECT id, embedding_model, creation_date, topic, role, conversation_id, user_id FROM " + partition.getTable();
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(sql)) {
+                while (rs.next()) {
+                    metadata.put(rs.getLong(1), rs.getString(2), rs.getTimestamp(3), rs.getString(4), rs.getString(5),
+                            (Long) rs.getObject(6), (Long) rs.getObject(7));
+                }
+            }
+        }
+    }
+
     private ChatChunkEmbedding mapResultSetToChatChunkEmbedding(ResultSet rs) throws SQLException {
         ChatChunkEmbedding embedding = new ChatChunkEmbedding();
         embedding.setId(rs.getLong("id"));
         embedding.setChunk(rs.getString("chunk"));
-        Array embeddingArray = rs.getArray("embedding");
-        if (embeddingArray != null) {
-            Object[] objectArray = (Object[]) embeddingArray.getArray();
-            List<Double> embeddingValues = new ArrayList<>();
-            for (Object obj : objectArray) {
-                embeddingValues.add(((Number) obj).doubleValue());
-            }
-            embedding.setEmbedding(embeddingValues);
+        byte[] packed = rs.getBytes("embedding");
+        if (packed != null) {
+            embedding.setVector(VectorCodec.decodeVector(packed));
+        } else if (hasColumn(rs, "segment_id")) {
+            embedding.setVector(segments.load(rs));
         }
         embedding.setCreationDate(rs.getTimestamp("creation_date"));
         embedding.setLastAccessed(rs.getTimestamp("last_accessed"));
@@ -230,8 +685,20 @@ public class ChatChunkEmbeddingDaoH2 implements EmbeddingDao<ChatChunkEmbedding>
         embedding.setUserId(rs.getLong("user_id"));
         embedding.setRole(rs.getString("role"));
         embedding.setTopic(rs.getString("topic"));
-        embedding.setSimilarity(rs.getDouble("similarity"));
+        if (hasColumn(rs, "similarity")) {
+            embedding.setSimilarity(rs.getDouble("similarity"));
+        }
         embedding.setReplyToChunkId(rs.getLong("reply_to_chunk_id"));
         return embedding;
     }
-}
\ No newline at end of file
+
+    private static boolean hasColumn(ResultSet rs, String column) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            if (column.equalsIgnoreCase(metaData.getColumnLabel(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
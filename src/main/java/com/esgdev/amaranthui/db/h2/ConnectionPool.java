@@ -0,0 +1,402 @@
+package com.esgdev.amaranthui.db.h2;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Small pool of H2 connections shared by the DAOs, so that an operation does not pay for opening a connection.
+ * <p>
+ * At most a fixed number of connections are handed out at a time; callers beyond that wait up to a timeout.
+ * Closing a handed out connection returns it to the pool. Each pooled connection keeps the prepared statements
+ * of its most recent queries, so a repeated query is neither parsed nor planned again: closing such a
+ * statement only clears its parameters. A statement that is still open when the same query is prepared again
+ * on the connection, e.g. by a nested loop, is not shared; a fresh one is prepared instead.
+ * <p>
+ * The pool counts the time callers waited for a connection and the hits of the statement caches.
+ */
+public final class ConnectionPool implements DataSource, Closeable {
+    private static final int STATEMENT_CACHE_SIZE = 64;
+
+    private final String jdbcUrl;
+    private final String jdbcUser;
+    private final String jdbcPassword;
+    private final int maxConnections;
+    private final long timeoutMillis;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+    private final Logger logger = Logger.getLogger(ConnectionPool.class.getName());
+    private volatile boolean closed;
+
+    /**
+     * @param maxConnections the number of connections that may be in use at the same time
+     * @param timeoutMillis how long a caller waits for a free connection before failing
+     */
+    public ConnectionPool(String jdbcUrl, String jdbcUser, String jdbcPassword, int maxConnections, long timeoutMillis) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("A connection pool needs at least one connection.");
+        }
+        this.jdbcUrl = jdbcUrl;
+        this.jdbcUser = jdbcUser;
+        this.jdbcPassword = jdbcPassword;
+        this.maxConnections = maxConnections;
+        this.timeoutMillis = timeoutMillis;
+        this.permits = new Semaphore(maxConnections, true);
+    }
+
+    /**
+     * A pool sized for the parallel searches of the given parallelism.
+     */
+    public ConnectionPool(String jdbcUrl, String jdbcUser, String jdbcPassword, int searchParallelism) {
+        this(jdbcUrl, jdbcUser, jdbcPassword, Math.max(8, 2 * searchParallelism + 2), 30_000);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("The connection pool is closed");
+        }
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        } finally {
+            long waited = System.nanoTime() - start;
+            waitNanos.addAndGet(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+        }
+        if (!acquired) {
+            throw new SQLException("No free connection after " + timeoutMillis + " ms, all " + maxConnections + " are in use");
+        }
+        acquisitions.incrementAndGet();
+        try {
+            PooledConnection pooled = idle.pollFirst();
+            while (pooled != null && pooled.physical.isClosed()) {
+                pooled = idle.pollFirst();
+            }
+            if (pooled == null) {
+                pooled = new PooledConnection(DriverManager.getConnection(jdbcUrl, jdbcUser, jdbcPassword));
+            }
+            active.incrementAndGet();
+            return pooled.lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("The pool only hands out connections of its configured user");
+    }
+
+    private void release(PooledConnection pooled) {
+        active.decrementAndGet();
+        try {
+            if (!closed && !pooled.physical.isClosed()) {
+                if (!pooled.physical.getAutoCommit()) {
+                    pooled.physical.rollback();
+                    pooled.physical.setAutoCommit(true);
+                }
+                idle.addFirst(pooled);
+            } else {
+                pooled.physical.close();
+            }
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Dropped a pooled connection that could not be reset", e);
+            pooled.closeQuietly();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes the idle connections; connections in use are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (PooledConnection pooled = idle.pollFirst(); pooled != null; pooled = idle.pollFirst()) {
+            pooled.closeQuietly();
+        }
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @return the number of connections handed out right now
+     */
+    public int getActiveConnections() {
+        return active.get();
+    }
+
+    /**
+     * @return the number of open connections waiting in the pool
+     */
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    /**
+     * @return the number of threads waiting for a connection
+     */
+    public int getWaitingThreads() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     * @return the number of connections handed out so far
+     */
+    public long getAcquisitions() {
+        return acquisitions.get();
+    }
+
+    /**
+     * @return the total time callers waited for a connection, in milliseconds
+     */
+    public double getTotalWaitMillis() {
+        return waitNanos.get() / 1e6;
+    }
+
+    /**
+     * @return the longest time a caller waited for a connection, in milliseconds
+     */
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    public long getStatementCacheHits() {
+        return statementHits.get();
+    }
+
+    public long getStatementCacheMisses() {
+        return statementMisses.get();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return (int) (timeoutMillis / 1000);
+    }
+
+    @Override
+    public Logger getParentLogger() {
+        return logger;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper of " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * A physical connection with its statement cache, handed out as a new proxy on every lease.
+     */
+    private final class PooledConnection {
+        private final Connection physical;
+        private final Map<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= STATEMENT_CACHE_SIZE) {
+                    return false;
+                }
+                eldest.getValue().evict();
+                return true;
+            }
+        };
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        Connection lease() {
+            return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    new LeasedConnection(this));
+        }
+
+        PreparedStatement prepare(String sql, Connection proxy) throws SQLException {
+            CachedStatement cached = statements.get(sql);
+            if (cached != null && !cached.inUse) {
+                statementHits.incrementAndGet();
+            } else {
+                statementMisses.incrementAndGet();
+                if (cached != null) {
+                    // The cached one is still open further up the stack
+                    return physical.prepareStatement(sql);
+                }
+                cached = new CachedStatement(physical.prepareStatement(sql));
+                statements.put(sql, cached);
+            }
+            cached.inUse = true;
+            return cached.lease(proxy);
+        }
+
+        void closeQuietly() {
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                logger.log(Level.FINE, "Failed to close a pooled connection", e);
+            }
+        }
+    }
+
+    /**
+     * The view of a pooled connection given to one caller: closing it returns the connection to the pool.
+     */
+    private final class LeasedConnection implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean released;
+
+        LeasedConnection(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!released) {
+                        released = true;
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return released || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled " + pooled.physical;
+                default:
+                    break;
+            }
+            if (released) {
+                throw new SQLException("The connection was returned to the pool");
+            }
+            if (method.getName().equals("prepareStatement") && args.length == 1) {
+                return pooled.prepare((String) args[0], (Connection) proxy);
+            }
+            return invokeOn(pooled.physical, method, args);
+        }
+    }
+
+    /**
+     * A cached statement; closing its lease keeps the statement open for the next caller.
+     */
+    private static final class CachedStatement {
+        private final PreparedStatement statement;
+        private boolean inUse;
+        private boolean evicted;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        PreparedStatement lease(Connection connection) {
+            boolean[] released = new boolean[1];
+            return (PreparedStatement) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "close":
+                                if (!released[0]) {
+                                    released[0] = true;
+                                    release();
+                                }
+                                return null;
+                            case "isClosed":
+                                return released[0] || statement.isClosed();
+                            case "getConnection":
+                                return connection;
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            default:
+                                if (released[0]) {
+                                    throw new SQLException("The statement is closed");
+                                }
+                                return invokeOn(statement, method, args);
+                        }
+                    });
+        }
+
+        private void release() throws SQLException {
+            inUse = false;
+            if (evicted) {
+                statement.close();
+            } else {
+                statement.clearParameters();
+                statement.clearBatch();
+            }
+        }
+
+        void evict() {
+            evicted = true;
+            if (!inUse) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    // The connection may be gone already
+                }
+            }
+        }
+    }
+
+    private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
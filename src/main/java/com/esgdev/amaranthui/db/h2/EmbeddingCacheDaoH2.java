@@ -0,0 +1,155 @@
+package com.esgdev.amaranthui.db.h2;
+
+import com.esgdev.amaranthui.db.VectorEncoding;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingVector;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Persistent tier of the embedding cache: the vectors of chunks by the hash of their embedding model and text.
+ * <p>
+ * The table keeps at most the configured number of rows; once it grows beyond, the oldest tenth is deleted.
+ */
+public class EmbeddingCacheDaoH2 {
+    private final DataSource dataSource;
+    private final int maxRows;
+    private final Logger logger = Logger.getLogger(EmbeddingCacheDaoH2.class.getName());
+    private long rows;
+
+    /**
+     * @param dataSource the connections to use, usually a {@link ConnectionPool} shared with the other DAOs
+     * @param maxRows the largest number of cached vectors
+     */
+    public EmbeddingCacheDaoH2(DataSource dataSource, int maxRows) {
+        if (maxRows < 1) {
+            throw new IllegalArgumentException("The embedding cache must hold at least one row.");
+        }
+        this.dataSource = dataSource;
+        this.maxRows = maxRows;
+        initializeDatabase();
+    }
+
+    private void initializeDatabase() {
+        String createTableSQL = """
+                CREATE TABLE IF NOT EXISTS embedding_cache (
+                    cache_key VARCHAR(32) PRIMARY KEY,
+                    embedding_model VARCHAR NOT NULL,
+                    embedding VARBINARY NOT NULL,
+                    created TIMESTAMP NOT NULL
+                );
+                """;
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(createTableSQL);
+            stmt.execute("CREATE INDEX IF NOT EXISTS embedding_cache_created ON embedding_cache (created)");
+            rows = count(conn);
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to initialize embedding_cache table", e);
+        }
+    }
+
+    /**
+     * @return the cached vectors of the keys that were found
+     */
+    public Map<String, EmbeddingVector> getVectors(List<String> keys) {
+        Map<String, EmbeddingVector> vectors = new HashMap<>();
+        if (keys.isEmpty()) {
+            return vectors;
+        }
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT cache_key, embedding FROM embedding_cache WHERE cache_key = ANY(?)")) {
+            stmt.setArray(1, conn.createArrayOf("VARCHAR", keys.toArray()));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    vectors.put(rs.getString(1), VectorCodec.decodeVector(rs.getBytes(2)));
+                }
+            }
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to read cached embeddings", e);
+        }
+        return vectors;
+    }
+
+    /**
+     * Stores the vectors of the keys with one batched statement.
+     */
+    public void saveVectors(String embeddingModel, List<String> keys, List<EmbeddingVector> vectors) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        try (Connection conn = dataSource.getConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "MERGE INTO embedding_cache (cache_key, embedding_model, embedding, created) KEY (cache_key) VALUES (?, ?, ?, ?)")) {
+                Timestamp now = new Timestamp(System.currentTimeMillis());
+                for (int i = 0; i < keys.size(); i++) {
+                    stmt.setString(1, keys.get(i));
+                    stmt.setString(2, embeddingModel);
+                    stmt.setBytes(3, VectorCodec.encode(vectors.get(i), VectorEncoding.FLOAT32));
+                    stmt.setTimestamp(4, now);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+            prune(conn, keys.size());
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to cache embeddings", e);
+        }
+    }
+
+    /**
+     * Deletes the cached vectors of an embedding model, e.g. once it is no longer used.
+     */
+    public void deleteEmbeddingModel(String embeddingModel) {
+        try (Connection conn = dataSource.getConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM embedding_cache WHERE embedding_model = ?")) {
+                stmt.setString(1, embeddingModel);
+                stmt.executeUpdate();
+            }
+            synchronized (this) {
+                rows = count(conn);
+            }
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to delete cached embeddings of " + embeddingModel, e);
+        }
+    }
+
+    private void prune(Connection conn, int added) throws SQLException {
+        synchronized (this) {
+            // Counts merged keys that existed as new ones; the count is corrected whenever rows are deleted
+            rows += added;
+            if (rows <= maxRows) {
+                return;
+            }
+            rows = count(conn);
+            if (rows <= maxRows) {
+                return;
+            }
+            long excess = rows - maxRows + maxRows / 10;
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "DELETE FROM embedding_cache WHERE cache_key IN (SELECT cache_key FROM embedding_cache ORDER BY created LIMIT ?)")) {
+                stmt.setLong(1, excess);
+                int deleted = stmt.executeUpdate();
+                logger.fine("Deleted " + deleted + " of the oldest cached embeddings");
+            }
+            rows = count(conn);
+        }
+    }
+
+    private static long count(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM embedding_cache")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
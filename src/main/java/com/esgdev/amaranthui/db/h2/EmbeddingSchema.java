@@ -0,0 +1,231 @@
+package com.esgdev.amaranthui.db.h2;
+
+import com.esgdev.amaranthui.db.SearchMode;
+import com.esgdev.amaranthui.db.VectorEncoding;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingVector;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Schema helpers shared by the embedding tables: the SQL vector functions and the migrations.
+ */
+final class EmbeddingSchema {
+    private static final int MIGRATION_BATCH_SIZE = 1000;
+
+    private EmbeddingSchema() {
+    }
+
+    static void registerVectorFunctions(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            // Drop existing aliases if the class names change
+            //statement.execute("DROP ALIAS COSINE_SIMILARITY IF EXISTS");
+            //statement.execute("DROP ALIAS EUCLIDEAN_DISTANCE IF EXISTS");
+            statement.execute("CREATE ALIAS IF NOT EXISTS COSINE_SIMILARITY FOR \"" + VectorSimilarity.class.getName() + ".cosineSimilarity\"");
+            statement.execute("CREATE ALIAS IF NOT EXISTS EUCLIDEAN_DISTANCE FOR \"" + VectorSimilarity.class.getName() + ".euclideanDistance\"");
+            statement.execute("CREATE ALIAS IF NOT EXISTS INT8_SIMILARITY FOR \"" + VectorSimilarity.class.getName() + ".int8Similarity\"");
+            statement.execute("CREATE ALIAS IF NOT EXISTS DOT_PRODUCT FOR \"" + VectorSimilarity.class.getName() + ".dotProduct\"");
+            statement.execute("CREATE ALIAS IF NOT EXISTS PACKED_DOT_PRODUCT FOR \"" + VectorSimilarity.class.getName() + ".packedDotProduct\"");
+            statement.execute("CREATE ALIAS IF NOT EXISTS HAMMING_DISTANCE FOR \"" + VectorSimilarity.class.getName() + ".hammingDistance\"");
+            statement.execute("CREATE ALIAS IF NOT EXISTS TOP_K FOR \"" + TopKFunction.class.getName() + ".topK\"");
+        } catch (SQLException e) {
+            throw new SQLException("Failed to register vector functions", e);
+        }
+    }
+
+    /**
+     * Brings the columns of an embedding table up to date, for tables written by an older version.
+     */
+    static void migrateColumns(Connection connection, String table, VectorEncoding encoding, SearchMode searchMode,
+                               Logger logger) throws SQLException {
+        migratePackedVectors(connection, table, encoding, logger);
+        migrateNormalizedVectors(connection, table, encoding, logger);
+        migrateQuantizedColumns(connection, table, searchMode, logger);
+        migrateSegmentColumns(connection, table);
+    }
+
+    /**
+     * Converts a DOUBLE ARRAY embedding column of an older database to packed VARBINARY vectors.
+     * The vectors are copied in batches to a new column, each batch committed on its own, so an interrupted
+     * migration resumes where it stopped. Then the new column takes the place of the old one.
+     */
+    static void migratePackedVectors(Connection connection, String table, VectorEncoding encoding, Logger logger) throws SQLException {
+        String type = columnType(connection, table, "embedding");
+        if (type == null && columnType(connection, table, "embedding_packed") != null) {
+            // Stopped between dropping the old column and renaming the new one
+            renamePackedColumn(connection, table);
+            return;
+        }
+        if (type == null || !type.toUpperCase().contains("ARRAY")) {
+            return;
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE " + table + " ADD COLUMN IF NOT EXISTS embedding_packed VARBINARY");
+        }
+        String select = "SELECT id, embedding FROM " + table + " WHERE embedding_packed IS NULL LIMIT " + MIGRATION_BATCH_SIZE;
+        String update = "UPDATE " + table + " SET embedding_packed = ? WHERE id = ?";
+        int migrated = 0;
+        while (true) {
+            List<Long> ids = new ArrayList<>();
+            List<byte[]> vectors = new ArrayList<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery(select)) {
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                    vectors.add(VectorCodec.encode(toList(rs.getArray(2)), encoding));
+                }
+            }
+            if (ids.isEmpty()) {
+                break;
+            }
+            try (PreparedStatement statement = connection.prepareStatement(update)) {
+                for (int i = 0; i < ids.size(); i++) {
+                    statement.setBytes(1, vectors.get(i));
+                    statement.setLong(2, ids.get(i));
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            migrated += ids.size();
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE " + table + " DROP COLUMN embedding");
+        }
+        renamePackedColumn(connection, table);
+        logger.info("Packed the embeddings of " + migrated + " rows in " + table + " as " + encoding);
+    }
+
+    private static void renamePackedColumn(Connection connection, String table) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE " + table + " ALTER COLUMN embedding_packed RENAME TO embedding");
+        }
+    }
+
+    /**
+     * Adds the pointer of a vector in the segment store. The embedding column is empty for such rows.
+     */
+    static void migrateSegmentColumns(Connection connection, String table) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE " + table + " ADD COLUMN IF NOT EXISTS segment_id INT");
+            statement.execute("ALTER TABLE " + table + " ADD COLUMN IF NOT EXISTS segment_offset BIGINT");
+            statement.execute("ALTER TABLE " + table + " ALTER COLUMN embedding SET NULL");
+        }
+    }
+
+    /**
+     * @return the SQL type name of the column, or null if the table has no such column
+     */
+    private static String columnType(Connection connection, String table, String column) throws SQLException {
+        try (ResultSet rs = connection.getMetaData().getColumns(null, null, table.toUpperCase(), column.toUpperCase())) {
+            return rs.next() ? rs.getString("TYPE_NAME") : null;
+        }
+    }
+
+    /**
+     * Normalizes the embeddings written before vectors were stored with unit length, keeping their
+     * original length in the norm column. Rows with a norm are already normalized.
+     */
+    static void migrateNormalizedVectors(Connection connection, String table, VectorEncoding encoding, Logger logger) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE " + table + " ADD COLUMN IF NOT EXISTS norm DOUBLE");
+        }
+        String select = "SELECT id, embedding FROM " + table + " WHERE norm IS NULL LIMIT " + MIGRATION_BATCH_SIZE;
+        String update = "UPDATE " + table + " SET embedding = ?, norm = ? WHERE id = ?";
+        int migrated = 0;
+        while (true) {
+            List<Long> ids = new ArrayList<>();
+            List<EmbeddingVector> vectors = new ArrayList<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery(select)) {
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                    vectors.add(VectorCodec.decodeVector(rs.getBytes(2)));
+                }
+            }
+            if (ids.isEmpty()) {
+                break;
+            }
+            try (PreparedStatement statement = connection.prepareStatement(update)) {
+                for (int i = 0; i < ids.size(); i++) {
+                    EmbeddingVector vector = vectors.get(i);
+                    statement.setBytes(1, VectorCodec.encode(vector.normalize(), encoding));
+                    statement.setDouble(2, vector.norm());
+                    statement.setLong(3, ids.get(i));
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            migrated += ids.size();
+        }
+        if (migrated > 0) {
+            logger.info("Normalized the embeddings of " + migrated + " rows in " + table);
+        }
+    }
+
+    /**
+     * Adds the quantized copies of the embeddings to the table. Only the copy the search mode of the table
+     * reads is backfilled, for the rows written before it existed or while another mode was configured.
+     */
+    static void migrateQuantizedColumns(Connection connection, String table, SearchMode searchMode, Logger logger) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE " + table + " ADD COLUMN IF NOT EXISTS embedding_q8 VARBINARY");
+            statement.execute("ALTER TABLE " + table + " ADD COLUMN IF NOT EXISTS embedding_bits VARBINARY");
+        }
+        if (searchMode == SearchMode.INT8) {
+            backfillColumn(connection, table, "embedding_q8", Int8Quantizer::encode, logger);
+        } else if (searchMode == SearchMode.BINARY) {
+            backfillColumn(connection, table, "embedding_bits", BinaryQuantizer::encode, logger);
+        }
+    }
+
+    private static void backfillColumn(Connection connection, String table, String column,
+                                       Function<List<Double>, byte[]> encoder, Logger logger) throws SQLException {
+        String select = "SELECT id, embedding FROM " + table + " WHERE " + column + " IS NULL LIMIT " + MIGRATION_BATCH_SIZE;
+        String update = "UPDATE " + table + " SET " + column + " = ? WHERE id = ?";
+        int migrated = 0;
+        while (true) {
+            List<Long> ids = new ArrayList<>();
+            List<byte[]> codes = new ArrayList<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery(select)) {
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                    codes.add(encoder.apply(VectorCodec.decodeList(rs.getBytes(2))));
+                }
+            }
+            if (ids.isEmpty()) {
+                break;
+            }
+            try (PreparedStatement statement = connection.prepareStatement(update)) {
+                for (int i = 0; i < ids.size(); i++) {
+                    statement.setBytes(1, codes.get(i));
+                    statement.setLong(2, ids.get(i));
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            migrated += ids.size();
+        }
+        if (migrated > 0) {
+            logger.info("Backfilled " + column + " of " + migrated + " rows in " + table);
+        }
+    }
+
+    private static List<Double> toList(Array array) throws SQLException {
+        List<Double> values = new ArrayList<>();
+        if (array != null) {
+            for (Object value : (Object[]) array.getArray()) {
+                values.add(((Number) value).doubleValue());
+            }
+        }
+        return values;
+    }
+}
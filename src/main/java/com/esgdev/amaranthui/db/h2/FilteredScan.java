@@ -0,0 +1,89 @@
+package com.esgdev.amaranthui.db.h2;
+
+import com.esgdev.amaranthui.db.filter.IdBitmap;
+import com.esgdev.amaranthui.db.index.ParallelSearch;
+import com.esgdev.amaranthui.db.index.ScoredId;
+import com.esgdev.amaranthui.db.index.TopK;
+import com.esgdev.amaranthui.db.kernel.VectorKernels;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exact search restricted to the rows a metadata filter matched.
+ * <p>
+ * The vectors of the matching ids are fetched by primary key in batches and scored into a top-k heap,
+ * so no other row of the table is read. Vectors kept in the segment store are read from there.
+ */
+final class FilteredScan {
+    private static final int BATCH_SIZE = 1000;
+
+    private FilteredScan() {
+    }
+
+    /**
+     * @param table the partition of the model, never user input
+     * @param ids the rows to score
+     * @param query the normalized query
+     * @return the best ids by descending dot product
+     */
+    static List<ScoredId> search(PartitionedScan.ConnectionSource connections, String table, SegmentStorage segments,
+                                 IdBitmap ids, float[] query, int limit, ParallelSearch parallelSearch) throws SQLException {
+        if (ids.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        long[] candidates = ids.toArray();
+        String sql = "SELECT id, embedding, embedding_model, segment_id, segment_offset FROM " + table + " WHERE id = ANY(?)";
+        try {
+            TopK topK = parallelSearch.map(candidates.length, BATCH_SIZE, (from, to) -> {
+                TopK partial = new TopK(limit);
+                float[] vector = new float[query.length];
+                try (Connection conn = connections.get();
+                     PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    for (int start = from; start < to; start += BATCH_SIZE) {
+                        Long[] batch = new Long[Math.min(BATCH_SIZE, to - start)];
+                        for (int i = 0; i < batch.length; i++) {
+                            batch[i] = candidates[start + i];
+                        }
+                        stmt.setArray(1, conn.createArrayOf("BIGINT", batch));
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            while (rs.next()) {
+                                byte[] packed = rs.getBytes(2);
+                                if (packed != null) {
+                                    if (VectorCodec.dimension(packed) != query.length) {
+                                        continue;
+                                    }
+                                    VectorCodec.decode(packed, vector);
+                                    partial.offer(rs.getLong(1), VectorKernels.dot(query, vector));
+                                } else {
+                                    float[] stored = segments.load(rs).toArray();
+                                    if (stored.length == query.length) {
+                                        partial.offer(rs.getLong(1), VectorKernels.dot(query, stored));
+                                    }
+                                }
+                            }
+                        }
+                    }
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+                return partial;
+            }, (left, right) -> {
+                left.addAll(right);
+                return left;
+            });
+            return topK.toSortedList();
+        } catch (IllegalStateException e) {
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof SQLException) {
+                    throw (SQLException) cause;
+                }
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.esgdev.amaranthui.db.h2;
+
+import com.esgdev.amaranthui.engine.embedding.EmbeddingVector;
+
+import java.util.List;
+
+/**
+ * Scalar quantization of embeddings to one unsigned byte per dimension.
+ * <p>
+ * The vector is normalized first, so the dot product of two decoded vectors approximates their cosine
+ * similarity. The encoded form is a big-endian float scale, a float offset and then the codes,
+ * a value being decoded as {@code scale * code + offset}.
+ */
+final class Int8Quantizer {
+    static final int HEADER_SIZE = 8;
+
+    private Int8Quantizer() {
+    }
+
+    static byte[] encode(List<Double> embedding) {
+        return encode(EmbeddingVector.of(embedding));
+    }
+
+    static byte[] encode(EmbeddingVector embedding) {
+        int dimension = embedding.dimension();
+        float norm = embedding.norm();
+        float[] values = new float[dimension];
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (int i = 0; i < dimension; i++) {
+            values[i] = norm == 0f ? 0f : embedding.get(i) / norm;
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        if (dimension == 0) {
+            min = 0f;
+            max = 0f;
+        }
+        float scale = (max - min) / 255f;
+        byte[] encoded = new byte[HEADER_SIZE + dimension];
+        putFloat(encoded, 0, scale);
+        putFloat(encoded, 4, min);
+        for (int i = 0; i < dimension; i++) {
+            int code = scale == 0f ? 0 : Math.round((values[i] - min) / scale);
+            encoded[HEADER_SIZE + i] = (byte) Math.max(0, Math.min(255, code));
+        }
+        return encoded;
+    }
+
+    static float getFloat(byte[] bytes, int offset) {
+        return Float.intBitsToFloat(((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF));
+    }
+
+    private static void putFloat(byte[] bytes, int offset, float value) {
+        int bits = Float.floatToIntBits(value);
+        bytes[offset] = (byte) (bits >>> 24);
+        bytes[offset + 1] = (byte) (bits >>> 16);
+        bytes[offset + 2] = (byte) (bits >>> 8);
+        bytes[offset + 3] = (byte) bits;
+    }
+}
@@ -1,24 +1,30 @@
 package com.esgdev.amaranthui.db.h2;
 
+import javax.sql.DataSource;
 import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 public class KeyValueStoreDaoH2 {
     private static final String TABLE_NAME = "key_value_store";
-    private final String jdbcUrl;
-    private final String jdbcUser;
-    private final String jdbcPassword;
+    private final DataSource dataSource;
     private final Logger logger = Logger.getLogger(KeyValueStoreDaoH2.class.getName());
 
     public KeyValueStoreDaoH2(String jdbcUrl, String jdbcUser, String jdbcPassword) {
-        this.jdbcUrl = jdbcUrl;
-        this.jdbcUser = jdbcUser;
-        this.jdbcPassword = jdbcPassword;
+        this(new ConnectionPool(jdbcUrl, jdbcUser, jdbcPassword, 1));
+    }
+
+    /**
+     * @param dataSource the connections to use, usually a {@link ConnectionPool} shared with the other DAOs
+     */
+    public KeyValueStoreDaoH2(DataSource dataSource) {
+        this.dataSource = dataSource;
         initializeDatabase();
     }
 
     private Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(jdbcUrl, jdbcUser, jdbcPassword);
+        return dataSource.getConnection();
     }
 
     private void initializeDatabase() {
@@ -71,4 +77,21 @@ public class KeyValueStoreDaoH2 {
         }
         return null;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return every stored key with its value
+     */
+    public Map<String, String> getAllValues() {
+        Map<String, String> values = new HashMap<>();
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT store_key, store_value FROM key_value_store")) {
+            while (rs.next()) {
+                values.put(rs.getString(1), rs.getString(2));
+            }
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to retrieve values", e);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,394 @@
+package com.esgdev.amaranthui.db.h2;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Stores the rows of an embedding table in one physical table per embedding model.
+ * <p>
+ * A search reads only the partition of its model instead of skipping the rows of every other model,
+ * and a retired model is dropped with its table. The partitions are listed in the embedding_partitions
+ * registry together with the dimension of their vectors. They are created on the first write of a model
+ * and take their ids from one shared sequence, so ids stay unique across the partitions and rows can refer
+ * to each other. A view under the name of the table unites all partitions for ad hoc queries.
+ * <p>
+ * A table of an older database holding several models is split into partitions on startup.
+ */
+final class ModelPartitions {
+    private static final String REGISTRY = "embedding_partitions";
+
+    private final String table;
+    private final String columns;
+    private final Logger logger;
+    private final Map<String, Partition> partitions = new ConcurrentHashMap<>();
+
+    /**
+     * A registered partition of the table.
+     */
+    static final class Partition {
+        private final String model;
+        private final String table;
+        private final int dimension;
+
+        Partition(String model, String table, int dimension) {
+            this.model = model;
+            this.table = table;
+            this.dimension = dimension;
+        }
+
+        String getModel() {
+            return model;
+        }
+
+        String getTable() {
+            return table;
+        }
+
+        int getDimension() {
+            return dimension;
+        }
+    }
+
+    /**
+     * @param table the logical table name, e.g. embeddings
+     * @param columns the column definitions of a partition, without the id column
+     */
+    ModelPartitions(String table, String columns, Logger logger) {
+        this.table = table;
+        this.columns = columns;
+        this.logger = logger;
+    }
+
+    String getTable() {
+        return table;
+    }
+
+    private String sequence() {
+        return table + "_id_seq";
+    }
+
+    /**
+     * Creates the registry and the id sequence, and loads the known partitions.
+     *
+     * @return true if the table is still a single table of an older database, to be migrated and then split
+     */
+    boolean initialize(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE IF NOT EXISTS embedding_partitions (
+                        base_table VARCHAR NOT NULL,
+                        embedding_model VARCHAR NOT NULL,
+                        partition_table VARCHAR NOT NULL,
+                        dimension INT NOT NULL,
+                        creation_date TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+                        PRIMARY KEY (base_table, embedding_model)
+                    )""");
+            statement.execute("CREATE SEQUENCE IF NOT EXISTS " + sequence());
+        }
+        partitions.clear();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT embedding_model, partition_table, dimension FROM " + REGISTRY + " WHERE base_table = ?")) {
+            statement.setString(1, table);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    partitions.put(rs.getString(1), new Partition(rs.getString(1), rs.getString(2), rs.getInt(3)));
+                }
+            }
+        }
+        return "BASE TABLE".equals(tableType(connection, table));
+    }
+
+    /**
+     * Moves the rows of the single table of an older database into one partition per model, keeping their ids,
+     * and drops the old table.
+     * <p>
+     * The rows of each model are copied and deleted from the old table in one transaction, so a split that was
+     * interrupted continues with the models not moved yet on the next startup.
+     */
+    void split(Connection connection) throws SQLException {
+        // New ids continue after every id of the old table, also those moved by an interrupted split
+        long next = maxId(connection, table) + 1;
+        for (Partition partition : all()) {
+            next = Math.max(next, maxId(connection, partition.table) + 1);
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ALTER SEQUENCE " + sequence() + " RESTART WITH " + next);
+        }
+        List<String> models = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT DISTINCT embedding_model FROM " + table + " ORDER BY embedding_model")) {
+            while (rs.next()) {
+                models.add(rs.getString(1));
+            }
+        }
+        for (String model : models) {
+            int dimension = 0;
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT embedding FROM " + table + " WHERE embedding_model = ? AND embedding IS NOT NULL LIMIT 1")) {
+                statement.setString(1, model);
+                try (ResultSet rs = statement.executeQuery()) {
+                    if (rs.next()) {
+                        dimension = VectorCodec.dimension(rs.getBytes(1));
+                    }
+                }
+            }
+            // Created before the transaction, since creating a table commits it
+            Partition partition = create(connection, model, dimension);
+            // Columns added later than the migrations of the old table, e.g. time_segment, are filled in on startup
+            List<String> shared = columnNames(connection, partition.table);
+            shared.retainAll(columnNames(connection, table));
+            String copied = String.join(", ", shared);
+            connection.setAutoCommit(false);
+            try {
+                int rows;
+                // Rows already in the partition were copied by an older version that did not delete them
+                try (PreparedStatement statement = connection.prepareStatement("INSERT INTO " + partition.table + " (" + copied
+                        + ") SELECT " + copied + " FROM " + table + " o WHERE embedding_model = ?"
+                        + " AND NOT EXISTS (SELECT 1 FROM " + partition.table + " p WHERE p.id = o.id)")) {
+                    statement.setString(1, model);
+                    rows = statement.executeUpdate();
+                }
+                try (PreparedStatement statement = connection.prepareStatement("DELETE FROM " + table + " WHERE embedding_model = ?")) {
+                    statement.setString(1, model);
+                    statement.executeUpdate();
+                }
+                connection.commit();
+                logger.info("Moved " + rows + " rows of " + model + " from " + table + " to " + partition.table);
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE " + table);
+        }
+        refreshView(connection);
+    }
+
+    private static long maxId(Connection connection, String table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(id), 0) FROM " + table)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * @return the partition of the model, or null if nothing was stored for it yet
+     */
+    Partition find(Connection connection, String model) throws SQLException {
+        Partition partition = partitions.get(model);
+        if (partition == null) {
+            // Another DAO on the same database may have created it
+            partition = load(connection, model);
+        }
+        return partition;
+    }
+
+    /**
+     * Like {@link #find(Connection, String)}, but only opens a connection if the partition is not cached.
+     */
+    Partition find(PartitionedScan.ConnectionSource connections, String model) throws SQLException {
+        Partition partition = partitions.get(model);
+        if (partition != null) {
+            return partition;
+        }
+        try (Connection connection = connections.get()) {
+            return load(connection, model);
+        }
+    }
+
+    /**
+     * @return the partition holding the row, or null if there is no such row
+     */
+    Partition holding(Connection connection, long id) throws SQLException {
+        for (Partition partition : all()) {
+            try (PreparedStatement statement = connection.prepareStatement("SELECT 1 FROM " + partition.table + " WHERE id = ?")) {
+                statement.setLong(1, id);
+                try (ResultSet rs = statement.executeQuery()) {
+                    if (rs.next()) {
+                        return partition;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the ids of the rows of the partition from firstId to lastId inclusive
+     */
+    static List<Long> idsBetween(Connection connection, Partition partition, long firstId, long lastId) throws SQLException {
+        List<Long> ids = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT id FROM " + partition.table + " WHERE id BETWEEN ? AND ?")) {
+            statement.setLong(1, firstId);
+            statement.setLong(2, lastId);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return the partition of the model, created if needed
+     * @throws SQLException if the dimension differs from the one registered for the model
+     */
+    Partition forWrite(Connection connection, String model, int dimension) throws SQLException {
+        Partition partition = find(connection, model);
+        if (partition == null) {
+            partition = create(connection, model, dimension);
+        }
+        if (partition.dimension != 0 && dimension != 0 && partition.dimension != dimension) {
+            throw new SQLException("Embedding model " + model + " has dimension " + partition.dimension + ", not " + dimension);
+        }
+        return partition;
+    }
+
+    /**
+     * @return the known partitions
+     */
+    List<Partition> all() {
+        return new ArrayList<>(partitions.values());
+    }
+
+    /**
+     * Drops the partition of a model with all its rows.
+     *
+     * @return the dropped partition, or null if the model had none
+     */
+    synchronized Partition drop(Connection connection, String model) throws SQLException {
+        Partition partition = find(connection, model);
+        if (partition == null) {
+            return null;
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP VIEW IF EXISTS " + table);
+            statement.execute("DROP TABLE IF EXISTS " + partition.table);
+        }
+        try (PreparedStatement statement = connection.prepareStatement(
+                "DELETE FROM " + REGISTRY + " WHERE base_table = ? AND embedding_model = ?")) {
+            statement.setString(1, table);
+            statement.setString(2, model);
+            statement.executeUpdate();
+        }
+        partitions.remove(model);
+        refreshView(connection);
+        return partition;
+    }
+
+    private synchronized Partition create(Connection connection, String model, int dimension) throws SQLException {
+        Partition partition = load(connection, model);
+        if (partition != null) {
+            return partition;
+        }
+        String name;
+        try (PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM " + REGISTRY + " WHERE base_table = ?")) {
+            statement.setString(1, table);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                int number = rs.getInt(1) + 1;
+                while (tableType(connection, table + "_" + number) != null) {
+                    number++;
+                }
+                name = table + "_" + number;
+            }
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE " + name + " (id BIGINT DEFAULT NEXT VALUE FOR " + sequence() + " PRIMARY KEY, "
+                    + columns + ")");
+        }
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO " + REGISTRY + " (base_table, embedding_model, partition_table, dimension) VALUES (?, ?, ?, ?)")) {
+            statement.setString(1, table);
+            statement.setString(2, model);
+            statement.setString(3, name);
+            statement.setInt(4, dimension);
+            statement.executeUpdate();
+        }
+        partition = new Partition(model, name, dimension);
+        partitions.put(model, partition);
+        if (!"BASE TABLE".equals(tableType(connection, table))) {
+            refreshView(connection);
+        }
+        return partition;
+    }
+
+    private Partition load(Connection connection, String model) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT partition_table, dimension FROM " + REGISTRY + " WHERE base_table = ? AND embedding_model = ?")) {
+            statement.setString(1, table);
+            statement.setString(2, model);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                Partition partition = new Partition(model, rs.getString(1), rs.getInt(2));
+                partitions.put(model, partition);
+                return partition;
+            }
+        }
+    }
+
+    /**
+     * Recreates the view that unites the partitions under the name of the table.
+     */
+    private void refreshView(Connection connection) throws SQLException {
+        List<Partition> all = all();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP VIEW IF EXISTS " + table);
+            if (all.isEmpty()) {
+                return;
+            }
+            // The columns are listed, since migrations may have added them in a different order per partition
+            String columnList = String.join(", ", columnNames(connection, all.get(0).table));
+            StringBuilder view = new StringBuilder("CREATE VIEW " + table + " AS ");
+            for (int i = 0; i < all.size(); i++) {
+                if (i > 0) {
+                    view.append(" UNION ALL ");
+                }
+                view.append("SELECT ").append(columnList).append(" FROM ").append(all.get(i).table);
+            }
+            statement.execute(view.toString());
+        }
+    }
+
+    private static List<String> columnNames(Connection connection, String table) throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT COLUMN_NAME FROM INFORMATION_SCHEMA.COLUMNS "
+                + "WHERE TABLE_SCHEMA = SCHEMA() AND TABLE_NAME = ? ORDER BY ORDINAL_POSITION")) {
+            statement.setString(1, table.toUpperCase());
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    names.add(rs.getString(1));
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return BASE TABLE, VIEW, or null if there is no such table
+     */
+    private static String tableType(Connection connection, String table) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT TABLE_TYPE FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = SCHEMA() AND TABLE_NAME = ?")) {
+            statement.setString(1, table.toUpperCase());
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+}
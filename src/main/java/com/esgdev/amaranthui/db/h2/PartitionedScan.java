@@ -0,0 +1,220 @@
+package com.esgdev.amaranthui.db.h2;
+
+import com.esgdev.amaranthui.db.index.ParallelSearch;
+import com.esgdev.amaranthui.db.index.ScoredId;
+import com.esgdev.amaranthui.db.index.TopK;
+import com.esgdev.amaranthui.db.kernel.VectorKernels;
+import com.esgdev.amaranthui.engine.embedding.TextEmbedding;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+
+/**
+ * Exact search over the partition of an embedding model, split into id ranges that are scanned in parallel.
+ * <p>
+ * Each range is read on its own connection through the TOP_K table function, which keeps the best rows of the
+ * range in a heap while it scans, instead of one query that scores and sorts every row of the model.
+ * The caller hydrates the best ids afterwards. A batch of queries is answered in the same single pass,
+ * every decoded row being multiplied with all queries at once.
+ */
+final class PartitionedScan {
+    private static final int PARTITIONS_PER_THREAD = 4;
+
+    /**
+     * Opens a connection for a partition.
+     */
+    interface ConnectionSource {
+        Connection get() throws SQLException;
+    }
+
+    /**
+     * Reads the rows of one id range.
+     */
+    private interface RangeReader<R> {
+        R read(Connection conn, long from, long to) throws SQLException;
+    }
+
+    private PartitionedScan() {
+    }
+
+    /**
+     * @param baseTable the embedding table the partition belongs to, e.g. embeddings
+     * @param partition the partition of the model
+     * @param query the normalized query, packed as float32
+     * @return the best ids by descending dot product
+     */
+    static List<ScoredId> search(ConnectionSource connections, String baseTable, ModelPartitions.Partition partition, byte[] query,
+                                 int limit, ParallelSearch parallelSearch) throws SQLException {
+        TopK topK = scan(connections, partition.getTable(), parallelSearch, (conn, from, to) -> {
+            TopK partial = new TopK(Math.max(0, limit));
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT id, score FROM TOP_K(?, ?, ?, ?, ?, ?)")) {
+                stmt.setString(1, baseTable);
+                stmt.setString(2, partition.getModel());
+                stmt.setBytes(3, query);
+                stmt.setInt(4, limit);
+                stmt.setLong(5, from);
+                stmt.setLong(6, to);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        partial.offer(rs.getLong(1), rs.getDouble(2));
+                    }
+                }
+            }
+            return partial;
+        }, (left, right) -> {
+            left.addAll(right);
+            return left;
+        });
+        return topK == null ? new ArrayList<>() : topK.toSortedList();
+    }
+
+    /**
+     * Searches a batch of query embeddings, one pass per embedding model and dimension.
+     *
+     * @param hydrate loads the rows of the hits of one query
+     * @return the results of each query, in the order of the queries
+     */
+    static <T extends TextEmbedding> List<List<T>> searchBatch(ConnectionSource connections, ModelPartitions partitions, List<T> queries,
+                                                             int limit, ParallelSearch parallelSearch,
+                                                             BiFunction<String, List<ScoredId>, List<T>> hydrate) throws SQLException {
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int q = 0; q < queries.size(); q++) {
+            T query = queries.get(q);
+            groups.computeIfAbsent(query.getVector().dimension() + "/" + query.getEmbeddingModel(), key -> new ArrayList<>()).add(q);
+        }
+        List<List<T>> results = new ArrayList<>(queries.size());
+        for (int q = 0; q < queries.size(); q++) {
+            results.add(null);
+        }
+        for (List<Integer> group : groups.values()) {
+            float[][] vectors = new float[group.size()][];
+            for (int i = 0; i < vectors.length; i++) {
+                vectors[i] = queries.get(group.get(i)).getVector().normalize().toArray();
+            }
+            ModelPartitions.Partition partition;
+            try (Connection conn = connections.get()) {
+                partition = partitions.find(conn, queries.get(group.get(0)).getEmbeddingModel());
+            }
+            if (partition == null) {
+                for (int q : group) {
+                    results.set(q, new ArrayList<>());
+                }
+                continue;
+            }
+            List<List<ScoredId>> hits = searchBatch(connections, partition.getTable(), vectors, limit, parallelSearch);
+            for (int i = 0; i < vectors.length; i++) {
+                results.set(group.get(i), hydrate.apply(partition.getTable(), hits.get(i)));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Scores a batch of queries in one pass: every row is decoded once and multiplied with all queries
+     * at the same time, each query keeping its own heap.
+     *
+     * @param queries normalized queries, all of the same dimension
+     * @return the best ids of each query, in the order of the queries
+     */
+    static List<List<ScoredId>> searchBatch(ConnectionSource connections, String table, float[][] queries,
+                                            int limit, ParallelSearch parallelSearch) throws SQLException {
+        int count = queries.length;
+        int dimension = count == 0 ? 0 : queries[0].length;
+        float[] matrix = new float[count * dimension];
+        for (int q = 0; q < count; q++) {
+            System.arraycopy(queries[q], 0, matrix, q * dimension, dimension);
+        }
+        String sql = "SELECT id, embedding FROM " + table + " WHERE embedding IS NOT NULL AND id BETWEEN ? AND ?";
+        TopK[] heaps = scan(connections, table, parallelSearch, (conn, from, to) -> {
+            TopK[] partial = newHeaps(count, limit);
+            float[] vector = new float[dimension];
+            float[] scores = new float[count];
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setLong(1, from);
+                stmt.setLong(2, to);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        byte[] packed = rs.getBytes(2);
+                        if (VectorCodec.dimension(packed) != dimension) {
+                            continue;
+                        }
+                        VectorCodec.decode(packed, vector);
+                        VectorKernels.dotBatch(matrix, count, vector, 0, dimension, scores);
+                        long id = rs.getLong(1);
+                        for (int q = 0; q < count; q++) {
+                            partial[q].offer(id, scores[q]);
+                        }
+                    }
+                }
+            }
+            return partial;
+        }, (left, right) -> {
+            for (int q = 0; q < count; q++) {
+                left[q].addAll(right[q]);
+            }
+            return left;
+        });
+        List<List<ScoredId>> results = new ArrayList<>(count);
+        for (int q = 0; q < count; q++) {
+            results.add(heaps == null ? new ArrayList<>() : heaps[q].toSortedList());
+        }
+        return results;
+    }
+
+    /**
+     * Splits the ids of the partition into ranges, reads them in parallel and merges the partial results.
+     *
+     * @return the merged result, or null if the partition has no rows
+     */
+    private static <R> R scan(ConnectionSource connections, String table, ParallelSearch parallelSearch,
+                              RangeReader<R> reader, BinaryOperator<R> merge) throws SQLException {
+        long first;
+        long last;
+        try (Connection conn = connections.get();
+             PreparedStatement stmt = conn.prepareStatement("SELECT MIN(id), MAX(id) FROM " + table)) {
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                first = rs.getLong(1);
+                if (rs.wasNull()) {
+                    return null;
+                }
+                last = rs.getLong(2);
+            }
+        }
+        int partitions = (int) Math.min(last - first + 1, (long) parallelSearch.getParallelism() * PARTITIONS_PER_THREAD);
+        long span = (last - first) / partitions + 1;
+        try {
+            return parallelSearch.map(partitions, 1, (from, to) -> {
+                try (Connection conn = connections.get()) {
+                    return reader.read(conn, first + from * span, Math.min(last, first + to * span - 1));
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            }, merge);
+        } catch (IllegalStateException e) {
+            // Fork/join may wrap the exception of a worker thread once more
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof SQLException) {
+                    throw (SQLException) cause;
+                }
+            }
+            throw e;
+        }
+    }
+
+    private static TopK[] newHeaps(int count, int limit) {
+        TopK[] heaps = new TopK[count];
+        for (int q = 0; q < count; q++) {
+            heaps[q] = new TopK(Math.max(0, limit));
+        }
+        return heaps;
+    }
+}
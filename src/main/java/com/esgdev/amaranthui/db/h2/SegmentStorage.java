@@ -0,0 +1,314 @@
+package com.esgdev.amaranthui.db.h2;
+
+import com.esgdev.amaranthui.db.VectorStorage;
+import com.esgdev.amaranthui.db.index.ParallelSearch;
+import com.esgdev.amaranthui.db.index.ScoredId;
+import com.esgdev.amaranthui.db.segment.SegmentVectorStore;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingConfiguration;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingVector;
+import com.esgdev.amaranthui.engine.embedding.TextEmbedding;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the vectors of an embedding table in memory-mapped segment files, one store per embedding model.
+ * <p>
+ * Rows are written with an empty embedding column. Once they are stored, their vectors are appended to the
+ * segments under their ids, and segment_id and segment_offset are set to point at them. A row without a
+ * pointer, e.g. after a crash in between, is looked up in the segments by its id. Vectors left in the column,
+ * e.g. written while segment storage was turned off, are moved to the segments on startup. When segment
+ * storage is turned off, startup moves the vectors back into the column.
+ * The stores follow the model partitions of the table, and are deleted together with them.
+ */
+final class SegmentStorage {
+    private static final int MOVE_BATCH_SIZE = 1000;
+
+    private final EmbeddingConfiguration config;
+    private final String table;
+    private final ModelPartitions partitions;
+    private final PartitionedScan.ConnectionSource connections;
+    private final Logger logger;
+    private final Map<String, SegmentVectorStore> stores = new ConcurrentHashMap<>();
+
+    SegmentStorage(EmbeddingConfiguration config, ModelPartitions partitions, PartitionedScan.ConnectionSource connections, Logger logger) {
+        this.config = config;
+        this.table = partitions.getTable();
+        this.partitions = partitions;
+        this.connections = connections;
+        this.logger = logger;
+    }
+
+    boolean isEnabled() {
+        return config.getVectorStorage() == VectorStorage.SEGMENTS;
+    }
+
+    private Path directory() {
+        return Paths.get(config.getSegmentDirectory(), table);
+    }
+
+    private Path directory(String model) {
+        return directory().resolve(model.replaceAll("[^A-Za-z0-9._-]", "_"));
+    }
+
+    private SegmentVectorStore store(String model) {
+        return stores.computeIfAbsent(model, key -> {
+            try {
+                SegmentVectorStore store = new SegmentVectorStore(directory(key), config.getSegmentSize());
+                store.setRelocationListener(moved -> updateLocations(key, moved));
+                return store;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open the vector segments of " + table, e);
+            }
+        });
+    }
+
+    /**
+     * Moves the vectors to where the configuration wants them, on startup.
+     */
+    void migrate(Connection connection) throws SQLException {
+        for (ModelPartitions.Partition partition : partitions.all()) {
+            if (isEnabled()) {
+                int moved = moveToSegments(connection, partition);
+                if (moved > 0) {
+                    logger.info("Moved " + moved + " vectors of " + partition.getTable() + " to the segment store");
+                }
+            } else if (Files.isDirectory(directory())) {
+                int moved = moveToTable(connection, partition);
+                if (moved > 0) {
+                    logger.info("Moved " + moved + " vectors of " + partition.getTable() + " back from the segment store");
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the vectors of newly written rows to the segments, replacing earlier vectors of the same ids,
+     * and points the rows at them.
+     */
+    void append(Connection connection, ModelPartitions.Partition partition, List<? extends TextEmbedding> rows) throws SQLException {
+        if (!isEnabled() || rows.isEmpty()) {
+            return;
+        }
+        long[] batch = new long[rows.size()];
+        float[][] normalized = new float[rows.size()][];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = rows.get(i).getId();
+            normalized[i] = rows.get(i).getVector().normalize().toArray();
+        }
+        long[] locations;
+        try {
+            locations = store(partition.getModel()).appendAll(batch, normalized);
+        } catch (IOException e) {
+            throw new SQLException("Failed to write vector segments of " + partition.getTable(), e);
+        }
+        updateLocations(connection, partition, batch, locations);
+    }
+
+    /**
+     * Appends the vectors still held in the embedding column of a partition to the segments and clears the column.
+     *
+     * @return the number of moved vectors
+     */
+    private int moveToSegments(Connection connection, ModelPartitions.Partition partition) throws SQLException {
+        if (!isEnabled()) {
+            return 0;
+        }
+        String select = "SELECT id, embedding FROM " + partition.getTable() + " WHERE embedding IS NOT NULL LIMIT " + MOVE_BATCH_SIZE;
+        SegmentVectorStore store = store(partition.getModel());
+        int moved = 0;
+        while (true) {
+            List<Long> ids = new ArrayList<>();
+            List<float[]> vectors = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement(select);
+                 ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                    vectors.add(VectorCodec.decode(rs.getBytes(2)));
+                }
+            }
+            if (ids.isEmpty()) {
+                return moved;
+            }
+            long[] batch = ids.stream().mapToLong(Long::longValue).toArray();
+            try {
+                updateLocations(connection, partition, batch, store.appendAll(batch, vectors.toArray(new float[0][])));
+            } catch (IOException e) {
+                throw new SQLException("Failed to write vector segments of " + partition.getTable(), e);
+            }
+            moved += batch.length;
+        }
+    }
+
+    private static void updateLocations(Connection connection, ModelPartitions.Partition partition, long[] ids, long[] locations) throws SQLException {
+        String update = "UPDATE " + partition.getTable() + " SET embedding = NULL, segment_id = ?, segment_offset = ? WHERE id = ?";
+        try (PreparedStatement statement = connection.prepareStatement(update)) {
+            for (int i = 0; i < ids.length; i++) {
+                statement.setInt(1, SegmentVectorStore.segmentOf(locations[i]));
+                statement.setLong(2, SegmentVectorStore.offsetOf(locations[i]));
+                statement.setLong(3, ids[i]);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private int moveToTable(Connection connection, ModelPartitions.Partition partition) throws SQLException {
+        String select = "SELECT id, segment_id, segment_offset FROM " + partition.getTable()
+                + " WHERE embedding IS NULL AND id > ? ORDER BY id LIMIT " + MOVE_BATCH_SIZE;
+        String update = "UPDATE " + partition.getTable() + " SET embedding = ?, segment_id = NULL, segment_offset = NULL WHERE id = ?";
+        SegmentVectorStore store = store(partition.getModel());
+        int moved = 0;
+        long after = Long.MIN_VALUE;
+        while (true) {
+            List<Long> ids = new ArrayList<>();
+            List<byte[]> vectors = new ArrayList<>();
+            int read = 0;
+            try (PreparedStatement statement = connection.prepareStatement(select)) {
+                statement.setLong(1, after);
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        long id = rs.getLong(1);
+                        after = id;
+                        read++;
+                        int segment = rs.getInt(2);
+                        float[] vector = rs.wasNull() ? store.read(id)
+                                : store.read(id, SegmentVectorStore.location(segment, (int) rs.getLong(3)));
+                        if (vector == null) {
+                            logger.warning("Vector of row " + id + " in " + partition.getTable() + " is missing from the segment store");
+                            vector = new float[0];
+                        }
+                        ids.add(id);
+                        vectors.add(VectorCodec.encode(EmbeddingVector.wrap(vector), config.getVectorEncoding()));
+                    }
+                }
+            }
+            if (read == 0) {
+                return moved;
+            }
+            try (PreparedStatement statement = connection.prepareStatement(update)) {
+                for (int i = 0; i < ids.size(); i++) {
+                    statement.setBytes(1, vectors.get(i));
+                    statement.setLong(2, ids.get(i));
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            moved += ids.size();
+        }
+    }
+
+    /**
+     * Reads the vector of a row whose embedding column is empty.
+     */
+    EmbeddingVector load(ResultSet rs) throws SQLException {
+        long id = rs.getLong("id");
+        SegmentVectorStore store = store(rs.getString("embedding_model"));
+        long segment = rs.getLong("segment_id");
+        // Without a pointer, e.g. after a crash before it was set, the vector is found by its id
+        float[] vector = rs.wasNull() ? store.read(id)
+                : store.read(id, SegmentVectorStore.location((int) segment, (int) rs.getLong("segment_offset")));
+        return EmbeddingVector.wrap(vector == null ? new float[0] : vector);
+    }
+
+    /**
+     * Exact search over the mapped segments of the model.
+     */
+    List<ScoredId> search(String model, EmbeddingVector query, int limit) {
+        return store(model).search(query.normalize().toArray(), limit, ParallelSearch.of(config.getSearchParallelism()));
+    }
+
+    /**
+     * Drops the vector of a row, before the row itself is deleted.
+     */
+    void delete(String model, long id) throws SQLException {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            store(model).delete(id);
+        } catch (IOException e) {
+            throw new SQLException("Failed to delete from the vector segments of " + table, e);
+        }
+    }
+
+    /**
+     * Closes the store of a dropped model and deletes its files.
+     */
+    void drop(String model) throws SQLException {
+        SegmentVectorStore store = stores.remove(model);
+        Path directory = directory(model);
+        try {
+            if (store != null) {
+                store.close();
+            }
+            if (Files.isDirectory(directory)) {
+                try (Stream<Path> files = Files.walk(directory)) {
+                    for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                        Files.delete(file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new SQLException("Failed to delete the vector segments of " + model + " in " + table, e);
+        }
+    }
+
+    private void updateLocations(String model, Map<Long, Long> moved) {
+        try (Connection connection = connections.get()) {
+            ModelPartitions.Partition partition = partitions.find(connection, model);
+            if (partition == null) {
+                return;
+            }
+            String update = "UPDATE " + partition.getTable() + " SET segment_id = ?, segment_offset = ? WHERE id = ? AND embedding IS NULL";
+            try (PreparedStatement statement = connection.prepareStatement(update)) {
+                for (Map.Entry<Long, Long> entry : moved.entrySet()) {
+                    statement.setInt(1, SegmentVectorStore.segmentOf(entry.getValue()));
+                    statement.setLong(2, SegmentVectorStore.offsetOf(entry.getValue()));
+                    statement.setLong(3, entry.getKey());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        } catch (SQLException e) {
+            // Stale pointers still work, the store falls back to looking the id up
+            logger.log(Level.WARNING, "Failed to update segment pointers of " + table, e);
+        }
+    }
+
+    /**
+     * Orders the hydrated rows like the search hits and sets their scores.
+     */
+    static <T extends TextEmbedding> List<T> rank(List<ScoredId> hits, List<T> rows) {
+        Map<Long, T> byId = new LinkedHashMap<>();
+        for (T row : rows) {
+            byId.put(row.getId(), row);
+        }
+        List<T> ranked = new ArrayList<>();
+        for (ScoredId hit : hits) {
+            T row = byId.get(hit.getId());
+            if (row != null) {
+                row.setSimilarity(hit.getScore());
+                ranked.add(row);
+            }
+        }
+        return ranked;
+    }
+}
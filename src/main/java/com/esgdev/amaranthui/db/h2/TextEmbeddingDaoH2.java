@@ -1,12 +1,24 @@
 package com.esgdev.amaranthui.db.h2;
 
-import com.esgdev.amaranthui.db.EmbeddingDao;
+import com.esgdev.amaranthui.db.IndexableEmbeddingDao;
+import com.esgdev.amaranthui.db.SearchMode;
+import com.esgdev.amaranthui.db.VectorEncoding;
+import com.esgdev.amaranthui.db.filter.IdBitmap;
+import com.esgdev.amaranthui.db.filter.MetadataIndex;
+import com.esgdev.amaranthui.db.filter.SearchFilter;
+import com.esgdev.amaranthui.db.index.ParallelSearch;
+import com.esgdev.amaranthui.db.index.ScoredId;
 import com.esgdev.amaranthui.engine.embedding.TextEmbedding;
 import com.esgdev.amaranthui.engine.embedding.EmbeddingConfiguration;
 
+import javax.sql.DataSource;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 import java.util.logging.Logger;
 
 /**
@@ -15,63 +27,82 @@ import java.util.logging.Logger;
  * storing embeddings with some limitations. This is not a scalable solution, but
  * good for small projects or testing.
  * <p>
+ * The rows of each embedding model live in their own partition table (see {@link ModelPartitions}),
+ * so searches only read the rows of the model they search.
+ * <p>
  * Hint: to browse the database, you can use the builtin tool, for example:
  * java -cp /opt/h2/bin/h2.jar org.h2.tools.Server -help
  */
-public class TextEmbeddingDaoH2 implements EmbeddingDao<TextEmbedding> {
+public class TextEmbeddingDaoH2 implements IndexableEmbeddingDao<TextEmbedding> {
+    private static final String PARTITION_COLUMNS = """
+            chunk VARCHAR NOT NULL,
+            embedding VARBINARY,
+            creation_date TIMESTAMP NOT NULL,
+            last_accessed TIMESTAMP NOT NULL,
+            embedding_model VARCHAR NOT NULL,
+            embedding_q8 VARBINARY,
+            embedding_bits VARBINARY,
+            norm DOUBLE,
+            segment_id INT,
+            segment_offset BIGINT
+            """;
+
     private final EmbeddingConfiguration config;
+    private final DataSource dataSource;
+    private final ModelPartitions partitions;
+    private final SegmentStorage segments;
+    private final MetadataIndex metadata = new MetadataIndex();
     Logger logger = Logger.getLogger(TextEmbeddingDaoH2.class.getName());
 
     public TextEmbeddingDaoH2(EmbeddingConfiguration config) {
+        this(config, new ConnectionPool(config.getJdbcUrl(), config.getJdbcUser(), config.getJdbcPassword(), config.getSearchParallelism()));
+    }
+
+    /**
+     * @param dataSource the connections to use, usually a {@link ConnectionPool} shared with the other DAOs
+     */
+    public TextEmbeddingDaoH2(EmbeddingConfiguration config, DataSource dataSource) {
         this.config = config;
+        this.dataSource = dataSource;
+        this.partitions = new ModelPartitions("embeddings", PARTITION_COLUMNS, logger);
+        this.segments = new SegmentStorage(config, partitions, this::getConnection, logger);
         initializeDatabase();
     }
 
     private Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(config.getJdbcUrl(), config.getJdbcUser(), config.getJdbcPassword());
+        return dataSource.getConnection();
     }
 
     private void initializeDatabase() {
-        String createTableSQL = """
-                CREATE TABLE IF NOT EXISTS embeddings (
-                    id BIGINT PRIMARY KEY AUTO_INCREMENT,
-                    chunk VARCHAR NOT NULL,
-                    embedding DOUBLE ARRAY NOT NULL,
-                    creation_date TIMESTAMP NOT NULL,
-                    last_accessed TIMESTAMP NOT NULL,
-                    embedding_model VARCHAR NOT NULL
-                );
-                """;
-        try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement()) {
-            stmt.execute(createTableSQL);
-            registerVectorFunctions(conn);
+        try (Connection conn = getConnection()) {
+            EmbeddingSchema.registerVectorFunctions(conn);
+            if (partitions.initialize(conn)) {
+                // The single table of an older version: bring its columns up to date, then split it by model
+                EmbeddingSchema.migrateColumns(conn, "embeddings", config.getVectorEncoding(), config.getSearchMode("embeddings"), logger);
+                partitions.split(conn);
+            }
+            for (ModelPartitions.Partition partition : partitions.all()) {
+                EmbeddingSchema.migrateColumns(conn, partition.getTable(), config.getVectorEncoding(), config.getSearchMode("embeddings"), logger);
+            }
+            segments.migrate(conn);
+            loadMetadata(conn);
         } catch (SQLException e) {
             throw new RuntimeException("Failed to initialize database schema", e);
         }
     }
 
-    private static void registerVectorFunctions(Connection connection) throws SQLException {
-        try (Statement statement = connection.createStatement()) {
-            // Drop existing aliases if the class names change
-            //statement.execute("DROP ALIAS COSINE_SIMILARITY IF EXISTS");
-            //statement.execute("DROP ALIAS EUCLIDEAN_DISTANCE IF EXISTS");
-            statement.execute("CREATE ALIAS IF NOT EXISTS COSINE_SIMILARITY FOR \"" + VectorSimilarity.class.getName() + ".cosineSimilarity\"");
-            statement.execute("CREATE ALIAS IF NOT EXISTS EUCLIDEAN_DISTANCE FOR \"" + VectorSimilarity.class.getName() + ".euclideanDistance\"");
-        } catch (SQLException e) {
-            throw new SQLException("Failed to register vector functions", e);
-        }
-    }
-
     @Override
     public TextEmbedding getEmbeddingById(Long id) {
-        String sql = "SELECT * FROM embeddings WHERE id = ?";
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, id);
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return mapResultSetToEmbedding(rs);
+        try (Connection conn = getConnection()) {
+            for (ModelPartitions.Partition partition : partitions.all()) {
+                try (PreparedStatement stmt = conn.prepareStatement("SELECT * FROM " + partition.getTable() + " WHERE id = ?")) {
+                    stmt.setLong(1, id);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        if (rs.next()) {
+                            return mapResultSetToEmbedding(rs);
+                        }
+                    }
+                }
             }
         } catch (SQLException e) {
             logger.log(java.util.logging.Level.SEVERE, "Failed to get embeddings", e);// Handle exceptions properly
@@ -81,13 +112,15 @@ public class TextEmbeddingDaoH2 implements EmbeddingDao<TextEmbedding> {
 
     @Override
     public List<TextEmbedding> getAllEmbeddings() {
-        String sql = "SELECT * FROM embeddings";
         List<TextEmbedding> embeddings = new ArrayList<>();
         try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            while (rs.next()) {
-                embeddings.add(mapResultSetToEmbedding(rs));
+             Statement stmt = conn.createStatement()) {
+            for (ModelPartitions.Partition partition : partitions.all()) {
+                try (ResultSet rs = stmt.executeQuery("SELECT * FROM " + partition.getTable())) {
+                    while (rs.next()) {
+                        embeddings.add(mapResultSetToEmbedding(rs));
+                    }
+                }
             }
         } catch (SQLException e) {
             logger.log(java.util.logging.Level.SEVERE, "Failed to get all embeddings", e); // Handle exceptions properly
@@ -103,60 +136,322 @@ public class TextEmbeddingDaoH2 implements EmbeddingDao<TextEmbedding> {
     }
 
     @Override
-    public void addEmbedding(List<TextEmbedding> embeddings) {
-        String sql = "INSERT INTO embeddings (chunk, embedding, creation_date, last_accessed, embedding_model) VALUES (?, ?, ?, ?, ?)";
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+    public boolean addEmbedding(List<TextEmbedding> embeddings) {
+        Map<String, List<TextEmbedding>> byModel = new LinkedHashMap<>();
+        for (TextEmbedding embedding : embeddings) {
+            byModel.computeIfAbsent(embedding.getEmbeddingModel(), key -> new ArrayList<>()).add(embedding);
+        }
+        try (Connection conn = getConnection()) {
+            // Partitions are created first, since creating a table would commit the open transaction
+            Map<ModelPartitions.Partition, List<TextEmbedding>> byPartition = new LinkedHashMap<>();
+            for (List<TextEmbedding> modelEmbeddings : byModel.values()) {
+                TextEmbedding first = modelEmbeddings.get(0);
+                byPartition.put(partitions.forWrite(conn, first.getEmbeddingModel(), first.getVector().dimension()), modelEmbeddings);
+            }
+            // A large batch, e.g. of a bulk ingestion, is stored in one transaction
+            conn.setAutoCommit(false);
+            try {
+                for (Map.Entry<ModelPartitions.Partition, List<TextEmbedding>> entry : byPartition.entrySet()) {
+                    insert(conn, entry.getKey(), entry.getValue());
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                embeddings.forEach(embedding -> embedding.setId(null));
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            // Only committed rows are indexed and have their vectors appended to the segments
+            for (Map.Entry<ModelPartitions.Partition, List<TextEmbedding>> entry : byPartition.entrySet()) {
+                try {
+                    segments.append(conn, entry.getKey(), entry.getValue());
+                } catch (SQLException e) {
+                    // Rows without their vectors would never be found, so the batch is undone
+                    for (Map.Entry<ModelPartitions.Partition, List<TextEmbedding>> stored : byPartition.entrySet()) {
+                        for (TextEmbedding embedding : stored.getValue()) {
+                            delete(conn, stored.getKey(), embedding.getId());
+                            embedding.setId(null);
+                        }
+                    }
+                    throw e;
+                }
+            }
+            for (TextEmbedding embedding : embeddings) {
+                metadata.put(embedding.getId(), embedding.getEmbeddingModel(), embedding.getCreationDate(), null, null, null, null);
+            }
+            return true;
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to add embeddings", e);
+            return false;
+        }
+    }
+
+    private void insert(Connection conn, ModelPartitions.Partition partition, List<TextEmbedding> embeddings) throws SQLException {
+        String sql = "INSERT INTO " + partition.getTable()
+                + " (chunk, embedding, creation_date, last_accessed, embedding_model, embedding_q8, embedding_bits, norm) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             for (TextEmbedding embedding : embeddings) {
                 stmt.setString(1, embedding.getChunk());
-                stmt.setArray(2, conn.createArrayOf("DOUBLE", embedding.getEmbedding().toArray()));
+                setVector(stmt, 2, embedding);
                 stmt.setTimestamp(3, new java.sql.Timestamp(embedding.getCreationDate().getTime()));
                 stmt.setTimestamp(4, new java.sql.Timestamp(embedding.getLastAccessed().getTime()));
                 stmt.setString(5, embedding.getEmbeddingModel());
+                setCodes(stmt, 6, embedding);
+                stmt.setDouble(8, embedding.getVector().norm());
                 stmt.addBatch();
             }
             stmt.executeBatch();
-        } catch (SQLException e) {
-            logger.log(java.util.logging.Level.SEVERE, "Failed to add embeddings", e);
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                for (int i = 0; i < embeddings.size() && keys.next(); i++) {
+                    embeddings.get(i).setId(keys.getLong(1));
+                }
+            }
         }
     }
 
     @Override
-    public void updateEmbedding(TextEmbedding embedding) {
-        String sql = "UPDATE embeddings SET chunk = ?, embedding = ?, last_accessed = ?, embedding_model = ? WHERE id = ?";
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+    public boolean updateEmbedding(TextEmbedding embedding) {
+        try (Connection conn = getConnection()) {
+            ModelPartitions.Partition partition = partitions.forWrite(conn, embedding.getEmbeddingModel(), embedding.getVector().dimension());
+            String sql = "UPDATE " + partition.getTable()
+                    + " SET chunk = ?, embedding = ?, last_accessed = ?, embedding_model = ?, embedding_q8 = ?, embedding_bits = ?, norm = ? WHERE id = ?";
+            int updated;
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setString(1, embedding.getChunk());
+                setVector(stmt, 2, embedding);
+                stmt.setTimestamp(3, new java.sql.Timestamp(embedding.getLastAccessed().getTime()));
+                stmt.setString(4, embedding.getEmbeddingModel());
+                setCodes(stmt, 5, embedding);
+                stmt.setDouble(7, embedding.getVector().norm());
+                stmt.setLong(8, embedding.getId());
+                updated = stmt.executeUpdate();
+            }
+            if (updated == 0 && !move(conn, embedding, partition)) {
+                logger.warning("No embedding with id " + embedding.getId() + " to update");
+                return false;
+            }
+            // The creation date is not updated, so the indexed one stays
+            metadata.put(embedding.getId(), embedding.getEmbeddingModel(), null, null, null, null, null);
+            segments.append(conn, partition, List.of(embedding));
+            return true;
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to update embeddings", e);
+            return false;
+        }
+    }
+
+    /**
+     * Moves a row whose embedding model changed to the partition of the new model, keeping its id and creation date.
+     * @return false if no partition holds the row
+     */
+    private boolean move(Connection conn, TextEmbedding embedding, ModelPartitions.Partition target) throws SQLException {
+        ModelPartitions.Partition source = partitions.holding(conn, embedding.getId());
+        if (source == null) {
+            return false;
+        }
+        String sql = "INSERT INTO " + target.getTable()
+                + " (id, chunk, embedding, creation_date, last_accessed, embedding_model, embedding_q8, embedding_bits, norm)"
+                + " SELECT id, ?, ?, creation_date, ?, ?, ?, ?, ? FROM " + source.getTable() + " WHERE id = ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setString(1, embedding.getChunk());
-            stmt.setArray(2, conn.createArrayOf("DOUBLE", embedding.getEmbedding().toArray()));
+            setVector(stmt, 2, embedding);
             stmt.setTimestamp(3, new java.sql.Timestamp(embedding.getLastAccessed().getTime()));
             stmt.setString(4, embedding.getEmbeddingModel());
-            stmt.setLong(5, embedding.getId());
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            logger.log(java.util.logging.Level.SEVERE, "Failed to update embeddings", e);
+            setCodes(stmt, 5, embedding);
+            stmt.setDouble(7, embedding.getVector().norm());
+            stmt.setLong(8, embedding.getId());
+            if (stmt.executeUpdate() == 0) {
+                return false;
+            }
+        }
+        delete(conn, source, embedding.getId());
+        return true;
+    }
+
+    /**
+     * Binds the packed vector, or NULL if it goes to the segment store once the row is written.
+     */
+    private void setVector(PreparedStatement stmt, int index, TextEmbedding embedding) throws SQLException {
+        if (segments.isEnabled()) {
+            stmt.setNull(index, Types.VARBINARY);
+        } else {
+            stmt.setBytes(index, VectorCodec.encode(embedding.getVector().normalize(), config.getVectorEncoding()));
         }
     }
 
+    /**
+     * Binds the int8 code and the binary code, each only if the search mode of the table reads it.
+     */
+    private void setCodes(PreparedStatement stmt, int index, TextEmbedding embedding) throws SQLException {
+        SearchMode searchMode = config.getSearchMode("embeddings");
+        stmt.setBytes(index, searchMode == SearchMode.INT8 ? Int8Quantizer.encode(embedding.getVector()) : null);
+        stmt.setBytes(index + 1, searchMode == SearchMode.BINARY ? BinaryQuantizer.encode(embedding.getVector()) : null);
+    }
+
     @Override
     public void deleteEmbedding(Long id) {
-        String sql = "DELETE FROM embeddings WHERE id = ?";
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (Connection conn = getConnection()) {
+            ModelPartitions.Partition partition = partitions.holding(conn, id);
+            if (partition != null) {
+                delete(conn, partition, id);
+            }
+            metadata.remove(id);
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to delete embeddings", e);// Handle exceptions properly
+        }
+    }
+
+    private void delete(Connection conn, ModelPartitions.Partition partition, long id) throws SQLException {
+        segments.delete(partition.getModel(), id);
+        try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM " + partition.getTable() + " WHERE id = ?")) {
             stmt.setLong(1, id);
             stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Deletes the rows with ids from firstId to lastId inclusive with one statement per partition.
+     */
+    @Override
+    public void deleteEmbeddings(long firstId, long lastId) {
+        try (Connection conn = getConnection()) {
+            for (ModelPartitions.Partition partition : partitions.all()) {
+                deleteBetween(conn, partition, firstId, lastId);
+            }
+            IdBitmap deleted = new IdBitmap();
+            for (long id = firstId; id <= lastId; id++) {
+                deleted.add(id);
+            }
+            metadata.removeAll(deleted);
         } catch (SQLException e) {
-            logger.log(java.util.logging.Level.SEVERE, "Failed to delete embeddings", e);// Handle exceptions properly
+            logger.log(java.util.logging.Level.SEVERE, "Failed to delete embeddings", e);
+        }
+    }
+
+    private void deleteBetween(Connection conn, ModelPartitions.Partition partition, long firstId, long lastId) throws SQLException {
+        if (segments.isEnabled()) {
+            for (long id : ModelPartitions.idsBetween(conn, partition, firstId, lastId)) {
+                segments.delete(partition.getModel(), id);
+            }
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM " + partition.getTable() + " WHERE id BETWEEN ? AND ?")) {
+            stmt.setLong(1, firstId);
+            stmt.setLong(2, lastId);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Drops the partition of the model with all its rows, e.g. after switching to another embedding model.
+     */
+    @Override
+    public void deleteEmbeddingModel(String embeddingModel) {
+        try (Connection conn = getConnection()) {
+            if (partitions.drop(conn, embeddingModel) != null) {
+                segments.drop(embeddingModel);
+                metadata.removeAll(metadata.match(embeddingModel, null));
+            }
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to delete embedding model", e);
         }
     }
 
     @Override
     public List<TextEmbedding> findEmbeddingsNear(TextEmbedding sourceEmbedding, int limit) {
+        ModelPartitions.Partition partition;
+        try {
+            partition = partitions.find(this::getConnection, sourceEmbedding.getEmbeddingModel());
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to find similar embeddings", e);
+            return new ArrayList<>();
+        }
+        if (partition == null) {
+            return new ArrayList<>();
+        }
+        if (segments.isEnabled()) {
+            return hydrate(partition.getTable(), segments.search(sourceEmbedding.getEmbeddingModel(), sourceEmbedding.getVector(), limit));
+        }
+        SearchMode searchMode = config.getSearchMode("embeddings");
+        if (searchMode != SearchMode.EXACT) {
+            return findEmbeddingsNearQuantized(partition, sourceEmbedding, limit, searchMode);
+        }
+        if (config.getSearchParallelism() > 1) {
+            try {
+                return hydrate(partition.getTable(), PartitionedScan.search(this::getConnection, "embeddings", partition,
+                        VectorCodec.encode(sourceEmbedding.getVector().normalize(), VectorEncoding.FLOAT32), limit,
+                        ParallelSearch.of(config.getSearchParallelism())));
+            } catch (SQLException e) {
+                logger.log(java.util.logging.Level.SEVERE, "Failed to find similar embeddings", e);
+                return new ArrayList<>();
+            }
+        }
+        // TOP_K keeps only the best rows while it scans, so only those are joined back and sorted
         String sql = """
-                WITH Similarities AS (
-                    SELECT id, chunk, embedding, creation_date, last_accessed, embedding_model,
-                           COSINE_SIMILARITY(embedding, ?) AS similarity
-                    FROM embeddings
-                    WHERE embedding_model = ? -- Filter by the current embedding model
+                SELECT e.id, e.chunk, e.embedding, e.creation_date, e.last_accessed, e.embedding_model, t.score AS similarity
+                FROM TOP_K('embeddings', ?, ?, ?) t
+                JOIN %s e ON e.id = t.id
+                ORDER BY t.score DESC;
+                """.formatted(partition.getTable());
+
+        List<TextEmbedding> similarEmbeddings = new ArrayList<>();
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, sourceEmbedding.getEmbeddingModel()); // Selects the partition to scan
+            // Pack the normalized query like the stored vectors, in full precision
+            stmt.setBytes(2, VectorCodec.encode(sourceEmbedding.getVector().normalize(), VectorEncoding.FLOAT32));
+            stmt.setInt(3, limit);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    similarEmbeddings.add(mapResultSetToEmbedding(rs));
+                }
+            }
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to find similar embeddings", e);
+        }
+        return similarEmbeddings;
+    }
+
+    /**
+     * Resolves the filter on the metadata bitmaps first, then scores only the vectors of the matching rows.
+     * Text embeddings have no topic, role, conversation or user, so filters on those match nothing.
+     */
+    @Override
+    public List<TextEmbedding> findEmbeddingsNear(TextEmbedding sourceEmbedding, SearchFilter filter, int limit) {
+        IdBitmap matches = metadata.match(sourceEmbedding.getEmbeddingModel(), filter);
+        try {
+            ModelPartitions.Partition partition = partitions.find(this::getConnection, sourceEmbedding.getEmbeddingModel());
+            if (partition == null) {
+                return new ArrayList<>();
+            }
+            return hydrate(partition.getTable(), FilteredScan.search(this::getConnection, partition.getTable(), segments, matches,
+                    sourceEmbedding.getVector().normalize().toArray(), limit, ParallelSearch.of(config.getSearchParallelism())));
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to find similar embeddings", e);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Two-phase search: ranks every row by a cheap score over a quantized column, integer dot products over
+     * the int8 copy (an eighth of the bytes of the DOUBLE ARRAY) or Hamming distance over the sign bits,
+     * then rescores the shortlist exactly.
+     */
+    private List<TextEmbedding> findEmbeddingsNearQuantized(ModelPartitions.Partition partition, TextEmbedding sourceEmbedding,
+                                                            int limit, SearchMode searchMode) {
+        String sql = """
+                WITH Candidates AS (
+                    SELECT id
+                    FROM %1$s
+                    WHERE %2$s IS NOT NULL
+                    ORDER BY %3$s
+                    LIMIT ?
+                ), Similarities AS (
+                    SELECT e.id, e.chunk, e.embedding, e.creation_date, e.last_accessed, e.embedding_model,
+                           PACKED_DOT_PRODUCT(e.embedding, ?) AS similarity
+                    FROM %1$s e
+                    JOIN Candidates c ON e.id = c.id
                 )
                 SELECT id, chunk, embedding, creation_date, last_accessed, embedding_model, similarity
                 FROM Similarities
@@ -164,15 +459,18 @@ public class TextEmbeddingDaoH2 implements EmbeddingDao<TextEmbedding> {
                 ORDER BY similarity DESC
                 LIMIT ?;
                 """;
+        boolean binary = searchMode == SearchMode.BINARY;
+        sql = String.format(sql, partition.getTable(), binary ? "embedding_bits" : "embedding_q8",
+                binary ? "HAMMING_DISTANCE(embedding_bits, ?) ASC" : "INT8_SIMILARITY(embedding_q8, ?) DESC");
 
         List<TextEmbedding> similarEmbeddings = new ArrayList<>();
         try (Connection conn = getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
-            // Convert sourceEmbedding's embedding to SQL array
-            Array embeddingArray = conn.createArrayOf("DOUBLE", sourceEmbedding.getEmbedding().toArray());
-            stmt.setObject(1, embeddingArray);
-            stmt.setString(2, sourceEmbedding.getEmbeddingModel()); // Set the embedding model filter
-            stmt.setInt(3, limit);
+            stmt.setBytes(1, binary ? BinaryQuantizer.encode(sourceEmbedding.getVector())
+                    : Int8Quantizer.encode(sourceEmbedding.getVector()));
+            stmt.setInt(2, limit * (binary ? config.getBinaryRerankFactor() : config.getRerankFactor()));
+            stmt.setBytes(3, VectorCodec.encode(sourceEmbedding.getVector().normalize(), VectorEncoding.FLOAT32));
+            stmt.setInt(4, limit);
 
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
@@ -185,24 +483,144 @@ public class TextEmbeddingDaoH2 implements EmbeddingDao<TextEmbedding> {
         return similarEmbeddings;
     }
 
+    /**
+     * Exact searches read the table once for the whole batch; the other modes search each query on its own.
+     */
+    @Override
+    public List<List<TextEmbedding>> findEmbeddingsNear(List<TextEmbedding> sourceEmbeddings, int limit) {
+        if (sourceEmbeddings.size() < 2 || segments.isEnabled() || config.getSearchMode("embeddings") != SearchMode.EXACT) {
+            return IndexableEmbeddingDao.super.findEmbeddingsNear(sourceEmbeddings, limit);
+        }
+        try {
+            return PartitionedScan.searchBatch(this::getConnection, partitions, sourceEmbeddings, limit,
+                    ParallelSearch.of(config.getSearchParallelism()), this::hydrate);
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to find similar embeddings", e);
+            List<List<TextEmbedding>> empty = new ArrayList<>();
+            for (int i = 0; i < sourceEmbeddings.size(); i++) {
+                empty.add(new ArrayList<>());
+            }
+            return empty;
+        }
+    }
+
+    /**
+     * Loads the rows of the search hits from the partition, in the order of the hits and with their scores.
+     */
+    private List<TextEmbedding> hydrate(String table, List<ScoredId> hits) {
+        List<Long> ids = new ArrayList<>();
+        for (ScoredId hit : hits) {
+            ids.add(hit.getId());
+        }
+        List<TextEmbedding> rows = new ArrayList<>();
+        try (Connection conn = getConnection()) {
+            rows = getEmbeddingsByIds(conn, table, ids);
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to get embeddings by id", e);
+        }
+        return SegmentStorage.rank(hits, rows);
+    }
+
+    @Override
+    public List<TextEmbedding> getEmbeddingsByIds(List<Long> ids) {
+        List<TextEmbedding> embeddings = new ArrayList<>();
+        try (Connection conn = getConnection()) {
+            for (ModelPartitions.Partition partition : partitions.all()) {
+                embeddings.addAll(getEmbeddingsByIds(conn, partition.getTable(), ids));
+            }
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to get embeddings by id", e);
+        }
+        return embeddings;
+    }
+
+    private List<TextEmbedding> getEmbeddingsByIds(Connection conn, String table, List<Long> ids) throws SQLException {
+        List<TextEmbedding> embeddings = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT * FROM " + table + " WHERE id = ANY(?)")) {
+            stmt.setArray(1, conn.createArrayOf("BIGINT", ids.toArray()));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    embeddings.add(mapResultSetToEmbedding(rs));
+                }
+            }
+        }
+        return embeddings;
+    }
+
+    @Override
+    public void forEachEmbedding(String embeddingModel, Consumer<TextEmbedding> consumer) {
+        try (Connection conn = getConnection()) {
+            ModelPartitions.Partition partition = partitions.find(conn, embeddingModel);
+            if (partition == null) {
+                return;
+            }
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT * FROM " + partition.getTable() + " ORDER BY id")) {
+                while (rs.next()) {
+                    consumer.accept(mapResultSetToEmbedding(rs));
+                }
+            }
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to scan embeddings", e);
+        }
+    }
+
+    @Override
+    public void forEachEmbeddingId(String embeddingModel, LongConsumer consumer) {
+        try (Connection conn = getConnection()) {
+            ModelPartitions.Partition partition = partitions.find(conn, embeddingModel);
+            if (partition == null) {
+                return;
+            }
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT id FROM " + partition.getTable())) {
+                while (rs.next()) {
+                    consumer.accept(rs.getLong(1));
+                }
+            }
+        } catch (SQLException e) {
+            logger.log(java.util.logging.Level.SEVERE, "Failed to scan embedding ids", e);
+        }
+    }
+
+    /**
+     * Builds the metadata bitmaps from the partitions, reading only the filterable columns.
+     */
+    private void loadMetadata(Connection conn) throws SQLException {
+        metadata.clear();
+        for (ModelPartitions.Partition partition : partitions.all()) {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT id, embedding_model, creation_date FROM " + partition.getTable())) {
+                while (rs.next()) {
+                    metadata.put(rs.getLong(1), rs.getString(2), rs.getTimestamp(3), null, null, null, null);
+                }
+            }
+        }
+    }
+
     private TextEmbedding mapResultSetToEmbedding(ResultSet rs) throws SQLException {
         TextEmbedding embedding = new TextEmbedding();
         embedding.setId(rs.getLong("id"));
         embedding.setChunk(rs.getString("chunk"));
-        Array embeddingArray = rs.getArray("embedding");
-        if (embeddingArray != null) {
-            Object[] objectArray = (Object[]) embeddingArray.getArray();
-            List<Double> embeddingValues = new ArrayList<>();
-            for (Object obj : objectArray) {
-                embeddingValues.add(((Number) obj).doubleValue());
-            }
-            embedding.setEmbedding(embeddingValues);
-        } else {
-            embedding.setEmbedding(new ArrayList<>());
-        }
+        // Decodes straight from the packed bytes, or reads the vector from the segment store
+        byte[] packed = rs.getBytes("embedding");
+        embedding.setVector(packed != null || !hasColumn(rs, "segment_id") ? VectorCodec.decodeVector(packed) : segments.load(rs));
         embedding.setCreationDate(rs.getTimestamp("creation_date"));
         embedding.setLastAccessed(rs.getTimestamp("last_accessed"));
         embedding.setEmbeddingModel(rs.getString("embedding_model"));
+        if (hasColumn(rs, "similarity")) {
+            embedding.setSimilarity(rs.getDouble("similarity"));
+        }
         return embedding;
     }
-}
\ No newline at end of file
+
+    private static boolean hasColumn(ResultSet rs, String column) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            if (column.equalsIgnoreCase(metaData.getColumnLabel(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
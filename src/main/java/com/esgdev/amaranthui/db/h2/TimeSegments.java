@@ -0,0 +1,499 @@
+package com.esgdev.amaranthui.db.h2;
+
+import com.esgdev.amaranthui.db.VectorEncoding;
+import com.esgdev.amaranthui.db.index.ParallelSearch;
+import com.esgdev.amaranthui.db.index.ScoredId;
+import com.esgdev.amaranthui.db.index.TopK;
+import com.esgdev.amaranthui.db.kernel.VectorKernels;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingVector;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Groups the rows of a partition into time segments by creation date, e.g. one per week, for searches
+ * that skip whole segments.
+ * <p>
+ * Every row carries the number of its segment in the indexed time_segment column, and the time_segments
+ * table keeps a summary per segment: row count, date range and the largest original vector norm. Once a
+ * segment lies in the past it is sealed: the centroid of its normalized vectors and the largest distance
+ * of a vector from it are recorded. As the vectors are normalized, no row of a sealed segment can score
+ * higher than {@code dot(query, centroid) + radius}. A search scans the segments in the order of that
+ * bound, a wave of segments in parallel, and stops as soon as no remaining segment can beat the top-k
+ * found so far; segments outside a date range are never read. A write to a sealed segment unseals it
+ * until it is sealed again.
+ */
+final class TimeSegments {
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    // Covers the rounding of the float32 vectors the bound is computed from
+    private static final double BOUND_SLACK = 1e-5;
+
+    private final int days;
+    private final Logger logger;
+    private final Map<String, TreeMap<Long, Summary>> summaries = new ConcurrentHashMap<>();
+
+    /**
+     * The summary of one segment of a partition.
+     */
+    static final class Summary {
+        private final long segment;
+        private final long rowCount;
+        private final Date firstDate;
+        private final Date lastDate;
+        private final float[] centroid;
+        private final double radius;
+
+        Summary(long segment, long rowCount, Date firstDate, Date lastDate, float[] centroid, double radius) {
+            this.segment = segment;
+            this.rowCount = rowCount;
+            this.firstDate = firstDate;
+            this.lastDate = lastDate;
+            this.centroid = centroid;
+            this.radius = radius;
+        }
+
+        boolean isSealed() {
+            return centroid != null;
+        }
+
+        /**
+         * @return the highest score a row of the segment can reach, or positive infinity if not sealed
+         */
+        double bound(float[] query) {
+            if (centroid == null || centroid.length != query.length) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return VectorKernels.dot(query, centroid) + radius + BOUND_SLACK;
+        }
+
+        boolean overlaps(Date from, Date to) {
+            return (from == null || !lastDate.before(from)) && (to == null || !firstDate.after(to));
+        }
+    }
+
+    /**
+     * @param days the width of a segment in days, 0 to disable the segments
+     */
+    TimeSegments(int days, Logger logger) {
+        this.days = days;
+        this.logger = logger;
+    }
+
+    boolean isEnabled() {
+        return days > 0;
+    }
+
+    /**
+     * @return the segment of a creation date
+     */
+    long segmentOf(Date creationDate) {
+        return Math.floorDiv(creationDate.getTime(), days * DAY_MILLIS);
+    }
+
+    /**
+     * Creates the summary table and the index of the partition, assigns the rows without a segment, or all
+     * rows if the segment width has changed, and seals the segments that have ended.
+     */
+    synchronized void prepare(Connection conn, ModelPartitions.Partition partition, SegmentStorage segments) throws SQLException {
+        if (!isEnabled() || summaries.containsKey(partition.getTable())) {
+            return;
+        }
+        String table = partition.getTable();
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS time_segments (
+                        partition_table VARCHAR NOT NULL,
+                        time_segment BIGINT NOT NULL,
+                        days INT NOT NULL,
+                        row_count BIGINT NOT NULL,
+                        first_date TIMESTAMP NOT NULL,
+                        last_date TIMESTAMP NOT NULL,
+                        max_norm DOUBLE,
+                        centroid VARBINARY,
+                        radius DOUBLE,
+                        PRIMARY KEY (partition_table, time_segment)
+                    )""");
+            stmt.execute("ALTER TABLE " + table + " ADD COLUMN IF NOT EXISTS time_segment BIGINT");
+            stmt.execute("CREATE INDEX IF NOT EXISTS " + table + "_time_segment ON " + table + " (time_segment)");
+        }
+        boolean resized;
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM time_segments WHERE partition_table = ? AND days <> ?")) {
+            stmt.setString(1, table);
+            stmt.setInt(2, days);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                resized = rs.getLong(1) > 0;
+            }
+        }
+        if (resized) {
+            delete(conn, table);
+        }
+        Set<Long> assigned = assign(conn, table, resized ? "" : " WHERE time_segment IS NULL");
+        TreeMap<Long, Summary> loaded = new TreeMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT time_segment, row_count, first_date, last_date, centroid, radius FROM time_segments WHERE partition_table = ?")) {
+            stmt.setString(1, table);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    byte[] centroid = rs.getBytes(5);
+                    loaded.put(rs.getLong(1), new Summary(rs.getLong(1), rs.getLong(2), rs.getTimestamp(3), rs.getTimestamp(4),
+                            centroid == null ? null : VectorCodec.decode(centroid), rs.getDouble(6)));
+                }
+            }
+        }
+        summaries.put(table, loaded);
+        if (!assigned.isEmpty()) {
+            logger.info("Assigned the rows of " + table + " to " + assigned.size() + " time segments");
+            refresh(conn, partition, segments, assigned);
+        } else {
+            sealEnded(conn, partition, segments);
+        }
+    }
+
+    /**
+     * Sets the segment of the selected rows from their creation date.
+     *
+     * @return the segments the rows were assigned to
+     */
+    private Set<Long> assign(Connection conn, String table, String where) throws SQLException {
+        Set<Long> assigned = new TreeSet<>();
+        try (Statement select = conn.createStatement();
+             ResultSet rs = select.executeQuery("SELECT id, creation_date FROM " + table + where);
+             PreparedStatement update = conn.prepareStatement("UPDATE " + table + " SET time_segment = ? WHERE id = ?")) {
+            int batched = 0;
+            while (rs.next()) {
+                long segment = segmentOf(rs.getTimestamp(2));
+                assigned.add(segment);
+                update.setLong(1, segment);
+                update.setLong(2, rs.getLong(1));
+                update.addBatch();
+                if (++batched % 1000 == 0) {
+                    update.executeBatch();
+                }
+            }
+            update.executeBatch();
+        }
+        return assigned;
+    }
+
+    /**
+     * @return the segments holding the given rows
+     */
+    Set<Long> segmentsOf(Connection conn, ModelPartitions.Partition partition, Collection<Long> ids) throws SQLException {
+        Set<Long> found = new TreeSet<>();
+        if (!isEnabled() || ids.isEmpty()) {
+            return found;
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT DISTINCT time_segment FROM " + partition.getTable() + " WHERE id = ANY(?) AND time_segment IS NOT NULL")) {
+            stmt.setArray(1, conn.createArrayOf("BIGINT", ids.toArray()));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    found.add(rs.getLong(1));
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Recomputes the summaries of segments that were written to, which unseals them, then seals the
+     * segments that have ended.
+     */
+    synchronized void refresh(Connection conn, ModelPartitions.Partition partition, SegmentStorage segments,
+                              Collection<Long> written) throws SQLException {
+        if (!isEnabled()) {
+            return;
+        }
+        prepare(conn, partition, segments);
+        TreeMap<Long, Summary> cached = summaries.get(partition.getTable());
+        String table = partition.getTable();
+        for (long segment : written) {
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT COUNT(*), MIN(creation_date), MAX(creation_date), MAX(norm) FROM " + table + " WHERE time_segment = ?")) {
+                stmt.setLong(1, segment);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    rs.next();
+                    long rows = rs.getLong(1);
+                    if (rows == 0) {
+                        deleteSegment(conn, table, segment);
+                        cached.remove(segment);
+                        continue;
+                    }
+                    Timestamp first = rs.getTimestamp(2);
+                    Timestamp last = rs.getTimestamp(3);
+                    double maxNorm = rs.getDouble(4);
+                    write(conn, table, segment, rows, first, last, maxNorm);
+                    cached.put(segment, new Summary(segment, rows, first, last, null, 0));
+                }
+            }
+        }
+        sealEnded(conn, partition, segments);
+    }
+
+    /**
+     * Seals every segment that ended before the current one.
+     */
+    private void sealEnded(Connection conn, ModelPartitions.Partition partition, SegmentStorage segments) throws SQLException {
+        TreeMap<Long, Summary> cached = summaries.get(partition.getTable());
+        long current = segmentOf(new Date());
+        for (Summary summary : new ArrayList<>(cached.headMap(current).values())) {
+            if (!summary.isSealed()) {
+                seal(conn, partition, segments, summary);
+            }
+        }
+    }
+
+    /**
+     * Computes the centroid of the segment and the largest distance of a vector from it, in two passes.
+     */
+    private void seal(Connection conn, ModelPartitions.Partition partition, SegmentStorage segments, Summary summary) throws SQLException {
+        String table = partition.getTable();
+        double[] sum = null;
+        long count = 0;
+        try (PreparedStatement stmt = vectors(conn, table, summary.segment);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                float[] vector = read(rs, segments);
+                if (vector == null) {
+                    continue;
+                }
+                if (sum == null) {
+                    sum = new double[vector.length];
+                }
+                if (vector.length != sum.length) {
+                    continue;
+                }
+                for (int i = 0; i < vector.length; i++) {
+                    sum[i] += vector[i];
+                }
+                count++;
+            }
+        }
+        if (sum == null) {
+            return;
+        }
+        float[] centroid = new float[sum.length];
+        for (int i = 0; i < sum.length; i++) {
+            centroid[i] = (float) (sum[i] / count);
+        }
+        double radius = 0;
+        try (PreparedStatement stmt = vectors(conn, table, summary.segment);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                float[] vector = read(rs, segments);
+                if (vector == null || vector.length != centroid.length) {
+                    continue;
+                }
+                double distance = 0;
+                for (int i = 0; i < vector.length; i++) {
+                    double difference = vector[i] - centroid[i];
+                    distance += difference * difference;
+                }
+                radius = Math.max(radius, Math.sqrt(distance));
+            }
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "UPDATE time_segments SET centroid = ?, radius = ? WHERE partition_table = ? AND time_segment = ?")) {
+            stmt.setBytes(1, VectorCodec.encode(EmbeddingVector.wrap(centroid), VectorEncoding.FLOAT32));
+            stmt.setDouble(2, radius);
+            stmt.setString(3, table);
+            stmt.setLong(4, summary.segment);
+            stmt.executeUpdate();
+        }
+        summaries.get(table).put(summary.segment, new Summary(summary.segment, summary.rowCount, summary.firstDate, summary.lastDate,
+                centroid, radius));
+    }
+
+    /**
+     * Forgets the segments of a dropped partition.
+     */
+    synchronized void drop(Connection conn, ModelPartitions.Partition partition) throws SQLException {
+        if (summaries.remove(partition.getTable()) != null) {
+            delete(conn, partition.getTable());
+        }
+    }
+
+    /**
+     * Searches the segments of the partition that overlap the date range, most promising first, skipping
+     * those that cannot hold a better row than the ones found.
+     *
+     * @param query the normalized query
+     * @param from the earliest creation date, or null
+     * @param to the latest creation date, or null
+     * @return the best ids by descending dot product
+     */
+    List<ScoredId> search(PartitionedScan.ConnectionSource connections, ModelPartitions.Partition partition, SegmentStorage segments,
+                          float[] query, int limit, Date from, Date to, ParallelSearch parallelSearch) throws SQLException {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        TreeMap<Long, Summary> cached = summaries.get(partition.getTable());
+        if (cached == null) {
+            // Created by another DAO on the same database
+            try (Connection conn = connections.get()) {
+                prepare(conn, partition, segments);
+            }
+            cached = summaries.get(partition.getTable());
+        }
+        List<Summary> overlapping = new ArrayList<>();
+        for (Summary summary : snapshot(cached)) {
+            if (summary.overlaps(from, to)) {
+                overlapping.add(summary);
+            }
+        }
+        double[] bounds = new double[overlapping.size()];
+        Integer[] order = new Integer[overlapping.size()];
+        for (int i = 0; i < order.length; i++) {
+            bounds[i] = overlapping.get(i).bound(query);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(bounds[b], bounds[a]));
+        List<Summary> candidates = new ArrayList<>(order.length);
+        for (Integer i : order) {
+            candidates.add(overlapping.get(i));
+        }
+        String sql = "SELECT id, embedding, embedding_model, segment_id, segment_offset FROM " + partition.getTable()
+                + " WHERE time_segment = ?" + (from != null ? " AND creation_date >= ?" : "") + (to != null ? " AND creation_date <= ?" : "");
+        TopK topK = new TopK(limit);
+        int wave = parallelSearch.getParallelism();
+        try {
+            for (int start = 0; start < candidates.size(); start += wave) {
+                if (bounds[order[start]] < topK.threshold()) {
+                    break;
+                }
+                int first = start;
+                int end = Math.min(candidates.size(), start + wave);
+                double threshold = topK.threshold();
+                while (end > first + 1 && bounds[order[end - 1]] < threshold) {
+                    end--;
+                }
+                TopK partial = parallelSearch.map(end - first, 1, (low, high) -> {
+                    TopK heap = new TopK(limit);
+                    try (Connection conn = connections.get();
+                         PreparedStatement stmt = conn.prepareStatement(sql)) {
+                        for (int i = first + low; i < first + high; i++) {
+                            scan(stmt, segments, candidates.get(i).segment, from, to, query, heap);
+                        }
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return heap;
+                }, (left, right) -> {
+                    left.addAll(right);
+                    return left;
+                });
+                topK.addAll(partial);
+            }
+        } catch (IllegalStateException e) {
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof SQLException) {
+                    throw (SQLException) cause;
+                }
+            }
+            throw e;
+        }
+        return topK.toSortedList();
+    }
+
+    private static void scan(PreparedStatement stmt, SegmentStorage segments, long segment, Date from, Date to,
+                             float[] query, TopK heap) throws SQLException {
+        int parameter = 1;
+        stmt.setLong(parameter++, segment);
+        if (from != null) {
+            stmt.setTimestamp(parameter++, new Timestamp(from.getTime()));
+        }
+        if (to != null) {
+            stmt.setTimestamp(parameter, new Timestamp(to.getTime()));
+        }
+        float[] vector = new float[query.length];
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                byte[] packed = rs.getBytes(2);
+                if (packed != null) {
+                    if (VectorCodec.dimension(packed) != query.length) {
+                        continue;
+                    }
+                    VectorCodec.decode(packed, vector);
+                    heap.offer(rs.getLong(1), VectorKernels.dot(query, vector));
+                } else {
+                    float[] stored = segments.load(rs).toArray();
+                    if (stored.length == query.length) {
+                        heap.offer(rs.getLong(1), VectorKernels.dot(query, stored));
+                    }
+                }
+            }
+        }
+    }
+
+    private synchronized List<Summary> snapshot(TreeMap<Long, Summary> cached) {
+        return new ArrayList<>(cached.values());
+    }
+
+    private static PreparedStatement vectors(Connection conn, String table, long segment) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(
+                "SELECT id, embedding, embedding_model, segment_id, segment_offset FROM " + table + " WHERE time_segment = ?");
+        stmt.setLong(1, segment);
+        return stmt;
+    }
+
+    private static float[] read(ResultSet rs, SegmentStorage segments) throws SQLException {
+        byte[] packed = rs.getBytes(2);
+        if (packed != null) {
+            return VectorCodec.decode(packed);
+        }
+        float[] stored = segments.load(rs).toArray();
+        return stored.length == 0 ? null : stored;
+    }
+
+    /**
+     * Stores the summary of a segment, unsealed.
+     */
+    private void write(Connection conn, String table, long segment, long rows, Timestamp first, Timestamp last, double maxNorm)
+            throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("""
+                MERGE INTO time_segments (partition_table, time_segment, days, row_count, first_date, last_date, max_norm, centroid, radius)
+                KEY (partition_table, time_segment)
+                VALUES (?, ?, ?, ?, ?, ?, ?, NULL, NULL)
+                """)) {
+            stmt.setString(1, table);
+            stmt.setLong(2, segment);
+            stmt.setInt(3, days);
+            stmt.setLong(4, rows);
+            stmt.setTimestamp(5, first);
+            stmt.setTimestamp(6, last);
+            stmt.setDouble(7, maxNorm);
+            stmt.executeUpdate();
+        }
+    }
+
+    private static void deleteSegment(Connection conn, String table, long segment) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM time_segments WHERE partition_table = ? AND time_segment = ?")) {
+            stmt.setString(1, table);
+            stmt.setLong(2, segment);
+            stmt.executeUpdate();
+        }
+    }
+
+    private static void delete(Connection conn, String table) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM time_segments WHERE partition_table = ?")) {
+            stmt.setString(1, table);
+            stmt.executeUpdate();
+        }
+    }
+}
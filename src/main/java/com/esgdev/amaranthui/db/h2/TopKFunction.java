@@ -0,0 +1,100 @@
+package com.esgdev.amaranthui.db.h2;
+
+import com.esgdev.amaranthui.db.index.ScoredId;
+import com.esgdev.amaranthui.db.index.TopK;
+import org.h2.tools.SimpleResultSet;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Set;
+
+/**
+ * The TOP_K table function: {@code SELECT id, score FROM TOP_K('embeddings', model, query, k)}.
+ * <p>
+ * It streams the packed vectors of the partition of one model through a bounded heap and returns only the
+ * k best ids with their dot product with the query, so the caller joins back for the metadata of k rows instead of
+ * scoring every row into a CTE and sorting it. {@code TOP_K('embeddings', model, query, k, fromId, toId)} scans
+ * only an id range, e.g. one range of a {@link PartitionedScan}.
+ */
+public final class TopKFunction {
+    private static final Set<String> TABLES = Set.of("embeddings", "chat_chunk_embeddings");
+
+    private TopKFunction() {
+    }
+
+    /**
+     * @param conn the connection of the calling statement, passed in by H2
+     * @param table one of the embedding tables; the partition of the model is read
+     * @param model the embedding model whose rows are searched
+     * @param query the normalized query vector, packed by {@link VectorCodec}
+     * @param k the number of rows to return
+     * @return a result set of ID and SCORE, ordered by descending score
+     */
+    public static ResultSet topK(Connection conn, String table, String model, byte[] query, Integer k) throws SQLException {
+        return topK(conn, table, model, query, k, null, null);
+    }
+
+    /**
+     * Like {@link #topK(Connection, String, String, byte[], Integer)}, but only over the rows with ids in a range.
+     *
+     * @param fromId the first id of the range, or null for all rows
+     * @param toId the last id of the range, inclusive
+     */
+    public static ResultSet topK(Connection conn, String table, String model, byte[] query, Integer k, Long fromId, Long toId)
+            throws SQLException {
+        SimpleResultSet result = new SimpleResultSet();
+        result.addColumn("ID", Types.BIGINT, 19, 0);
+        result.addColumn("SCORE", Types.DOUBLE, 17, 0);
+        // H2 calls the function once while compiling the statement, only to learn the columns
+        if ("jdbc:columnlist:connection".equals(conn.getMetaData().getURL())) {
+            return result;
+        }
+        if (table == null || !TABLES.contains(table.toLowerCase())) {
+            throw new SQLException("TOP_K does not search table " + table);
+        }
+        if (query == null || k == null || k <= 0) {
+            return result;
+        }
+        String partition = null;
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT partition_table FROM embedding_partitions WHERE base_table = ? AND embedding_model = ?")) {
+            stmt.setString(1, table.toLowerCase());
+            stmt.setString(2, model);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    partition = rs.getString(1);
+                }
+            }
+        }
+        if (partition == null) {
+            return result;
+        }
+        TopK topK = new TopK(k);
+        String sql = "SELECT id, embedding FROM " + partition + " WHERE embedding IS NOT NULL";
+        boolean range = fromId != null && toId != null;
+        if (range) {
+            sql += " AND id BETWEEN ? AND ?";
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            if (range) {
+                stmt.setLong(1, fromId);
+                stmt.setLong(2, toId);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Double score = VectorCodec.dotProduct(rs.getBytes(2), query);
+                    if (score != null) {
+                        topK.offer(rs.getLong(1), score);
+                    }
+                }
+            }
+        }
+        for (ScoredId hit : topK.toSortedList()) {
+            result.addRow(hit.getId(), hit.getScore());
+        }
+        return result;
+    }
+}
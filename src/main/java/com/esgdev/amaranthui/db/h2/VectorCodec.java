@@ -0,0 +1,173 @@
+package com.esgdev.amaranthui.db.h2;
+
+import com.esgdev.amaranthui.db.VectorEncoding;
+import com.esgdev.amaranthui.db.kernel.VectorKernels;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingVector;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * Packs embedding vectors into VARBINARY values.
+ * <p>
+ * The first byte tells the format (1 for float32, 2 for float16), followed by the little-endian
+ * components. Values are read straight from the byte array with VarHandles, without boxing.
+ */
+public final class VectorCodec {
+    private static final byte FLOAT32 = 1;
+    private static final byte FLOAT16 = 2;
+    private static final int HEADER_SIZE = 1;
+    private static final VarHandle FLOATS = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle SHORTS = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private VectorCodec() {
+    }
+
+    public static byte[] encode(List<Double> vector, VectorEncoding encoding) {
+        return encode(EmbeddingVector.of(vector), encoding);
+    }
+
+    public static byte[] encode(EmbeddingVector vector, VectorEncoding encoding) {
+        int dimension = vector.dimension();
+        if (encoding == VectorEncoding.FLOAT16) {
+            byte[] bytes = new byte[HEADER_SIZE + dimension * 2];
+            bytes[0] = FLOAT16;
+            for (int i = 0; i < dimension; i++) {
+                SHORTS.set(bytes, HEADER_SIZE + i * 2, floatToHalf(vector.get(i)));
+            }
+            return bytes;
+        }
+        byte[] bytes = new byte[HEADER_SIZE + dimension * 4];
+        bytes[0] = FLOAT32;
+        for (int i = 0; i < dimension; i++) {
+            FLOATS.set(bytes, HEADER_SIZE + i * 4, vector.get(i));
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of components of a packed vector
+     */
+    public static int dimension(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return 0;
+        }
+        return (bytes.length - HEADER_SIZE) / (bytes[0] == FLOAT16 ? 2 : 4);
+    }
+
+    public static float[] decode(byte[] bytes) {
+        float[] vector = new float[dimension(bytes)];
+        decode(bytes, vector);
+        return vector;
+    }
+
+    /**
+     * Decodes into a reusable array, which must hold at least {@link #dimension(byte[])} values.
+     *
+     * @return the dimension
+     */
+    public static int decode(byte[] bytes, float[] into) {
+        int dimension = dimension(bytes);
+        for (int i = 0; i < dimension; i++) {
+            into[i] = get(bytes, i);
+        }
+        return dimension;
+    }
+
+    /**
+     * @return the decoded vector, empty for a null value
+     */
+    public static EmbeddingVector decodeVector(byte[] bytes) {
+        return EmbeddingVector.wrap(decode(bytes));
+    }
+
+    /**
+     * @return a read-only list view of the decoded vector
+     */
+    public static List<Double> decodeList(byte[] bytes) {
+        return decodeVector(bytes).asList();
+    }
+
+    /**
+     * Dot product of two packed vectors, the cosine similarity of unit vectors.
+     *
+     * @return the dot product, or null if the dimensions differ
+     */
+    public static Double dotProduct(byte[] vectorA, byte[] vectorB) {
+        int dimension = dimension(vectorA);
+        if (vectorA == null || vectorB == null || dimension != dimension(vectorB)) {
+            return null;
+        }
+        if (vectorA[0] == FLOAT32 && vectorB[0] == FLOAT32) {
+            return (double) VectorKernels.dotPacked(vectorA, HEADER_SIZE, vectorB, HEADER_SIZE, dimension);
+        }
+        double sum = 0.0;
+        for (int i = 0; i < dimension; i++) {
+            sum += get(vectorA, i) * get(vectorB, i);
+        }
+        return sum;
+    }
+
+    private static float get(byte[] bytes, int index) {
+        if (bytes[0] == FLOAT16) {
+            return halfToFloat((short) SHORTS.get(bytes, HEADER_SIZE + index * 2));
+        }
+        return (float) FLOATS.get(bytes, HEADER_SIZE + index * 4);
+    }
+
+    /**
+     * IEEE 754 binary16 conversion with round to nearest.
+     */
+    static short floatToHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int magnitude = bits & 0x7fffffff;
+        if (magnitude >= 0x7f800000) {
+            // Infinity or NaN
+            return (short) (sign | 0x7c00 | (magnitude > 0x7f800000 ? 0x200 : 0));
+        }
+        if (magnitude >= 0x477ff000) {
+            // Too large, rounds to infinity
+            return (short) (sign | 0x7c00);
+        }
+        if (magnitude >= 0x38800000) {
+            // Normal half: rebias the exponent and round the mantissa
+            return (short) (sign | ((magnitude - 0x38000000 + 0x0fff + ((magnitude >>> 13) & 1)) >>> 13));
+        }
+        if (magnitude < 0x33000000) {
+            return (short) sign;
+        }
+        // Subnormal half
+        int exponent = magnitude >>> 23;
+        int mantissa = (magnitude & 0x7fffff) | 0x800000;
+        int shift = 126 - exponent;
+        int half = mantissa >>> shift;
+        int remainder = mantissa & ((1 << shift) - 1);
+        int halfway = 1 << (shift - 1);
+        if (remainder > halfway || (remainder == halfway && (half & 1) != 0)) {
+            half++;
+        }
+        return (short) (sign | half);
+    }
+
+    static float halfToFloat(short half) {
+        int bits = half & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+        if (exponent == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        if (exponent == 0) {
+            if (mantissa == 0) {
+                return Float.intBitsToFloat(sign);
+            }
+            // Subnormal: mantissa * 2^-24
+            float value = mantissa * 0x1p-24f;
+            return sign == 0 ? value : -value;
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+    }
+}
@@ -1,7 +1,13 @@
 package com.esgdev.amaranthui.db.h2;
 
+import com.esgdev.amaranthui.db.kernel.VectorKernels;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingVector;
+
+import java.nio.ByteBuffer;
+
 /**
  * Utility class for calculating vector similarity metrics.
+ * The loops run in {@link VectorKernels}, so they use SIMD instructions when the Vector API is available.
  */
 public class VectorSimilarity {
 
@@ -13,15 +19,55 @@ public class VectorSimilarity {
      * @return Cosine similarity value
      */
     public static Double cosineSimilarity(Double[] vectorA, Double[] vectorB) {
-        double dotProduct = 0.0;
-        double normA = 0.0;
-        double normB = 0.0;
-        for (int i = 0; i < vectorA.length; i++) {
-            dotProduct += vectorA[i] * vectorB[i];
-            normA += Math.pow(vectorA[i], 2);
-            normB += Math.pow(vectorB[i], 2);
+        return VectorKernels.cosine(unbox(vectorA), unbox(vectorB));
+    }
+
+    /**
+     * Calculates the cosine similarity between two embedding vectors, using their precomputed norms.
+     * Not an SQL function: H2 aliases cannot map two methods with the same number of parameters.
+     *
+     * @param vectorA First vector
+     * @param vectorB Second vector
+     * @return Cosine similarity value, NaN if the dimensions differ
+     */
+    public static double cosine(EmbeddingVector vectorA, EmbeddingVector vectorB) {
+        return vectorA.cosine(vectorB);
+    }
+
+    /**
+     * Calculates the dot product of two embedding vectors.
+     *
+     * @param vectorA First vector
+     * @param vectorB Second vector
+     * @return Dot product value, NaN if the dimensions differ
+     */
+    public static double dot(EmbeddingVector vectorA, EmbeddingVector vectorB) {
+        return vectorA.dot(vectorB);
+    }
+
+    /**
+     * Calculates the dot product of two vectors, which is their cosine similarity when both have unit length.
+     *
+     * @param vectorA First vector
+     * @param vectorB Second vector
+     * @return Dot product value, or null if the dimensions differ
+     */
+    public static Double dotProduct(Double[] vectorA, Double[] vectorB) {
+        if (vectorA.length != vectorB.length) {
+            return null;
         }
-        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
+        return VectorKernels.dot(unbox(vectorA), unbox(vectorB));
+    }
+
+    /**
+     * Calculates the dot product of two packed vectors, in the encoding of {@link VectorCodec}.
+     *
+     * @param vectorA First packed vector
+     * @param vectorB Second packed vector
+     * @return Dot product value, or null if the dimensions differ
+     */
+    public static Double packedDotProduct(byte[] vectorA, byte[] vectorB) {
+        return VectorCodec.dotProduct(vectorA, vectorB);
     }
 
     /**
@@ -32,10 +78,64 @@ public class VectorSimilarity {
      * @return Euclidean distance value
      */
     public static Double euclideanDistance(Double[] vectorA, Double[] vectorB) {
-        double sum = 0.0;
-        for (int i = 0; i < vectorA.length; i++) {
-            sum += Math.pow(vectorA[i] - vectorB[i], 2);
+        return Math.sqrt(VectorKernels.squaredDistance(unbox(vectorA), unbox(vectorB)));
+    }
+
+    /**
+     * Approximates the cosine similarity of two int8-quantized vectors with an integer dot product.
+     * Both arguments are in the encoding of {@link Int8Quantizer}.
+     *
+     * @param vectorA First quantized vector
+     * @param vectorB Second quantized vector
+     * @return Approximate cosine similarity, or null if the dimensions differ
+     */
+    public static Double int8Similarity(byte[] vectorA, byte[] vectorB) {
+        if (vectorA == null || vectorB == null || vectorA.length != vectorB.length) {
+            return null;
+        }
+        int dot = 0;
+        int sumA = 0;
+        int sumB = 0;
+        for (int i = Int8Quantizer.HEADER_SIZE; i < vectorA.length; i++) {
+            int a = vectorA[i] & 0xFF;
+            int b = vectorB[i] & 0xFF;
+            dot += a * b;
+            sumA += a;
+            sumB += b;
+        }
+        double scaleA = Int8Quantizer.getFloat(vectorA, 0);
+        double offsetA = Int8Quantizer.getFloat(vectorA, 4);
+        double scaleB = Int8Quantizer.getFloat(vectorB, 0);
+        double offsetB = Int8Quantizer.getFloat(vectorB, 4);
+        int dimension = vectorA.length - Int8Quantizer.HEADER_SIZE;
+        return scaleA * scaleB * dot + scaleA * offsetB * sumA + offsetA * scaleB * sumB + dimension * offsetA * offsetB;
+    }
+
+    /**
+     * Counts the differing bits of two sign-hashed vectors, in the encoding of {@link BinaryQuantizer}.
+     *
+     * @param vectorA First binary code
+     * @param vectorB Second binary code
+     * @return Hamming distance, or null if the lengths differ
+     */
+    public static Integer hammingDistance(byte[] vectorA, byte[] vectorB) {
+        if (vectorA == null || vectorB == null || vectorA.length != vectorB.length) {
+            return null;
+        }
+        ByteBuffer a = ByteBuffer.wrap(vectorA);
+        ByteBuffer b = ByteBuffer.wrap(vectorB);
+        int distance = 0;
+        for (int i = 0; i + Long.BYTES <= vectorA.length; i += Long.BYTES) {
+            distance += Long.bitCount(a.getLong(i) ^ b.getLong(i));
+        }
+        return distance;
+    }
+
+    private static double[] unbox(Double[] vector) {
+        double[] result = new double[vector.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = vector[i];
         }
-        return Math.sqrt(sum);
+        return result;
     }
-}
\ No newline at end of file
+}
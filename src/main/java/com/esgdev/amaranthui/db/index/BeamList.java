@@ -0,0 +1,65 @@
+package com.esgdev.amaranthui.db.index;
+
+/**
+ * Fixed-capacity candidate list for graph beam search, kept sorted by ascending distance.
+ * Each entry remembers whether it has been expanded yet.
+ */
+final class BeamList {
+    private final int[] nodes;
+    private final float[] distances;
+    private final boolean[] expanded;
+    private int size;
+
+    BeamList(int capacity) {
+        nodes = new int[capacity];
+        distances = new float[capacity];
+        expanded = new boolean[capacity];
+    }
+
+    /**
+     * Inserts the node unless the list is full and the node is farther than every entry.
+     */
+    void insert(int node, float distance) {
+        if (size == nodes.length && distance >= distances[size - 1]) {
+            return;
+        }
+        int position = size == nodes.length ? size - 1 : size++;
+        while (position > 0 && distances[position - 1] > distance) {
+            nodes[position] = nodes[position - 1];
+            distances[position] = distances[position - 1];
+            expanded[position] = expanded[position - 1];
+            position--;
+        }
+        nodes[position] = node;
+        distances[position] = distance;
+        expanded[position] = false;
+    }
+
+    /**
+     * @return the position of the closest entry not expanded yet, or -1 when all are expanded
+     */
+    int nextUnexpanded() {
+        for (int i = 0; i < size; i++) {
+            if (!expanded[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    void markExpanded(int position) {
+        expanded[position] = true;
+    }
+
+    int node(int position) {
+        return nodes[position];
+    }
+
+    float distance(int position) {
+        return distances[position];
+    }
+
+    int size() {
+        return size;
+    }
+}
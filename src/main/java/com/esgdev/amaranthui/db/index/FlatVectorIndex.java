@@ -0,0 +1,229 @@
+package com.esgdev.amaranthui.db.index;
+
+import com.esgdev.amaranthui.db.kernel.VectorKernels;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * Exact (brute-force) cosine similarity index.
+ * Vectors are stored struct-of-arrays style: all components in one contiguous float[],
+ * with the norms and row ids in parallel arrays, so a search is a linear pass over primitive memory.
+ * Removal moves the last slot into the freed one to keep the storage dense.
+ * Large indexes are scanned in parallel partitions, see {@link ParallelSearch}.
+ */
+public class FlatVectorIndex implements VectorIndex {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MIN_PARTITION_SIZE = 4096;
+
+    private final Logger logger = Logger.getLogger(FlatVectorIndex.class.getName());
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Integer> slotById = new HashMap<>();
+    private int dimension = -1;
+    private float[] vectors = new float[0];
+    private float[] norms = new float[0];
+    private long[] ids = new long[0];
+    private int size;
+    private final ParallelSearch parallelSearch;
+
+    public FlatVectorIndex() {
+        this.parallelSearch = ParallelSearch.of(1);
+    }
+
+    public FlatVectorIndex(VectorIndexConfiguration configuration) {
+        this.parallelSearch = ParallelSearch.of(configuration.getSearchParallelism());
+    }
+
+    @Override
+    public void add(long id, float[] vector) {
+        lock.writeLock().lock();
+        try {
+            if (dimension < 0) {
+                dimension = vector.length;
+            } else if (vector.length != dimension) {
+                logger.warning("Skipping vector " + id + " with dimension " + vector.length + ", index dimension is " + dimension);
+                return;
+            }
+            Integer slot = slotById.get(id);
+            if (slot == null) {
+                ensureCapacity(size + 1);
+                slot = size++;
+                slotById.put(id, slot);
+                ids[slot] = id;
+            }
+            System.arraycopy(vector, 0, vectors, slot * dimension, dimension);
+            norms[slot] = norm(vector);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(long id) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = slotById.remove(id);
+            if (slot == null) {
+                return false;
+            }
+            int last = --size;
+            if (slot != last) {
+                System.arraycopy(vectors, last * dimension, vectors, slot * dimension, dimension);
+                norms[slot] = norms[last];
+                ids[slot] = ids[last];
+                slotById.put(ids[slot], slot);
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<ScoredId> search(float[] query, int k) {
+        lock.readLock().lock();
+        try {
+            int capacity = Math.max(0, Math.min(k, size));
+            float queryNorm = query.length == dimension ? norm(query) : 0f;
+            if (size == 0 || queryNorm == 0f) {
+                return new TopK(capacity).toSortedList();
+            }
+            // The read lock held by this thread keeps the arrays stable while the partitions are scanned
+            return parallelSearch.search(size, capacity, MIN_PARTITION_SIZE,
+                    (from, to, topK) -> scan(query, queryNorm, from, to, topK)).toSortedList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Scores all queries in one pass: every stored vector is read once and multiplied with the whole batch,
+     * each query keeping its own heap.
+     */
+    @Override
+    public List<List<ScoredId>> search(float[][] queries, int k) {
+        lock.readLock().lock();
+        try {
+            int capacity = Math.max(0, Math.min(k, size));
+            // Queries that cannot be scored get an empty result; the others are normalized into one matrix
+            int[] batchIndex = new int[queries.length];
+            int count = 0;
+            float[] matrix = new float[queries.length * Math.max(0, dimension)];
+            for (int q = 0; q < queries.length; q++) {
+                float queryNorm = queries[q].length == dimension ? norm(queries[q]) : 0f;
+                batchIndex[q] = -1;
+                if (size > 0 && queryNorm != 0f) {
+                    for (int d = 0; d < dimension; d++) {
+                        matrix[count * dimension + d] = queries[q][d] / queryNorm;
+                    }
+                    batchIndex[q] = count++;
+                }
+            }
+            int batchSize = count;
+            TopK[] heaps = count == 0 ? new TopK[0] : parallelSearch.map(size, MIN_PARTITION_SIZE,
+                    (from, to) -> scanBatch(matrix, batchSize, capacity, from, to), (left, right) -> {
+                        for (int q = 0; q < batchSize; q++) {
+                            left[q].addAll(right[q]);
+                        }
+                        return left;
+                    });
+            List<List<ScoredId>> results = new ArrayList<>(queries.length);
+            for (int q = 0; q < queries.length; q++) {
+                results.add(batchIndex[q] < 0 ? new TopK(capacity).toSortedList() : heaps[batchIndex[q]].toSortedList());
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private TopK[] scanBatch(float[] matrix, int count, int capacity, int from, int to) {
+        TopK[] heaps = new TopK[count];
+        for (int q = 0; q < count; q++) {
+            heaps[q] = new TopK(capacity);
+        }
+        float[] scores = new float[count];
+        for (int slot = from, offset = from * dimension; slot < to; slot++, offset += dimension) {
+            if (norms[slot] == 0f) {
+                continue;
+            }
+            VectorKernels.dotBatch(matrix, count, vectors, offset, dimension, scores);
+            for (int q = 0; q < count; q++) {
+                heaps[q].offer(ids[slot], scores[q] / norms[slot]);
+            }
+        }
+        return heaps;
+    }
+
+    private void scan(float[] query, float queryNorm, int from, int to, TopK topK) {
+        for (int slot = from, offset = from * dimension; slot < to; slot++, offset += dimension) {
+            if (norms[slot] == 0f) {
+                continue;
+            }
+            float dot = VectorKernels.dot(query, 0, vectors, offset, dimension);
+            topK.offer(ids[slot], dot / (queryNorm * norms[slot]));
+        }
+    }
+
+    public boolean contains(long id) {
+        lock.readLock().lock();
+        try {
+            return slotById.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            slotById.clear();
+            size = 0;
+            dimension = -1;
+            vectors = new float[0];
+            norms = new float[0];
+            ids = new long[0];
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= ids.length) {
+            return;
+        }
+        int capacity = Math.max(INITIAL_CAPACITY, ids.length);
+        while (capacity < required) {
+            capacity *= 2;
+        }
+        float[] newVectors = new float[capacity * dimension];
+        System.arraycopy(vectors, 0, newVectors, 0, size * dimension);
+        vectors = newVectors;
+        float[] newNorms = new float[capacity];
+        System.arraycopy(norms, 0, newNorms, 0, size);
+        norms = newNorms;
+        long[] newIds = new long[capacity];
+        System.arraycopy(ids, 0, newIds, 0, size);
+        ids = newIds;
+    }
+
+    private static float norm(float[] vector) {
+        return (float) Math.sqrt(VectorKernels.dot(vector, vector));
+    }
+}
@@ -0,0 +1,434 @@
+package com.esgdev.amaranthui.db.index;
+
+import com.esgdev.amaranthui.db.kernel.VectorKernels;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * Hierarchical Navigable Small World graph for approximate cosine similarity search.
+ * <p>
+ * Vectors are normalized on insert, so the similarity between two nodes is a plain dot product.
+ * Inserts may run concurrently: neighbour lists are copy-on-write arrays, modified under the owning node's monitor.
+ * Deletes only tombstone a node; it keeps routing searches but is never returned. Once tombstones outnumber
+ * the live nodes the graph is rebuilt from the live ones.
+ * <p>
+ * See Malkov and Yashunin, "Efficient and robust approximate nearest neighbor search using
+ * Hierarchical Navigable Small World graphs".
+ */
+public class HnswIndex implements VectorIndex {
+    private static final int MIN_PARALLEL_BUILD = 1000;
+    private static final int MIN_COMPACTION = 1000;
+
+    private final Logger logger = Logger.getLogger(HnswIndex.class.getName());
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final int efSearch;
+    private final int buildParallelism;
+    private final double levelMultiplier;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object entryLock = new Object();
+    private final Map<Long, Node> nodesById = new ConcurrentHashMap<>();
+    private final AtomicInteger tombstones = new AtomicInteger();
+    private volatile Node entryPoint;
+    private volatile int dimension = -1;
+
+    private static class Node {
+        final long id;
+        final float[] vector;
+        final int level;
+        final AtomicReferenceArray<Node[]> links;
+        volatile boolean deleted;
+
+        Node(long id, float[] vector, int level) {
+            this.id = id;
+            this.vector = vector;
+            this.level = level;
+            this.links = new AtomicReferenceArray<>(level + 1);
+            for (int i = 0; i <= level; i++) {
+                links.set(i, new Node[0]);
+            }
+        }
+    }
+
+    private static class Candidate {
+        final Node node;
+        final float score;
+
+        Candidate(Node node, float score) {
+            this.node = node;
+            this.score = score;
+        }
+    }
+
+    private static final Comparator<Candidate> BEST_FIRST = (a, b) -> Float.compare(b.score, a.score);
+    private static final Comparator<Candidate> WORST_FIRST = (a, b) -> Float.compare(a.score, b.score);
+
+    public HnswIndex(VectorIndexConfiguration configuration) {
+        this.m = configuration.getHnswM();
+        this.maxM0 = 2 * m;
+        this.efConstruction = Math.max(configuration.getHnswEfConstruction(), m);
+        this.efSearch = configuration.getHnswEfSearch();
+        this.buildParallelism = configuration.getBuildParallelism();
+        this.levelMultiplier = 1.0 / Math.log(m);
+    }
+
+    @Override
+    public void add(long id, float[] vector) {
+        lock.readLock().lock();
+        try {
+            insert(id, vector);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Builds the graph on a dedicated fork-join pool. The first vector is inserted alone to seed the entry point.
+     */
+    @Override
+    public void addAll(long[] ids, float[][] vectors) {
+        if (ids.length < MIN_PARALLEL_BUILD || buildParallelism == 1) {
+            VectorIndex.super.addAll(ids, vectors);
+            return;
+        }
+        long start = System.currentTimeMillis();
+        add(ids[0], vectors[0]);
+        ForkJoinPool pool = new ForkJoinPool(buildParallelism);
+        try {
+            pool.submit(() -> IntStream.range(1, ids.length).parallel().forEach(i -> add(ids[i], vectors[i]))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("HNSW build interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("HNSW build failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        logger.info("Built HNSW graph of " + ids.length + " vectors with " + buildParallelism + " threads in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    @Override
+    public boolean remove(long id) {
+        boolean removed;
+        lock.readLock().lock();
+        try {
+            Node node = nodesById.remove(id);
+            removed = node != null;
+            if (removed) {
+                node.deleted = true;
+                tombstones.incrementAndGet();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        int dead = tombstones.get();
+        if (dead >= MIN_COMPACTION && dead > nodesById.size()) {
+            compact();
+        }
+        return removed;
+    }
+
+    @Override
+    public List<ScoredId> search(float[] query, int k) {
+        lock.readLock().lock();
+        try {
+            Node entry = entryPoint;
+            if (entry == null || k <= 0 || query.length != dimension) {
+                return new ArrayList<>();
+            }
+            float[] q = normalize(query);
+            if (q == null) {
+                return new ArrayList<>();
+            }
+            Candidate nearest = new Candidate(entry, dot(q, entry.vector));
+            for (int level = entry.level; level > 0; level--) {
+                nearest = greedyClosest(q, nearest, level);
+            }
+            // Widen the beam by the share of tombstones, which are visited but never returned
+            int live = Math.max(1, nodesById.size());
+            int ef = Math.max(efSearch, k);
+            ef = (int) Math.min((long) ef * (live + tombstones.get()) / live, (long) ef * 4);
+            TopK topK = new TopK(k);
+            for (Candidate candidate : searchLayer(q, List.of(nearest), ef, 0)) {
+                if (!candidate.node.deleted) {
+                    topK.offer(candidate.node.id, candidate.score);
+                }
+            }
+            return topK.toSortedList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return nodesById.size();
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            nodesById.clear();
+            tombstones.set(0);
+            entryPoint = null;
+            dimension = -1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuilds the graph from the live nodes, dropping all tombstones.
+     */
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            List<Node> live = new ArrayList<>(nodesById.values());
+            logger.info("Compacting HNSW graph: " + live.size() + " live nodes, " + tombstones.get() + " tombstones");
+            nodesById.clear();
+            tombstones.set(0);
+            entryPoint = null;
+            long[] ids = new long[live.size()];
+            float[][] vectors = new float[live.size()][];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = live.get(i).id;
+                vectors[i] = live.get(i).vector;
+            }
+            // The write lock is reentrant, so the build below can take the read lock on this thread;
+            // pool threads would block on it, hence the sequential rebuild
+            for (int i = 0; i < ids.length; i++) {
+                insert(ids[i], vectors[i]);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void insert(long id, float[] vector) {
+        if (!checkDimension(id, vector)) {
+            return;
+        }
+        float[] v = normalize(vector);
+        if (v == null) {
+            logger.fine("Skipping zero vector " + id);
+            return;
+        }
+        Node previous = nodesById.remove(id);
+        if (previous != null) {
+            previous.deleted = true;
+            tombstones.incrementAndGet();
+        }
+        Node node = new Node(id, v, randomLevel());
+        Node entry;
+        synchronized (entryLock) {
+            entry = entryPoint;
+            if (entry == null) {
+                entryPoint = node;
+                nodesById.put(id, node);
+                return;
+            }
+        }
+
+        Candidate nearest = new Candidate(entry, dot(v, entry.vector));
+        for (int level = entry.level; level > node.level; level--) {
+            nearest = greedyClosest(v, nearest, level);
+        }
+        List<Candidate> entryPoints = List.of(nearest);
+        for (int level = Math.min(node.level, entry.level); level >= 0; level--) {
+            List<Candidate> candidates = searchLayer(v, entryPoints, efConstruction, level);
+            List<Node> neighbours = selectNeighbours(candidates, m);
+            node.links.set(level, neighbours.toArray(new Node[0]));
+            for (Node neighbour : neighbours) {
+                connect(neighbour, node, level);
+            }
+            entryPoints = candidates;
+        }
+        nodesById.put(id, node);
+
+        if (node.level > entry.level) {
+            synchronized (entryLock) {
+                if (node.level > entryPoint.level) {
+                    entryPoint = node;
+                }
+            }
+        }
+    }
+
+    private boolean checkDimension(long id, float[] vector) {
+        if (dimension < 0) {
+            synchronized (entryLock) {
+                if (dimension < 0) {
+                    dimension = vector.length;
+                }
+            }
+        }
+        if (vector.length != dimension) {
+            logger.warning("Skipping vector " + id + " with dimension " + vector.length + ", index dimension is " + dimension);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds a back link from the neighbour to the new node, pruning the neighbour's list if it overflows.
+     */
+    private void connect(Node neighbour, Node node, int level) {
+        int capacity = level == 0 ? maxM0 : m;
+        synchronized (neighbour) {
+            Node[] current = neighbour.links.get(level);
+            Node[] updated;
+            if (current.length < capacity) {
+                updated = new Node[current.length + 1];
+                System.arraycopy(current, 0, updated, 0, current.length);
+                updated[current.length] = node;
+            } else {
+                List<Candidate> candidates = new ArrayList<>(current.length + 1);
+                for (Node n : current) {
+                    candidates.add(new Candidate(n, dot(neighbour.vector, n.vector)));
+                }
+                candidates.add(new Candidate(node, dot(neighbour.vector, node.vector)));
+                candidates.sort(BEST_FIRST);
+                updated = selectNeighbours(candidates, capacity).toArray(new Node[0]);
+            }
+            neighbour.links.set(level, updated);
+        }
+    }
+
+    /**
+     * Neighbour selection heuristic: a candidate is kept only if it is closer to the base node than to any
+     * neighbour kept so far, which favours links in diverse directions. Pruned candidates fill remaining slots.
+     *
+     * @param candidates candidates ordered best first, scored against the base node
+     */
+    private List<Node> selectNeighbours(List<Candidate> candidates, int count) {
+        List<Node> selected = new ArrayList<>(count);
+        List<Node> pruned = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (selected.size() >= count) {
+                break;
+            }
+            boolean diverse = true;
+            for (Node kept : selected) {
+                if (dot(candidate.node.vector, kept.vector) > candidate.score) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate.node);
+            } else {
+                pruned.add(candidate.node);
+            }
+        }
+        for (int i = 0; i < pruned.size() && selected.size() < count; i++) {
+            selected.add(pruned.get(i));
+        }
+        return selected;
+    }
+
+    private Candidate greedyClosest(float[] query, Candidate start, int level) {
+        Candidate best = start;
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (Node neighbour : best.node.links.get(level)) {
+                float score = dot(query, neighbour.vector);
+                if (score > best.score) {
+                    best = new Candidate(neighbour, score);
+                    improved = true;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Beam search on one layer.
+     *
+     * @return up to ef candidates, best first
+     */
+    private List<Candidate> searchLayer(float[] query, List<Candidate> entryPoints, int ef, int level) {
+        Set<Node> visited = new HashSet<>();
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(BEST_FIRST);
+        PriorityQueue<Candidate> results = new PriorityQueue<>(WORST_FIRST);
+        for (Candidate entry : entryPoints) {
+            if (visited.add(entry.node)) {
+                candidates.add(entry);
+                results.add(entry);
+                if (results.size() > ef) {
+                    results.poll();
+                }
+            }
+        }
+        while (!candidates.isEmpty()) {
+            Candidate current = candidates.poll();
+            if (results.size() >= ef && current.score < results.peek().score) {
+                break;
+            }
+            if (current.node.level < level) {
+                continue;
+            }
+            for (Node neighbour : current.node.links.get(level)) {
+                if (!visited.add(neighbour)) {
+                    continue;
+                }
+                float score = dot(query, neighbour.vector);
+                if (results.size() < ef || score > results.peek().score) {
+                    Candidate candidate = new Candidate(neighbour, score);
+                    candidates.add(candidate);
+                    results.add(candidate);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(BEST_FIRST);
+        return Collections.unmodifiableList(sorted);
+    }
+
+    private int randomLevel() {
+        double r = ThreadLocalRandom.current().nextDouble();
+        return (int) (-Math.log(1.0 - r) * levelMultiplier);
+    }
+
+    private static float dot(float[] a, float[] b) {
+        return VectorKernels.dot(a, b);
+    }
+
+    /**
+     * @return a normalized copy of the vector, or null for a zero vector
+     */
+    private static float[] normalize(float[] vector) {
+        float norm = (float) Math.sqrt(dot(vector, vector));
+        if (norm == 0f) {
+            return null;
+        }
+        float[] result = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = vector[i] / norm;
+        }
+        return result;
+    }
+}
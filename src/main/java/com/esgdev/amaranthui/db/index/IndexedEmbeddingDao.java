@@ -0,0 +1,364 @@
+package com.esgdev.amaranthui.db.index;
+
+import com.esgdev.amaranthui.db.EmbeddingDao;
+import com.esgdev.amaranthui.db.IndexableEmbeddingDao;
+import com.esgdev.amaranthui.db.filter.SearchFilter;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingVector;
+import com.esgdev.amaranthui.engine.embedding.TextEmbedding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * EmbeddingDao decorator that answers similarity searches from an in-memory VectorIndex.
+ * One index is kept per embedding model; it is loaded from the database the first time the model
+ * is searched and kept in sync with every write that goes through this DAO.
+ * The database is only queried to hydrate the rows that make it into the result.
+ * When the index only approximates scores, it is asked for a larger shortlist which is then reranked
+ * exactly with the full vectors of the hydrated rows.
+ * Persistent indexes are opened from their file instead of being loaded, caught up with the rows written
+ * since the file was built, and rebuilt in the background once their in-memory changes grow too large.
+ * @param <T> The type of the embedding object.
+ */
+public class IndexedEmbeddingDao<T extends TextEmbedding> implements EmbeddingDao<T> {
+    private final Logger logger = Logger.getLogger(IndexedEmbeddingDao.class.getName());
+    private final IndexableEmbeddingDao<T> delegate;
+    private static final int HYDRATION_BATCH = 500;
+
+    private final Function<String, VectorIndex> indexFactory;
+    private final int rerankFactor;
+    private final Map<String, VectorIndex> indexes = new ConcurrentHashMap<>();
+    /** Writes made while the index of a model loads, by id; a null vector is a removal. Updated under its own lock. */
+    private final Map<String, Map<Long, float[]>> loadingWrites = new ConcurrentHashMap<>();
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private ExecutorService rebuildExecutor;
+
+    /**
+     * @param delegate the DAO that owns the rows
+     * @param indexFactory creates an empty index for the given embedding model
+     */
+    public IndexedEmbeddingDao(IndexableEmbeddingDao<T> delegate, Function<String, VectorIndex> indexFactory) {
+        this(delegate, indexFactory, 1);
+    }
+
+    /**
+     * @param delegate the DAO that owns the rows
+     * @param indexFactory creates an empty index for the given embedding model
+     * @param rerankFactor shortlist size per requested result for indexes with approximate scores
+     */
+    public IndexedEmbeddingDao(IndexableEmbeddingDao<T> delegate, Function<String, VectorIndex> indexFactory, int rerankFactor) {
+        this.delegate = delegate;
+        this.indexFactory = indexFactory;
+        this.rerankFactor = Math.max(1, rerankFactor);
+    }
+
+    @Override
+    public T getEmbeddingById(Long id) {
+        return delegate.getEmbeddingById(id);
+    }
+
+    @Override
+    public List<T> getAllEmbeddings() {
+        return delegate.getAllEmbeddings();
+    }
+
+    @Override
+    public void addEmbedding(T embedding) {
+        delegate.addEmbedding(embedding);
+        indexEmbedding(embedding);
+    }
+
+    @Override
+    public boolean addEmbedding(List<T> embeddings) {
+        if (!delegate.addEmbedding(embeddings)) {
+            return false;
+        }
+        for (T embedding : embeddings) {
+            indexEmbedding(embedding);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean updateEmbedding(T embedding) {
+        if (!delegate.updateEmbedding(embedding)) {
+            return false;
+        }
+        recordLoadingRemoval(embedding.getId());
+        indexes.values().forEach(index -> index.remove(embedding.getId()));
+        indexEmbedding(embedding);
+        return true;
+    }
+
+    @Override
+    public void deleteEmbedding(Long id) {
+        delegate.deleteEmbedding(id);
+        recordLoadingRemoval(id);
+        indexes.forEach((embeddingModel, index) -> {
+            if (index.remove(id)) {
+                rebuildIfNeeded(embeddingModel, index);
+            }
+        });
+    }
+
+    @Override
+    public void deleteEmbeddings(long firstId, long lastId) {
+        delegate.deleteEmbeddings(firstId, lastId);
+        for (long id = firstId; id <= lastId; id++) {
+            recordLoadingRemoval(id);
+        }
+        indexes.forEach((embeddingModel, index) -> {
+            boolean removed = false;
+            for (long id = firstId; id <= lastId; id++) {
+                removed |= index.remove(id);
+            }
+            if (removed) {
+                rebuildIfNeeded(embeddingModel, index);
+            }
+        });
+    }
+
+    @Override
+    public void deleteEmbeddingModel(String embeddingModel) {
+        delegate.deleteEmbeddingModel(embeddingModel);
+        invalidate(embeddingModel);
+    }
+
+    @Override
+    public List<T> findEmbeddingsNear(T sourceEmbedding, int limit) {
+        VectorIndex index = indexFor(sourceEmbedding.getEmbeddingModel());
+        EmbeddingVector query = sourceEmbedding.getVector();
+        if (index.hasExactScores()) {
+            return hydrate(index.search(query.toArray(), limit));
+        }
+        return rerank(query, hydrate(index.search(query.toArray(), limit * rerankFactor)), limit);
+    }
+
+    /**
+     * Searches the queries of each embedding model as one batch of the index, e.g. all chunks of a long message,
+     * so an index that scans every vector reads it once for the whole batch.
+     */
+    @Override
+    public List<List<T>> findEmbeddingsNear(List<T> sourceEmbeddings, int limit) {
+        Map<String, List<Integer>> byModel = new LinkedHashMap<>();
+        for (int q = 0; q < sourceEmbeddings.size(); q++) {
+            byModel.computeIfAbsent(sourceEmbeddings.get(q).getEmbeddingModel(), model -> new ArrayList<>()).add(q);
+        }
+        List<List<T>> results = new ArrayList<>(Collections.nCopies(sourceEmbeddings.size(), null));
+        for (Map.Entry<String, List<Integer>> group : byModel.entrySet()) {
+            VectorIndex index = indexFor(group.getKey());
+            List<Integer> positions = group.getValue();
+            float[][] queries = new float[positions.size()][];
+            for (int i = 0; i < queries.length; i++) {
+                queries[i] = sourceEmbeddings.get(positions.get(i)).getVector().toArray();
+            }
+            boolean exact = index.hasExactScores();
+            List<List<ScoredId>> hits = index.search(queries, exact ? limit : limit * rerankFactor);
+            for (int i = 0; i < queries.length; i++) {
+                int position = positions.get(i);
+                results.set(position, exact ? hydrate(hits.get(i))
+                        : rerank(sourceEmbeddings.get(position).getVector(), hydrate(hits.get(i)), limit));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Rescores a shortlist of an index with approximate scores exactly and keeps the best rows.
+     */
+    private List<T> rerank(EmbeddingVector query, List<T> shortlist, int limit) {
+        for (T row : shortlist) {
+            row.setSimilarity(query.cosine(row.getVector()));
+        }
+        shortlist.sort((a, b) -> Double.compare(b.getSimilarity(), a.getSimilarity()));
+        return new ArrayList<>(shortlist.subList(0, Math.min(limit, shortlist.size())));
+    }
+
+    /**
+     * Filtered searches go to the delegate, which scores only the matching rows exactly;
+     * the index cannot restrict its graph or lists to a subset of the rows.
+     */
+    @Override
+    public List<T> findEmbeddingsNear(T sourceEmbedding, SearchFilter filter, int limit) {
+        return delegate.findEmbeddingsNear(sourceEmbedding, filter, limit);
+    }
+
+    /**
+     * Drops the in-memory index of the given model; it will be reloaded on the next search.
+     */
+    public void invalidate(String embeddingModel) {
+        indexes.remove(embeddingModel);
+    }
+
+    /**
+     * Loads the rows of the hits and orders them like the hits, with the similarity set from the hit score.
+     */
+    private List<T> hydrate(List<ScoredId> hits) {
+        List<T> result = new ArrayList<>(hits.size());
+        if (hits.isEmpty()) {
+            return result;
+        }
+        List<Long> ids = new ArrayList<>(hits.size());
+        for (ScoredId hit : hits) {
+            ids.add(hit.getId());
+        }
+        Map<Long, T> rowsById = new HashMap<>();
+        for (T row : delegate.getEmbeddingsByIds(ids)) {
+            rowsById.put(row.getId(), row);
+        }
+        for (ScoredId hit : hits) {
+            T row = rowsById.get(hit.getId());
+            if (row != null) {
+                row.setSimilarity(hit.getScore());
+                result.add(row);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the index of the model, loading it on first use. Writes made while it loads are buffered,
+     * since the load may already have read the row, and replayed once the index is published;
+     * until the buffer is gone, writes keep going to it, so none can fall between the replay and the publication.
+     */
+    private VectorIndex indexFor(String embeddingModel) {
+        VectorIndex index = indexes.computeIfAbsent(embeddingModel, this::loadIndex);
+        if (!loadingWrites.containsKey(embeddingModel)) {
+            return index;
+        }
+        synchronized (loadingWrites) {
+            Map<Long, float[]> writes = loadingWrites.remove(embeddingModel);
+            if (writes != null) {
+                writes.forEach((id, vector) -> {
+                    if (vector == null) {
+                        index.remove(id);
+                    } else {
+                        index.add(id, vector);
+                    }
+                });
+            }
+        }
+        return index;
+    }
+
+    private VectorIndex loadIndex(String embeddingModel) {
+        synchronized (loadingWrites) {
+            loadingWrites.put(embeddingModel, new LinkedHashMap<>());
+        }
+        try {
+            return openOrLoad(embeddingModel);
+        } catch (RuntimeException e) {
+            synchronized (loadingWrites) {
+                loadingWrites.remove(embeddingModel);
+            }
+            throw e;
+        }
+    }
+
+    private VectorIndex openOrLoad(String embeddingModel) {
+        long start = System.currentTimeMillis();
+        VectorIndex index = indexFactory.apply(embeddingModel);
+        if (index instanceof PersistentVectorIndex) {
+            PersistentVectorIndex persistent = (PersistentVectorIndex) index;
+            if (!persistent.open()) {
+                persistent.build(vectorSource(embeddingModel));
+            }
+            catchUp(embeddingModel, persistent);
+            logger.info("Opened index with " + index.size() + " vectors for " + embeddingModel + " in " + (System.currentTimeMillis() - start) + " ms");
+            return index;
+        }
+        index.load(vectorSource(embeddingModel));
+        logger.info("Loaded " + index.size() + " vectors for " + embeddingModel + " in " + (System.currentTimeMillis() - start) + " ms");
+        return index;
+    }
+
+    private VectorIndex.VectorSource vectorSource(String embeddingModel) {
+        return consumer -> delegate.forEachEmbedding(embeddingModel, row -> consumer.accept(row.getId(), row.getVector().toArray()));
+    }
+
+    /**
+     * Brings a persistent index up to date with the table: stale vectors are dropped, missing rows are added.
+     */
+    private void catchUp(String embeddingModel, PersistentVectorIndex index) {
+        List<Long> missing = index.reconcile(consumer -> delegate.forEachEmbeddingId(embeddingModel, consumer));
+        for (int from = 0; from < missing.size(); from += HYDRATION_BATCH) {
+            List<Long> batch = missing.subList(from, Math.min(from + HYDRATION_BATCH, missing.size()));
+            for (T row : delegate.getEmbeddingsByIds(batch)) {
+                index.add(row.getId(), row.getVector().toArray());
+            }
+        }
+    }
+
+    private void rebuildIfNeeded(String embeddingModel, VectorIndex index) {
+        if (!(index instanceof PersistentVectorIndex)) {
+            return;
+        }
+        PersistentVectorIndex persistent = (PersistentVectorIndex) index;
+        if (!persistent.needsRebuild() || !rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (this) {
+            if (rebuildExecutor == null) {
+                rebuildExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "index-rebuild");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+        rebuildExecutor.submit(() -> {
+            try {
+                persistent.build(vectorSource(embeddingModel));
+                catchUp(embeddingModel, persistent);
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "Failed to rebuild index for " + embeddingModel, e);
+            } finally {
+                rebuilding.set(false);
+            }
+        });
+    }
+
+    private void indexEmbedding(T embedding) {
+        if (embedding.getId() == null) {
+            logger.warning("Embedding has no id after insert, index will be stale until reloaded");
+            indexes.remove(embedding.getEmbeddingModel());
+            return;
+        }
+        synchronized (loadingWrites) {
+            Map<Long, float[]> writes = loadingWrites.get(embedding.getEmbeddingModel());
+            if (writes != null) {
+                writes.remove(embedding.getId());
+                writes.put(embedding.getId(), embedding.getVector().toArray());
+                return;
+            }
+        }
+        VectorIndex index = indexes.get(embedding.getEmbeddingModel());
+        if (index != null) {
+            index.add(embedding.getId(), embedding.getVector().toArray());
+            rebuildIfNeeded(embedding.getEmbeddingModel(), index);
+        }
+    }
+
+    /**
+     * Records the removal of a row for every index still loading; the row's model is not known here.
+     */
+    private void recordLoadingRemoval(Long id) {
+        synchronized (loadingWrites) {
+            for (Map<Long, float[]> writes : loadingWrites.values()) {
+                writes.remove(id);
+                writes.put(id, null);
+            }
+        }
+    }
+}
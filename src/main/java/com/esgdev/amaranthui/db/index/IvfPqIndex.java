@@ -0,0 +1,352 @@
+package com.esgdev.amaranthui.db.index;
+
+import com.esgdev.amaranthui.db.kernel.VectorKernels;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * Inverted file index with product-quantized residuals (IVF-PQ).
+ * <p>
+ * A coarse k-means quantizer splits the vectors into lists; each vector is stored in the list of its
+ * nearest centroid as the PQ code of its residual (vector minus centroid), i.e. one byte per subspace
+ * instead of the full vector. A search scans only the {@code nprobe} lists closest to the query.
+ * Scores are approximations, so callers should rerank the shortlist with the full vectors.
+ * <p>
+ * Quantizers need training data: until enough vectors have been added they are kept uncompressed
+ * and searched exactly, then the index trains itself once and encodes them.
+ * <p>
+ * The index is not persisted; it is loaded from the table again after every restart.
+ */
+public class IvfPqIndex implements VectorIndex {
+    private static final int COARSE_ITERATIONS = 10;
+    private static final int MAX_TRAINING_VECTORS = 50_000;
+
+    private final Logger logger = Logger.getLogger(IvfPqIndex.class.getName());
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final int lists;
+    private final int probes;
+    private final int subspaces;
+    private final int trainingThreshold;
+
+    private final Map<Long, float[]> pending = new LinkedHashMap<>();
+    private final Map<Long, Integer> listById = new HashMap<>();
+    private float[][] centroids;
+    private ProductQuantizer quantizer;
+    private InvertedList[] invertedLists;
+    private int dimension = -1;
+
+    /**
+     * One coarse cell: the ids and the concatenated PQ codes of its vectors.
+     */
+    private static class InvertedList {
+        long[] ids = new long[16];
+        byte[] codes;
+        int size;
+
+        InvertedList(int codeSize) {
+            codes = new byte[16 * codeSize];
+        }
+
+        void add(long id, byte[] code) {
+            if (size == ids.length) {
+                long[] newIds = new long[size * 2];
+                System.arraycopy(ids, 0, newIds, 0, size);
+                ids = newIds;
+                byte[] newCodes = new byte[codes.length * 2];
+                System.arraycopy(codes, 0, newCodes, 0, codes.length);
+                codes = newCodes;
+            }
+            ids[size] = id;
+            System.arraycopy(code, 0, codes, size * code.length, code.length);
+            size++;
+        }
+
+        void remove(long id, int codeSize) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    int last = --size;
+                    ids[i] = ids[last];
+                    System.arraycopy(codes, last * codeSize, codes, i * codeSize, codeSize);
+                    return;
+                }
+            }
+        }
+    }
+
+    public IvfPqIndex(VectorIndexConfiguration configuration) {
+        this.lists = configuration.getIvfLists();
+        this.probes = configuration.getIvfProbes();
+        this.subspaces = configuration.getPqSubspaces();
+        this.trainingThreshold = Math.max(lists * 16, 512);
+    }
+
+    @Override
+    public void add(long id, float[] vector) {
+        lock.writeLock().lock();
+        try {
+            insert(id, vector);
+            if (quantizer == null && pending.size() >= trainingThreshold) {
+                train();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void addAll(long[] ids, float[][] vectors) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < ids.length; i++) {
+                insert(ids[i], vectors[i]);
+            }
+            if (quantizer == null && pending.size() >= trainingThreshold) {
+                train();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Loads the vectors in two passes over the source instead of holding all of them: the first pass draws
+     * the training sample, the second encodes each vector as it is read.
+     */
+    @Override
+    public void load(VectorSource source) {
+        lock.writeLock().lock();
+        try {
+            if (quantizer == null) {
+                Random random = new Random(trainingThreshold);
+                List<float[]> sample = new ArrayList<>();
+                long[] count = new long[1];
+                source.forEach((id, vector) -> {
+                    if (dimension < 0) {
+                        dimension = vector.length;
+                    }
+                    float[] v = vector.length == dimension ? normalize(vector) : null;
+                    if (v == null) {
+                        return;
+                    }
+                    // Reservoir sampling keeps a uniform sample of at most MAX_TRAINING_VECTORS
+                    count[0]++;
+                    if (sample.size() < MAX_TRAINING_VECTORS) {
+                        sample.add(v);
+                    } else {
+                        long slot = (long) (random.nextDouble() * count[0]);
+                        if (slot < MAX_TRAINING_VECTORS) {
+                            sample.set((int) slot, v);
+                        }
+                    }
+                });
+                if (count[0] + pending.size() >= trainingThreshold) {
+                    sample.addAll(pending.values());
+                    train(sample.toArray(new float[0][]), random);
+                }
+            }
+            source.forEach(this::insert);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(long id) {
+        lock.writeLock().lock();
+        try {
+            if (pending.remove(id) != null) {
+                return true;
+            }
+            Integer list = listById.remove(id);
+            if (list == null) {
+                return false;
+            }
+            invertedLists[list].remove(id, quantizer.getCodeSize());
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<ScoredId> search(float[] query, int k) {
+        lock.readLock().lock();
+        try {
+            TopK topK = new TopK(Math.max(0, k));
+            float[] q = query.length == dimension ? normalize(query) : null;
+            if (q == null) {
+                return topK.toSortedList();
+            }
+            for (Map.Entry<Long, float[]> entry : pending.entrySet()) {
+                topK.offer(entry.getKey(), dot(q, entry.getValue()));
+            }
+            if (quantizer == null) {
+                return topK.toSortedList();
+            }
+
+            TopK nearestLists = new TopK(Math.min(probes, centroids.length));
+            float[] coarseScores = new float[centroids.length];
+            for (int c = 0; c < centroids.length; c++) {
+                coarseScores[c] = dot(q, centroids[c]);
+                nearestLists.offer(c, coarseScores[c]);
+            }
+            float[] table = quantizer.innerProductTable(q);
+            int codeSize = quantizer.getCodeSize();
+            for (ScoredId probe : nearestLists.toSortedList()) {
+                InvertedList list = invertedLists[(int) probe.getId()];
+                float base = coarseScores[(int) probe.getId()];
+                for (int i = 0; i < list.size; i++) {
+                    topK.offer(list.ids[i], base + quantizer.innerProduct(table, list.codes, i * codeSize));
+                }
+            }
+            return topK.toSortedList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean hasExactScores() {
+        return false;
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return pending.size() + listById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            pending.clear();
+            listById.clear();
+            centroids = null;
+            quantizer = null;
+            invertedLists = null;
+            dimension = -1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return true once the quantizers are trained and new vectors are stored compressed
+     */
+    public boolean isTrained() {
+        lock.readLock().lock();
+        try {
+            return quantizer != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void insert(long id, float[] vector) {
+        if (dimension < 0) {
+            dimension = vector.length;
+        } else if (vector.length != dimension) {
+            logger.warning("Skipping vector " + id + " with dimension " + vector.length + ", index dimension is " + dimension);
+            return;
+        }
+        float[] v = normalize(vector);
+        if (v == null) {
+            return;
+        }
+        pending.remove(id);
+        Integer previous = listById.remove(id);
+        if (previous != null) {
+            invertedLists[previous].remove(id, quantizer.getCodeSize());
+        }
+        if (quantizer == null) {
+            pending.put(id, v);
+        } else {
+            encode(id, v);
+        }
+    }
+
+    private void encode(long id, float[] v) {
+        int list = KMeans.nearest(v, centroids);
+        float[] residual = new float[dimension];
+        float[] centroid = centroids[list];
+        for (int d = 0; d < dimension; d++) {
+            residual[d] = v[d] - centroid[d];
+        }
+        invertedLists[list].add(id, quantizer.encode(residual));
+        listById.put(id, list);
+    }
+
+    /**
+     * Trains the quantizers on a sample of the pending vectors, then encodes all of them.
+     */
+    private void train() {
+        Random random = new Random(pending.size());
+        train(sample(new ArrayList<>(pending.values()), random), random);
+    }
+
+    /**
+     * Trains the coarse quantizer and the residual product quantizer on the sample, then encodes the pending vectors.
+     */
+    private void train(float[][] sample, Random random) {
+        long start = System.currentTimeMillis();
+        centroids = KMeans.train(sample, lists, COARSE_ITERATIONS, random);
+        float[][] residuals = new float[sample.length][dimension];
+        for (int i = 0; i < sample.length; i++) {
+            float[] centroid = centroids[KMeans.nearest(sample[i], centroids)];
+            for (int d = 0; d < dimension; d++) {
+                residuals[i][d] = sample[i][d] - centroid[d];
+            }
+        }
+        quantizer = ProductQuantizer.train(residuals, subspaces, random);
+        invertedLists = new InvertedList[centroids.length];
+        for (int c = 0; c < centroids.length; c++) {
+            invertedLists[c] = new InvertedList(quantizer.getCodeSize());
+        }
+        for (Map.Entry<Long, float[]> entry : pending.entrySet()) {
+            encode(entry.getKey(), entry.getValue());
+        }
+        pending.clear();
+        logger.info("Trained IVF-PQ index on " + sample.length + " vectors (" + centroids.length + " lists, "
+                + quantizer.getCodeSize() + " bytes per vector) in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private static float[][] sample(List<float[]> vectors, Random random) {
+        if (vectors.size() <= MAX_TRAINING_VECTORS) {
+            return vectors.toArray(new float[0][]);
+        }
+        float[][] sample = new float[MAX_TRAINING_VECTORS][];
+        for (int i = 0; i < sample.length; i++) {
+            sample[i] = vectors.get(random.nextInt(vectors.size()));
+        }
+        return sample;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        return VectorKernels.dot(a, b);
+    }
+
+    private static float[] normalize(float[] vector) {
+        float norm = (float) Math.sqrt(dot(vector, vector));
+        if (norm == 0f) {
+            return null;
+        }
+        float[] result = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = vector[i] / norm;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,85 @@
+package com.esgdev.amaranthui.db.index;
+
+import com.esgdev.amaranthui.db.kernel.VectorKernels;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Lloyd's k-means over float vectors with squared Euclidean distance.
+ * Used to train the coarse quantizer and the product quantizer codebooks.
+ */
+final class KMeans {
+    private KMeans() {
+    }
+
+    /**
+     * @param data training vectors, all of the same dimension
+     * @param k number of centroids; capped at the number of training vectors
+     * @param iterations number of assignment/update rounds
+     * @return the centroids
+     */
+    static float[][] train(float[][] data, int k, int iterations, Random random) {
+        int n = data.length;
+        int dimension = data[0].length;
+        k = Math.min(k, n);
+        float[][] centroids = new float[k][];
+        int[] order = IntStream.range(0, n).toArray();
+        for (int i = 0; i < k; i++) {
+            int j = i + random.nextInt(n - i);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+            centroids[i] = data[order[i]].clone();
+        }
+
+        int[] assignment = new int[n];
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            float[][] current = centroids;
+            IntStream.range(0, n).parallel().forEach(i -> assignment[i] = nearest(data[i], current));
+
+            float[][] sums = new float[k][dimension];
+            int[] counts = new int[k];
+            for (int i = 0; i < n; i++) {
+                float[] sum = sums[assignment[i]];
+                float[] v = data[i];
+                for (int d = 0; d < dimension; d++) {
+                    sum[d] += v[d];
+                }
+                counts[assignment[i]]++;
+            }
+            for (int c = 0; c < k; c++) {
+                if (counts[c] == 0) {
+                    // Reseed empty clusters with a random training vector
+                    sums[c] = data[random.nextInt(n)].clone();
+                } else {
+                    for (int d = 0; d < dimension; d++) {
+                        sums[c][d] /= counts[c];
+                    }
+                }
+            }
+            centroids = sums;
+        }
+        return centroids;
+    }
+
+    /**
+     * @return the index of the centroid closest to the vector
+     */
+    static int nearest(float[] vector, float[][] centroids) {
+        int best = 0;
+        float bestDistance = Float.MAX_VALUE;
+        for (int c = 0; c < centroids.length; c++) {
+            float distance = squaredDistance(vector, centroids[c]);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    static float squaredDistance(float[] a, float[] b) {
+        return VectorKernels.squaredDistance(a, b);
+    }
+}
@@ -0,0 +1,55 @@
+package com.esgdev.amaranthui.db.index;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-write array of ints in a memory-mapped file, for build state that should not live in the heap,
+ * e.g. the neighbour lists of a graph under construction. The file is mapped in chunks like {@link MappedVectors}.
+ * Concurrent writers must not write the same index.
+ */
+final class MappedInts {
+    private static final int CHUNK_INTS = 1 << 28;
+
+    private final IntBuffer[] chunks;
+
+    MappedInts(FileChannel channel, long length) throws IOException {
+        int chunkCount = (int) ((length + CHUNK_INTS - 1) / CHUNK_INTS);
+        chunks = new IntBuffer[chunkCount];
+        for (int c = 0; c < chunkCount; c++) {
+            long first = (long) c * CHUNK_INTS;
+            long ints = Math.min(CHUNK_INTS, length - first);
+            chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE, first * 4, ints * 4)
+                    .order(ByteOrder.nativeOrder())
+                    .asIntBuffer();
+        }
+    }
+
+    int get(long index) {
+        return chunks[(int) (index / CHUNK_INTS)].get((int) (index % CHUNK_INTS));
+    }
+
+    void set(long index, int value) {
+        chunks[(int) (index / CHUNK_INTS)].put((int) (index % CHUNK_INTS), value);
+    }
+
+    /**
+     * Copies {@code length} ints starting at {@code index} into the start of {@code target}.
+     */
+    void get(long index, int[] target, int length) {
+        for (int i = 0; i < length; i++) {
+            target[i] = get(index + i);
+        }
+    }
+
+    /**
+     * Copies {@code length} ints from the start of {@code source} to {@code index}.
+     */
+    void set(long index, int[] source, int length) {
+        for (int i = 0; i < length; i++) {
+            set(index + i, source[i]);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.esgdev.amaranthui.db.index;
+
+import com.esgdev.amaranthui.db.kernel.VectorKernels;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only view of a file of fixed-dimension float32 vectors in native byte order.
+ * The file is mapped in chunks, since a single mapping is limited to 2 GB.
+ * Vectors are bulk-copied into a per-thread scratch array so the similarity kernel works on a plain float[].
+ */
+final class MappedVectors {
+    private static final long CHUNK_BYTES = 1L << 30;
+
+    private final int dimension;
+    private final int vectorsPerChunk;
+    private final FloatBuffer[] chunks;
+    private final ThreadLocal<float[]> scratch;
+
+    MappedVectors(FileChannel channel, int dimension, int count) throws IOException {
+        this.dimension = dimension;
+        this.scratch = ThreadLocal.withInitial(() -> new float[dimension]);
+        this.vectorsPerChunk = (int) Math.max(1, CHUNK_BYTES / (4L * dimension));
+        int chunkCount = (count + vectorsPerChunk - 1) / vectorsPerChunk;
+        chunks = new FloatBuffer[chunkCount];
+        for (int c = 0; c < chunkCount; c++) {
+            long first = (long) c * vectorsPerChunk;
+            long vectors = Math.min(vectorsPerChunk, count - first);
+            chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, first * dimension * 4, vectors * dimension * 4)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+        }
+    }
+
+    float dot(float[] query, int node) {
+        FloatBuffer chunk = chunks[node / vectorsPerChunk];
+        float[] vector = scratch.get();
+        chunk.get((node % vectorsPerChunk) * dimension, vector);
+        return VectorKernels.dot(query, vector);
+    }
+
+    float[] get(int node) {
+        float[] vector = new float[dimension];
+        chunks[node / vectorsPerChunk].get((node % vectorsPerChunk) * dimension, vector);
+        return vector;
+    }
+}
@@ -0,0 +1,117 @@
+package com.esgdev.amaranthui.db.index;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+
+/**
+ * Runs exact top-k scans on all cores.
+ * <p>
+ * The scanned range is split recursively on a ForkJoinPool; each leaf partition fills its own bounded
+ * {@link TopK} heap, and the heaps are merged while the tasks join, so nothing is ever fully sorted.
+ * The pool is limited to the configured parallelism, so a search cannot starve the rest of the application.
+ * Instances are shared per parallelism level; with a parallelism of 1 the scan runs on the calling thread.
+ */
+public final class ParallelSearch {
+    private static final Map<Integer, ParallelSearch> SHARED = new ConcurrentHashMap<>();
+
+    private final int parallelism;
+    private final ForkJoinPool pool;
+
+    /**
+     * Scores the entries of one partition into the given heap.
+     */
+    public interface RangeScorer {
+        void score(int from, int to, TopK topK);
+    }
+
+    /**
+     * Computes the partial result of one partition.
+     */
+    public interface RangeTask<R> {
+        R apply(int from, int to);
+    }
+
+    private ParallelSearch(int parallelism) {
+        this.parallelism = parallelism;
+        this.pool = parallelism == 1 ? null : new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("vector-search-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * @return the shared instance for the given number of threads
+     */
+    public static ParallelSearch of(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Search parallelism must be at least 1.");
+        }
+        return SHARED.computeIfAbsent(parallelism, ParallelSearch::new);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Scores {@code [0, size)} in partitions of at least {@code minPartitionSize} entries.
+     *
+     * @return the merged heap of the k best entries
+     */
+    public TopK search(int size, int k, int minPartitionSize, RangeScorer scorer) {
+        return map(size, minPartitionSize, (from, to) -> {
+            TopK topK = new TopK(k);
+            scorer.score(from, to, topK);
+            return topK;
+        }, (left, right) -> {
+            left.addAll(right);
+            return left;
+        });
+    }
+
+    /**
+     * Computes a partial result per partition of {@code [0, size)} and merges them, e.g. one heap per query of a batch.
+     */
+    public <R> R map(int size, int minPartitionSize, RangeTask<R> task, BinaryOperator<R> merge) {
+        if (pool == null || size <= minPartitionSize) {
+            return task.apply(0, size);
+        }
+        // A few partitions per thread even out the load when some of them are slower
+        int partitionSize = Math.max(minPartitionSize, (size + parallelism * 4 - 1) / (parallelism * 4));
+        return pool.invoke(new PartitionTask<>(0, size, partitionSize, task, merge));
+    }
+
+    private static class PartitionTask<R> extends RecursiveTask<R> {
+        private final int from;
+        private final int to;
+        private final int partitionSize;
+        private final RangeTask<R> task;
+        private final BinaryOperator<R> merge;
+
+        PartitionTask(int from, int to, int partitionSize, RangeTask<R> task, BinaryOperator<R> merge) {
+            this.from = from;
+            this.to = to;
+            this.partitionSize = partitionSize;
+            this.task = task;
+            this.merge = merge;
+        }
+
+        @Override
+        protected R compute() {
+            if (to - from <= partitionSize) {
+                return task.apply(from, to);
+            }
+            int middle = (from + to) >>> 1;
+            PartitionTask<R> right = new PartitionTask<>(middle, to, partitionSize, task, merge);
+            right.fork();
+            R left = new PartitionTask<>(from, middle, partitionSize, task, merge).compute();
+            return merge.apply(left, right.join());
+        }
+    }
+}
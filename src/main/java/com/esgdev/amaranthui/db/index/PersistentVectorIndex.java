@@ -0,0 +1,42 @@
+package com.esgdev.amaranthui.db.index;
+
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * A vector index that lives in a file and survives restarts.
+ * The file is built from a snapshot of the table; writes made afterwards are held in memory until
+ * the next rebuild, so after opening the index has to be reconciled with the rows actually in the table.
+ */
+public interface PersistentVectorIndex extends VectorIndex {
+
+    /**
+     * Streams the ids of the rows currently in the table.
+     */
+    interface IdSource {
+        void forEach(LongConsumer consumer);
+    }
+
+    /**
+     * Opens the persisted index, if there is a usable one.
+     * @return false if there is no index file or it cannot be read; the index then has to be built
+     */
+    boolean open();
+
+    /**
+     * Builds a new index file from the source and switches to it. The previous file, if any,
+     * keeps serving searches until the new one is complete.
+     */
+    void build(VectorSource source);
+
+    /**
+     * Marks the vectors whose ids are not in the table as deleted.
+     * @return the ids that are in the table but not in the index, to be added by the caller
+     */
+    List<Long> reconcile(IdSource tableIds);
+
+    /**
+     * @return true once enough writes have accumulated in memory that the file should be rebuilt
+     */
+    boolean needsRebuild();
+}
@@ -0,0 +1,172 @@
+package com.esgdev.amaranthui.db.index;
+
+import com.esgdev.amaranthui.db.kernel.VectorKernels;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Product quantizer: splits a vector into subspaces and encodes each sub-vector as the
+ * one-byte index of its nearest codebook centroid, so a vector costs one byte per subspace.
+ * Inner products against a query are approximated with a per-query lookup table.
+ * The dimension does not need to be a multiple of the number of subspaces.
+ */
+public class ProductQuantizer {
+    private static final int CENTROIDS = 256;
+    private static final int ITERATIONS = 12;
+
+    private final int dimension;
+    private final int[] offsets;
+    private final float[][][] codebooks;
+
+    private ProductQuantizer(int dimension, int[] offsets, float[][][] codebooks) {
+        this.dimension = dimension;
+        this.offsets = offsets;
+        this.codebooks = codebooks;
+    }
+
+    /**
+     * Trains one codebook per subspace.
+     *
+     * @param data training vectors
+     * @param subspaces number of subspaces, which is also the code size in bytes
+     */
+    public static ProductQuantizer train(float[][] data, int subspaces, Random random) {
+        int dimension = data[0].length;
+        subspaces = Math.max(1, Math.min(subspaces, dimension));
+        int[] offsets = new int[subspaces + 1];
+        for (int s = 0; s <= subspaces; s++) {
+            offsets[s] = s * dimension / subspaces;
+        }
+        float[][][] codebooks = new float[subspaces][][];
+        for (int s = 0; s < subspaces; s++) {
+            int from = offsets[s];
+            int length = offsets[s + 1] - from;
+            float[][] subvectors = new float[data.length][length];
+            for (int i = 0; i < data.length; i++) {
+                System.arraycopy(data[i], from, subvectors[i], 0, length);
+            }
+            codebooks[s] = KMeans.train(subvectors, CENTROIDS, ITERATIONS, random);
+        }
+        return new ProductQuantizer(dimension, offsets, codebooks);
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * @return the number of bytes per encoded vector
+     */
+    public int getCodeSize() {
+        return codebooks.length;
+    }
+
+    /**
+     * Encodes the vector into {@code out} starting at {@code offset}.
+     */
+    public void encode(float[] vector, byte[] out, int offset) {
+        for (int s = 0; s < codebooks.length; s++) {
+            float[][] codebook = codebooks[s];
+            int from = offsets[s];
+            int to = offsets[s + 1];
+            int best = 0;
+            float bestDistance = Float.MAX_VALUE;
+            for (int c = 0; c < codebook.length; c++) {
+                float distance = VectorKernels.get().squaredDistance(vector, from, codebook[c], 0, to - from);
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = c;
+                }
+            }
+            out[offset + s] = (byte) best;
+        }
+    }
+
+    public byte[] encode(float[] vector) {
+        byte[] code = new byte[getCodeSize()];
+        encode(vector, code, 0);
+        return code;
+    }
+
+    /**
+     * Reconstructs the approximate vector of a code.
+     */
+    public float[] decode(byte[] codes, int offset) {
+        float[] vector = new float[dimension];
+        for (int s = 0; s < codebooks.length; s++) {
+            float[] centroid = codebooks[s][codes[offset + s] & 0xFF];
+            System.arraycopy(centroid, 0, vector, offsets[s], centroid.length);
+        }
+        return vector;
+    }
+
+    /**
+     * Precomputes the inner product of every codebook centroid with the matching part of the query.
+     *
+     * @return a table of {@code subspaces * 256} entries, to be passed to {@link #innerProduct}
+     */
+    public float[] innerProductTable(float[] query) {
+        float[] table = new float[codebooks.length * CENTROIDS];
+        for (int s = 0; s < codebooks.length; s++) {
+            float[][] codebook = codebooks[s];
+            int from = offsets[s];
+            for (int c = 0; c < codebook.length; c++) {
+                float[] centroid = codebook[c];
+                table[s * CENTROIDS + c] = VectorKernels.dot(query, from, centroid, 0, centroid.length);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @return the approximate inner product of the query the table was built for and the encoded vector
+     */
+    public float innerProduct(float[] table, byte[] codes, int offset) {
+        float sum = 0f;
+        for (int s = 0, base = 0; s < codebooks.length; s++, base += CENTROIDS) {
+            sum += table[base + (codes[offset + s] & 0xFF)];
+        }
+        return sum;
+    }
+
+    /**
+     * Writes the codebooks, to be restored with {@link #read(DataInput)}.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(dimension);
+        out.writeInt(codebooks.length);
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        for (float[][] codebook : codebooks) {
+            out.writeInt(codebook.length);
+            for (float[] centroid : codebook) {
+                for (float value : centroid) {
+                    out.writeFloat(value);
+                }
+            }
+        }
+    }
+
+    public static ProductQuantizer read(DataInput in) throws IOException {
+        int dimension = in.readInt();
+        int subspaces = in.readInt();
+        int[] offsets = new int[subspaces + 1];
+        for (int s = 0; s <= subspaces; s++) {
+            offsets[s] = in.readInt();
+        }
+        float[][][] codebooks = new float[subspaces][][];
+        for (int s = 0; s < subspaces; s++) {
+            codebooks[s] = new float[in.readInt()][offsets[s + 1] - offsets[s]];
+            for (float[] centroid : codebooks[s]) {
+                for (int d = 0; d < centroid.length; d++) {
+                    centroid[d] = in.readFloat();
+                }
+            }
+        }
+        return new ProductQuantizer(dimension, offsets, codebooks);
+    }
+}
@@ -0,0 +1,27 @@
+package com.esgdev.amaranthui.db.index;
+
+/**
+ * A search hit: a row id and its similarity score.
+ */
+public class ScoredId {
+    private final long id;
+    private final double score;
+
+    public ScoredId(long id, double score) {
+        this.id = id;
+        this.score = score;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    @Override
+    public String toString() {
+        return id + ":" + score;
+    }
+}
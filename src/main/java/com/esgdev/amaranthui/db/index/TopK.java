@@ -0,0 +1,119 @@
+package com.esgdev.amaranthui.db.index;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded min-heap that keeps the k best scored ids seen so far.
+ * Ids and scores are held in parallel primitive arrays so offering a candidate never allocates.
+ */
+public class TopK {
+    private final int capacity;
+    private final long[] ids;
+    private final double[] scores;
+    private int size;
+
+    public TopK(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        this.capacity = capacity;
+        this.ids = new long[capacity];
+        this.scores = new double[capacity];
+    }
+
+    /**
+     * Offers a candidate. It is kept if the heap is not full yet or if it beats the current worst entry.
+     * @return true if the candidate was kept
+     */
+    public boolean offer(long id, double score) {
+        if (size < capacity) {
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+            return true;
+        }
+        if (capacity == 0 || score <= scores[0]) {
+            return false;
+        }
+        ids[0] = id;
+        scores[0] = score;
+        siftDown(0);
+        return true;
+    }
+
+    /**
+     * @return the score a candidate has to beat once the heap is full, or negative infinity before that
+     */
+    public double threshold() {
+        return size < capacity || capacity == 0 ? Double.NEGATIVE_INFINITY : scores[0];
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Merges all entries of another heap into this one.
+     */
+    public void addAll(TopK other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.ids[i], other.scores[i]);
+        }
+    }
+
+    /**
+     * @return the retained entries ordered by descending score
+     */
+    public List<ScoredId> toSortedList() {
+        List<ScoredId> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(new ScoredId(ids[i], scores[i]));
+        }
+        result.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+        return result;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (scores[parent] <= scores[i]) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                return;
+            }
+            int smallest = left;
+            int right = left + 1;
+            if (right < size && scores[right] < scores[left]) {
+                smallest = right;
+            }
+            if (scores[i] <= scores[smallest]) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        double score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
@@ -0,0 +1,805 @@
+package com.esgdev.amaranthui.db.index;
+
+import com.esgdev.amaranthui.db.kernel.VectorKernels;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * Disk-resident Vamana graph index in the style of DiskANN, for corpora that do not fit in the heap.
+ * <p>
+ * The index file holds one fixed-size, little-endian record per vector: the full normalized vector followed
+ * by its neighbour list. Only the ids and the product-quantized codes are kept in memory. A search navigates the
+ * graph with PQ scores, reads one record per expanded node, and scores the expanded nodes exactly with the
+ * full vectors of those records, so the I/O per query is bounded by the search list size.
+ * <p>
+ * Vectors written after the file was built are kept in an in-memory delta and deleted ones are tombstoned,
+ * until {@link #needsRebuild()} asks for a new file. Writes made while a new file is being built are recorded and
+ * applied again once it replaces the old one, since the snapshot it was built from may predate them.
+ * <p>
+ * The build streams the vectors to a temporary file and keeps the neighbour lists under construction in another
+ * memory-mapped file, so besides the training sample the heap only holds the ids and the PQ codes.
+ * <p>
+ * See Subramanya et al., "DiskANN: Fast Accurate Billion-point Nearest Neighbor Search on a Single Node".
+ */
+public class VamanaIndex implements PersistentVectorIndex {
+    private static final int MAGIC = 0x564D4E41;
+    private static final int VERSION = 1;
+    private static final int PAGE_SIZE = 4096;
+    private static final int TRAINING_SAMPLE = 50_000;
+    private static final int MIN_REBUILD = 10_000;
+    private static final int LOCK_STRIPES = 1024;
+    private static final int ENCODE_BLOCK = 1 << 16;
+
+    private final Logger logger = Logger.getLogger(VamanaIndex.class.getName());
+    private final Path file;
+    private final int maxDegree;
+    private final int searchListSize;
+    private final float alpha;
+    private final int pqSubspaces;
+    private final int buildParallelism;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final FlatVectorIndex delta = new FlatVectorIndex();
+    private final BitSet deleted = new BitSet();
+    private DiskGraph graph;
+    // Writes since the running build started, in order; a null vector is a removal
+    private Map<Long, float[]> buildWrites;
+
+    /**
+     * An opened index file. Ids are sorted, so a node's position is found by binary search.
+     */
+    private static class DiskGraph {
+        final FileChannel channel;
+        final int dimension;
+        final int count;
+        final int maxDegree;
+        final int medoid;
+        final ProductQuantizer quantizer;
+        final long[] ids;
+        final byte[] codes;
+        final long recordsOffset;
+        final int recordSize;
+
+        DiskGraph(FileChannel channel, int dimension, int count, int maxDegree, int medoid,
+                  ProductQuantizer quantizer, long[] ids, byte[] codes, long recordsOffset) {
+            this.channel = channel;
+            this.dimension = dimension;
+            this.count = count;
+            this.maxDegree = maxDegree;
+            this.medoid = medoid;
+            this.quantizer = quantizer;
+            this.ids = ids;
+            this.codes = codes;
+            this.recordsOffset = recordsOffset;
+            this.recordSize = 4 * (dimension + 1 + maxDegree);
+        }
+
+        int nodeOf(long id) {
+            int node = Arrays.binarySearch(ids, id);
+            return node >= 0 ? node : -1;
+        }
+
+        void readRecord(int node, ByteBuffer buffer) throws IOException {
+            buffer.clear();
+            long position = recordsOffset + (long) node * recordSize;
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of index file at node " + node);
+                }
+            }
+            buffer.flip();
+        }
+    }
+
+    /**
+     * @param file the index file; a temporary file next to it is used while building
+     */
+    public VamanaIndex(Path file, VectorIndexConfiguration configuration) {
+        this.file = file;
+        this.maxDegree = configuration.getVamanaMaxDegree();
+        this.searchListSize = configuration.getVamanaSearchListSize();
+        this.alpha = configuration.getVamanaAlpha();
+        this.pqSubspaces = configuration.getPqSubspaces();
+        this.buildParallelism = configuration.getBuildParallelism();
+    }
+
+    @Override
+    public boolean open() {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        try {
+            DiskGraph opened = read(file);
+            lock.writeLock().lock();
+            try {
+                closeGraph();
+                graph = opened;
+                delta.clear();
+                deleted.clear();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            logger.info("Opened Vamana index " + file + " with " + opened.count + " vectors");
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Cannot read Vamana index " + file + ", it will be rebuilt", e);
+            return false;
+        }
+    }
+
+    @Override
+    public void build(VectorSource source) {
+        Path vectorsFile = file.resolveSibling(file.getFileName() + ".vectors.tmp");
+        Path graphFile = file.resolveSibling(file.getFileName() + ".graph.tmp");
+        Path indexFile = file.resolveSibling(file.getFileName() + ".tmp");
+        lock.writeLock().lock();
+        try {
+            buildWrites = new LinkedHashMap<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            long start = System.currentTimeMillis();
+            write(source, vectorsFile, graphFile, indexFile);
+            DiskGraph built;
+            int replayed;
+            lock.writeLock().lock();
+            try {
+                closeGraph();
+                Files.move(indexFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                built = read(file);
+                graph = built;
+                delta.clear();
+                deleted.clear();
+                replayed = buildWrites.size();
+                for (Map.Entry<Long, float[]> write : buildWrites.entrySet()) {
+                    if (write.getValue() != null) {
+                        addToDelta(write.getKey(), write.getValue());
+                    } else {
+                        removeFromDelta(write.getKey());
+                    }
+                }
+            } finally {
+                buildWrites = null;
+                lock.writeLock().unlock();
+            }
+            logger.info("Built Vamana index " + file + " with " + built.count + " vectors in "
+                    + (System.currentTimeMillis() - start) + " ms, " + replayed + " writes made meanwhile applied again");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to build Vamana index " + file, e);
+        } finally {
+            lock.writeLock().lock();
+            try {
+                buildWrites = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            try {
+                Files.deleteIfExists(vectorsFile);
+                Files.deleteIfExists(graphFile);
+                Files.deleteIfExists(indexFile);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to delete temporary index files", e);
+            }
+        }
+    }
+
+    /**
+     * Builds the index from vectors already in memory.
+     */
+    @Override
+    public void addAll(long[] ids, float[][] vectors) {
+        Integer[] order = new Integer[ids.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(ids[a], ids[b]));
+        build(consumer -> {
+            for (int i : order) {
+                consumer.accept(ids[i], vectors[i]);
+            }
+        });
+    }
+
+    @Override
+    public List<Long> reconcile(IdSource tableIds) {
+        lock.writeLock().lock();
+        try {
+            List<Long> missing = new ArrayList<>();
+            BitSet seen = new BitSet();
+            tableIds.forEach(id -> {
+                int node = graph == null ? -1 : graph.nodeOf(id);
+                if (node >= 0) {
+                    seen.set(node);
+                } else if (!delta.contains(id)) {
+                    missing.add(id);
+                }
+            });
+            if (graph != null) {
+                for (int node = seen.nextClearBit(0); node < graph.count; node = seen.nextClearBit(node + 1)) {
+                    deleted.set(node);
+                }
+            }
+            return missing;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean needsRebuild() {
+        lock.readLock().lock();
+        try {
+            int count = graph == null ? 0 : graph.count;
+            int threshold = Math.max(MIN_REBUILD, count / 10);
+            return delta.size() > threshold || deleted.cardinality() > Math.max(MIN_REBUILD, count / 5);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void add(long id, float[] vector) {
+        lock.writeLock().lock();
+        try {
+            if (buildWrites != null) {
+                buildWrites.remove(id);
+                buildWrites.put(id, vector);
+            }
+            addToDelta(id, vector);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(long id) {
+        lock.writeLock().lock();
+        try {
+            if (buildWrites != null) {
+                buildWrites.remove(id);
+                buildWrites.put(id, null);
+            }
+            return removeFromDelta(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addToDelta(long id, float[] vector) {
+        int node = graph == null ? -1 : graph.nodeOf(id);
+        if (node >= 0) {
+            deleted.set(node);
+        }
+        delta.add(id, vector);
+    }
+
+    private boolean removeFromDelta(long id) {
+        if (delta.remove(id)) {
+            return true;
+        }
+        int node = graph == null ? -1 : graph.nodeOf(id);
+        if (node < 0 || deleted.get(node)) {
+            return false;
+        }
+        deleted.set(node);
+        return true;
+    }
+
+    @Override
+    public List<ScoredId> search(float[] query, int k) {
+        lock.readLock().lock();
+        try {
+            TopK topK = new TopK(Math.max(0, k));
+            for (ScoredId hit : delta.search(query, k)) {
+                topK.offer(hit.getId(), hit.getScore());
+            }
+            DiskGraph g = graph;
+            float[] q = normalize(query);
+            if (g == null || g.count == 0 || q == null || query.length != g.dimension) {
+                return topK.toSortedList();
+            }
+            float[] table = g.quantizer.innerProductTable(q);
+            int codeSize = g.quantizer.getCodeSize();
+            BeamList beam = new BeamList(Math.max(searchListSize, k));
+            Set<Integer> visited = new HashSet<>();
+            visited.add(g.medoid);
+            beam.insert(g.medoid, -g.quantizer.innerProduct(table, g.codes, g.medoid * codeSize));
+            ByteBuffer record = ByteBuffer.allocate(g.recordSize).order(ByteOrder.LITTLE_ENDIAN);
+            float[] vector = new float[g.dimension];
+            int position;
+            while ((position = beam.nextUnexpanded()) >= 0) {
+                int node = beam.node(position);
+                beam.markExpanded(position);
+                g.readRecord(node, record);
+                record.asFloatBuffer().get(vector);
+                if (!deleted.get(node)) {
+                    topK.offer(g.ids[node], dot(q, vector));
+                }
+                record.position(4 * g.dimension);
+                int degree = record.getInt();
+                for (int i = 0; i < degree; i++) {
+                    int neighbour = record.getInt();
+                    if (visited.add(neighbour)) {
+                        beam.insert(neighbour, -g.quantizer.innerProduct(table, g.codes, neighbour * codeSize));
+                    }
+                }
+            }
+            return topK.toSortedList();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to read Vamana index " + file, e);
+            return new ArrayList<>();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            int count = graph == null ? 0 : graph.count;
+            return count - deleted.cardinality() + delta.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            closeGraph();
+            graph = null;
+            delta.clear();
+            deleted.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void closeGraph() {
+        if (graph != null) {
+            try {
+                graph.channel.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to close Vamana index", e);
+            }
+        }
+    }
+
+    /**
+     * Streams the source into a raw vector file, trains the quantizer, builds the graph over the
+     * memory-mapped vectors and writes the index file.
+     */
+    private void write(VectorSource source, Path vectorsFile, Path graphFile, Path indexFile) throws IOException {
+        try (FileChannel vectorsChannel = FileChannel.open(vectorsFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileChannel graphChannel = FileChannel.open(graphFile, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            RawVectorWriter writer = new RawVectorWriter(vectorsChannel);
+            source.forEach(writer);
+            writer.flush();
+            int count = writer.count;
+            if (count == 0) {
+                writeEmpty(indexFile);
+                return;
+            }
+            int dimension = writer.dimension;
+            long[] ids = Arrays.copyOf(writer.ids, count);
+            MappedVectors vectors = new MappedVectors(vectorsChannel, dimension, count);
+            Random random = new Random(count);
+            ProductQuantizer quantizer = ProductQuantizer.train(writer.sample.toArray(new float[0][]), pqSubspaces, random);
+            int codeSize = quantizer.getCodeSize();
+
+            int medoid = findMedoid(vectors, writer.sum, count);
+            MappedInts adjacency = new MappedInts(graphChannel, (long) count * maxDegree);
+            int[] degrees = new int[count];
+            buildGraph(vectors, count, medoid, adjacency, degrees, random);
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFile), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(dimension);
+                out.writeInt(count);
+                out.writeInt(maxDegree);
+                out.writeInt(medoid);
+                quantizer.write(out);
+                for (long id : ids) {
+                    out.writeLong(id);
+                }
+                // The codes are encoded block by block as they are written, the index keeps them once it is opened
+                byte[] codes = new byte[Math.min(count, ENCODE_BLOCK) * codeSize];
+                for (int from = 0; from < count; from += ENCODE_BLOCK) {
+                    int first = from;
+                    int to = Math.min(count, from + ENCODE_BLOCK);
+                    IntStream.range(first, to).parallel().forEach(node -> quantizer.encode(vectors.get(node), codes, (node - first) * codeSize));
+                    out.write(codes, 0, (to - first) * codeSize);
+                }
+                long headerOffset = headerOffset(quantizer, count);
+                for (long i = headerOffset; i < align(headerOffset); i++) {
+                    out.write(0);
+                }
+                ByteBuffer record = ByteBuffer.allocate(4 * (dimension + 1 + maxDegree)).order(ByteOrder.LITTLE_ENDIAN);
+                for (int node = 0; node < count; node++) {
+                    record.clear();
+                    for (float value : vectors.get(node)) {
+                        record.putFloat(value);
+                    }
+                    record.putInt(degrees[node]);
+                    for (int i = 0; i < maxDegree; i++) {
+                        record.putInt(i < degrees[node] ? adjacency.get((long) node * maxDegree + i) : -1);
+                    }
+                    out.write(record.array());
+                }
+            }
+        }
+    }
+
+    private void writeEmpty(Path indexFile) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(indexFile))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(0);
+            out.writeInt(0);
+        }
+    }
+
+    private DiskGraph read(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("Not a Vamana index file: " + path);
+                }
+                int dimension = in.readInt();
+                int count = in.readInt();
+                if (count == 0) {
+                    return new DiskGraph(channel, dimension, 0, 0, 0, null, new long[0], new byte[0], 0);
+                }
+                int degree = in.readInt();
+                int medoid = in.readInt();
+                ProductQuantizer quantizer = ProductQuantizer.read(in);
+                long[] ids = new long[count];
+                for (int i = 0; i < count; i++) {
+                    ids[i] = in.readLong();
+                }
+                byte[] codes = new byte[count * quantizer.getCodeSize()];
+                in.readFully(codes);
+                long recordsOffset = align(headerOffset(quantizer, count));
+                DiskGraph opened = new DiskGraph(channel, dimension, count, degree, medoid, quantizer, ids, codes, recordsOffset);
+                if (channel.size() < recordsOffset + (long) count * opened.recordSize) {
+                    throw new IOException("Truncated Vamana index file: " + path);
+                }
+                return opened;
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the size of everything written before the node records
+     */
+    private static long headerOffset(ProductQuantizer quantizer, int count) throws IOException {
+        CountingOutput counter = new CountingOutput();
+        try (DataOutputStream out = new DataOutputStream(counter)) {
+            quantizer.write(out);
+        }
+        return 6L * 4 + counter.count + 8L * count + (long) count * quantizer.getCodeSize();
+    }
+
+    private static long align(long offset) {
+        return (offset + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    /**
+     * @return the node closest to the mean of all vectors, used as the search entry point
+     */
+    private static int findMedoid(MappedVectors vectors, double[] sum, int count) {
+        float[] mean = new float[sum.length];
+        for (int i = 0; i < sum.length; i++) {
+            mean[i] = (float) (sum[i] / count);
+        }
+        int best = 0;
+        float bestScore = Float.NEGATIVE_INFINITY;
+        for (int node = 0; node < count; node++) {
+            float score = vectors.dot(mean, node);
+            if (score > bestScore) {
+                bestScore = score;
+                best = node;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Vamana construction: starting from a random graph, every node is searched for and its neighbours are
+     * replaced by a robust-pruned selection of the visited nodes, with back links added to them.
+     * A first pass with alpha 1 and a second pass with the configured alpha, as in the paper.
+     */
+    private void buildGraph(MappedVectors vectors, int count, int medoid, MappedInts adjacency, int[] degrees, Random random) {
+        int initialDegree = Math.min(maxDegree, count - 1);
+        for (int node = 0; node < count; node++) {
+            Set<Integer> neighbours = new HashSet<>();
+            while (neighbours.size() < initialDegree) {
+                int candidate = random.nextInt(count);
+                if (candidate != node) {
+                    neighbours.add(candidate);
+                }
+            }
+            for (int neighbour : neighbours) {
+                adjacency.set((long) node * maxDegree + degrees[node]++, neighbour);
+            }
+        }
+        Object[] locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        int[] order = IntStream.range(0, count).toArray();
+        for (float passAlpha : new float[]{1f, alpha}) {
+            for (int i = count - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+            ForkJoinPool pool = new ForkJoinPool(buildParallelism);
+            try {
+                pool.submit(() -> IntStream.range(0, count).parallel().forEach(i ->
+                        updateNode(vectors, order[i], medoid, adjacency, degrees, locks, passAlpha))).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Vamana build interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Vamana build failed", e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private void updateNode(MappedVectors vectors, int node, int medoid, MappedInts adjacency, int[] degrees,
+                            Object[] locks, float passAlpha) {
+        float[] vector = vectors.get(node);
+        List<Integer> candidates = greedySearch(vectors, vector, medoid, adjacency, degrees, locks);
+        int[] neighbours;
+        synchronized (locks[node % LOCK_STRIPES]) {
+            for (int i = 0; i < degrees[node]; i++) {
+                candidates.add(adjacency.get((long) node * maxDegree + i));
+            }
+            neighbours = robustPrune(vectors, node, vector, candidates, passAlpha);
+            adjacency.set((long) node * maxDegree, neighbours, neighbours.length);
+            degrees[node] = neighbours.length;
+        }
+        for (int neighbour : neighbours) {
+            synchronized (locks[neighbour % LOCK_STRIPES]) {
+                long base = (long) neighbour * maxDegree;
+                boolean present = false;
+                for (int i = 0; i < degrees[neighbour]; i++) {
+                    if (adjacency.get(base + i) == node) {
+                        present = true;
+                        break;
+                    }
+                }
+                if (present) {
+                    continue;
+                }
+                if (degrees[neighbour] < maxDegree) {
+                    adjacency.set(base + degrees[neighbour]++, node);
+                } else {
+                    List<Integer> linked = new ArrayList<>(maxDegree + 1);
+                    for (int i = 0; i < degrees[neighbour]; i++) {
+                        linked.add(adjacency.get(base + i));
+                    }
+                    linked.add(node);
+                    int[] pruned = robustPrune(vectors, neighbour, vectors.get(neighbour), linked, passAlpha);
+                    adjacency.set(base, pruned, pruned.length);
+                    degrees[neighbour] = pruned.length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Greedy beam search over the graph under construction.
+     *
+     * @return the nodes expanded on the way, which are the pruning candidates
+     */
+    private List<Integer> greedySearch(MappedVectors vectors, float[] query, int start, MappedInts adjacency, int[] degrees, Object[] locks) {
+        BeamList beam = new BeamList(searchListSize);
+        Set<Integer> visited = new HashSet<>();
+        List<Integer> expanded = new ArrayList<>();
+        visited.add(start);
+        beam.insert(start, 1f - vectors.dot(query, start));
+        int[] neighbours = new int[maxDegree];
+        int position;
+        while ((position = beam.nextUnexpanded()) >= 0) {
+            int node = beam.node(position);
+            beam.markExpanded(position);
+            expanded.add(node);
+            int degree;
+            synchronized (locks[node % LOCK_STRIPES]) {
+                degree = degrees[node];
+                adjacency.get((long) node * maxDegree, neighbours, degree);
+            }
+            for (int i = 0; i < degree; i++) {
+                if (visited.add(neighbours[i])) {
+                    beam.insert(neighbours[i], 1f - vectors.dot(query, neighbours[i]));
+                }
+            }
+        }
+        return expanded;
+    }
+
+    /**
+     * Keeps the closest candidate, drops every candidate it covers (alpha * d(kept, c) &lt;= d(node, c)),
+     * and repeats until the degree bound is reached.
+     */
+    private int[] robustPrune(MappedVectors vectors, int node, float[] vector, List<Integer> candidateList, float passAlpha) {
+        Set<Integer> unique = new HashSet<>(candidateList);
+        unique.remove(node);
+        int size = unique.size();
+        int[] candidates = new int[size];
+        float[] distances = new float[size];
+        int n = 0;
+        for (int candidate : unique) {
+            candidates[n] = candidate;
+            distances[n] = 1f - vectors.dot(vector, candidate);
+            n++;
+        }
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(distances[a], distances[b]));
+        boolean[] removed = new boolean[size];
+        int[] selected = new int[Math.min(maxDegree, size)];
+        int count = 0;
+        for (int i = 0; i < size && count < selected.length; i++) {
+            int current = order[i];
+            if (removed[current]) {
+                continue;
+            }
+            selected[count++] = candidates[current];
+            float[] kept = vectors.get(candidates[current]);
+            for (int j = i + 1; j < size; j++) {
+                int other = order[j];
+                if (!removed[other] && passAlpha * (1f - vectors.dot(kept, candidates[other])) <= distances[other]) {
+                    removed[other] = true;
+                }
+            }
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    private static float dot(float[] a, float[] b) {
+        return VectorKernels.dot(a, b);
+    }
+
+    private static float[] normalize(float[] vector) {
+        float norm = (float) Math.sqrt(dot(vector, vector));
+        if (norm == 0f) {
+            return null;
+        }
+        float[] result = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = vector[i] / norm;
+        }
+        return result;
+    }
+
+    /**
+     * Writes normalized vectors to the raw file in arrival order, collecting ids, a training sample
+     * (reservoir sampling) and the component sums for the medoid.
+     */
+    private static class RawVectorWriter implements VectorConsumer {
+        private final FileChannel channel;
+        private final Random random = new Random(17);
+        private final List<float[]> sample = new ArrayList<>();
+        private ByteBuffer buffer;
+        private long[] ids = new long[1024];
+        private double[] sum;
+        private int dimension = -1;
+        private int count;
+
+        RawVectorWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void accept(long id, float[] vector) {
+            if (dimension < 0) {
+                dimension = vector.length;
+                sum = new double[dimension];
+                buffer = ByteBuffer.allocate(Math.max(1 << 16, 4 * dimension)).order(ByteOrder.nativeOrder());
+            }
+            float[] v = normalize(vector);
+            if (vector.length != dimension || v == null) {
+                return;
+            }
+            if (count > 0 && id <= ids[count - 1]) {
+                throw new IllegalArgumentException("Vectors must be supplied in ascending id order");
+            }
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count] = id;
+            if (sample.size() < TRAINING_SAMPLE) {
+                sample.add(v);
+            } else {
+                int slot = random.nextInt(count + 1);
+                if (slot < TRAINING_SAMPLE) {
+                    sample.set(slot, v);
+                }
+            }
+            for (int i = 0; i < dimension; i++) {
+                sum[i] += v[i];
+            }
+            count++;
+            try {
+                if (buffer.remaining() < 4 * dimension) {
+                    flush();
+                }
+                for (float value : v) {
+                    buffer.putFloat(value);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void flush() throws IOException {
+            if (buffer == null) {
+                return;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    private static class CountingOutput extends java.io.OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
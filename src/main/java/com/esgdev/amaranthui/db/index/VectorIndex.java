@@ -0,0 +1,91 @@
+package com.esgdev.amaranthui.db.index;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An in-memory nearest-neighbour index over embedding vectors, keyed by the database row id.
+ * Scores are similarities: higher is closer.
+ */
+public interface VectorIndex {
+
+    /**
+     * Streams (id, vector) pairs, e.g. straight from a database cursor.
+     */
+    interface VectorSource {
+        void forEach(VectorConsumer consumer);
+    }
+
+    interface VectorConsumer {
+        void accept(long id, float[] vector);
+    }
+
+    /**
+     * Adds or replaces the vector stored for the given id.
+     */
+    void add(long id, float[] vector);
+
+    /**
+     * Adds many vectors at once, e.g. when the index is first loaded from the database.
+     * Implementations with an expensive insert path may build in parallel.
+     */
+    default void addAll(long[] ids, float[][] vectors) {
+        for (int i = 0; i < ids.length; i++) {
+            add(ids[i], vectors[i]);
+        }
+    }
+
+    /**
+     * Loads all vectors of the source into the index, e.g. when the index is first loaded from the database.
+     * By default the vectors are collected and passed to {@link #addAll}; implementations that do not need
+     * all of them at once may stream them instead.
+     */
+    default void load(VectorSource source) {
+        List<Long> ids = new ArrayList<>();
+        List<float[]> vectors = new ArrayList<>();
+        source.forEach((id, vector) -> {
+            ids.add(id);
+            vectors.add(vector);
+        });
+        addAll(ids.stream().mapToLong(Long::longValue).toArray(), vectors.toArray(new float[0][]));
+    }
+
+    /**
+     * Removes the vector stored for the given id.
+     * @return true if the id was present
+     */
+    boolean remove(long id);
+
+    /**
+     * Finds the vectors closest to the query.
+     * @param query the query vector
+     * @param k the maximum number of results
+     * @return the results ordered by descending score
+     */
+    List<ScoredId> search(float[] query, int k);
+
+    /**
+     * Finds the vectors closest to each of several queries. By default every query is searched on its own;
+     * implementations that scan all vectors may score the whole batch in one pass.
+     * @return the results of each query, in the order of the queries
+     */
+    default List<List<ScoredId>> search(float[][] queries, int k) {
+        List<List<ScoredId>> results = new ArrayList<>(queries.length);
+        for (float[] query : queries) {
+            results.add(search(query, k));
+        }
+        return results;
+    }
+
+    /**
+     * @return false if the scores are approximations, in which case callers should rerank the results
+     * with the full-precision vectors
+     */
+    default boolean hasExactScores() {
+        return true;
+    }
+
+    int size();
+
+    void clear();
+}
@@ -0,0 +1,163 @@
+package com.esgdev.amaranthui.db.index;
+
+/**
+ * Configuration class for the in-memory vector index settings.
+ */
+public class VectorIndexConfiguration {
+    private final String indexType;
+    private int hnswM = 16;
+    private int hnswEfConstruction = 200;
+    private int hnswEfSearch = 64;
+    private int buildParallelism = Runtime.getRuntime().availableProcessors();
+    private int searchParallelism = Runtime.getRuntime().availableProcessors();
+    private int ivfLists = 256;
+    private int ivfProbes = 16;
+    private int pqSubspaces = 96;
+    private int rerankFactor = 4;
+    private String textIndexType;
+    private int vamanaMaxDegree = 64;
+    private int vamanaSearchListSize = 100;
+    private float vamanaAlpha = 1.2f;
+    private String indexDirectory = System.getProperty("java.io.tmpdir");
+
+    /**
+     * @param indexType the index in front of the embedding tables: none, flat, hnsw, ivfpq or vamana
+     */
+    public VectorIndexConfiguration(String indexType) {
+        this.indexType = indexType;
+    }
+
+    public String getIndexType() {
+        return indexType;
+    }
+
+    /**
+     * @return the index in front of the text knowledge base, which defaults to the common index type
+     */
+    public String getTextIndexType() {
+        return textIndexType != null ? textIndexType : indexType;
+    }
+
+    public void setTextIndexType(String textIndexType) {
+        this.textIndexType = textIndexType;
+    }
+
+    public int getHnswM() {
+        return hnswM;
+    }
+
+    public void setHnswM(int hnswM) {
+        if (hnswM < 2) {
+            throw new IllegalArgumentException("HNSW M must be at least 2.");
+        }
+        this.hnswM = hnswM;
+    }
+
+    public int getHnswEfConstruction() {
+        return hnswEfConstruction;
+    }
+
+    public void setHnswEfConstruction(int hnswEfConstruction) {
+        this.hnswEfConstruction = hnswEfConstruction;
+    }
+
+    public int getHnswEfSearch() {
+        return hnswEfSearch;
+    }
+
+    public void setHnswEfSearch(int hnswEfSearch) {
+        this.hnswEfSearch = hnswEfSearch;
+    }
+
+    public int getBuildParallelism() {
+        return buildParallelism;
+    }
+
+    public void setBuildParallelism(int buildParallelism) {
+        this.buildParallelism = Math.max(1, buildParallelism);
+    }
+
+    /**
+     * @return the number of threads an exact index scan may use
+     */
+    public int getSearchParallelism() {
+        return searchParallelism;
+    }
+
+    public void setSearchParallelism(int searchParallelism) {
+        if (searchParallelism < 1) {
+            throw new IllegalArgumentException("Search parallelism must be at least 1.");
+        }
+        this.searchParallelism = searchParallelism;
+    }
+
+    public int getIvfLists() {
+        return ivfLists;
+    }
+
+    public void setIvfLists(int ivfLists) {
+        this.ivfLists = Math.max(1, ivfLists);
+    }
+
+    public int getIvfProbes() {
+        return ivfProbes;
+    }
+
+    public void setIvfProbes(int ivfProbes) {
+        this.ivfProbes = Math.max(1, ivfProbes);
+    }
+
+    public int getPqSubspaces() {
+        return pqSubspaces;
+    }
+
+    public void setPqSubspaces(int pqSubspaces) {
+        this.pqSubspaces = Math.max(1, pqSubspaces);
+    }
+
+    /**
+     * @return how many candidates per requested result an approximate index returns for exact reranking
+     */
+    public int getRerankFactor() {
+        return rerankFactor;
+    }
+
+    public void setRerankFactor(int rerankFactor) {
+        this.rerankFactor = Math.max(1, rerankFactor);
+    }
+
+    public int getVamanaMaxDegree() {
+        return vamanaMaxDegree;
+    }
+
+    public void setVamanaMaxDegree(int vamanaMaxDegree) {
+        this.vamanaMaxDegree = Math.max(2, vamanaMaxDegree);
+    }
+
+    public int getVamanaSearchListSize() {
+        return vamanaSearchListSize;
+    }
+
+    public void setVamanaSearchListSize(int vamanaSearchListSize) {
+        this.vamanaSearchListSize = Math.max(1, vamanaSearchListSize);
+    }
+
+    public float getVamanaAlpha() {
+        return vamanaAlpha;
+    }
+
+    public void setVamanaAlpha(float vamanaAlpha) {
+        this.vamanaAlpha = vamanaAlpha;
+    }
+
+    /**
+     * @return the directory for index files, next to the database
+     */
+    public String getIndexDirectory() {
+        return indexDirectory;
+    }
+
+    public void setIndexDirectory(String indexDirectory) {
+        this.indexDirectory = indexDirectory;
+    }
+}
@@ -0,0 +1,129 @@
+package com.esgdev.amaranthui.db.kernel;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Plain Java kernel, unrolled by four with independent accumulators so the JIT can pipeline the loop.
+ * Used when the Vector API module is not available.
+ */
+final class ScalarKernel implements VectorKernel {
+    private static final VarHandle FLOATS = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.LITTLE_ENDIAN);
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float s0 = 0f;
+        float s1 = 0f;
+        float s2 = 0f;
+        float s3 = 0f;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+            s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public double dot(double[] a, double[] b) {
+        double s0 = 0.0;
+        double s1 = 0.0;
+        double s2 = 0.0;
+        double s3 = 0.0;
+        int length = a.length;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[i] * b[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public float squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float s0 = 0f;
+        float s1 = 0f;
+        int i = 0;
+        for (; i + 1 < length; i += 2) {
+            float d0 = a[aOffset + i] - b[bOffset + i];
+            float d1 = a[aOffset + i + 1] - b[bOffset + i + 1];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+        }
+        for (; i < length; i++) {
+            float d = a[aOffset + i] - b[bOffset + i];
+            s0 += d * d;
+        }
+        return s0 + s1;
+    }
+
+    @Override
+    public double squaredDistance(double[] a, double[] b) {
+        double sum = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            double d = a[i] - b[i];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    @Override
+    public float dotPacked(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        float s0 = 0f;
+        float s1 = 0f;
+        int i = 0;
+        for (; i + 1 < length; i += 2) {
+            s0 += (float) FLOATS.get(a, aOffset + i * 4) * (float) FLOATS.get(b, bOffset + i * 4);
+            s1 += (float) FLOATS.get(a, aOffset + i * 4 + 4) * (float) FLOATS.get(b, bOffset + i * 4 + 4);
+        }
+        for (; i < length; i++) {
+            s0 += (float) FLOATS.get(a, aOffset + i * 4) * (float) FLOATS.get(b, bOffset + i * 4);
+        }
+        return s0 + s1;
+    }
+
+    @Override
+    public void dotBatch(float[] queries, int count, float[] vector, int offset, int length, float[] out) {
+        int q = 0;
+        for (; q + 3 < count; q += 4) {
+            int q0 = q * length;
+            int q1 = q0 + length;
+            int q2 = q1 + length;
+            int q3 = q2 + length;
+            float s0 = 0f;
+            float s1 = 0f;
+            float s2 = 0f;
+            float s3 = 0f;
+            for (int i = 0; i < length; i++) {
+                float v = vector[offset + i];
+                s0 += queries[q0 + i] * v;
+                s1 += queries[q1 + i] * v;
+                s2 += queries[q2 + i] * v;
+                s3 += queries[q3 + i] * v;
+            }
+            out[q] = s0;
+            out[q + 1] = s1;
+            out[q + 2] = s2;
+            out[q + 3] = s3;
+        }
+        for (; q < count; q++) {
+            out[q] = dot(queries, q * length, vector, offset, length);
+        }
+    }
+
+    @Override
+    public String describe() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,160 @@
+package com.esgdev.amaranthui.db.kernel;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteOrder;
+
+/**
+ * Kernel on the incubating Java Vector API, using the widest species the CPU supports
+ * (8 floats with AVX2, 16 with AVX-512). Loaded reflectively by {@link VectorKernels}, so this class
+ * is never touched when the jdk.incubator.vector module is missing.
+ */
+final class SimdKernel implements VectorKernel {
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class, FLOATS.vectorShape());
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    private final ScalarKernel scalar = new ScalarKernel();
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector sum = FloatVector.zero(FLOATS);
+        int bound = FLOATS.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += FLOATS.length()) {
+            FloatVector va = FloatVector.fromArray(FLOATS, a, aOffset + i);
+            FloatVector vb = FloatVector.fromArray(FLOATS, b, bOffset + i);
+            sum = va.fma(vb, sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += a[aOffset + i] * b[bOffset + i];
+        }
+        return result;
+    }
+
+    @Override
+    public double dot(double[] a, double[] b) {
+        DoubleVector sum = DoubleVector.zero(DOUBLES);
+        int length = a.length;
+        int bound = DOUBLES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += DOUBLES.length()) {
+            sum = DoubleVector.fromArray(DOUBLES, a, i).fma(DoubleVector.fromArray(DOUBLES, b, i), sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += a[i] * b[i];
+        }
+        return result;
+    }
+
+    @Override
+    public float squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector sum = FloatVector.zero(FLOATS);
+        int bound = FLOATS.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += FLOATS.length()) {
+            FloatVector diff = FloatVector.fromArray(FLOATS, a, aOffset + i).sub(FloatVector.fromArray(FLOATS, b, bOffset + i));
+            sum = diff.fma(diff, sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            float diff = a[aOffset + i] - b[bOffset + i];
+            result += diff * diff;
+        }
+        return result;
+    }
+
+    @Override
+    public double squaredDistance(double[] a, double[] b) {
+        DoubleVector sum = DoubleVector.zero(DOUBLES);
+        int length = a.length;
+        int bound = DOUBLES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += DOUBLES.length()) {
+            DoubleVector diff = DoubleVector.fromArray(DOUBLES, a, i).sub(DoubleVector.fromArray(DOUBLES, b, i));
+            sum = diff.fma(diff, sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            double diff = a[i] - b[i];
+            result += diff * diff;
+        }
+        return result;
+    }
+
+    @Override
+    public float dotPacked(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        if (!LITTLE_ENDIAN) {
+            // Reinterpreting the bytes as floats follows the native byte order
+            return scalar.dotPacked(a, aOffset, b, bOffset, length);
+        }
+        FloatVector sum = FloatVector.zero(FLOATS);
+        int bound = FLOATS.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += FLOATS.length()) {
+            FloatVector va = ByteVector.fromArray(BYTES, a, aOffset + i * 4).reinterpretAsFloats();
+            FloatVector vb = ByteVector.fromArray(BYTES, b, bOffset + i * 4).reinterpretAsFloats();
+            sum = va.fma(vb, sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        if (i < length) {
+            result += scalar.dotPacked(a, aOffset + i * 4, b, bOffset + i * 4, length - i);
+        }
+        return result;
+    }
+
+    @Override
+    public void dotBatch(float[] queries, int count, float[] vector, int offset, int length, float[] out) {
+        int bound = FLOATS.loopBound(length);
+        int q = 0;
+        // Four queries share every load of the vector
+        for (; q + 3 < count; q += 4) {
+            int q0 = q * length;
+            int q1 = q0 + length;
+            int q2 = q1 + length;
+            int q3 = q2 + length;
+            FloatVector s0 = FloatVector.zero(FLOATS);
+            FloatVector s1 = FloatVector.zero(FLOATS);
+            FloatVector s2 = FloatVector.zero(FLOATS);
+            FloatVector s3 = FloatVector.zero(FLOATS);
+            int i = 0;
+            for (; i < bound; i += FLOATS.length()) {
+                FloatVector v = FloatVector.fromArray(FLOATS, vector, offset + i);
+                s0 = FloatVector.fromArray(FLOATS, queries, q0 + i).fma(v, s0);
+                s1 = FloatVector.fromArray(FLOATS, queries, q1 + i).fma(v, s1);
+                s2 = FloatVector.fromArray(FLOATS, queries, q2 + i).fma(v, s2);
+                s3 = FloatVector.fromArray(FLOATS, queries, q3 + i).fma(v, s3);
+            }
+            float r0 = s0.reduceLanes(VectorOperators.ADD);
+            float r1 = s1.reduceLanes(VectorOperators.ADD);
+            float r2 = s2.reduceLanes(VectorOperators.ADD);
+            float r3 = s3.reduceLanes(VectorOperators.ADD);
+            for (; i < length; i++) {
+                float v = vector[offset + i];
+                r0 += queries[q0 + i] * v;
+                r1 += queries[q1 + i] * v;
+                r2 += queries[q2 + i] * v;
+                r3 += queries[q3 + i] * v;
+            }
+            out[q] = r0;
+            out[q + 1] = r1;
+            out[q + 2] = r2;
+            out[q + 3] = r3;
+        }
+        for (; q < count; q++) {
+            out[q] = dot(queries, q * length, vector, offset, length);
+        }
+    }
+
+    @Override
+    public String describe() {
+        return "Vector API, " + FLOATS.length() + " floats per " + FLOATS.vectorBitSize() + " bit vector";
+    }
+}
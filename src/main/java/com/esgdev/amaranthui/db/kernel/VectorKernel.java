@@ -0,0 +1,41 @@
+package com.esgdev.amaranthui.db.kernel;
+
+/**
+ * Similarity primitives over primitive arrays, the inner loops of every search path.
+ * Implementations differ only in how they use the CPU; see {@link VectorKernels} for the one in use.
+ */
+public interface VectorKernel {
+
+    /**
+     * @return the dot product of {@code length} components of a and b, starting at the given offsets
+     */
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    double dot(double[] a, double[] b);
+
+    /**
+     * @return the squared Euclidean distance of {@code length} components of a and b
+     */
+    float squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    double squaredDistance(double[] a, double[] b);
+
+    /**
+     * @return the dot product of {@code length} little-endian float32 values packed into two byte arrays
+     */
+    float dotPacked(byte[] a, int aOffset, byte[] b, int bOffset, int length);
+
+    /**
+     * Dot products of one vector with a batch of queries, like one row of a matrix product.
+     * The queries are stored row-major in {@code queries}, {@code length} floats each; the vector is read
+     * once per block of queries instead of once per query.
+     *
+     * @param out receives the {@code count} dot products
+     */
+    void dotBatch(float[] queries, int count, float[] vector, int offset, int length, float[] out);
+
+    /**
+     * @return a short description, for the logs
+     */
+    String describe();
+}
@@ -0,0 +1,79 @@
+package com.esgdev.amaranthui.db.kernel;
+
+import java.util.logging.Logger;
+
+/**
+ * Entry point to the similarity kernel of this JVM.
+ * <p>
+ * The SIMD kernel is used when the JVM was started with {@code --add-modules jdk.incubator.vector};
+ * otherwise, or with {@code -Damaranthui.kernel=scalar}, the scalar kernel is used.
+ */
+public final class VectorKernels {
+    private static final Logger logger = Logger.getLogger(VectorKernels.class.getName());
+    private static final VectorKernel KERNEL = load();
+
+    private VectorKernels() {
+    }
+
+    private static VectorKernel load() {
+        if (!"scalar".equals(System.getProperty("amaranthui.kernel"))) {
+            try {
+                Class.forName("jdk.incubator.vector.FloatVector");
+                VectorKernel kernel = (VectorKernel) Class.forName(VectorKernels.class.getPackageName() + ".SimdKernel")
+                        .getDeclaredConstructor().newInstance();
+                logger.info("Similarity kernel: " + kernel.describe());
+                return kernel;
+            } catch (ReflectiveOperationException | LinkageError e) {
+                logger.info("Vector API not available (" + e + "), using the scalar similarity kernel");
+            }
+        }
+        return new ScalarKernel();
+    }
+
+    public static VectorKernel get() {
+        return KERNEL;
+    }
+
+    public static float dot(float[] a, float[] b) {
+        return KERNEL.dot(a, 0, b, 0, a.length);
+    }
+
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        return KERNEL.dot(a, aOffset, b, bOffset, length);
+    }
+
+    public static double dot(double[] a, double[] b) {
+        return KERNEL.dot(a, b);
+    }
+
+    /**
+     * @return the cosine similarity, NaN if either vector is all zeros
+     */
+    public static float cosine(float[] a, float[] b) {
+        return (float) (KERNEL.dot(a, 0, b, 0, a.length)
+                / (Math.sqrt(KERNEL.dot(a, 0, a, 0, a.length)) * Math.sqrt(KERNEL.dot(b, 0, b, 0, b.length))));
+    }
+
+    /**
+     * @return the cosine similarity, NaN if either vector is all zeros
+     */
+    public static double cosine(double[] a, double[] b) {
+        return KERNEL.dot(a, b) / (Math.sqrt(KERNEL.dot(a, a)) * Math.sqrt(KERNEL.dot(b, b)));
+    }
+
+    public static float squaredDistance(float[] a, float[] b) {
+        return KERNEL.squaredDistance(a, 0, b, 0, a.length);
+    }
+
+    public static double squaredDistance(double[] a, double[] b) {
+        return KERNEL.squaredDistance(a, b);
+    }
+
+    public static void dotBatch(float[] queries, int count, float[] vector, int offset, int length, float[] out) {
+        KERNEL.dotBatch(queries, count, vector, offset, length, out);
+    }
+
+    public static float dotPacked(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        return KERNEL.dotPacked(a, aOffset, b, bOffset, length);
+    }
+}
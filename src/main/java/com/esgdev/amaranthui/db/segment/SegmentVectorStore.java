@@ -0,0 +1,382 @@
+package com.esgdev.amaranthui.db.segment;
+
+import com.esgdev.amaranthui.db.index.ParallelSearch;
+import com.esgdev.amaranthui.db.index.ScoredId;
+import com.esgdev.amaranthui.db.index.TopK;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Vector storage engine of append-only, memory-mapped segment files.
+ * <p>
+ * Vectors are appended to the active segment until it is full, then a new one is started. A vector is
+ * addressed by its location, the segment id in the high and the offset in the low 32 bits, which the
+ * database keeps next to the row. Searches scan the mapped segments in place, so vectors are never
+ * copied onto the heap and hot segments stay in the OS page cache. Opening the store only reads the
+ * record headers, nothing goes through JDBC.
+ * <p>
+ * Changes go to a {@link WriteAheadLog} first. Deleted or replaced vectors are only marked; segments that
+ * are mostly deleted are compacted in the background by copying their live vectors to the active segment,
+ * reporting the new locations to the {@link RelocationListener}, and removing the file.
+ */
+public class SegmentVectorStore implements Closeable {
+    private static final long CHECKPOINT_LOG_SIZE = 16L << 20;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".vec";
+
+    private final Logger logger = Logger.getLogger(SegmentVectorStore.class.getName());
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Path directory;
+    private final int segmentCapacity;
+    private final TreeMap<Integer, VectorSegment> segments = new TreeMap<>();
+    private final Map<Long, Long> locations = new HashMap<>();
+    private final WriteAheadLog log;
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final ExecutorService compactionExecutor;
+    private VectorSegment active;
+    private volatile RelocationListener relocationListener = moved -> { };
+
+    /**
+     * Told about vectors that compaction has moved, so that the stored locations can be updated.
+     */
+    public interface RelocationListener {
+        void relocated(Map<Long, Long> locations);
+    }
+
+    /**
+     * Opens the store in the given directory, replaying the write-ahead log of an unclean shutdown.
+     *
+     * @param segmentCapacity the size of a segment file in bytes
+     */
+    public SegmentVectorStore(Path directory, int segmentCapacity) throws IOException {
+        this.directory = directory;
+        this.segmentCapacity = segmentCapacity;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                int id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(id, VectorSegment.open(id, file, segmentCapacity));
+            }
+        }
+        log = new WriteAheadLog(directory.resolve("wal.log"));
+        log.replay(new WriteAheadLog.Visitor() {
+            @Override
+            public void append(int segment, int offset, long id, float[] vector) throws IOException {
+                segment(segment).write(offset, id, vector);
+            }
+
+            @Override
+            public void delete(int segment, int offset) throws IOException {
+                segment(segment).delete(offset);
+            }
+        });
+        for (VectorSegment segment : segments.values()) {
+            for (int offset = VectorSegment.HEADER_SIZE; offset < segment.end(); offset = segment.next(offset)) {
+                if (segment.state(offset) == VectorSegment.LIVE) {
+                    Long previous = locations.put(segment.recordId(offset), location(segment.getId(), offset));
+                    if (previous != null) {
+                        // Left over from a replace or a compaction that was cut short: the later copy wins
+                        segments.get(segmentOf(previous)).delete(offsetOf(previous));
+                    }
+                }
+            }
+        }
+        active = segments.isEmpty() ? segment(1) : segments.lastEntry().getValue();
+        checkpoint();
+        compactionExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "segment-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static long location(int segment, int offset) {
+        return ((long) segment << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    public static int segmentOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    public static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    public void setRelocationListener(RelocationListener relocationListener) {
+        this.relocationListener = relocationListener;
+    }
+
+    /**
+     * Appends vectors, replacing earlier vectors of the same ids, and syncs the log once for the batch.
+     *
+     * @return the locations of the vectors
+     */
+    public long[] appendAll(long[] ids, float[][] vectors) throws IOException {
+        long[] result = new long[ids.length];
+        boolean replaced = false;
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < ids.length; i++) {
+                replaced |= locations.containsKey(ids[i]);
+                result[i] = appendLocked(ids[i], vectors[i]);
+            }
+            log.sync();
+            if (log.size() > CHECKPOINT_LOG_SIZE) {
+                checkpoint();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (replaced) {
+            maybeCompact();
+        }
+        return result;
+    }
+
+    public long append(long id, float[] vector) throws IOException {
+        return appendAll(new long[]{id}, new float[][]{vector})[0];
+    }
+
+    private long appendLocked(long id, float[] vector) throws IOException {
+        if (VectorSegment.recordSize(vector.length) > segmentCapacity - VectorSegment.HEADER_SIZE) {
+            throw new IllegalArgumentException("Vector of dimension " + vector.length + " does not fit a segment");
+        }
+        Long previous = locations.get(id);
+        if (previous != null) {
+            log.logDelete(segmentOf(previous), offsetOf(previous));
+            segments.get(segmentOf(previous)).delete(offsetOf(previous));
+        }
+        if (!active.fits(vector.length)) {
+            active = segment(active.getId() + 1);
+        }
+        int offset = active.end();
+        log.logAppend(active.getId(), offset, id, vector);
+        active.write(offset, id, vector);
+        long location = location(active.getId(), offset);
+        locations.put(id, location);
+        return location;
+    }
+
+    /**
+     * @return true if the id had a vector
+     */
+    public boolean delete(long id) throws IOException {
+        lock.writeLock().lock();
+        try {
+            Long location = locations.remove(id);
+            if (location == null) {
+                return false;
+            }
+            log.logDelete(segmentOf(location), offsetOf(location));
+            log.sync();
+            segments.get(segmentOf(location)).delete(offsetOf(location));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        maybeCompact();
+        return true;
+    }
+
+    /**
+     * Reads a vector at its stored location, or looks it up by id if the location is stale.
+     *
+     * @return the vector, or null if the id has none
+     */
+    public float[] read(long id, long location) {
+        lock.readLock().lock();
+        try {
+            VectorSegment segment = segments.get(segmentOf(location));
+            int offset = offsetOf(location);
+            if (segment == null || offset < VectorSegment.HEADER_SIZE || offset >= segment.end()
+                    || segment.state(offset) != VectorSegment.LIVE || segment.recordId(offset) != id) {
+                Long current = locations.get(id);
+                if (current == null) {
+                    return null;
+                }
+                segment = segments.get(segmentOf(current));
+                offset = offsetOf(current);
+            }
+            return segment.read(offset);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public float[] read(long id) {
+        lock.readLock().lock();
+        try {
+            Long location = locations.get(id);
+            return location == null ? null : segments.get(segmentOf(location)).read(offsetOf(location));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Exact search by dot product over all live vectors of the query's dimension.
+     */
+    public List<ScoredId> search(float[] query, int k) {
+        return search(query, k, ParallelSearch.of(1));
+    }
+
+    /**
+     * Exact search that scans the segments in parallel, one partition per segment.
+     */
+    public List<ScoredId> search(float[] query, int k, ParallelSearch parallelSearch) {
+        lock.readLock().lock();
+        try {
+            List<VectorSegment> scanned = new ArrayList<>(segments.values());
+            return parallelSearch.search(scanned.size(), Math.max(0, k), 1, (from, to, topK) -> {
+                float[] scratch = new float[query.length];
+                for (int i = from; i < to; i++) {
+                    scan(scanned.get(i), query, scratch, topK);
+                }
+            }).toSortedList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void scan(VectorSegment segment, float[] query, float[] scratch, TopK topK) {
+        for (int offset = VectorSegment.HEADER_SIZE; offset < segment.end(); offset = segment.next(offset)) {
+            if (segment.state(offset) == VectorSegment.LIVE && segment.dimension(offset) == query.length) {
+                topK.offer(segment.recordId(offset), segment.dot(offset, query, scratch));
+            }
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return locations.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of segment files
+     */
+    public int segmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Forces the segments to disk and empties the write-ahead log.
+     */
+    public void checkpoint() throws IOException {
+        lock.writeLock().lock();
+        try {
+            for (VectorSegment segment : segments.values()) {
+                segment.force();
+            }
+            log.truncate();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void maybeCompact() {
+        if (!compacting.compareAndSet(false, true)) {
+            return;
+        }
+        compactionExecutor.submit(() -> {
+            try {
+                compact();
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.SEVERE, "Failed to compact vector segments in " + directory, e);
+            } finally {
+                compacting.set(false);
+            }
+        });
+    }
+
+    /**
+     * Rewrites the sealed segments in which deleted vectors outnumber the live ones.
+     * One segment is copied at a time, so searches are only blocked for the copy of a single segment.
+     */
+    public void compact() throws IOException {
+        while (true) {
+            Map<Long, Long> moved = new HashMap<>();
+            lock.writeLock().lock();
+            try {
+                VectorSegment victim = null;
+                for (VectorSegment segment : segments.values()) {
+                    if (segment != active && segment.deletedCount() > 0 && segment.deletedCount() >= segment.liveCount()) {
+                        victim = segment;
+                        break;
+                    }
+                }
+                if (victim == null) {
+                    return;
+                }
+                for (int offset = VectorSegment.HEADER_SIZE; offset < victim.end(); offset = victim.next(offset)) {
+                    if (victim.state(offset) == VectorSegment.LIVE) {
+                        long id = victim.recordId(offset);
+                        moved.put(id, appendLocked(id, victim.read(offset)));
+                    }
+                }
+                // The log may still point into the victim, so it must be emptied before the file goes
+                log.sync();
+                checkpoint();
+                segments.remove(victim.getId());
+                victim.close();
+                Files.deleteIfExists(victim.getFile());
+                logger.info("Compacted vector segment " + victim.getFile() + ", moved " + moved.size() + " vectors");
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (!moved.isEmpty()) {
+                relocationListener.relocated(moved);
+            }
+        }
+    }
+
+    private VectorSegment segment(int id) throws IOException {
+        VectorSegment segment = segments.get(id);
+        if (segment == null) {
+            Path file = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+            segment = VectorSegment.open(id, file, segmentCapacity);
+            segments.put(id, segment);
+        }
+        return segment;
+    }
+
+    @Override
+    public void close() throws IOException {
+        compactionExecutor.shutdown();
+        lock.writeLock().lock();
+        try {
+            checkpoint();
+            log.close();
+            for (VectorSegment segment : segments.values()) {
+                segment.close();
+            }
+            segments.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
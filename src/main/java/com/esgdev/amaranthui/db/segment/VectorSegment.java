@@ -0,0 +1,194 @@
+package com.esgdev.amaranthui.db.segment;
+
+import com.esgdev.amaranthui.db.kernel.VectorKernels;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * One append-only segment file, mapped into memory in full.
+ * <p>
+ * After a 16 byte file header the segment holds little-endian records of
+ * {@code [int state][int dimension][long id][float * dimension]}. The file is preallocated sparse to its
+ * capacity, so the first record with state {@link #EMPTY} marks the end of the data.
+ * Records are never moved; deleting one only flips its state.
+ */
+final class VectorSegment implements Closeable {
+    static final int EMPTY = 0;
+    static final int LIVE = 1;
+    static final int DELETED = 2;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_HEADER_SIZE = 16;
+    private static final int MAGIC = 0x47455356; // "VSEG"
+    private static final int VERSION = 1;
+
+    private final int id;
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final FloatBuffer floats;
+    private int end = HEADER_SIZE;
+    private int liveCount;
+    private int deletedCount;
+
+    private VectorSegment(int id, Path file, FileChannel channel, MappedByteBuffer buffer) {
+        this.id = id;
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.floats = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+
+    /**
+     * Opens or creates a segment file and scans its record headers.
+     */
+    static VectorSegment open(int id, Path file, int capacity) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            boolean created = channel.size() == 0;
+            long size = Math.max(channel.size(), capacity);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            VectorSegment segment = new VectorSegment(id, file, channel, buffer);
+            if (created) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+            } else if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a vector segment: " + file);
+            }
+            segment.scan();
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void scan() {
+        int offset = HEADER_SIZE;
+        while (offset + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int state = state(offset);
+            if (state == EMPTY) {
+                break;
+            }
+            if (state == LIVE) {
+                liveCount++;
+            } else {
+                deletedCount++;
+            }
+            offset = next(offset);
+        }
+        end = offset;
+    }
+
+    static int recordSize(int dimension) {
+        return RECORD_HEADER_SIZE + dimension * 4;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the offset after the last record, where the next one is appended
+     */
+    int end() {
+        return end;
+    }
+
+    boolean fits(int dimension) {
+        return (long) end + recordSize(dimension) <= buffer.capacity();
+    }
+
+    int liveCount() {
+        return liveCount;
+    }
+
+    int deletedCount() {
+        return deletedCount;
+    }
+
+    /**
+     * Writes a record at the given offset. The state is written last, so a record is never seen half written.
+     * Offsets are never reused, so a record that is already there, as on log replay, is left unchanged.
+     */
+    void write(int offset, long recordId, float[] vector) {
+        if (state(offset) != EMPTY) {
+            return;
+        }
+        buffer.putInt(offset + 4, vector.length);
+        buffer.putLong(offset + 8, recordId);
+        int position = offset + RECORD_HEADER_SIZE;
+        for (float value : vector) {
+            buffer.putFloat(position, value);
+            position += 4;
+        }
+        buffer.putInt(offset, LIVE);
+        liveCount++;
+        end = Math.max(end, position);
+    }
+
+    /**
+     * Marks a record deleted, once.
+     */
+    void delete(int offset) {
+        if (offset < end && state(offset) == LIVE) {
+            buffer.putInt(offset, DELETED);
+            liveCount--;
+            deletedCount++;
+        }
+    }
+
+    int state(int offset) {
+        return buffer.getInt(offset);
+    }
+
+    int dimension(int offset) {
+        return buffer.getInt(offset + 4);
+    }
+
+    long recordId(int offset) {
+        return buffer.getLong(offset + 8);
+    }
+
+    int next(int offset) {
+        return offset + recordSize(dimension(offset));
+    }
+
+    float[] read(int offset) {
+        float[] vector = new float[dimension(offset)];
+        int position = offset + RECORD_HEADER_SIZE;
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = buffer.getFloat(position + i * 4);
+        }
+        return vector;
+    }
+
+    /**
+     * Dot product of the query with a record. The components are bulk-copied from the mapping into
+     * {@code scratch}, which must be at least as long as the query, so the similarity kernel runs on a plain array.
+     */
+    double dot(int offset, float[] query, float[] scratch) {
+        floats.get((offset + RECORD_HEADER_SIZE) / 4, scratch, 0, query.length);
+        return VectorKernels.dot(query, 0, scratch, 0, query.length);
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
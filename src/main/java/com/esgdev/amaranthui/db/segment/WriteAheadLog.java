@@ -0,0 +1,135 @@
+package com.esgdev.amaranthui.db.segment;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of the segment store.
+ * <p>
+ * Every change is appended here and synced before the mapped segments are written, which the OS flushes
+ * whenever it likes. After a crash the log is replayed onto the segments; the records are idempotent.
+ * Each record is {@code [int length][int crc32][payload]}, so a torn record at the tail is detected and
+ * dropped. A checkpoint forces the segments and empties the log.
+ */
+final class WriteAheadLog implements Closeable {
+    private static final byte APPEND = 1;
+    private static final byte DELETE = 2;
+
+    private final FileChannel channel;
+
+    /**
+     * Receives the replayed changes.
+     */
+    interface Visitor {
+        void append(int segment, int offset, long id, float[] vector) throws IOException;
+
+        void delete(int segment, int offset) throws IOException;
+    }
+
+    WriteAheadLog(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+    }
+
+    void logAppend(int segment, int offset, long id, float[] vector) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(1 + 4 + 4 + 8 + 4 + vector.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        payload.put(APPEND).putInt(segment).putInt(offset).putLong(id).putInt(vector.length);
+        for (float value : vector) {
+            payload.putFloat(value);
+        }
+        write(payload);
+    }
+
+    void logDelete(int segment, int offset) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(1 + 4 + 4).order(ByteOrder.LITTLE_ENDIAN);
+        payload.put(DELETE).putInt(segment).putInt(offset);
+        write(payload);
+    }
+
+    private void write(ByteBuffer payload) throws IOException {
+        payload.flip();
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        ByteBuffer record = ByteBuffer.allocate(8 + payload.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt(payload.remaining()).putInt((int) crc.getValue()).put(payload).flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+    }
+
+    /**
+     * Makes the logged changes durable.
+     */
+    void sync() throws IOException {
+        channel.force(false);
+    }
+
+    long size() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Replays the log from the start, stopping at the first torn or corrupt record, which is cut off.
+     */
+    void replay(Visitor visitor) throws IOException {
+        long position = 0;
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        while (position + 8 <= size) {
+            header.clear();
+            channel.read(header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length <= 0 || position + 8 + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(payload, position + 8);
+            payload.flip();
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            byte op = payload.get();
+            int segment = payload.getInt();
+            int offset = payload.getInt();
+            if (op == APPEND) {
+                long id = payload.getLong();
+                float[] vector = new float[payload.getInt()];
+                for (int i = 0; i < vector.length; i++) {
+                    vector[i] = payload.getFloat();
+                }
+                visitor.append(segment, offset, id, vector);
+            } else if (op == DELETE) {
+                visitor.delete(segment, offset);
+            }
+            position += 8 + length;
+        }
+        if (position < size) {
+            channel.truncate(position);
+        }
+        channel.position(position);
+    }
+
+    /**
+     * Empties the log, once the segments hold all of its changes durably.
+     */
+    void truncate() throws IOException {
+        channel.truncate(0);
+        channel.position(0);
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -1,13 +1,25 @@
 package com.esgdev.amaranthui.engine;
 
 import com.esgdev.amaranthui.db.*;
+import com.esgdev.amaranthui.db.h2.CachedKeyValueStore;
 import com.esgdev.amaranthui.db.h2.ChatChunkEmbeddingDaoH2;
+import com.esgdev.amaranthui.db.h2.ConnectionPool;
+import com.esgdev.amaranthui.db.h2.EmbeddingCacheDaoH2;
 import com.esgdev.amaranthui.db.h2.KeyValueStoreDaoH2;
 import com.esgdev.amaranthui.db.h2.TextEmbeddingDaoH2;
+import com.esgdev.amaranthui.db.index.FlatVectorIndex;
+import com.esgdev.amaranthui.db.index.HnswIndex;
+import com.esgdev.amaranthui.db.index.IndexedEmbeddingDao;
+import com.esgdev.amaranthui.db.index.IvfPqIndex;
+import com.esgdev.amaranthui.db.index.VamanaIndex;
+import com.esgdev.amaranthui.db.index.VectorIndexConfiguration;
 import com.esgdev.amaranthui.engine.embedding.*;
 import com.esgdev.amaranthui.engine.tagging.*;
 import io.github.ollama4j.OllamaAPI;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Properties;
 import java.util.logging.Logger;
 
@@ -23,8 +35,13 @@ public class DependencyFactory {
     private static final EmbeddingConfiguration embeddingConfiguration;
     private static final ChatConfiguration chatConfiguration;
     private static final TopicConfiguration topicConfiguration;
+    private static final IngestionConfiguration ingestionConfiguration;
     private static final Logger logger = Logger.getLogger(DependencyFactory.class.getName());
-    private static EmbeddingDao<ChatChunkEmbedding> chatChunkEmbeddingDao;
+    private static final EmbeddingDao<ChatChunkEmbedding> chatChunkEmbeddingDao;
+    private static final ConnectionPool connectionPool;
+    private static final KeyValueStoreDaoH2 keyValueStoreDao;
+    private static final CachedKeyValueStore keyValueStore;
+    private static final EmbeddingCache embeddingCache;
 
     static {
         try {
@@ -55,9 +72,70 @@ public class DependencyFactory {
 
             // Create EmbeddingConfiguration
             embeddingConfiguration = new EmbeddingConfiguration(chunkSize, overlap, embeddingModel, jdbcUrl, jdbcUser, jdbcPassword);
+            embeddingConfiguration.setVectorEncoding(VectorEncoding.fromString(properties.getProperty("vector_encoding", "float32")));
+            embeddingConfiguration.setVectorStorage(VectorStorage.fromString(properties.getProperty("vector_storage", "h2")));
+            embeddingConfiguration.setSegmentDirectory(databaseDirectory(jdbcUrl).resolve(databaseName(jdbcUrl) + ".segments").toString());
+            embeddingConfiguration.setSegmentSize(Integer.parseInt(properties.getProperty("segment_size_mb", "64")) << 20);
+            embeddingConfiguration.setSearchMode(SearchMode.fromString(properties.getProperty("search_mode", "exact")));
+            if (properties.getProperty("text_search_mode") != null) {
+                embeddingConfiguration.setSearchMode("embeddings", SearchMode.fromString(properties.getProperty("text_search_mode")));
+            }
+            if (properties.getProperty("chat_search_mode") != null) {
+                embeddingConfiguration.setSearchMode("chat_chunk_embeddings", SearchMode.fromString(properties.getProperty("chat_search_mode")));
+            }
+            embeddingConfiguration.setRerankFactor(Integer.parseInt(properties.getProperty("rerank_factor", "4")));
+            embeddingConfiguration.setBinaryRerankFactor(Integer.parseInt(properties.getProperty("binary_rerank_factor", "16")));
+            int searchParallelism = Integer.parseInt(properties.getProperty("search_parallelism",
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+            embeddingConfiguration.setSearchParallelism(searchParallelism);
+            embeddingConfiguration.setTimeSegmentDays(Integer.parseInt(properties.getProperty("time_segment_days", "7")));
+            embeddingConfiguration.setEmbeddingQueueCapacity(Integer.parseInt(properties.getProperty("embedding_queue_capacity", "256")));
+            embeddingConfiguration.setEmbeddingBatchSize(Integer.parseInt(properties.getProperty("embedding_batch_size", "16")));
+            embeddingConfiguration.setEmbeddingBatchLingerMillis(Long.parseLong(properties.getProperty("embedding_batch_linger_ms", "50")));
+            embeddingConfiguration.setEmbeddingCacheBytes(Long.parseLong(properties.getProperty("embedding_cache_mb", "64")) << 20);
+            embeddingConfiguration.setEmbeddingCacheRows(Integer.parseInt(properties.getProperty("embedding_cache_rows", "100000")));
+            logger.info("Search mode: " + embeddingConfiguration.getSearchMode("embeddings") + " (text), "
+                    + embeddingConfiguration.getSearchMode("chat_chunk_embeddings") + " (chat)");
+            ingestionConfiguration = new IngestionConfiguration();
+            ingestionConfiguration.setBatchSize(Integer.parseInt(properties.getProperty("ingest_batch_size", "32")));
+            ingestionConfiguration.setParallelism(Integer.parseInt(properties.getProperty("ingest_parallelism", "4")));
+            ingestionConfiguration.setWriteBatchSize(Integer.parseInt(properties.getProperty("ingest_write_batch_size", "512")));
+            ingestionConfiguration.setMaxBufferedChunks(Integer.parseInt(properties.getProperty("ingest_max_buffered_chunks", "4096")));
+            ingestionConfiguration.setExtensions(properties.getProperty("ingest_extensions", "txt,md"));
             chatConfiguration = new ChatConfiguration(chatHistorySize, chatModel);
-            // Initialize TextEmbeddingDao
-            textEmbeddingDao = new TextEmbeddingDaoH2(embeddingConfiguration);
+            // Initialize the embedding DAOs, optionally fronted by an in-memory vector index
+            VectorIndexConfiguration vectorIndexConfiguration = new VectorIndexConfiguration(properties.getProperty("vector_index", "none"));
+            vectorIndexConfiguration.setHnswM(Integer.parseInt(properties.getProperty("hnsw_m", "16")));
+            vectorIndexConfiguration.setHnswEfConstruction(Integer.parseInt(properties.getProperty("hnsw_ef_construction", "200")));
+            vectorIndexConfiguration.setHnswEfSearch(Integer.parseInt(properties.getProperty("hnsw_ef_search", "64")));
+            vectorIndexConfiguration.setIvfLists(Integer.parseInt(properties.getProperty("ivf_nlist", "256")));
+            vectorIndexConfiguration.setIvfProbes(Integer.parseInt(properties.getProperty("ivf_nprobe", "16")));
+            vectorIndexConfiguration.setPqSubspaces(Integer.parseInt(properties.getProperty("pq_subspaces", "96")));
+            vectorIndexConfiguration.setRerankFactor(Integer.parseInt(properties.getProperty("rerank_factor", "4")));
+            vectorIndexConfiguration.setTextIndexType(properties.getProperty("text_vector_index"));
+            vectorIndexConfiguration.setVamanaMaxDegree(Integer.parseInt(properties.getProperty("vamana_max_degree", "64")));
+            vectorIndexConfiguration.setVamanaSearchListSize(Integer.parseInt(properties.getProperty("vamana_search_list", "100")));
+            vectorIndexConfiguration.setVamanaAlpha(Float.parseFloat(properties.getProperty("vamana_alpha", "1.2")));
+            vectorIndexConfiguration.setIndexDirectory(databaseDirectory(jdbcUrl).toString());
+            vectorIndexConfiguration.setBuildParallelism(Integer.parseInt(properties.getProperty("index_build_parallelism",
+                    String.valueOf(Runtime.getRuntime().availableProcessors()))));
+            vectorIndexConfiguration.setSearchParallelism(searchParallelism);
+            logger.info("Vector index: " + vectorIndexConfiguration.getIndexType() + ", text: " + vectorIndexConfiguration.getTextIndexType());
+            // One pool of connections for all DAOs, sized for the parallel searches unless configured
+            int poolSize = Integer.parseInt(properties.getProperty("pool_max_connections",
+                    String.valueOf(Math.max(8, 2 * searchParallelism + 2))));
+            long poolTimeout = Long.parseLong(properties.getProperty("pool_timeout_ms", "30000"));
+            connectionPool = new ConnectionPool(jdbcUrl, jdbcUser, jdbcPassword, poolSize, poolTimeout);
+            logger.info("Connection pool: " + poolSize + " connections");
+            keyValueStoreDao = new KeyValueStoreDaoH2(connectionPool);
+            keyValueStore = new CachedKeyValueStore(keyValueStoreDao);
+            // Both embedding managers share the cache, so a chat message is embedded once for the search and the history
+            embeddingCache = new EmbeddingCache(embeddingConfiguration.getEmbeddingCacheBytes(), embeddingConfiguration.getEmbeddingCacheRows() > 0
+                    ? new EmbeddingCacheDaoH2(connectionPool, embeddingConfiguration.getEmbeddingCacheRows()) : null);
+            textEmbeddingDao = createEmbeddingDao(new TextEmbeddingDaoH2(embeddingConfiguration, connectionPool), "embeddings",
+                    vectorIndexConfiguration.getTextIndexType(), vectorIndexConfiguration);
+            chatChunkEmbeddingDao = createEmbeddingDao(new ChatChunkEmbeddingDaoH2(embeddingConfiguration, connectionPool), "chat_chunk_embeddings",
+                    vectorIndexConfiguration.getIndexType(), vectorIndexConfiguration);
 
             // Initialize TopicConfiguration
             String taggingModel = properties.getProperty("tagging_model", "default-tagging-model");
@@ -66,6 +144,16 @@ public class DependencyFactory {
             int topK = Integer.parseInt(properties.getProperty("tagging_top_k", "5"));
 
             topicConfiguration = new TopicConfiguration(taggingModel, temperature, topP, topK);
+            topicConfiguration.setClassificationCacheSize(Integer.parseInt(properties.getProperty("topic_cache_size", "256")));
+            topicConfiguration.setClassificationCacheTtlSeconds(Long.parseLong(properties.getProperty("topic_cache_ttl_s", "600")));
+            topicConfiguration.setClassifierMode(TopicClassifierMode.fromString(properties.getProperty("topic_classifier", "llm")));
+            topicConfiguration.setCentroidMargin(Double.parseDouble(properties.getProperty("topic_centroid_margin", "0.03")));
+            for (String name : properties.stringPropertyNames()) {
+                if (name.startsWith("topic_examples.")) {
+                    topicConfiguration.setTopicExamples(name.substring("topic_examples.".length()),
+                            Arrays.asList(properties.getProperty(name).split("\\s*\\|\\s*")));
+                }
+            }
             logger.info("Tagging model: " + taggingModel);
             logger.info("Temperature: " + temperature);
             logger.info("Top P: " + topP);
@@ -75,20 +163,83 @@ public class DependencyFactory {
         }
     }
 
+    /**
+     * Wraps the H2 DAO into an in-memory index decorator, depending on the index type.
+     */
+    private static <T extends TextEmbedding> EmbeddingDao<T> createEmbeddingDao(IndexableEmbeddingDao<T> dao, String table,
+                                                                               String indexType, VectorIndexConfiguration configuration) {
+        switch (indexType) {
+            case "none":
+                return dao;
+            case "flat":
+                return new IndexedEmbeddingDao<>(dao, model -> new FlatVectorIndex(configuration));
+            case "hnsw":
+                return new IndexedEmbeddingDao<>(dao, model -> new HnswIndex(configuration));
+            case "ivfpq":
+                return new IndexedEmbeddingDao<>(dao, model -> new IvfPqIndex(configuration), configuration.getRerankFactor());
+            case "vamana":
+                return new IndexedEmbeddingDao<>(dao, model -> new VamanaIndex(indexFile(configuration, table, model, "vamana"), configuration));
+            default:
+                throw new IllegalArgumentException("Unknown vector index: " + indexType);
+        }
+    }
+
+    /**
+     * @return the file of a persistent index, named after the table and the embedding model
+     */
+    private static Path indexFile(VectorIndexConfiguration configuration, String table, String model, String extension) {
+        String safeModel = model.replaceAll("[^A-Za-z0-9._-]", "_");
+        return Paths.get(configuration.getIndexDirectory(), table + "." + safeModel + "." + extension);
+    }
+
+    /**
+     * Resolves the directory of a file-based H2 database, e.g. the home directory for jdbc:h2:~/text_embeddings.
+     * In-memory and server databases fall back to the temporary directory.
+     */
+    private static Path databaseDirectory(String jdbcUrl) {
+        String path = jdbcUrl.replaceFirst("^jdbc:h2:", "").replaceFirst("^file:", "");
+        int options = path.indexOf(';');
+        if (options >= 0) {
+            path = path.substring(0, options);
+        }
+        if (path.startsWith("mem:") || path.startsWith("tcp:") || path.startsWith("ssl:")) {
+            return Paths.get(System.getProperty("java.io.tmpdir"));
+        }
+        if (path.startsWith("~")) {
+            path = System.getProperty("user.home") + path.substring(1);
+        }
+        Path parent = Paths.get(path).toAbsolutePath().getParent();
+        return parent != null ? parent : Paths.get(System.getProperty("java.io.tmpdir"));
+    }
+
+    /**
+     * @return the file name of the H2 database without extension, e.g. text_embeddings for jdbc:h2:~/text_embeddings
+     */
+    private static String databaseName(String jdbcUrl) {
+        String path = jdbcUrl.replaceFirst("^jdbc:h2:", "");
+        int options = path.indexOf(';');
+        if (options >= 0) {
+            path = path.substring(0, options);
+        }
+        String name = path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf(':')) + 1);
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
     public static OllamaAPI getOllamaAPI() {
         return ollamaAPI;
     }
 
     public static TextEmbeddingManager createTextEmbeddingManager() {
-        return new TextEmbeddingManager(textEmbeddingDao, ollamaAPI, embeddingConfiguration);
+        return new TextEmbeddingManager(textEmbeddingDao, ollamaAPI, embeddingConfiguration, embeddingCache);
     }
 
-    public static ChatChunkEmbeddingManager createChatChunkEmbeddingManager() {
-        // Create an instance of ChatChunkEmbeddingDao (you may need to implement this if not already done)
-        chatChunkEmbeddingDao = new ChatChunkEmbeddingDaoH2(embeddingConfiguration);
+    public static DocumentIngestor createDocumentIngestor() {
+        return new DocumentIngestor(createTextEmbeddingManager(), keyValueStore, embeddingConfiguration, ingestionConfiguration);
+    }
 
-        // Return a new instance of ChatChunkEmbeddingManager
-        return new ChatChunkEmbeddingManager(chatChunkEmbeddingDao, ollamaAPI, embeddingConfiguration);
+    public static ChatChunkEmbeddingManager createChatChunkEmbeddingManager() {
+        // The DAO is shared, so that an in-memory index in front of it sees every write
+        return new ChatChunkEmbeddingManager(chatChunkEmbeddingDao, ollamaAPI, embeddingConfiguration, embeddingCache);
     }
 
     public static ChatConfiguration getChatConfiguration() {
@@ -99,6 +250,10 @@ public class DependencyFactory {
         return embeddingConfiguration;
     }
 
+    public static IngestionConfiguration getIngestionConfiguration() {
+        return ingestionConfiguration;
+    }
+
     public static TopicConfiguration getTopicConfiguration() {
         return topicConfiguration;
     }
@@ -112,11 +267,28 @@ public class DependencyFactory {
     }
 
     public static KeyValueStoreDaoH2 getKeyValueStoreDao() {
-        return new KeyValueStoreDaoH2(
-                embeddingConfiguration.getJdbcUrl(),
-                embeddingConfiguration.getJdbcUser(),
-                embeddingConfiguration.getJdbcPassword()
-        );
+        return keyValueStoreDao;
+    }
+
+    /**
+     * @return the key-value store with its values cached in memory; all writes should go through it
+     */
+    public static CachedKeyValueStore getKeyValueStore() {
+        return keyValueStore;
+    }
+
+    /**
+     * @return the cache of chunk embeddings shared by the embedding managers, with its hit counts
+     */
+    public static EmbeddingCache getEmbeddingCache() {
+        return embeddingCache;
+    }
+
+    /**
+     * @return the connections shared by the DAOs, with their wait time and statement cache metrics
+     */
+    public static ConnectionPool getConnectionPool() {
+        return connectionPool;
     }
 
 }
\ No newline at end of file
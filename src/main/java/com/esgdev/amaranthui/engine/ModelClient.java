@@ -1,6 +1,6 @@
 package com.esgdev.amaranthui.engine;
 
-import com.esgdev.amaranthui.db.h2.KeyValueStoreDaoH2;
+import com.esgdev.amaranthui.db.h2.CachedKeyValueStore;
 import com.esgdev.amaranthui.engine.embedding.*;
 import com.esgdev.amaranthui.engine.tagging.TopicAnalyst;
 import com.esgdev.amaranthui.engine.tagging.TopicConfiguration;
@@ -12,9 +12,12 @@ import io.github.ollama4j.models.response.Model;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.http.HttpTimeoutException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -34,14 +37,19 @@ public class ModelClient {
 
     private final EmbeddingManagerInterface<TextEmbedding, String> textEmbeddingManager;
     private final EmbeddingManagerInterface<ChatChunkEmbedding, ChatEntry> chatChunkEmbeddingManager;
+    private final EmbeddingWriteQueue<ChatChunkEmbedding, ChatEntry> chatEmbeddingQueue;
     private final ChatHistory chatHistory;
     private final OllamaAPI ollamaAPI;
     private final ChatConfiguration chatConfiguration;
     private final EmbeddingConfiguration embeddingConfiguration;
     private static final String SYSTEM_PROMPT_KEY = "system_prompt";
-    private final KeyValueStoreDaoH2 keyValueStoreDao;
+    private static final String CHAT_MODEL_KEY = "chat_model";
+    private static final String EMBEDDING_MODEL_KEY = "embedding_model";
+    private static final String TAGGING_MODEL_KEY = "tagging_model";
+    private final CachedKeyValueStore keyValueStore;
     private final TopicAnalyst topicAnalyst;
     private final TopicConfiguration topicConfiguration;
+    private final DocumentIngestor documentIngestor;
 
     public ModelClient() {
         this.ollamaAPI = DependencyFactory.getOllamaAPI();
@@ -52,8 +60,18 @@ public class ModelClient {
         this.chatConfiguration = DependencyFactory.getChatConfiguration();
         this.embeddingConfiguration = DependencyFactory.getEmbeddingConfiguration();
         this.topicConfiguration = DependencyFactory.getTopicConfiguration();
-        this.keyValueStoreDao = DependencyFactory.getKeyValueStoreDao();
-        this.topicAnalyst = new TopicAnalyst(ollamaAPI, topicConfiguration, DependencyFactory.getTextEmbeddingDao(), DependencyFactory.getChatChunkEmbeddingDao(), new ArrayList<>());
+        this.keyValueStore = DependencyFactory.getKeyValueStore();
+        this.documentIngestor = DependencyFactory.createDocumentIngestor();
+        // Chat entries are embedded and stored in the background; pending ones are stored on shutdown
+        this.chatEmbeddingQueue = new EmbeddingWriteQueue<>(chatChunkEmbeddingManager, embeddingConfiguration.getEmbeddingQueueCapacity(),
+                embeddingConfiguration.getEmbeddingBatchSize(), embeddingConfiguration.getEmbeddingBatchLingerMillis());
+        Runtime.getRuntime().addShutdownHook(new Thread(chatEmbeddingQueue::close, "embedding-queue-shutdown"));
+        // The configurations follow the models stored by the user, from startup on
+        keyValueStore.bind(CHAT_MODEL_KEY, chatConfiguration::setChatModel);
+        keyValueStore.bind(EMBEDDING_MODEL_KEY, embeddingConfiguration::setEmbeddingModel);
+        keyValueStore.bind(TAGGING_MODEL_KEY, topicConfiguration::setTaggingModel);
+        this.topicAnalyst = new TopicAnalyst(ollamaAPI, topicConfiguration, DependencyFactory.getTextEmbeddingDao(), DependencyFactory.getChatChunkEmbeddingDao(),
+                new ArrayList<>(), textEmbeddingManager);
         this.topicAnalyst.setTopics(List.of(
                 "technology", "health", "sports", "politics", "entertainment",
                 "history", "business", "travel", "food", "education",
@@ -61,13 +79,28 @@ public class ModelClient {
         ));
     }
 
+    /**
+     * Adds a chat entry to the history and queues it for embedding. Only waits if the embedding queue is full.
+     */
     public void addChatEntry(ChatEntry chatEntry) throws EmbeddingGenerationException {
         chatHistory.addChatEntry(chatEntry);
-        processChatEntry(chatEntry);
+        try {
+            chatEmbeddingQueue.submit(chatEntry);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EmbeddingGenerationException("Interrupted while queueing the chat entry for embedding", e);
+        }
 
         logger.info("Chat entry added to history: " + chatEntry);
     }
 
+    /**
+     * Waits until the chat entries added so far are embedded and stored.
+     */
+    public void flushChatEmbeddings() throws InterruptedException {
+        chatEmbeddingQueue.drain();
+    }
+
     /**
      * Get the chat history.
      *
@@ -92,8 +125,8 @@ public class ModelClient {
             throw new IllegalArgumentException("No embeddings could be generated for the query.");
         }
 
-        // Find similar embeddings
-        return chatChunkEmbeddingManager.findSimilarEmbeddings(queryEmbeddings.get(0), limit);
+        // Find similar embeddings for every chunk of the query in one pass
+        return mergeResults(chatChunkEmbeddingManager.findSimilarEmbeddings(queryEmbeddings, limit), limit);
     }
 
     public String sendChatRequest(String systemPrompt, String userMessage,String topic, boolean useChatEmbeddings, boolean useTextEmbeddings) throws Exception {
@@ -186,8 +219,8 @@ public class ModelClient {
         if (useTextEmbeddings) {
             List<TextEmbedding> userTextEmbeddings = textEmbeddingManager.generateEmbeddings(userMessage);
             if (!userTextEmbeddings.isEmpty()) {
-                List<TextEmbedding> similarTexts = textEmbeddingManager.findSimilarEmbeddings(
-                        userTextEmbeddings.get(0), 3);
+                List<TextEmbedding> similarTexts = mergeResults(textEmbeddingManager.findSimilarEmbeddings(
+                        userTextEmbeddings, 3), 3);
                 for (TextEmbedding similar : similarTexts) {
                     ragContext.add("Knowledge: " + similar.getChunk());
                 }
@@ -195,6 +228,21 @@ public class ModelClient {
         }
     }
 
+    /**
+     * Merges the results of the chunks of one message; a row found by several chunks keeps its best score.
+     */
+    private static <T extends TextEmbedding> List<T> mergeResults(List<List<T>> results, int limit) {
+        Map<Long, T> best = new LinkedHashMap<>();
+        for (List<T> result : results) {
+            for (T row : result) {
+                best.merge(row.getId(), row, (a, b) -> a.getSimilarity() >= b.getSimilarity() ? a : b);
+            }
+        }
+        List<T> merged = new ArrayList<>(best.values());
+        merged.sort((a, b) -> Double.compare(b.getSimilarity(), a.getSimilarity()));
+        return new ArrayList<>(merged.subList(0, Math.min(limit, merged.size())));
+    }
+
     private List<String> getRagContext(String userMessage, boolean useChatEmbeddings) throws EmbeddingGenerationException {
         // Add RAG context from embeddings if enabled
         List<String> ragContext = new ArrayList<>();
@@ -209,8 +257,8 @@ public class ModelClient {
             ChatEntry tempEntry = new ChatEntry(userMessage, null, null, "user", userTopic,null, new Date());
             List<ChatChunkEmbedding> userEmbeddings = chatChunkEmbeddingManager.generateEmbeddings(tempEntry);
             if (!userEmbeddings.isEmpty()) {
-                List<ChatChunkEmbedding> similarChats = chatChunkEmbeddingManager.findSimilarEmbeddings(
-                        userEmbeddings.get(0), SIMILAR_CHAT_CHUNK_LIMIT); // Get top 5 similar chat chunks
+                List<ChatChunkEmbedding> similarChats = mergeResults(chatChunkEmbeddingManager.findSimilarEmbeddings(
+                        userEmbeddings, SIMILAR_CHAT_CHUNK_LIMIT), SIMILAR_CHAT_CHUNK_LIMIT); // Get top 5 similar chat chunks
                 for (ChatChunkEmbedding similar : similarChats) {
                     if (similar.getSimilarity() >= MIN_SIMILARITY_SCORE) {
                         ragContext.add("Chat history: " + similar.getChunk());
@@ -221,18 +269,6 @@ public class ModelClient {
         return ragContext;
     }
 
-    /**
-     * Processes a chat entry to generate and save embeddings.
-     *
-     * @param chatEntry The chat entry to process.
-     */
-    private void processChatEntry(ChatEntry chatEntry) throws EmbeddingGenerationException {
-        logger.info("Processing chat entry for embedding generation...");
-        List<ChatChunkEmbedding> embeddings = chatChunkEmbeddingManager.generateEmbeddings(chatEntry);
-        chatChunkEmbeddingManager.saveEmbeddings(embeddings);
-        logger.info("Chat entry embeddings processed and saved successfully.");
-    }
-
     /**
      * Processes a text to generate and save embeddings.
      * Text and chat entry embeddings are stored in different tables.
@@ -246,12 +282,29 @@ public class ModelClient {
         logger.info("Text embeddings processed and saved successfully.");
     }
 
+    /**
+     * Loads the documents below a directory into the text knowledge base, continuing an interrupted ingestion.
+     *
+     * @param listener told about the progress, may be null
+     */
+    public DocumentIngestor.Progress ingestDocuments(Path directory, DocumentIngestor.ProgressListener listener)
+            throws IOException, EmbeddingGenerationException, InterruptedException {
+        return documentIngestor.ingest(directory, listener);
+    }
+
+    /**
+     * Stops a running ingestion; it continues where it stopped when the directory is ingested again.
+     */
+    public void cancelIngestion() {
+        documentIngestor.cancel();
+    }
+
     public boolean saveSystemPrompt(String prompt) {
-        return keyValueStoreDao.saveValue(SYSTEM_PROMPT_KEY, prompt);
+        return keyValueStore.saveValue(SYSTEM_PROMPT_KEY, prompt);
     }
 
     public String loadSystemPrompt() {
-        return keyValueStoreDao.getValue(SYSTEM_PROMPT_KEY);
+        return keyValueStore.getValue(SYSTEM_PROMPT_KEY);
     }
 
     public void clearChatHistory() {
@@ -270,10 +323,7 @@ public class ModelClient {
     }
 
     public String getChatModel() {
-        String modelName = keyValueStoreDao.getValue("chat_model");
-        if (modelName == null || modelName.isEmpty()) {
-            modelName = chatConfiguration.getChatModel();
-        }
+        String modelName = keyValueStore.getValue(CHAT_MODEL_KEY, chatConfiguration.getChatModel());
         if (modelName == null || modelName.isEmpty()) {
             throw new IllegalArgumentException("Chat model name cannot be null or empty.");
         }
@@ -282,10 +332,7 @@ public class ModelClient {
     }
 
     public String getEmbeddingModel() {
-        String modelName = keyValueStoreDao.getValue("embedding_model");
-        if (modelName == null || modelName.isEmpty()) {
-            modelName = embeddingConfiguration.getEmbeddingModel();
-        }
+        String modelName = keyValueStore.getValue(EMBEDDING_MODEL_KEY, embeddingConfiguration.getEmbeddingModel());
         if (modelName == null || modelName.isEmpty()) {
             throw new IllegalArgumentException("Embedding model name cannot be null or empty.");
         }
@@ -294,10 +341,7 @@ public class ModelClient {
     }
 
     public String getTaggingModel() {
-        String modelName = keyValueStoreDao.getValue("tagging_model");
-        if (modelName == null || modelName.isEmpty()) {
-            modelName = topicConfiguration.getTaggingModel();
-        }
+        String modelName = keyValueStore.getValue(TAGGING_MODEL_KEY, topicConfiguration.getTaggingModel());
         if (modelName == null || modelName.isEmpty()) {
             throw new IllegalArgumentException("Tagging model name cannot be null or empty.");
         }
@@ -309,8 +353,11 @@ public class ModelClient {
         if (modelName == null || modelName.isEmpty()) {
             throw new IllegalArgumentException("Model name cannot be null or empty.");
         }
-        keyValueStoreDao.saveValue("chat_model", modelName);
-        chatConfiguration.setChatModel(modelName);
+        // The bound configuration is updated once the value is stored
+        if (!keyValueStore.saveValue(CHAT_MODEL_KEY, modelName)) {
+            logger.warning("Failed to store the chat model " + modelName);
+            return;
+        }
         logger.info("Chat model set to: " + modelName);
     }
 
@@ -318,8 +365,11 @@ public class ModelClient {
         if (modelName == null || modelName.isEmpty()) {
             throw new IllegalArgumentException("Model name cannot be null or empty.");
         }
-        keyValueStoreDao.saveValue("embedding_model", modelName);
-        embeddingConfiguration.setEmbeddingModel(modelName);
+        // The bound configuration is updated once the value is stored
+        if (!keyValueStore.saveValue(EMBEDDING_MODEL_KEY, modelName)) {
+            logger.warning("Failed to store the embedding model " + modelName);
+            return;
+        }
         logger.info("Embedding model set to: " + modelName);
     }
 
@@ -327,8 +377,11 @@ public class ModelClient {
         if (modelName == null || modelName.isEmpty()) {
             throw new IllegalArgumentException("Model name cannot be null or empty.");
         }
-        keyValueStoreDao.saveValue("tagging_model", modelName);
-        topicConfiguration.setTaggingModel(modelName);
+        // The bound configuration is updated once the value is stored
+        if (!keyValueStore.saveValue(TAGGING_MODEL_KEY, modelName)) {
+            logger.warning("Failed to store the tagging model " + modelName);
+            return;
+        }
         logger.info("Tagging model set to: " + modelName);
     }
 
@@ -1,14 +1,18 @@
 package com.esgdev.amaranthui.engine.embedding;
 
 import com.esgdev.amaranthui.db.EmbeddingDao;
+import com.esgdev.amaranthui.db.filter.SearchFilter;
 import io.github.ollama4j.OllamaAPI;
 import io.github.ollama4j.exceptions.OllamaBaseException;
 import io.github.ollama4j.models.embeddings.OllamaEmbedResponseModel;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -22,6 +26,7 @@ public abstract class BaseEmbeddingManager<E, S> implements EmbeddingManagerInte
     protected final EmbeddingDao<E> embeddingDao;
     protected final OllamaAPI ollamaAPI;
     protected final EmbeddingConfiguration configuration;
+    protected final EmbeddingCache embeddingCache;
 
     /**
      * Constructor for BaseEmbeddingManager.
@@ -31,9 +36,18 @@ public abstract class BaseEmbeddingManager<E, S> implements EmbeddingManagerInte
      * @param configuration the embedding configuration
      */
     public BaseEmbeddingManager(EmbeddingDao<E> embeddingDao, OllamaAPI ollamaAPI, EmbeddingConfiguration configuration) {
+        this(embeddingDao, ollamaAPI, configuration, null);
+    }
+
+    /**
+     * @param embeddingCache the cache of chunk embeddings consulted before the model, or null
+     */
+    public BaseEmbeddingManager(EmbeddingDao<E> embeddingDao, OllamaAPI ollamaAPI, EmbeddingConfiguration configuration,
+                                EmbeddingCache embeddingCache) {
         this.embeddingDao = embeddingDao;
         this.ollamaAPI = ollamaAPI;
         this.configuration = configuration;
+        this.embeddingCache = embeddingCache;
     }
 
     /**
@@ -45,6 +59,7 @@ public abstract class BaseEmbeddingManager<E, S> implements EmbeddingManagerInte
 
     /**
      * Splits the input text into chunks based on the configured chunk size and overlap.
+     * {@link StreamingChunker} produces the same chunks from a file without reading it into memory.
      * @param text the input text to be split
      * @return
      */
@@ -64,27 +79,123 @@ public abstract class BaseEmbeddingManager<E, S> implements EmbeddingManagerInte
 
     /**
      * Generates embeddings for the given chunks using the Ollama API.
+     * The embeddings are normalized to unit length, so that similarity searches need only dot products.
+     * Chunks found in the embedding cache, and repeated chunks, are not sent to the model.
      * @param chunks the list of text chunks to generate embeddings for
      * @return a list of embeddings
      * @throws EmbeddingGenerationException if an error occurs during embedding generation
      */
-    protected List<List<Double>> generateEmbeddingsFromChunks(List<String> chunks) throws EmbeddingGenerationException {
+    protected List<EmbeddingVector> generateEmbeddingsFromChunks(List<String> chunks) throws EmbeddingGenerationException {
+        String model = configuration.getEmbeddingModel();
+        List<EmbeddingVector> embeddings = embeddingCache != null
+                ? embeddingCache.getAll(model, chunks)
+                : new ArrayList<>(Collections.nCopies(chunks.size(), null));
+        // The distinct chunks that were not cached, with the positions they fill
+        Map<String, List<Integer>> missing = new LinkedHashMap<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            if (embeddings.get(i) == null) {
+                missing.computeIfAbsent(chunks.get(i), chunk -> new ArrayList<>()).add(i);
+            }
+        }
+        if (missing.isEmpty()) {
+            return embeddings;
+        }
+        List<String> requested = new ArrayList<>(missing.keySet());
         OllamaEmbedResponseModel embeddingResponse = null;
         try {
-            embeddingResponse = ollamaAPI.embed(configuration.getEmbeddingModel(), chunks);
+            embeddingResponse = ollamaAPI.embed(model, requested);
         } catch (IOException | InterruptedException | OllamaBaseException e) {
             throw new EmbeddingGenerationException("Failed to generate embeddings", e);
         }
-        return embeddingResponse.getEmbeddings();
+        if (embeddingResponse.getEmbeddings().size() != requested.size()) {
+            throw new EmbeddingGenerationException("Expected " + requested.size() + " embeddings, got "
+                    + embeddingResponse.getEmbeddings().size(), null);
+        }
+        List<EmbeddingVector> generated = new ArrayList<>(requested.size());
+        for (List<Double> embedding : embeddingResponse.getEmbeddings()) {
+            generated.add(EmbeddingVector.of(embedding).normalize());
+        }
+        for (int i = 0; i < requested.size(); i++) {
+            for (int position : missing.get(requested.get(i))) {
+                embeddings.set(position, generated.get(i));
+            }
+        }
+        if (embeddingCache != null) {
+            embeddingCache.putAll(model, requested, generated);
+        }
+        return embeddings;
     }
 
-    public void saveEmbeddings(List<E> embeddings) {
-        embeddingDao.addEmbedding(embeddings);
+    /**
+     * Splits all sources into chunks and embeds the chunks of all of them in one request.
+     */
+    @Override
+    public List<E> generateEmbeddings(List<S> sources) throws EmbeddingGenerationException {
+        List<String> chunks = new ArrayList<>();
+        List<S> owners = new ArrayList<>();
+        for (S source : sources) {
+            for (String chunk : splitTextIntoChunks(textOf(source))) {
+                chunks.add(chunk);
+                owners.add(source);
+            }
+        }
+        if (chunks.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<EmbeddingVector> embeddings = generateEmbeddingsFromChunks(chunks);
+        if (embeddings.size() != chunks.size()) {
+            throw new EmbeddingGenerationException("Expected " + chunks.size() + " embeddings, got " + embeddings.size(), null);
+        }
+        List<E> result = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            result.add(createEmbedding(chunks.get(i), embeddings.get(i), new Date(), new Date(), owners.get(i)));
+        }
+        return result;
+    }
+
+    /**
+     * Embeds chunks that are already split, e.g. by a {@link StreamingChunker}, with one request.
+     * @param source the source of all chunks
+     */
+    protected List<E> generateEmbeddingsOfChunks(List<String> chunks, S source) throws EmbeddingGenerationException {
+        List<EmbeddingVector> embeddings = generateEmbeddingsFromChunks(chunks);
+        if (embeddings.size() != chunks.size()) {
+            throw new EmbeddingGenerationException("Expected " + chunks.size() + " embeddings, got " + embeddings.size(), null);
+        }
+        List<E> result = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            result.add(createEmbedding(chunks.get(i), embeddings.get(i), new Date(), new Date(), source));
+        }
+        return result;
+    }
+
+    public boolean saveEmbeddings(List<E> embeddings) {
+        return embeddingDao.addEmbedding(embeddings);
     }
 
     public List<E> findSimilarEmbeddings(E sourceEmbedding, int limit) {
         return embeddingDao.findEmbeddingsNear(sourceEmbedding, limit);
     }
 
-    protected abstract E createEmbedding(String chunk, List<Double> embedding, Date creationDate, Date lastAccessed, S source);
+    public List<List<E>> findSimilarEmbeddings(List<E> sourceEmbeddings, int limit) {
+        return embeddingDao.findEmbeddingsNear(sourceEmbeddings, limit);
+    }
+
+    public List<E> findSimilarEmbeddings(E sourceEmbedding, SearchFilter filter, int limit) {
+        return embeddingDao.findEmbeddingsNear(sourceEmbedding, filter, limit);
+    }
+
+    public void deleteEmbeddingModel(String embeddingModel) {
+        embeddingDao.deleteEmbeddingModel(embeddingModel);
+        if (embeddingCache != null) {
+            embeddingCache.deleteEmbeddingModel(embeddingModel);
+        }
+    }
+
+    /**
+     * @return the text of the source that is split into chunks
+     */
+    protected abstract String textOf(S source);
+
+    protected abstract E createEmbedding(String chunk, EmbeddingVector embedding, Date creationDate, Date lastAccessed, S source);
 }
\ No newline at end of file
@@ -45,6 +45,32 @@ public class ChatChunkEmbedding extends TextEmbedding {
         this.replyToChunkId = replyToChunkId;
     }
 
+    /**
+     * Constructor for ChatChunkEmbedding with additional fields.
+     *
+     * @param chunk          The text chunk.
+     * @param vector         The embedding vector.
+     * @param creationDate   The date of creation.
+     * @param lastAccessed   The date of last access.
+     * @param conversationId The ID of the conversation this chunk belongs to.
+     * @param userId         The ID of the user who created this chunk.
+     * @param role           The role of the user ('user' or 'model').
+     * @param replyToChunkId The ID of the chunk this chunk is a response to.
+     * @param topic          The topic of the conversation.
+     * @param embeddingModel The model used for embedding.
+     * @param similarity     The similarity score.
+     */
+    public ChatChunkEmbedding(String chunk, EmbeddingVector vector, Date creationDate, Date lastAccessed,
+                              Long conversationId, Long userId, String role, Long replyToChunkId, String topic,
+                              String embeddingModel, double similarity) {
+        super(chunk, vector, creationDate, lastAccessed, embeddingModel, similarity);
+        this.conversationId = conversationId;
+        this.userId = userId;
+        this.role = role;
+        this.topic = topic;
+        this.replyToChunkId = replyToChunkId;
+    }
+
     public Long getConversationId() {
         return conversationId;
     }
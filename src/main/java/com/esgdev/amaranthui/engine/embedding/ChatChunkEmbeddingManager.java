@@ -17,6 +17,11 @@ public class ChatChunkEmbeddingManager extends BaseEmbeddingManager<ChatChunkEmb
         super(embeddingDao, ollamaAPI, configuration);
     }
 
+    public ChatChunkEmbeddingManager(EmbeddingDao<ChatChunkEmbedding> embeddingDao, OllamaAPI ollamaAPI, EmbeddingConfiguration configuration,
+                                     EmbeddingCache embeddingCache) {
+        super(embeddingDao, ollamaAPI, configuration, embeddingCache);
+    }
+
     @Override
     public List<ChatChunkEmbedding> generateEmbeddings(ChatEntry chatEntry) throws EmbeddingGenerationException {
         String text = chatEntry.getChunk();
@@ -24,7 +29,7 @@ public class ChatChunkEmbeddingManager extends BaseEmbeddingManager<ChatChunkEmb
 
         try {
             List<String> chunks = splitTextIntoChunks(text);
-            List<List<Double>> embeddings = generateEmbeddingsFromChunks(chunks);
+            List<EmbeddingVector> embeddings = generateEmbeddingsFromChunks(chunks);
 
             List<ChatChunkEmbedding> chatChunkEmbeddings = new ArrayList<>();
             for (int i = 0; i < chunks.size(); i++) {
@@ -40,7 +45,12 @@ public class ChatChunkEmbeddingManager extends BaseEmbeddingManager<ChatChunkEmb
     }
 
     @Override
-    protected ChatChunkEmbedding createEmbedding(String chunk, List<Double> embedding, Date creationDate, Date lastAccessed, ChatEntry chatEntry) {
+    protected String textOf(ChatEntry chatEntry) {
+        return chatEntry.getChunk();
+    }
+
+    @Override
+    protected ChatChunkEmbedding createEmbedding(String chunk, EmbeddingVector embedding, Date creationDate, Date lastAccessed, ChatEntry chatEntry) {
         return new ChatChunkEmbedding(
                 chunk,
                 embedding,
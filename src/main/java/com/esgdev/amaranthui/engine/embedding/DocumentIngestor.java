@@ -0,0 +1,401 @@
+package com.esgdev.amaranthui.engine.embedding;
+
+import com.esgdev.amaranthui.db.h2.CachedKeyValueStore;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Loads the documents of a directory tree into the text knowledge base.
+ * <p>
+ * Files are mapped into memory and chunked while they are decoded by a {@link StreamingChunker}. Batches of chunks are embedded by several
+ * requests at the same time, and the embeddings are stored in order, with one batched insert per write batch.
+ * At most the configured number of chunks is held in memory, so a corpus of any size can be loaded.
+ * <p>
+ * After every successful write the number of chunks stored of each file is saved in the key-value store, together
+ * with its size, its modification time and the ids of its stored chunks. An interrupted ingestion of the same files
+ * continues after the last stored chunk; a file that changed since is ingested again from the start, after the
+ * chunks stored of its previous version are deleted.
+ */
+public class DocumentIngestor {
+    private static final String CHECKPOINT_PREFIX = "ingest:";
+
+    private final Logger logger = Logger.getLogger(DocumentIngestor.class.getName());
+    private final BaseEmbeddingManager<TextEmbedding, String> manager;
+    private final CachedKeyValueStore checkpoints;
+    private final EmbeddingConfiguration embeddingConfiguration;
+    private final IngestionConfiguration configuration;
+    private volatile boolean cancelled;
+
+    /**
+     * Told about the progress after every write and every finished file, on the ingesting thread.
+     */
+    public interface ProgressListener {
+        void progress(Progress progress);
+    }
+
+    /**
+     * The progress of an ingestion.
+     */
+    public static class Progress {
+        private final long startNanos = System.nanoTime();
+        private int filesTotal;
+        private int filesDone;
+        private int filesSkipped;
+        private long bytesTotal;
+        private long bytesDone;
+        private long chunksStored;
+        private Path currentFile;
+
+        public int getFilesTotal() {
+            return filesTotal;
+        }
+
+        public int getFilesDone() {
+            return filesDone;
+        }
+
+        /**
+         * @return the files that were complete in the checkpoints and not read again
+         */
+        public int getFilesSkipped() {
+            return filesSkipped;
+        }
+
+        public long getBytesTotal() {
+            return bytesTotal;
+        }
+
+        /**
+         * @return the size of the finished files
+         */
+        public long getBytesDone() {
+            return bytesDone;
+        }
+
+        public long getChunksStored() {
+            return chunksStored;
+        }
+
+        public Path getCurrentFile() {
+            return currentFile;
+        }
+
+        public double getChunksPerSecond() {
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            return seconds > 0 ? chunksStored / seconds : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d/%d files, %d chunks, %.1f chunks/s",
+                    filesDone, filesTotal, chunksStored, getChunksPerSecond());
+        }
+    }
+
+    /**
+     * The ingestion state of one file.
+     */
+    private static class FileState {
+        private final Path path;
+        private final long size;
+        private final long modified;
+        private int produced;
+        private int stored;
+        private boolean read;
+        // Ranges of the ids of the stored chunks, from and to inclusive
+        private final List<long[]> ids = new ArrayList<>();
+
+        FileState(Path path, long size, long modified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        boolean isDone() {
+            return read && stored == produced;
+        }
+
+        void addId(long id) {
+            long[] last = ids.isEmpty() ? null : ids.get(ids.size() - 1);
+            if (last != null && last[1] + 1 == id) {
+                last[1] = id;
+            } else {
+                ids.add(new long[]{id, id});
+            }
+        }
+    }
+
+    /**
+     * A batch of chunks being embedded.
+     */
+    private static class PendingBatch {
+        private final FileState file;
+        private final int size;
+        private final Future<List<TextEmbedding>> embeddings;
+
+        PendingBatch(FileState file, int size, Future<List<TextEmbedding>> embeddings) {
+            this.file = file;
+            this.size = size;
+            this.embeddings = embeddings;
+        }
+    }
+
+    public DocumentIngestor(BaseEmbeddingManager<TextEmbedding, String> manager, CachedKeyValueStore checkpoints,
+                            EmbeddingConfiguration embeddingConfiguration, IngestionConfiguration configuration) {
+        if (configuration.getMaxBufferedChunks() < configuration.getBatchSize()) {
+            throw new IllegalArgumentException("The ingestion memory ceiling must hold at least one batch.");
+        }
+        this.manager = manager;
+        this.checkpoints = checkpoints;
+        this.embeddingConfiguration = embeddingConfiguration;
+        this.configuration = configuration;
+    }
+
+    /**
+     * Stops a running ingestion after the current batch; what was stored so far is kept in the checkpoints.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Ingests every file with one of the configured extensions below the directory, or the file itself.
+     *
+     * @return the final progress
+     */
+    public Progress ingest(Path root, ProgressListener listener) throws IOException, EmbeddingGenerationException, InterruptedException {
+        cancelled = false;
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile).filter(this::isIngested).sorted().collect(Collectors.toList());
+        }
+        Progress progress = new Progress();
+        progress.filesTotal = files.size();
+        for (Path file : files) {
+            progress.bytesTotal += Files.size(file);
+        }
+        logger.info("Ingesting " + files.size() + " files below " + root);
+
+        Run run = new Run(progress, listener);
+        try {
+            for (Path file : files) {
+                if (cancelled) {
+                    break;
+                }
+                run.ingest(file);
+            }
+            run.finish();
+        } finally {
+            run.executor.shutdownNow();
+        }
+        logger.info("Ingestion " + (cancelled ? "cancelled" : "finished") + ": " + progress);
+        return progress;
+    }
+
+    private boolean isIngested(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && configuration.getExtensions().contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * The batches in flight and waiting to be stored during one ingestion.
+     */
+    private class Run {
+        private final ExecutorService executor = Executors.newFixedThreadPool(configuration.getParallelism(), runnable -> {
+            Thread thread = new Thread(runnable, "document-ingestor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final Progress progress;
+        private final ProgressListener listener;
+        private final Deque<PendingBatch> pending = new ArrayDeque<>();
+        private final List<TextEmbedding> unwritten = new ArrayList<>();
+        private final List<FileState> unwrittenOwners = new ArrayList<>();
+        private final Set<FileState> unwrittenFiles = new LinkedHashSet<>();
+        private int pendingChunks;
+
+        Run(Progress progress, ProgressListener listener) {
+            this.progress = progress;
+            this.listener = listener;
+        }
+
+        void ingest(Path path) throws IOException, EmbeddingGenerationException, InterruptedException {
+            FileState file = new FileState(path, Files.size(path), Files.getLastModifiedTime(path).toMillis());
+            int resume = resumeFrom(file);
+            if (resume < 0) {
+                progress.filesSkipped++;
+                fileDone(file);
+                return;
+            }
+            file.stored = resume;
+            progress.currentFile = path;
+            try (StreamingChunker chunker = StreamingChunker.map(path, StandardCharsets.UTF_8, embeddingConfiguration)) {
+                List<String> batch = new ArrayList<>(configuration.getBatchSize());
+                CharSequence chunk;
+                while (!cancelled && (chunk = chunker.next()) != null) {
+                    // The chunks stored before an interruption are read again, but not embedded
+                    if (file.produced++ < resume) {
+                        continue;
+                    }
+                    batch.add(chunk.toString());
+                    if (batch.size() == configuration.getBatchSize()) {
+                        submit(file, batch);
+                        batch = new ArrayList<>(configuration.getBatchSize());
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    submit(file, batch);
+                }
+            }
+            file.read = !cancelled;
+            if (file.isDone() && !unwrittenFiles.contains(file) && pending.stream().noneMatch(batch -> batch.file == file)) {
+                // Nothing of the file is in flight, e.g. an empty file
+                saveCheckpoint(file);
+                fileDone(file);
+            }
+        }
+
+        private void submit(FileState file, List<String> batch) throws IOException, EmbeddingGenerationException, InterruptedException {
+            while (pendingChunks + unwritten.size() + batch.size() > configuration.getMaxBufferedChunks()) {
+                if (pending.isEmpty()) {
+                    write();
+                } else {
+                    collect();
+                }
+            }
+            pending.add(new PendingBatch(file, batch.size(), executor.submit(() -> manager.generateEmbeddingsOfChunks(batch, file.path.toString()))));
+            pendingChunks += batch.size();
+        }
+
+        /**
+         * Takes the embeddings of the oldest batch, so that the chunks of every file are stored in order.
+         */
+        private void collect() throws IOException, EmbeddingGenerationException, InterruptedException {
+            PendingBatch batch = pending.poll();
+            pendingChunks -= batch.size;
+            List<TextEmbedding> embeddings;
+            try {
+                embeddings = batch.embeddings.get();
+            } catch (ExecutionException e) {
+                // Keep what was embedded before the failure
+                write();
+                throw new EmbeddingGenerationException("Failed to embed the chunks of " + batch.file.path, e.getCause());
+            }
+            unwritten.addAll(embeddings);
+            for (int i = 0; i < embeddings.size(); i++) {
+                unwrittenOwners.add(batch.file);
+            }
+            unwrittenFiles.add(batch.file);
+            batch.file.stored += batch.size;
+            if (unwritten.size() >= configuration.getWriteBatchSize()) {
+                write();
+            }
+        }
+
+        private void write() throws IOException {
+            if (unwritten.isEmpty()) {
+                return;
+            }
+            // Nothing is checkpointed, so a resumed ingestion embeds these chunks again
+            if (!manager.saveEmbeddings(unwritten)) {
+                throw new IOException("Failed to store " + unwritten.size() + " chunks of " + unwrittenFiles.iterator().next().path);
+            }
+            for (int i = 0; i < unwritten.size(); i++) {
+                unwrittenOwners.get(i).addId(unwritten.get(i).getId());
+            }
+            progress.chunksStored += unwritten.size();
+            unwritten.clear();
+            unwrittenOwners.clear();
+            for (FileState file : unwrittenFiles) {
+                saveCheckpoint(file);
+                boolean inFlight = pending.stream().anyMatch(batch -> batch.file == file);
+                if (file.isDone() && !inFlight) {
+                    fileDone(file);
+                }
+            }
+            unwrittenFiles.clear();
+            notifyListener();
+        }
+
+        void finish() throws IOException, EmbeddingGenerationException, InterruptedException {
+            while (!pending.isEmpty()) {
+                collect();
+            }
+            write();
+        }
+
+        private int resumeFrom(FileState file) {
+            String checkpoint = checkpoints.getValue(CHECKPOINT_PREFIX + file.path.toAbsolutePath());
+            if (checkpoint == null) {
+                return 0;
+            }
+            String[] fields = checkpoint.split(":");
+            List<long[]> ids = new ArrayList<>();
+            if (fields.length == 5 && !fields[4].isEmpty()) {
+                for (String range : fields[4].split(",")) {
+                    int dash = range.indexOf('-');
+                    ids.add(new long[]{Long.parseLong(range.substring(0, dash)), Long.parseLong(range.substring(dash + 1))});
+                }
+            }
+            if (fields.length < 4 || Long.parseLong(fields[0]) != file.size || Long.parseLong(fields[1]) != file.modified) {
+                logger.warning("File changed since it was ingested, ingesting it again: " + file.path);
+                deleteChunks(file, ids);
+                return 0;
+            }
+            file.ids.addAll(ids);
+            return Boolean.parseBoolean(fields[3]) ? -1 : Integer.parseInt(fields[2]);
+        }
+
+        /**
+         * Deletes the chunks stored of the previous version of a file.
+         */
+        private void deleteChunks(FileState file, List<long[]> ids) {
+            long deleted = 0;
+            for (long[] range : ids) {
+                manager.getEmbeddingDao().deleteEmbeddings(range[0], range[1]);
+                deleted += range[1] - range[0] + 1;
+            }
+            if (deleted > 0) {
+                logger.info("Deleted " + deleted + " chunks of the previous version of " + file.path);
+            }
+        }
+
+        private void saveCheckpoint(FileState file) {
+            // A file is only marked as done when its last chunk was stored
+            boolean done = file.isDone() && pending.stream().noneMatch(batch -> batch.file == file);
+            String ids = file.ids.stream().map(range -> range[0] + "-" + range[1]).collect(Collectors.joining(","));
+            checkpoints.saveValue(CHECKPOINT_PREFIX + file.path.toAbsolutePath(),
+                    file.size + ":" + file.modified + ":" + file.stored + ":" + done + ":" + ids);
+        }
+
+        private void fileDone(FileState file) {
+            progress.filesDone++;
+            progress.bytesDone += file.size;
+            notifyListener();
+        }
+
+        private void notifyListener() {
+            if (listener != null) {
+                listener.progress(progress);
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.esgdev.amaranthui.engine.embedding;
+
+import com.esgdev.amaranthui.db.h2.EmbeddingCacheDaoH2;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed cache of chunk embeddings, so that the same text is only sent to the embedding model once.
+ * <p>
+ * A vector is found by a 128 bit hash of the embedding model and the chunk text. The first tier is an LRU map
+ * in memory, limited by the bytes of its vectors. The optional second tier is the embedding_cache table, which
+ * keeps the vectors across restarts, e.g. for re-ingested documents. Vectors found there move into memory.
+ */
+public class EmbeddingCache {
+    // Key, entry and map node overhead of a cached vector, on top of its floats
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+
+    private final long maxBytes;
+    private final EmbeddingCacheDaoH2 store;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong storeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static class Entry {
+        private final String embeddingModel;
+        private final EmbeddingVector vector;
+
+        Entry(String embeddingModel, EmbeddingVector vector) {
+            this.embeddingModel = embeddingModel;
+            this.vector = vector;
+        }
+
+        long bytes() {
+            return ENTRY_OVERHEAD_BYTES + 4L * vector.dimension();
+        }
+    }
+
+    /**
+     * @param maxBytes the memory budget of the in-memory tier
+     * @param store the persistent tier, or null to cache in memory only
+     */
+    public EmbeddingCache(long maxBytes, EmbeddingCacheDaoH2 store) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Embedding cache size must not be negative.");
+        }
+        this.maxBytes = maxBytes;
+        this.store = store;
+    }
+
+    /**
+     * @return the cached vectors of the chunks, in their order, with null for the chunks not found
+     */
+    public List<EmbeddingVector> getAll(String embeddingModel, List<String> chunks) {
+        List<EmbeddingVector> vectors = new ArrayList<>(chunks.size());
+        List<String> missingKeys = new ArrayList<>();
+        List<Integer> missing = new ArrayList<>();
+        synchronized (this) {
+            for (int i = 0; i < chunks.size(); i++) {
+                String key = key(embeddingModel, chunks.get(i));
+                Entry entry = entries.get(key);
+                vectors.add(entry != null ? entry.vector : null);
+                if (entry == null) {
+                    missingKeys.add(key);
+                    missing.add(i);
+                }
+            }
+        }
+        memoryHits.addAndGet(chunks.size() - missing.size());
+        if (store != null && !missingKeys.isEmpty()) {
+            Map<String, EmbeddingVector> stored = store.getVectors(missingKeys);
+            synchronized (this) {
+                for (int i = 0; i < missing.size(); i++) {
+                    EmbeddingVector vector = stored.get(missingKeys.get(i));
+                    if (vector != null) {
+                        vectors.set(missing.get(i), vector);
+                        put(missingKeys.get(i), new Entry(embeddingModel, vector));
+                    }
+                }
+            }
+            storeHits.addAndGet(stored.size());
+        }
+        misses.addAndGet(vectors.stream().filter(vector -> vector == null).count());
+        return vectors;
+    }
+
+    /**
+     * Caches the vectors of the chunks in both tiers.
+     */
+    public void putAll(String embeddingModel, List<String> chunks, List<EmbeddingVector> vectors) {
+        List<String> keys = new ArrayList<>(chunks.size());
+        synchronized (this) {
+            for (int i = 0; i < chunks.size(); i++) {
+                String key = key(embeddingModel, chunks.get(i));
+                keys.add(key);
+                put(key, new Entry(embeddingModel, vectors.get(i)));
+            }
+        }
+        if (store != null) {
+            store.saveVectors(embeddingModel, keys, vectors);
+        }
+    }
+
+    /**
+     * Drops the vectors of an embedding model from both tiers.
+     */
+    public void deleteEmbeddingModel(String embeddingModel) {
+        synchronized (this) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.embeddingModel.equals(embeddingModel)) {
+                    bytes -= entry.bytes();
+                    iterator.remove();
+                }
+            }
+        }
+        if (store != null) {
+            store.deleteEmbeddingModel(embeddingModel);
+        }
+    }
+
+    private void put(String key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes -= previous.bytes();
+        }
+        bytes += entry.bytes();
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().bytes();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @return a 128 bit hash of the model and the text as 32 hex digits
+     */
+    static String key(String embeddingModel, CharSequence text) {
+        long a = 0x9E3779B97F4A7C15L ^ text.length();
+        long b = 0xC2B2AE3D27D4EB4FL ^ embeddingModel.length();
+        for (int i = 0; i < embeddingModel.length(); i++) {
+            char c = embeddingModel.charAt(i);
+            a = (a ^ c) * 0x100000001B3L;
+            b = Long.rotateLeft(b ^ c, 31) * 0x9FB21C651E98DF25L;
+        }
+        // Separates the model from the text, so that "ab" + "c" and "a" + "bc" differ
+        a = (a ^ 0xFFFF) * 0x100000001B3L;
+        b = Long.rotateLeft(b ^ 0xFFFF, 31) * 0x9FB21C651E98DF25L;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            a = (a ^ c) * 0x100000001B3L;
+            b = Long.rotateLeft(b ^ c, 31) * 0x9FB21C651E98DF25L;
+        }
+        return String.format(Locale.ROOT, "%016x%016x", mix(a ^ b), mix(b + a));
+    }
+
+    /**
+     * The finalizer of MurmurHash3, which spreads every input bit over the whole output.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @return the bytes taken by the vectors in memory
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getStoreHits() {
+        return storeHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
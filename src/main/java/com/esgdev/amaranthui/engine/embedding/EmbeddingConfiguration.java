@@ -1,5 +1,12 @@
 package com.esgdev.amaranthui.engine.embedding;
 
+import com.esgdev.amaranthui.db.SearchMode;
+import com.esgdev.amaranthui.db.VectorEncoding;
+import com.esgdev.amaranthui.db.VectorStorage;
+
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Configuration class for embedding-related settings.
  */
@@ -10,6 +17,21 @@ public class EmbeddingConfiguration {
     private final String jdbcUrl;
     private final String jdbcUser;
     private final String jdbcPassword;
+    private SearchMode searchMode = SearchMode.EXACT;
+    private final Map<String, SearchMode> tableSearchModes = new HashMap<>();
+    private int rerankFactor = 4;
+    private int binaryRerankFactor = 16;
+    private VectorEncoding vectorEncoding = VectorEncoding.FLOAT32;
+    private VectorStorage vectorStorage = VectorStorage.H2;
+    private String segmentDirectory = System.getProperty("java.io.tmpdir");
+    private int segmentSize = 64 << 20;
+    private int searchParallelism = Runtime.getRuntime().availableProcessors();
+    private int timeSegmentDays = 7;
+    private int embeddingQueueCapacity = 256;
+    private int embeddingBatchSize = 16;
+    private long embeddingBatchLingerMillis = 50;
+    private long embeddingCacheBytes = 64L << 20;
+    private int embeddingCacheRows = 100_000;
 
     public EmbeddingConfiguration(int chunkSize, int overlap, String embeddingModel, String jdbcUrl, String jdbcUser, String jdbcPassword) {
         if (chunkSize <= overlap) {
@@ -50,4 +72,193 @@ public class EmbeddingConfiguration {
     public void setEmbeddingModel(String modelName) {
         this.embeddingModel = modelName;
     }
-}
\ No newline at end of file
+
+    public SearchMode getSearchMode() {
+        return searchMode;
+    }
+
+    public void setSearchMode(SearchMode searchMode) {
+        this.searchMode = searchMode;
+    }
+
+    /**
+     * @return the search mode of the given embedding table, which defaults to the common search mode
+     */
+    public SearchMode getSearchMode(String table) {
+        return tableSearchModes.getOrDefault(table, searchMode);
+    }
+
+    public void setSearchMode(String table, SearchMode searchMode) {
+        tableSearchModes.put(table, searchMode);
+    }
+
+    /**
+     * @return how many quantized candidates per requested result are rescored with the full vectors
+     */
+    public int getRerankFactor() {
+        return rerankFactor;
+    }
+
+    public void setRerankFactor(int rerankFactor) {
+        if (rerankFactor < 1) {
+            throw new IllegalArgumentException("Rerank factor must be at least 1.");
+        }
+        this.rerankFactor = rerankFactor;
+    }
+
+    /**
+     * @return how many binary candidates per requested result are rescored; sign bits are coarser than int8
+     */
+    public int getBinaryRerankFactor() {
+        return binaryRerankFactor;
+    }
+
+    public void setBinaryRerankFactor(int binaryRerankFactor) {
+        if (binaryRerankFactor < 1) {
+            throw new IllegalArgumentException("Binary rerank factor must be at least 1.");
+        }
+        this.binaryRerankFactor = binaryRerankFactor;
+    }
+
+    /**
+     * @return the format of the vectors written to the embedding tables
+     */
+    public VectorEncoding getVectorEncoding() {
+        return vectorEncoding;
+    }
+
+    public void setVectorEncoding(VectorEncoding vectorEncoding) {
+        this.vectorEncoding = vectorEncoding;
+    }
+
+    public VectorStorage getVectorStorage() {
+        return vectorStorage;
+    }
+
+    public void setVectorStorage(VectorStorage vectorStorage) {
+        this.vectorStorage = vectorStorage;
+    }
+
+    /**
+     * @return the directory of the vector segment files, with a subdirectory per table and model
+     */
+    public String getSegmentDirectory() {
+        return segmentDirectory;
+    }
+
+    public void setSegmentDirectory(String segmentDirectory) {
+        this.segmentDirectory = segmentDirectory;
+    }
+
+    /**
+     * @return the size of a vector segment file in bytes
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        if (segmentSize < 1 << 16) {
+            throw new IllegalArgumentException("Segment size must be at least 64 KB.");
+        }
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * @return the number of threads an exact search may use; 1 searches with a single query on the calling thread
+     */
+    public int getSearchParallelism() {
+        return searchParallelism;
+    }
+
+    public void setSearchParallelism(int searchParallelism) {
+        if (searchParallelism < 1) {
+            throw new IllegalArgumentException("Search parallelism must be at least 1.");
+        }
+        this.searchParallelism = searchParallelism;
+    }
+
+    /**
+     * @return the width in days of the time segments of the chat history, 0 if it is not segmented
+     */
+    public int getTimeSegmentDays() {
+        return timeSegmentDays;
+    }
+
+    public void setTimeSegmentDays(int timeSegmentDays) {
+        if (timeSegmentDays < 0) {
+            throw new IllegalArgumentException("Time segment days must not be negative.");
+        }
+        this.timeSegmentDays = timeSegmentDays;
+    }
+
+    /**
+     * @return the number of chat entries that may wait to be embedded before adding one blocks
+     */
+    public int getEmbeddingQueueCapacity() {
+        return embeddingQueueCapacity;
+    }
+
+    public void setEmbeddingQueueCapacity(int embeddingQueueCapacity) {
+        if (embeddingQueueCapacity < 1) {
+            throw new IllegalArgumentException("Embedding queue capacity must be at least 1.");
+        }
+        this.embeddingQueueCapacity = embeddingQueueCapacity;
+    }
+
+    /**
+     * @return the largest number of queued chat entries embedded with one request
+     */
+    public int getEmbeddingBatchSize() {
+        return embeddingBatchSize;
+    }
+
+    public void setEmbeddingBatchSize(int embeddingBatchSize) {
+        if (embeddingBatchSize < 1) {
+            throw new IllegalArgumentException("Embedding batch size must be at least 1.");
+        }
+        this.embeddingBatchSize = embeddingBatchSize;
+    }
+
+    /**
+     * @return how long the embedding writer waits for more chat entries before it embeds a batch
+     */
+    public long getEmbeddingBatchLingerMillis() {
+        return embeddingBatchLingerMillis;
+    }
+
+    public void setEmbeddingBatchLingerMillis(long embeddingBatchLingerMillis) {
+        if (embeddingBatchLingerMillis < 0) {
+            throw new IllegalArgumentException("Embedding batch linger must not be negative.");
+        }
+        this.embeddingBatchLingerMillis = embeddingBatchLingerMillis;
+    }
+
+    /**
+     * @return the memory budget of the in-memory tier of the embedding cache, 0 if it is disabled
+     */
+    public long getEmbeddingCacheBytes() {
+        return embeddingCacheBytes;
+    }
+
+    public void setEmbeddingCacheBytes(long embeddingCacheBytes) {
+        if (embeddingCacheBytes < 0) {
+            throw new IllegalArgumentException("Embedding cache size must not be negative.");
+        }
+        this.embeddingCacheBytes = embeddingCacheBytes;
+    }
+
+    /**
+     * @return the largest number of vectors in the persistent tier of the embedding cache, 0 if it is disabled
+     */
+    public int getEmbeddingCacheRows() {
+        return embeddingCacheRows;
+    }
+
+    public void setEmbeddingCacheRows(int embeddingCacheRows) {
+        if (embeddingCacheRows < 0) {
+            throw new IllegalArgumentException("Embedding cache rows must not be negative.");
+        }
+        this.embeddingCacheRows = embeddingCacheRows;
+    }
+}
@@ -1,5 +1,7 @@
 package com.esgdev.amaranthui.engine.embedding;
 
+import com.esgdev.amaranthui.db.filter.SearchFilter;
+
 import java.util.List;
 
 /**
@@ -10,7 +12,32 @@ import java.util.List;
 public interface EmbeddingManagerInterface<T, V> {
     List<T> generateEmbeddings(V source) throws EmbeddingGenerationException;
 
-    void saveEmbeddings(List<T> embeddings);
+    /**
+     * Generates the embeddings of several sources with a single embedding request.
+     * @return the embeddings of all chunks, in the order of the sources
+     */
+    List<T> generateEmbeddings(List<V> sources) throws EmbeddingGenerationException;
+
+    /**
+     * @return false if the embeddings could not be stored
+     */
+    boolean saveEmbeddings(List<T> embeddings);
 
     List<T> findSimilarEmbeddings(T sourceEmbedding, int limit);
-}
\ No newline at end of file
+
+    /**
+     * Searches several query embeddings at once, e.g. all chunks of a long message.
+     * @return the results of each query, in the order of the queries
+     */
+    List<List<T>> findSimilarEmbeddings(List<T> sourceEmbeddings, int limit);
+
+    /**
+     * Searches only the embeddings matching the metadata filter, e.g. the chunks of one conversation.
+     */
+    List<T> findSimilarEmbeddings(T sourceEmbedding, SearchFilter filter, int limit);
+
+    /**
+     * Deletes all embeddings of the model, e.g. once every chunk has been re-embedded with a newer model.
+     */
+    void deleteEmbeddingModel(String embeddingModel);
+}
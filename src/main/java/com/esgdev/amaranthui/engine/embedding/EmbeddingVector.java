@@ -0,0 +1,148 @@
+package com.esgdev.amaranthui.engine.embedding;
+
+import com.esgdev.amaranthui.db.kernel.VectorKernels;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable embedding vector backed by a float[], with its Euclidean length computed once.
+ * <p>
+ * A 768 dimensional vector takes about 3 KB, instead of the ~20 KB of a List of boxed Doubles.
+ * {@link #asList()} gives a read-only List view for code that still works with lists.
+ */
+public final class EmbeddingVector {
+    private static final float UNIT_TOLERANCE = 1e-6f;
+
+    private final float[] values;
+    private final float norm;
+    private List<Double> list;
+
+    private EmbeddingVector(float[] values) {
+        this.values = values;
+        this.norm = (float) Math.sqrt(VectorKernels.dot(values, values));
+    }
+
+    /**
+     * @return a vector with a copy of the values
+     */
+    public static EmbeddingVector of(float[] values) {
+        return new EmbeddingVector(values.clone());
+    }
+
+    public static EmbeddingVector of(List<Double> values) {
+        if (values instanceof DoubleView) {
+            return ((DoubleView) values).owner;
+        }
+        float[] array = new float[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i).floatValue();
+        }
+        return new EmbeddingVector(array);
+    }
+
+    /**
+     * Takes ownership of the array without copying it; the caller must not modify it afterwards.
+     */
+    public static EmbeddingVector wrap(float[] values) {
+        return new EmbeddingVector(values);
+    }
+
+    public int dimension() {
+        return values.length;
+    }
+
+    public float get(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return the Euclidean length
+     */
+    public float norm() {
+        return norm;
+    }
+
+    /**
+     * @return a copy of the values
+     */
+    public float[] toArray() {
+        return values.clone();
+    }
+
+    /**
+     * @return a unit length vector with the same direction, or this vector if it is all zeros or already unit length
+     */
+    public EmbeddingVector normalize() {
+        if (norm == 0f || Math.abs(norm - 1f) < UNIT_TOLERANCE) {
+            return this;
+        }
+        float[] normalized = new float[values.length];
+        for (int i = 0; i < normalized.length; i++) {
+            normalized[i] = values[i] / norm;
+        }
+        return new EmbeddingVector(normalized);
+    }
+
+    /**
+     * @return the dot product, or NaN if the dimensions differ
+     */
+    public double dot(EmbeddingVector other) {
+        if (other.values.length != values.length) {
+            return Double.NaN;
+        }
+        return VectorKernels.dot(values, other.values);
+    }
+
+    /**
+     * @return the cosine similarity, NaN if the dimensions differ or either vector is all zeros
+     */
+    public double cosine(EmbeddingVector other) {
+        return dot(other) / ((double) norm * other.norm);
+    }
+
+    /**
+     * @return a read-only view that boxes the components on access
+     */
+    public List<Double> asList() {
+        if (list == null) {
+            list = new DoubleView(this);
+        }
+        return list;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof EmbeddingVector && Arrays.equals(values, ((EmbeddingVector) o).values);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(values);
+    }
+
+    @Override
+    public String toString() {
+        return "EmbeddingVector[dimension=" + values.length + ", norm=" + norm + "]";
+    }
+
+    private static class DoubleView extends AbstractList<Double> implements RandomAccess {
+        private final EmbeddingVector owner;
+
+        DoubleView(EmbeddingVector owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public Double get(int index) {
+            return (double) owner.values[index];
+        }
+
+        @Override
+        public int size() {
+            return owner.values.length;
+        }
+    }
+}
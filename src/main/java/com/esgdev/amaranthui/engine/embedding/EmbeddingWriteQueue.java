@@ -0,0 +1,218 @@
+package com.esgdev.amaranthui.engine.embedding;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded write-behind queue that embeds and stores sources, e.g. chat entries, on a background thread.
+ * <p>
+ * A submitted source is acknowledged right away. The writer thread collects the sources that arrive within
+ * a short linger time into a micro-batch, embeds the chunks of the whole batch with a single request and
+ * stores them with a single batched insert. When the queue is full, submitting blocks until the writer
+ * catches up, so memory stays bounded. {@link #drain()} waits until everything submitted so far is stored,
+ * and {@link #close()} stores what is left before it returns.
+ *
+ * @param <E> the type of embedding
+ * @param <S> the type of source
+ */
+public class EmbeddingWriteQueue<E, S> implements Closeable {
+    private static final long CLOSE_TIMEOUT_MS = 60_000;
+    private static final long POLL_MILLIS = 100;
+
+    private final Logger logger = Logger.getLogger(EmbeddingWriteQueue.class.getName());
+    private final EmbeddingManagerInterface<E, S> manager;
+    private final BlockingQueue<S> queue;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final Thread writer;
+    private final Object progress = new Object();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    /** Held shared while a source is queued and exclusively while closing, so no source is queued after close. */
+    private final ReadWriteLock submitLock = new ReentrantReadWriteLock();
+    private long completed;
+    private volatile boolean closed;
+
+    /**
+     * @param capacity the number of sources that may wait to be stored
+     * @param batchSize the largest number of sources embedded with one request
+     * @param lingerMillis how long the writer waits for more sources before it embeds a batch
+     */
+    public EmbeddingWriteQueue(EmbeddingManagerInterface<E, S> manager, int capacity, int batchSize, long lingerMillis) {
+        if (capacity < 1 || batchSize < 1 || lingerMillis < 0) {
+            throw new IllegalArgumentException("Capacity and batch size must be positive, linger must not be negative.");
+        }
+        this.manager = manager;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.writer = new Thread(this::run, "embedding-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a source, waiting for space if the queue is full.
+     */
+    public void submit(S source) throws InterruptedException {
+        submitLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("The embedding queue is closed");
+            }
+            submitted.incrementAndGet();
+            try {
+                queue.put(source);
+            } catch (InterruptedException e) {
+                submitted.decrementAndGet();
+                throw e;
+            }
+        } finally {
+            submitLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Queues a source unless the queue is full.
+     *
+     * @return false if the queue is full
+     */
+    public boolean offer(S source) {
+        submitLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("The embedding queue is closed");
+            }
+            submitted.incrementAndGet();
+            if (!queue.offer(source)) {
+                submitted.decrementAndGet();
+                return false;
+            }
+            return true;
+        } finally {
+            submitLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Waits until every source submitted before the call has been stored or has failed.
+     */
+    public void drain() throws InterruptedException {
+        long target = submitted.get();
+        synchronized (progress) {
+            while (completed < target && writer.isAlive()) {
+                progress.wait(100);
+            }
+        }
+    }
+
+    /**
+     * @return the number of sources waiting to be stored
+     */
+    public int getPending() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of sources that could not be embedded or stored
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Stops accepting sources and stores the queued ones before returning.
+     */
+    @Override
+    public void close() {
+        // Waits for running submits, which keep being drained by the writer until the flag is set
+        submitLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            submitLock.writeLock().unlock();
+        }
+        try {
+            writer.join(CLOSE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            logger.warning("Embedding writer did not finish, " + queue.size() + " entries were not stored");
+        }
+    }
+
+    private void run() {
+        List<S> batch = new ArrayList<>(batchSize);
+        while (true) {
+            try {
+                S first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed) {
+                        // A source may have been queued between the poll and the flag
+                        flush(batch);
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+                while (batch.size() < batchSize && !closed) {
+                    S next = queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Nothing interrupts the writer; closing is signalled by the flag, so that a running request is not cut off
+                Thread.interrupted();
+            }
+            queue.drainTo(batch, batchSize - batch.size());
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes whatever is left in the queue once no more sources can be submitted.
+     */
+    private void flush(List<S> batch) {
+        while (queue.drainTo(batch, batchSize) > 0) {
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void write(List<S> batch) {
+        try {
+            List<E> embeddings = manager.generateEmbeddings(batch);
+            if (!manager.saveEmbeddings(embeddings)) {
+                throw new IllegalStateException("The embeddings were not stored");
+            }
+            logger.fine("Stored " + embeddings.size() + " embeddings of " + batch.size() + " entries");
+        } catch (Exception e) {
+            failed.addAndGet(batch.size());
+            logger.log(Level.SEVERE, "Failed to embed " + batch.size() + " queued entries", e);
+        } finally {
+            synchronized (progress) {
+                completed += batch.size();
+                progress.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.esgdev.amaranthui.engine.embedding;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Configuration class for the bulk ingestion of documents into the text knowledge base.
+ */
+public class IngestionConfiguration {
+    private int batchSize = 32;
+    private int parallelism = 4;
+    private int writeBatchSize = 512;
+    private int maxBufferedChunks = 4096;
+    private Set<String> extensions = Set.of("txt", "md");
+
+    /**
+     * @return the number of chunks embedded with one request
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Ingestion batch size must be at least 1.");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the number of embedding requests running at the same time
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Ingestion parallelism must be at least 1.");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return the number of chunks stored with one batched insert and transaction
+     */
+    public int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    public void setWriteBatchSize(int writeBatchSize) {
+        if (writeBatchSize < 1) {
+            throw new IllegalArgumentException("Ingestion write batch size must be at least 1.");
+        }
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    /**
+     * @return the largest number of chunks held in memory, being embedded or waiting to be stored
+     */
+    public int getMaxBufferedChunks() {
+        return maxBufferedChunks;
+    }
+
+    public void setMaxBufferedChunks(int maxBufferedChunks) {
+        if (maxBufferedChunks < 1) {
+            throw new IllegalArgumentException("Ingestion memory ceiling must be at least 1 chunk.");
+        }
+        this.maxBufferedChunks = maxBufferedChunks;
+    }
+
+    /**
+     * @return the extensions of the files that are ingested, in lower case
+     */
+    public Set<String> getExtensions() {
+        return extensions;
+    }
+
+    /**
+     * @param extensions comma-separated file extensions, e.g. "txt,md"
+     */
+    public void setExtensions(String extensions) {
+        Set<String> parsed = Arrays.stream(extensions.split(","))
+                .map(String::trim)
+                .map(extension -> extension.startsWith(".") ? extension.substring(1) : extension)
+                .map(String::toLowerCase)
+                .filter(extension -> !extension.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+        if (parsed.isEmpty()) {
+            throw new IllegalArgumentException("At least one file extension must be ingested.");
+        }
+        this.extensions = parsed;
+    }
+}
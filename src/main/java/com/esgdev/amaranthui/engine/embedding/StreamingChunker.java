@@ -0,0 +1,191 @@
+package com.esgdev.amaranthui.engine.embedding;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Splits a document into chunks while it is read, without holding the whole document in memory.
+ * <p>
+ * The chunks are exactly those of {@link BaseEmbeddingManager#splitTextIntoChunks}: a chunk starts every
+ * chunk size minus overlap characters, as long as the start is inside the document, and ends after chunk size
+ * characters or at the end of the document. The characters are decoded into a buffer of little more than one
+ * chunk, and every chunk is a view of that buffer, so overlapping chunks share their characters instead of
+ * being copied. A chunk is only valid until the next call of {@link #next()}; call toString() to keep it.
+ * <p>
+ * A file can be read through a {@link Reader} or mapped into memory region by region and decoded incrementally.
+ */
+public class StreamingChunker implements Closeable {
+    private static final int DEFAULT_REGION_BYTES = 64 << 20;
+    private static final int MIN_READ = 8192;
+
+    private final Source source;
+    private final int chunkSize;
+    private final int step;
+    private final char[] buffer;
+    private int start;
+    private int end;
+    private boolean eof;
+    private boolean started;
+
+    /**
+     * Decodes characters into the buffer.
+     */
+    private interface Source extends Closeable {
+        /**
+         * @return the number of decoded characters, at least one, or -1 at the end of the document
+         */
+        int read(char[] buffer, int offset, int length) throws IOException;
+    }
+
+    private StreamingChunker(Source source, EmbeddingConfiguration configuration) {
+        this.source = source;
+        this.chunkSize = configuration.getChunkSize();
+        this.step = configuration.getChunkSize() - configuration.getOverlap();
+        // Room for one chunk and a read, so that a chunk never has to wrap around
+        this.buffer = new char[chunkSize + Math.max(step, MIN_READ)];
+    }
+
+    /**
+     * Chunks the characters of a reader, which is closed with the chunker.
+     */
+    public static StreamingChunker of(Reader reader, EmbeddingConfiguration configuration) {
+        return new StreamingChunker(new Source() {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                return reader.read(buffer, offset, length);
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+            }
+        }, configuration);
+    }
+
+    /**
+     * Chunks a file mapped into memory. Malformed input is replaced, like a reader would.
+     */
+    public static StreamingChunker map(Path file, Charset charset, EmbeddingConfiguration configuration) throws IOException {
+        return map(file, charset, configuration, DEFAULT_REGION_BYTES);
+    }
+
+    /**
+     * Chunks a file mapped into memory, one region of the given size at a time. For tests.
+     */
+    public static StreamingChunker map(Path file, Charset charset, EmbeddingConfiguration configuration, int regionBytes) throws IOException {
+        if (regionBytes < 16) {
+            throw new IllegalArgumentException("Mapped regions must be at least 16 bytes.");
+        }
+        return new StreamingChunker(new MappedSource(FileChannel.open(file, StandardOpenOption.READ), charset, regionBytes), configuration);
+    }
+
+    /**
+     * @return the next chunk, valid until the next call, or null at the end of the document
+     */
+    public CharSequence next() throws IOException {
+        if (started) {
+            start += step;
+        }
+        started = true;
+        fill();
+        if (start >= end) {
+            return null;
+        }
+        return CharBuffer.wrap(buffer, start, Math.min(chunkSize, end - start));
+    }
+
+    /**
+     * Reads until the buffer holds a whole chunk from the current start, or the document ends.
+     */
+    private void fill() throws IOException {
+        while (!eof && end - start < chunkSize) {
+            if (buffer.length - end < MIN_READ && start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+            }
+            int read = source.read(buffer, end, buffer.length - end);
+            if (read < 0) {
+                eof = true;
+            } else {
+                end += read;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    /**
+     * Decodes a file mapped region by region. A character split between two regions is decoded once the next
+     * region, which starts at its first byte, is mapped.
+     */
+    private static class MappedSource implements Source {
+        private final FileChannel channel;
+        private final CharsetDecoder decoder;
+        private final long size;
+        private final int regionBytes;
+        private MappedByteBuffer region;
+        private long regionStart;
+        private boolean done;
+
+        MappedSource(FileChannel channel, Charset charset, int regionBytes) throws IOException {
+            this.channel = channel;
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.size = channel.size();
+            this.regionBytes = regionBytes;
+            map(0);
+        }
+
+        private void map(long position) throws IOException {
+            regionStart = position;
+            region = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(regionBytes, size - position));
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (done) {
+                return -1;
+            }
+            CharBuffer out = CharBuffer.wrap(buffer, offset, length);
+            while (out.position() == offset) {
+                boolean last = regionStart + region.limit() == size;
+                CoderResult result = decoder.decode(region, out, last);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                if (result.isOverflow()) {
+                    // The buffer is too small for the next character
+                    break;
+                }
+                if (last) {
+                    decoder.flush(out);
+                    done = true;
+                    break;
+                }
+                map(regionStart + region.position());
+            }
+            int read = out.position() - offset;
+            return read == 0 && done ? -1 : read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -6,11 +6,12 @@ import java.util.List;
 /**
  * Represents a text embedding.
  * An embedding is a numerical representation of a text chunk, useful for various NLP tasks, like semantic search, and similarity.
+ * The vector is held as an {@link EmbeddingVector}; the List based accessors are kept for compatibility.
  */
 public class TextEmbedding {
     private Long id; // Primary key
     private String chunk;
-    private List<Double> embedding;
+    private EmbeddingVector vector;
     private Date creationDate;
     private Date lastAccessed;
     private String embeddingModel; // Metadata: embedding model name
@@ -21,8 +22,12 @@ public class TextEmbedding {
     }
 
     public TextEmbedding(String chunk, List<Double> embedding, Date creationDate, Date lastAccessed, String embeddingModel, double similarity) {
+        this(chunk, embedding == null ? null : EmbeddingVector.of(embedding), creationDate, lastAccessed, embeddingModel, similarity);
+    }
+
+    public TextEmbedding(String chunk, EmbeddingVector vector, Date creationDate, Date lastAccessed, String embeddingModel, double similarity) {
         this.chunk = chunk;
-        this.embedding = embedding;
+        this.vector = vector;
         this.creationDate = creationDate;
         this.lastAccessed = lastAccessed;
         this.embeddingModel = embeddingModel;
@@ -45,12 +50,23 @@ public class TextEmbedding {
         this.chunk = chunk;
     }
 
+    public EmbeddingVector getVector() {
+        return vector;
+    }
+
+    public void setVector(EmbeddingVector vector) {
+        this.vector = vector;
+    }
+
+    /**
+     * @return a read-only List view of the vector
+     */
     public List<Double> getEmbedding() {
-        return embedding;
+        return vector == null ? null : vector.asList();
     }
 
     public void setEmbedding(List<Double> embedding) {
-        this.embedding = embedding;
+        this.vector = embedding == null ? null : EmbeddingVector.of(embedding);
     }
 
     public Date getCreationDate() {
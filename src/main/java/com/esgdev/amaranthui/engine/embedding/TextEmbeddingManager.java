@@ -16,13 +16,18 @@ public class TextEmbeddingManager extends BaseEmbeddingManager<TextEmbedding, St
         super(textEmbeddingDao, ollamaAPI, configuration);
     }
 
+    public TextEmbeddingManager(EmbeddingDao<TextEmbedding> textEmbeddingDao, OllamaAPI ollamaAPI, EmbeddingConfiguration configuration,
+                                EmbeddingCache embeddingCache) {
+        super(textEmbeddingDao, ollamaAPI, configuration, embeddingCache);
+    }
+
     @Override
     public List<TextEmbedding> generateEmbeddings(String text) throws EmbeddingGenerationException {
         logger.info("Generating embeddings for text: " + text);
 
         try {
             List<String> chunks = splitTextIntoChunks(text);
-            List<List<Double>> embeddings = generateEmbeddingsFromChunks(chunks);
+            List<EmbeddingVector> embeddings = generateEmbeddingsFromChunks(chunks);
 
             List<TextEmbedding> textEmbeddings = new ArrayList<>();
             for (int i = 0; i < chunks.size(); i++) {
@@ -38,7 +43,12 @@ public class TextEmbeddingManager extends BaseEmbeddingManager<TextEmbedding, St
     }
 
     @Override
-    protected TextEmbedding createEmbedding(String chunk, List<Double> embedding, Date creationDate, Date lastAccessed, String source) {
+    protected String textOf(String text) {
+        return text;
+    }
+
+    @Override
+    protected TextEmbedding createEmbedding(String chunk, EmbeddingVector embedding, Date creationDate, Date lastAccessed, String source) {
         return new TextEmbedding(chunk, embedding, creationDate, lastAccessed, configuration.getEmbeddingModel(), 0.0);
     }
 }
\ No newline at end of file
@@ -0,0 +1,137 @@
+package com.esgdev.amaranthui.engine.tagging;
+
+import com.esgdev.amaranthui.db.h2.VectorSimilarity;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingGenerationException;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingManagerInterface;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingVector;
+import com.esgdev.amaranthui.engine.embedding.TextEmbedding;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Classifies texts by the topic centroid nearest to their embedding.
+ * <p>
+ * The centroid of a topic is the normalized mean of the embeddings of its name and of its seed examples. The
+ * centroids are computed once and kept until the topics, the examples or the embedding model change.
+ */
+class CentroidClassifier {
+    private final EmbeddingManagerInterface<TextEmbedding, String> embeddingManager;
+    private Map<String, EmbeddingVector> centroids;
+    private List<String> centroidTopics;
+    private Map<String, List<String>> centroidExamples;
+    private String centroidModel;
+
+    /**
+     * The nearest and the second nearest topic of a text.
+     */
+    static class Result {
+        private final String topic;
+        private final double similarity;
+        private final double margin;
+
+        Result(String topic, double similarity, double margin) {
+            this.topic = topic;
+            this.similarity = similarity;
+            this.margin = margin;
+        }
+
+        String getTopic() {
+            return topic;
+        }
+
+        double getSimilarity() {
+            return similarity;
+        }
+
+        /**
+         * @return how much more similar the nearest topic is than the second nearest
+         */
+        double getMargin() {
+            return margin;
+        }
+    }
+
+    CentroidClassifier(EmbeddingManagerInterface<TextEmbedding, String> embeddingManager) {
+        this.embeddingManager = embeddingManager;
+    }
+
+    /**
+     * @param examples seed texts of some of the topics
+     * @return the nearest topic, or null if there are no topics or the text is empty
+     */
+    Result classify(String text, List<String> topics, Map<String, List<String>> examples) throws EmbeddingGenerationException {
+        List<TextEmbedding> embeddings = embeddingManager.generateEmbeddings(text);
+        if (embeddings.isEmpty() || topics.isEmpty()) {
+            return null;
+        }
+        EmbeddingVector query = mean(embeddings);
+        Map<String, EmbeddingVector> topicCentroids = centroids(topics, examples, embeddings.get(0).getEmbeddingModel());
+        if (topicCentroids.isEmpty()) {
+            return null;
+        }
+
+        String best = null;
+        double bestSimilarity = Double.NEGATIVE_INFINITY;
+        double secondSimilarity = Double.NEGATIVE_INFINITY;
+        for (Map.Entry<String, EmbeddingVector> centroid : topicCentroids.entrySet()) {
+            double similarity = VectorSimilarity.cosine(query, centroid.getValue());
+            if (similarity > bestSimilarity) {
+                secondSimilarity = bestSimilarity;
+                bestSimilarity = similarity;
+                best = centroid.getKey();
+            } else if (similarity > secondSimilarity) {
+                secondSimilarity = similarity;
+            }
+        }
+        // A single topic always wins
+        double margin = topicCentroids.size() > 1 ? bestSimilarity - secondSimilarity : Double.POSITIVE_INFINITY;
+        return new Result(best, bestSimilarity, margin);
+    }
+
+    /**
+     * Forgets the centroids, e.g. after the topics changed.
+     */
+    synchronized void invalidate() {
+        centroids = null;
+    }
+
+    private synchronized Map<String, EmbeddingVector> centroids(List<String> topics, Map<String, List<String>> examples, String model)
+            throws EmbeddingGenerationException {
+        if (centroids != null && centroidTopics.equals(topics) && centroidExamples.equals(examples) && Objects.equals(centroidModel, model)) {
+            return centroids;
+        }
+        Map<String, EmbeddingVector> computed = new LinkedHashMap<>();
+        for (String topic : topics) {
+            List<String> texts = new ArrayList<>();
+            texts.add(topic);
+            texts.addAll(examples.getOrDefault(topic, List.of()));
+            List<TextEmbedding> embeddings = embeddingManager.generateEmbeddings(texts);
+            if (!embeddings.isEmpty()) {
+                computed.put(topic, mean(embeddings));
+            }
+        }
+        centroids = computed;
+        centroidTopics = List.copyOf(topics);
+        centroidExamples = Map.copyOf(examples);
+        centroidModel = model;
+        return centroids;
+    }
+
+    /**
+     * @return the normalized mean of the vectors, e.g. of all chunks of a text
+     */
+    private static EmbeddingVector mean(List<TextEmbedding> embeddings) {
+        float[] sum = new float[embeddings.get(0).getVector().dimension()];
+        for (TextEmbedding embedding : embeddings) {
+            EmbeddingVector vector = embedding.getVector();
+            for (int i = 0; i < sum.length && i < vector.dimension(); i++) {
+                sum[i] += vector.get(i);
+            }
+        }
+        return EmbeddingVector.wrap(sum).normalize();
+    }
+}
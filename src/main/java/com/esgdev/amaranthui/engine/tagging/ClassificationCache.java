@@ -0,0 +1,141 @@
+package com.esgdev.amaranthui.engine.tagging;
+
+import io.github.ollama4j.exceptions.OllamaBaseException;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Bounded LRU cache of classifications that expire after a while.
+ * <p>
+ * The first caller of a key runs the classification; callers of the same key that arrive while it runs wait
+ * for its result instead of starting their own (single flight). A failed classification is not cached, and
+ * its exception is thrown to every waiting caller.
+ */
+class ClassificationCache {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Predicate<String> cacheable;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Runs a classification.
+     */
+    interface Loader {
+        String load() throws OllamaBaseException, IOException, InterruptedException;
+    }
+
+    private static class Entry {
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private volatile long expiresAt;
+    }
+
+    /**
+     * @param cacheable whether a result is kept once its classification finished, e.g. not an invalid answer
+     */
+    ClassificationCache(int maxEntries, long ttlSeconds, Predicate<String> cacheable) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.cacheable = cacheable;
+    }
+
+    String get(String key, Loader loader) throws OllamaBaseException, IOException, InterruptedException {
+        Entry entry;
+        boolean owner = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.result.isDone() && System.nanoTime() - entry.expiresAt >= 0) {
+                entries.remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry();
+                owner = true;
+                if (maxEntries > 0) {
+                    entries.put(key, entry);
+                    Iterator<Entry> eldest = entries.values().iterator();
+                    while (entries.size() > maxEntries) {
+                        eldest.next();
+                        eldest.remove();
+                    }
+                }
+            }
+        }
+        if (owner) {
+            misses.incrementAndGet();
+            return load(key, entry, loader);
+        }
+        (entry.result.isDone() ? hits : coalesced).incrementAndGet();
+        try {
+            return entry.result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof OllamaBaseException) {
+                throw (OllamaBaseException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw new InterruptedException("The shared classification was interrupted");
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Classification failed", cause);
+        }
+    }
+
+    private String load(String key, Entry entry, Loader loader) throws OllamaBaseException, IOException, InterruptedException {
+        String value;
+        try {
+            value = loader.load();
+        } catch (OllamaBaseException | IOException | InterruptedException | RuntimeException e) {
+            remove(key, entry);
+            entry.result.completeExceptionally(e);
+            throw e;
+        }
+        entry.expiresAt = System.nanoTime() + ttlNanos;
+        if (!cacheable.test(value)) {
+            remove(key, entry);
+        }
+        entry.result.complete(value);
+        return value;
+    }
+
+    private synchronized void remove(String key, Entry entry) {
+        entries.remove(key, entry);
+    }
+
+    /**
+     * Forgets all classifications; those still running are not cached when they finish.
+     */
+    synchronized void invalidate() {
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the calls that waited for a classification started by another caller
+     */
+    long getCoalesced() {
+        return coalesced.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+}
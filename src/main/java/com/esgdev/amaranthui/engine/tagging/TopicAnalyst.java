@@ -2,10 +2,17 @@ package com.esgdev.amaranthui.engine.tagging;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.esgdev.amaranthui.db.EmbeddingDao;
 import com.esgdev.amaranthui.engine.embedding.ChatChunkEmbedding;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingGenerationException;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingManagerInterface;
 import com.esgdev.amaranthui.engine.embedding.TextEmbedding;
 import io.github.ollama4j.OllamaAPI;
 import io.github.ollama4j.exceptions.OllamaBaseException;
@@ -21,6 +28,11 @@ public class TopicAnalyst {
     private float temperature = 0.1f;
     private int topK = 5;
     private float topP = 0.9f;
+    private final ClassificationCache cache;
+    private String cachedTaggingModel;
+    private final CentroidClassifier centroidClassifier;
+    private final AtomicLong centroidClassifications = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
 
     private static Logger logger = Logger.getLogger(TopicAnalyst.class.getName());
 
@@ -35,6 +47,19 @@ public class TopicAnalyst {
                         EmbeddingDao<TextEmbedding> textEmbeddingDao,
                         EmbeddingDao<ChatChunkEmbedding> chatChunkEmbeddingDao,
                         List<String> topics) {
+        this(ollamaAPI, configuration, textEmbeddingDao, chatChunkEmbeddingDao, topics, null);
+    }
+
+    /**
+     * @param textEmbeddingManager embeds the texts and topics for {@link TopicClassifierMode#CENTROID}, or null to
+     *                             always ask the tagging model
+     */
+    public TopicAnalyst(OllamaAPI ollamaAPI,
+                        TopicConfiguration configuration,
+                        EmbeddingDao<TextEmbedding> textEmbeddingDao,
+                        EmbeddingDao<ChatChunkEmbedding> chatChunkEmbeddingDao,
+                        List<String> topics,
+                        EmbeddingManagerInterface<TextEmbedding, String> textEmbeddingManager) {
         this.ollamaAPI = ollamaAPI;
         this.topicConfiguration = configuration;
         this.textEmbeddingDao = textEmbeddingDao;
@@ -43,15 +68,24 @@ public class TopicAnalyst {
         this.temperature = configuration.getTemperature();
         this.topK = configuration.getTopK();
         this.topP = configuration.getTopP();
+        // An answer outside the topic list is asked again next time
+        this.cache = new ClassificationCache(configuration.getClassificationCacheSize(),
+                configuration.getClassificationCacheTtlSeconds(), topic -> !"error".equals(topic));
+        this.centroidClassifier = textEmbeddingManager != null ? new CentroidClassifier(textEmbeddingManager) : null;
     }
 
     public void setPrompt(String prompt) {
         this.prompt = prompt;
+        cache.invalidate();
     }
 
     public void setTopics(List<String> topics) {
         this.topics.clear();
         this.topics.addAll(topics);
+        cache.invalidate();
+        if (centroidClassifier != null) {
+            centroidClassifier.invalidate();
+        }
     }
 
     public void setSamplingParams(float temperature, int topK, float topP) {
@@ -59,9 +93,75 @@ public class TopicAnalyst {
         this.temperature = temperature;
         this.topK = topK;
         this.topP = topP;
+        cache.invalidate();
     }
 
+    /**
+     * Classifies the text into one of the topics, or "error" if the model answers something else.
+     * <p>
+     * The same text, after trimming, collapsing whitespace and ignoring case, is only classified once within
+     * the cache lifetime, also when it is asked for several times at once, e.g. by the chat and the RAG search.
+     * <p>
+     * In {@link TopicClassifierMode#CENTROID} mode the text is assigned to the topic with the nearest embedding
+     * centroid, and the tagging model is only asked if the two nearest topics are closer than the centroid margin.
+     */
     public String classify(String text) throws OllamaBaseException, IOException, InterruptedException {
+        String taggingModel = topicConfiguration.getTaggingModel();
+        synchronized (this) {
+            if (!Objects.equals(taggingModel, cachedTaggingModel)) {
+                cache.invalidate();
+                cachedTaggingModel = taggingModel;
+            }
+        }
+        TopicClassifierMode mode = centroidClassifier != null ? topicConfiguration.getClassifierMode() : TopicClassifierMode.LLM;
+        String classifier = mode == TopicClassifierMode.CENTROID
+                ? mode + "/" + topicConfiguration.getCentroidMargin() + "/" + new TreeMap<>(topicConfiguration.getTopicExamples())
+                : mode.toString();
+        String key = String.join("\u0000", taggingModel, String.join(",", topics), prompt,
+                temperature + "/" + topK + "/" + topP, classifier, normalize(text));
+        if (mode == TopicClassifierMode.CENTROID) {
+            return cache.get(key, () -> classifyByCentroid(text));
+        }
+        return cache.get(key, () -> generate(text));
+    }
+
+    private String classifyByCentroid(String text) throws OllamaBaseException, IOException, InterruptedException {
+        CentroidClassifier.Result result = null;
+        try {
+            result = centroidClassifier.classify(text, List.copyOf(topics), topicConfiguration.getTopicExamples());
+        } catch (EmbeddingGenerationException e) {
+            logger.log(Level.WARNING, "Centroid classification failed, asking the tagging model", e);
+        }
+        if (result != null && result.getMargin() >= topicConfiguration.getCentroidMargin()) {
+            centroidClassifications.incrementAndGet();
+            return result.getTopic();
+        }
+        long fallbackCount = fallbacks.incrementAndGet();
+        logger.info("Topic fallback to the tagging model (" + fallbackCount + " of "
+                + (fallbackCount + centroidClassifications.get()) + " classifications)"
+                + (result != null ? ", margin " + result.getMargin() + " between the nearest topics" : ""));
+        return generate(text);
+    }
+
+    /**
+     * @return the texts classified by the nearest topic centroid alone
+     */
+    public long getCentroidClassifications() {
+        return centroidClassifications.get();
+    }
+
+    /**
+     * @return the texts of the centroid mode that the tagging model had to classify
+     */
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    private static String normalize(String text) {
+        return text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private String generate(String text) throws OllamaBaseException, IOException, InterruptedException {
         OptionsBuilder builder = new OptionsBuilder();
         builder.setTemperature(temperature);
         builder.setTopK(topK);
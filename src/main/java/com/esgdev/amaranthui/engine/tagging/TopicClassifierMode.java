@@ -0,0 +1,20 @@
+package com.esgdev.amaranthui.engine.tagging;
+
+/**
+ * How the topic analyst assigns a topic to a text.
+ */
+public enum TopicClassifierMode {
+    /**
+     * Asks the tagging model for every text.
+     */
+    LLM,
+    /**
+     * Picks the topic with the nearest embedding centroid, and asks the tagging model only if the two nearest
+     * topics are too close to tell apart.
+     */
+    CENTROID;
+
+    public static TopicClassifierMode fromString(String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+}
@@ -1,5 +1,9 @@
 package com.esgdev.amaranthui.engine.tagging;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Configuration class for topic-related settings.
  */
@@ -8,6 +12,11 @@ public class TopicConfiguration {
     private float temperature;
     private float topP;
     private int topK;
+    private int classificationCacheSize = 256;
+    private long classificationCacheTtlSeconds = 600;
+    private TopicClassifierMode classifierMode = TopicClassifierMode.LLM;
+    private double centroidMargin = 0.03;
+    private final Map<String, List<String>> topicExamples = new HashMap<>();
 
     public TopicConfiguration(String taggingModel, float temperature, float topP, int topK) {
         this.taggingModel = taggingModel;
@@ -47,4 +56,73 @@ public class TopicConfiguration {
     public void setTopK(int topK) {
         this.topK = topK;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return the number of classified texts remembered, 0 to only share running classifications
+     */
+    public int getClassificationCacheSize() {
+        return classificationCacheSize;
+    }
+
+    public void setClassificationCacheSize(int classificationCacheSize) {
+        if (classificationCacheSize < 0) {
+            throw new IllegalArgumentException("Classification cache size must not be negative.");
+        }
+        this.classificationCacheSize = classificationCacheSize;
+    }
+
+    /**
+     * @return how long a classification is remembered
+     */
+    public long getClassificationCacheTtlSeconds() {
+        return classificationCacheTtlSeconds;
+    }
+
+    public void setClassificationCacheTtlSeconds(long classificationCacheTtlSeconds) {
+        if (classificationCacheTtlSeconds < 0) {
+            throw new IllegalArgumentException("Classification cache lifetime must not be negative.");
+        }
+        this.classificationCacheTtlSeconds = classificationCacheTtlSeconds;
+    }
+
+    public TopicClassifierMode getClassifierMode() {
+        return classifierMode;
+    }
+
+    public void setClassifierMode(TopicClassifierMode classifierMode) {
+        if (classifierMode == null) {
+            throw new IllegalArgumentException("Topic classifier mode must not be null.");
+        }
+        this.classifierMode = classifierMode;
+    }
+
+    /**
+     * @return how much more similar the nearest topic centroid must be than the second nearest, otherwise the
+     * tagging model decides
+     */
+    public double getCentroidMargin() {
+        return centroidMargin;
+    }
+
+    public void setCentroidMargin(double centroidMargin) {
+        if (centroidMargin < 0 || Double.isNaN(centroidMargin)) {
+            throw new IllegalArgumentException("Centroid margin must not be negative.");
+        }
+        this.centroidMargin = centroidMargin;
+    }
+
+    /**
+     * @return the seed texts of each topic, embedded together with the topic name into its centroid
+     */
+    public synchronized Map<String, List<String>> getTopicExamples() {
+        return Map.copyOf(topicExamples);
+    }
+
+    public synchronized void setTopicExamples(String topic, List<String> examples) {
+        if (examples.isEmpty()) {
+            topicExamples.remove(topic);
+        } else {
+            topicExamples.put(topic, List.copyOf(examples));
+        }
+    }
+}
@@ -101,9 +101,7 @@ public class ChatPanel extends JPanel implements ChatHistory.ChatHistoryObserver
         chatEmbeddingsCheckbox.setToolTipText("Include chat history context");
 
         textEmbeddingsCheckbox = new JCheckBox("Text");
-        //textEmbeddingsCheckbox.setToolTipText("Include generic knowledge");
-        textEmbeddingsCheckbox.setToolTipText("TODO: Include generic knowledge");
-        textEmbeddingsCheckbox.setEnabled(false);
+        textEmbeddingsCheckbox.setToolTipText("Include generic knowledge, see File > Ingest Documents");
 
         JPanel checkboxPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         checkboxPanel.add(chatEmbeddingsCheckbox);
@@ -1,12 +1,19 @@
 package com.esgdev.amaranthui.ui;
 
 import com.esgdev.amaranthui.engine.ModelClient;
+import com.esgdev.amaranthui.engine.embedding.DocumentIngestor;
 
 import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class FileMenu extends JMenuBar {
+    private final Logger logger = Logger.getLogger(FileMenu.class.getName());
+
     public FileMenu(ModelClient modelClient, MainFrame mainFrame) {
         // Create the File menu
         JMenu fileMenu = new JMenu("File");
@@ -23,6 +30,11 @@ public class FileMenu extends JMenuBar {
         });
         fileMenu.add(newChatItem);
 
+        // Add "Ingest Documents" menu item
+        JMenuItem ingestItem = new JMenuItem("Ingest Documents...");
+        ingestItem.addActionListener(e -> ingestDocuments(modelClient, mainFrame, ingestItem));
+        fileMenu.add(ingestItem);
+
         // Add "Quit" menu item
         JMenuItem quitItem = new JMenuItem("Quit");
         quitItem.addActionListener(new ActionListener() {
@@ -37,4 +49,50 @@ public class FileMenu extends JMenuBar {
         // Add the File menu to the menu bar
         add(fileMenu);
     }
-}
\ No newline at end of file
+
+    /**
+     * Loads the text files of a chosen directory into the knowledge base in the background, with a cancellable
+     * progress dialog.
+     */
+    private void ingestDocuments(ModelClient modelClient, MainFrame mainFrame, JMenuItem ingestItem) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+        chooser.setDialogTitle("Ingest Documents");
+        if (chooser.showOpenDialog(mainFrame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        ProgressMonitor monitor = new ProgressMonitor(mainFrame, "Ingesting " + chooser.getSelectedFile(), "", 0, 1000);
+        monitor.setMillisToDecideToPopup(0);
+        ingestItem.setEnabled(false);
+        SwingWorker<DocumentIngestor.Progress, DocumentIngestor.Progress> worker = new SwingWorker<>() {
+            @Override
+            protected DocumentIngestor.Progress doInBackground() throws Exception {
+                return modelClient.ingestDocuments(chooser.getSelectedFile().toPath(), this::publish);
+            }
+
+            @Override
+            protected void process(List<DocumentIngestor.Progress> chunks) {
+                DocumentIngestor.Progress progress = chunks.get(chunks.size() - 1);
+                if (monitor.isCanceled()) {
+                    modelClient.cancelIngestion();
+                }
+                long total = Math.max(1, progress.getBytesTotal());
+                monitor.setProgress((int) Math.min(999, progress.getBytesDone() * 1000 / total));
+                monitor.setNote(progress.toString());
+            }
+
+            @Override
+            protected void done() {
+                monitor.close();
+                ingestItem.setEnabled(true);
+                try {
+                    JOptionPane.showMessageDialog(mainFrame, "Ingestion ended: " + get(), "Info", JOptionPane.INFORMATION_MESSAGE);
+                } catch (InterruptedException | ExecutionException e) {
+                    logger.log(Level.SEVERE, "Failed to ingest documents", e);
+                    JOptionPane.showMessageDialog(mainFrame, "Failed to ingest documents: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        worker.execute();
+    }
+}
@@ -0,0 +1,60 @@
+package com.esgdev.amaranthui.engine;
+
+import com.esgdev.amaranthui.engine.embedding.EmbeddingVector;
+import com.esgdev.amaranthui.engine.embedding.TextEmbedding;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EmbeddingVectorTest {
+
+    @Test
+    public void testNormIsPrecomputedAndNormalizeKeepsDirection() {
+        EmbeddingVector vector = EmbeddingVector.of(new float[]{3f, 4f});
+        assertEquals(5f, vector.norm(), 1e-6);
+
+        EmbeddingVector unit = vector.normalize();
+        assertEquals(1f, unit.norm(), 1e-6);
+        assertEquals(0.6f, unit.get(0), 1e-6);
+        assertSame(unit, unit.normalize());
+        assertEquals(1.0, vector.cosine(unit), 1e-6);
+    }
+
+    @Test
+    public void testZeroVectorAndDimensionMismatch() {
+        EmbeddingVector zero = EmbeddingVector.of(new float[]{0f, 0f});
+        assertSame(zero, zero.normalize());
+        assertTrue(Double.isNaN(zero.cosine(EmbeddingVector.of(new float[]{1f, 0f}))));
+        assertTrue(Double.isNaN(zero.dot(EmbeddingVector.of(new float[]{1f}))));
+    }
+
+    @Test
+    public void testValuesAreCopied() {
+        float[] values = {1f, 2f};
+        EmbeddingVector vector = EmbeddingVector.of(values);
+        values[0] = 9f;
+        vector.toArray()[1] = 9f;
+        assertEquals(1f, vector.get(0), 0f);
+        assertEquals(2f, vector.get(1), 0f);
+    }
+
+    @Test
+    public void testListAccessorsAreCompatible() {
+        TextEmbedding embedding = new TextEmbedding("chunk", List.of(1.0, 0.5), new Date(), new Date(), "mock-model", 0.0);
+        assertEquals(List.of(1.0, 0.5), embedding.getEmbedding());
+        assertEquals(2, embedding.getVector().dimension());
+        try {
+            embedding.getEmbedding().set(0, 2.0);
+            fail("The list view is read-only");
+        } catch (UnsupportedOperationException expected) {
+        }
+
+        embedding.setEmbedding(List.of(0.0, 2.0));
+        assertEquals(2f, embedding.getVector().norm(), 1e-6);
+        // The view round-trips without copying
+        assertSame(embedding.getVector(), EmbeddingVector.of(embedding.getEmbedding()));
+    }
+}
@@ -0,0 +1,83 @@
+package com.esgdev.amaranthui.engine;
+
+import com.esgdev.amaranthui.engine.embedding.EmbeddingConfiguration;
+import com.esgdev.amaranthui.engine.embedding.StreamingChunker;
+import com.esgdev.amaranthui.engine.embedding.TextEmbeddingManager;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StreamingChunkerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Exposes the chunking of the embedding managers, which the streaming chunker must reproduce.
+     */
+    private static class Splitter extends TextEmbeddingManager {
+        Splitter(EmbeddingConfiguration configuration) {
+            super(null, null, configuration);
+        }
+
+        List<String> split(String text) {
+            return splitTextIntoChunks(text);
+        }
+    }
+
+    private static String randomText(Random random, int length) {
+        // Includes characters of two to four UTF-8 bytes, the last ones as surrogate pairs
+        String[] symbols = {"a", "b", " ", "\n", "é", "ő", "€", "中", "😀"};
+        StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            text.append(symbols[random.nextInt(symbols.length)]);
+        }
+        return text.toString();
+    }
+
+    private static List<String> drain(StreamingChunker chunker) throws IOException {
+        List<String> chunks = new ArrayList<>();
+        try (chunker) {
+            CharSequence chunk;
+            while ((chunk = chunker.next()) != null) {
+                chunks.add(chunk.toString());
+            }
+        }
+        return chunks;
+    }
+
+    @Test
+    public void testProducesTheSameChunksAsSplittingTheWholeText() throws IOException {
+        Random random = new Random(7);
+        int[][] settings = {{512, 128}, {100, 20}, {10, 9}, {3000, 0}};
+        int[] lengths = {0, 1, 9, 10, 11, 100, 513, 8191, 8192, 30_017};
+        for (int[] setting : settings) {
+            EmbeddingConfiguration configuration = new EmbeddingConfiguration(setting[0], setting[1], "model", null, null, null);
+            Splitter splitter = new Splitter(configuration);
+            for (int length : lengths) {
+                String text = randomText(random, length);
+                List<String> expected = splitter.split(text);
+                String label = "chunk size " + setting[0] + ", overlap " + setting[1] + ", length " + text.length();
+
+                assertEquals(label, expected, drain(StreamingChunker.of(new StringReader(text), configuration)));
+
+                Path file = folder.newFile().toPath();
+                Files.writeString(file, text, StandardCharsets.UTF_8);
+                assertEquals(label, expected, drain(StreamingChunker.map(file, StandardCharsets.UTF_8, configuration)));
+                // Small regions split multi-byte characters between two mappings
+                assertEquals(label, expected, drain(StreamingChunker.map(file, StandardCharsets.UTF_8, configuration, 17)));
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.esgdev.amaranthui.engine;
+
+import com.esgdev.amaranthui.engine.tagging.TopicAnalyst;
+import com.esgdev.amaranthui.engine.tagging.TopicConfiguration;
+import io.github.ollama4j.OllamaAPI;
+import io.github.ollama4j.models.response.OllamaResult;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+public class TopicAnalystTest {
+
+    /**
+     * Answers "fruit" for texts about bananas and "technology" for everything else, once the gate opens.
+     */
+    private OllamaAPI mockOllamaAPI(AtomicInteger calls, CountDownLatch gate) throws Exception {
+        OllamaAPI ollamaAPI = Mockito.mock(OllamaAPI.class);
+        when(ollamaAPI.generate(anyString(), anyString(), anyBoolean(), any())).thenAnswer(invocation -> {
+            calls.incrementAndGet();
+            gate.await(10, TimeUnit.SECONDS);
+            String request = invocation.getArgument(1);
+            return new OllamaResult(request.contains("banana") ? "Fruit." : " Technology\n", 1, 200);
+        });
+        return ollamaAPI;
+    }
+
+    private TopicAnalyst createAnalyst(OllamaAPI ollamaAPI, TopicConfiguration configuration) {
+        TopicAnalyst analyst = new TopicAnalyst(ollamaAPI, configuration, null, null, new ArrayList<>());
+        analyst.setTopics(List.of("technology", "science"));
+        return analyst;
+    }
+
+    @Test
+    public void testClassifiesTheSameTextOnce() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        TopicConfiguration configuration = new TopicConfiguration("tagger", 0.1f, 0.9f, 5);
+        TopicAnalyst analyst = createAnalyst(mockOllamaAPI(calls, new CountDownLatch(0)), configuration);
+
+        assertEquals("technology", analyst.classify("How do I  write a compiler?"));
+        assertEquals("technology", analyst.classify("  how do i write a COMPILER? "));
+        assertEquals(1, calls.get());
+
+        // Answers outside the topic list are not remembered
+        assertEquals("error", analyst.classify("I like banana bread"));
+        assertEquals("error", analyst.classify("I like banana bread"));
+        assertEquals(3, calls.get());
+
+        // Changing the topics, the prompt or the tagging model forgets the classifications
+        analyst.setTopics(List.of("technology", "science", "fruit"));
+        assertEquals("fruit", analyst.classify("I like banana bread"));
+        assertEquals("technology", analyst.classify("How do I write a compiler?"));
+        assertEquals(5, calls.get());
+        configuration.setTaggingModel("other-tagger");
+        analyst.classify("How do I write a compiler?");
+        assertEquals(6, calls.get());
+        analyst.setPrompt("Topics: %s. Text: %s. Topic:");
+        analyst.classify("How do I write a compiler?");
+        assertEquals(7, calls.get());
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneClassification() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch gate = new CountDownLatch(1);
+        TopicAnalyst analyst = createAnalyst(mockOllamaAPI(calls, gate), new TopicConfiguration("tagger", 0.1f, 0.9f, 5));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> analyst.classify("Which GPU should I buy?")));
+            }
+            // Let every caller arrive while the first classification is still running
+            long deadline = System.currentTimeMillis() + 5000;
+            while (calls.get() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            Thread.sleep(100);
+            gate.countDown();
+            for (Future<String> result : results) {
+                assertEquals("technology", result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, calls.get());
+    }
+}
@@ -0,0 +1,107 @@
+package com.esgdev.amaranthui.engine;
+
+import com.esgdev.amaranthui.engine.embedding.EmbeddingConfiguration;
+import com.esgdev.amaranthui.engine.embedding.TextEmbeddingManager;
+import com.esgdev.amaranthui.engine.tagging.TopicAnalyst;
+import com.esgdev.amaranthui.engine.tagging.TopicClassifierMode;
+import com.esgdev.amaranthui.engine.tagging.TopicConfiguration;
+import io.github.ollama4j.OllamaAPI;
+import io.github.ollama4j.models.embeddings.OllamaEmbedResponseModel;
+import io.github.ollama4j.models.response.OllamaResult;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+public class TopicCentroidClassifierTest {
+
+    /**
+     * Embeds texts about computers and about atoms along separate axes; the tagging model always answers "science".
+     */
+    private OllamaAPI mockOllamaAPI(AtomicInteger embeddedChunks, AtomicInteger generateCalls) throws Exception {
+        OllamaAPI ollamaAPI = Mockito.mock(OllamaAPI.class);
+        when(ollamaAPI.embed(anyString(), anyList())).thenAnswer(invocation -> {
+            List<String> chunks = invocation.getArgument(1);
+            embeddedChunks.addAndGet(chunks.size());
+            List<List<Double>> embeddings = new ArrayList<>();
+            for (String chunk : chunks) {
+                String text = chunk.toLowerCase();
+                boolean technology = text.contains("technology") || text.contains("compiler") || text.contains("gpu");
+                boolean science = text.contains("science") || text.contains("atom") || text.contains("physics");
+                embeddings.add(List.of(technology ? 1.0 : 0.0, science ? 1.0 : 0.0, 0.1));
+            }
+            OllamaEmbedResponseModel response = new OllamaEmbedResponseModel();
+            response.setEmbeddings(embeddings);
+            return response;
+        });
+        when(ollamaAPI.generate(anyString(), anyString(), anyBoolean(), any())).thenAnswer(invocation -> {
+            generateCalls.incrementAndGet();
+            return new OllamaResult("Science", 1, 200);
+        });
+        return ollamaAPI;
+    }
+
+    private TopicAnalyst createAnalyst(OllamaAPI ollamaAPI, TopicConfiguration configuration) {
+        EmbeddingConfiguration embeddingConfiguration = new EmbeddingConfiguration(512, 50, "mock-model", null, "sa", "");
+        TextEmbeddingManager manager = new TextEmbeddingManager(null, ollamaAPI, embeddingConfiguration);
+        TopicAnalyst analyst = new TopicAnalyst(ollamaAPI, configuration, null, null, new ArrayList<>(), manager);
+        analyst.setTopics(List.of("technology", "science"));
+        return analyst;
+    }
+
+    @Test
+    public void testNearestCentroidWithoutTheTaggingModel() throws Exception {
+        AtomicInteger embeddedChunks = new AtomicInteger();
+        AtomicInteger generateCalls = new AtomicInteger();
+        TopicConfiguration configuration = new TopicConfiguration("tagger", 0.1f, 0.9f, 5);
+        configuration.setClassifierMode(TopicClassifierMode.CENTROID);
+        configuration.setTopicExamples("science", List.of("What is an atom made of?"));
+        TopicAnalyst analyst = createAnalyst(mockOllamaAPI(embeddedChunks, generateCalls), configuration);
+
+        assertEquals("technology", analyst.classify("How do I write a compiler?"));
+        // Two topic names, one example and the text
+        assertEquals(4, embeddedChunks.get());
+        assertEquals("science", analyst.classify("Explain quantum physics"));
+        assertEquals("technology", analyst.classify("Which GPU should I buy?"));
+        // The centroids are embedded once
+        assertEquals(6, embeddedChunks.get());
+        assertEquals(0, generateCalls.get());
+        assertEquals(3, analyst.getCentroidClassifications());
+        assertEquals(0, analyst.getFallbacks());
+    }
+
+    @Test
+    public void testAmbiguousTextFallsBackToTheTaggingModel() throws Exception {
+        AtomicInteger embeddedChunks = new AtomicInteger();
+        AtomicInteger generateCalls = new AtomicInteger();
+        TopicConfiguration configuration = new TopicConfiguration("tagger", 0.1f, 0.9f, 5);
+        configuration.setClassifierMode(TopicClassifierMode.CENTROID);
+        TopicAnalyst analyst = createAnalyst(mockOllamaAPI(embeddedChunks, generateCalls), configuration);
+
+        // Equally close to both topics
+        assertEquals("science", analyst.classify("A GPU simulation of atoms"));
+        assertEquals(1, generateCalls.get());
+        assertEquals(1, analyst.getFallbacks());
+        assertEquals(0, analyst.getCentroidClassifications());
+
+        // Without a margin the nearest topic is always taken
+        configuration.setCentroidMargin(0);
+        analyst.classify("How do I write a compiler?");
+        assertEquals(1, generateCalls.get());
+
+        // The LLM mode ignores the centroids
+        configuration.setClassifierMode(TopicClassifierMode.LLM);
+        assertEquals("science", analyst.classify("How do I write a compiler?"));
+        assertEquals(2, generateCalls.get());
+        assertEquals(1, analyst.getFallbacks());
+    }
+}
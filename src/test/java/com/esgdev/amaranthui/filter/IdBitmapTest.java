@@ -0,0 +1,97 @@
+package com.esgdev.amaranthui.filter;
+
+import com.esgdev.amaranthui.db.filter.IdBitmap;
+import com.esgdev.amaranthui.db.filter.MetadataIndex;
+import com.esgdev.amaranthui.db.filter.SearchFilter;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IdBitmapTest {
+
+    @Test
+    public void testMatchesBitSetAcrossContainerConversions() {
+        Random random = new Random(7);
+        IdBitmap bitmap = new IdBitmap();
+        BitSet expected = new BitSet();
+        // Dense enough in the first container to switch to a bitset, and back again after the removals
+        for (int i = 0; i < 20000; i++) {
+            int id = random.nextInt(70000);
+            bitmap.add(id);
+            expected.set(id);
+        }
+        assertEquals(expected.cardinality(), bitmap.cardinality());
+        for (int i = 0; i < 60000; i++) {
+            int id = random.nextInt(70000);
+            bitmap.remove(id);
+            expected.clear(id);
+        }
+        assertEquals(expected.cardinality(), bitmap.cardinality());
+        List<Long> ids = new ArrayList<>();
+        bitmap.forEach(ids::add);
+        List<Long> expectedIds = new ArrayList<>();
+        expected.stream().forEach(id -> expectedIds.add((long) id));
+        assertEquals(expectedIds, ids);
+    }
+
+    @Test
+    public void testAndOr() {
+        IdBitmap even = new IdBitmap();
+        IdBitmap thirds = new IdBitmap();
+        for (long id = 0; id < 200000; id++) {
+            if (id % 2 == 0) {
+                even.add(id);
+            }
+            if (id % 3 == 0) {
+                thirds.add(id);
+            }
+        }
+        IdBitmap sixths = even.and(thirds);
+        assertEquals(33334, sixths.cardinality());
+        assertTrue(sixths.contains(199998));
+        assertFalse(sixths.contains(199997));
+
+        IdBitmap union = even.copy();
+        union.or(thirds);
+        assertEquals(100000 + 66667 - 33334, union.cardinality());
+        assertEquals(100000, even.cardinality());
+    }
+
+    @Test
+    public void testMetadataIndexIntersectsConditions() {
+        MetadataIndex index = new MetadataIndex();
+        long day = 24L * 60 * 60 * 1000;
+        index.put(1, "model", new Date(10 * day), "sports", "user", 1L, 7L);
+        index.put(2, "model", new Date(11 * day), "sports", "assistant", 1L, 7L);
+        index.put(3, "model", new Date(12 * day), "music", "user", 2L, 7L);
+        index.put(4, "other-model", new Date(11 * day), "sports", "user", 1L, 7L);
+
+        assertArrayEquals(new long[]{1, 2, 3}, index.match("model", null).toArray());
+        assertArrayEquals(new long[]{1, 2}, index.match("model", SearchFilter.conversation(1L)).toArray());
+
+        SearchFilter filter = new SearchFilter();
+        filter.setTopic("sports");
+        filter.setRole("user");
+        assertArrayEquals(new long[]{1}, index.match("model", filter).toArray());
+
+        SearchFilter range = new SearchFilter();
+        range.setCreatedFrom(new Date(10 * day + 1));
+        range.setCreatedTo(new Date(12 * day));
+        assertArrayEquals(new long[]{2, 3}, index.match("model", range).toArray());
+
+        // Updates move the row to its new values and keep the creation date
+        index.put(2, "model", null, "music", "assistant", 2L, 7L);
+        assertArrayEquals(new long[]{1}, index.match("model", SearchFilter.conversation(1L)).toArray());
+        assertArrayEquals(new long[]{2, 3}, index.match("model", range).toArray());
+
+        index.remove(3);
+        assertArrayEquals(new long[]{2}, index.match("model", SearchFilter.conversation(2L)).toArray());
+        assertTrue(index.match("missing-model", null).isEmpty());
+    }
+}
@@ -0,0 +1,42 @@
+package com.esgdev.amaranthui.h2;
+
+import com.esgdev.amaranthui.db.h2.CachedKeyValueStore;
+import com.esgdev.amaranthui.db.h2.KeyValueStoreDaoH2;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CachedKeyValueStoreTest {
+    private static final String URL = "jdbc:h2:mem:cached_key_value_test;DB_CLOSE_DELAY=-1";
+
+    @Test
+    public void testWritesGoThroughAndNotifyListeners() {
+        KeyValueStoreDaoH2 dao = new KeyValueStoreDaoH2(URL, "sa", "");
+        dao.saveValue("chat_model", "stored-model");
+        dao.saveValue("history", "12");
+
+        CachedKeyValueStore store = new CachedKeyValueStore(dao);
+        assertEquals("stored-model", store.getValue("chat_model"));
+        assertEquals(12, store.getInt("history", 10));
+        assertEquals(10, store.getInt("missing", 10));
+        assertEquals("fallback", store.getValue("missing", "fallback"));
+
+        List<String> applied = new ArrayList<>();
+        store.bind("chat_model", applied::add);
+        assertEquals(List.of("stored-model"), applied);
+
+        assertTrue(store.saveValue("chat_model", "new-model"));
+        // Storing the same value again is not a change
+        assertTrue(store.saveValue("chat_model", "new-model"));
+        assertEquals(List.of("stored-model", "new-model"), applied);
+        assertEquals("new-model", dao.getValue("chat_model"));
+
+        assertTrue(store.saveBoolean("verbose", true));
+        assertTrue(store.getBoolean("verbose", false));
+        // A new cache loads what the previous one wrote
+        assertEquals("new-model", new CachedKeyValueStore(dao).getValue("chat_model"));
+    }
+}
@@ -0,0 +1,80 @@
+package com.esgdev.amaranthui.h2;
+
+import com.esgdev.amaranthui.db.h2.ConnectionPool;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.*;
+
+public class ConnectionPoolTest {
+    private static final String URL = "jdbc:h2:mem:connection_pool_test;DB_CLOSE_DELAY=-1";
+
+    @Test
+    public void testConnectionsAndStatementsAreReused() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool(URL, "sa", "", 2, 1000)) {
+            try (Connection connection = pool.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS pooled (id INT PRIMARY KEY, name VARCHAR)");
+                statement.execute("MERGE INTO pooled VALUES (1, 'one'), (2, 'two')");
+                assertEquals(1, pool.getActiveConnections());
+            }
+            assertEquals(0, pool.getActiveConnections());
+            assertEquals(1, pool.getIdleConnections());
+
+            for (int i = 0; i < 3; i++) {
+                try (Connection connection = pool.getConnection();
+                     PreparedStatement statement = connection.prepareStatement("SELECT name FROM pooled WHERE id = ?")) {
+                    statement.setInt(1, 1);
+                    try (ResultSet rs = statement.executeQuery()) {
+                        assertTrue(rs.next());
+                        assertEquals("one", rs.getString(1));
+                    }
+                }
+            }
+            assertEquals(1, pool.getIdleConnections());
+            assertEquals(1, pool.getStatementCacheMisses());
+            assertEquals(2, pool.getStatementCacheHits());
+
+            // The same query prepared while the cached statement is still open gets its own statement
+            try (Connection connection = pool.getConnection();
+                 PreparedStatement outer = connection.prepareStatement("SELECT name FROM pooled WHERE id = ?");
+                 PreparedStatement inner = connection.prepareStatement("SELECT name FROM pooled WHERE id = ?")) {
+                outer.setInt(1, 1);
+                inner.setInt(1, 2);
+                try (ResultSet first = outer.executeQuery(); ResultSet second = inner.executeQuery()) {
+                    assertTrue(first.next());
+                    assertTrue(second.next());
+                    assertEquals("one", first.getString(1));
+                    assertEquals("two", second.getString(1));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWaitsForAFreeConnectionUpToTheTimeout() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool(URL, "sa", "", 1, 50)) {
+            Connection held = pool.getConnection();
+            held.setAutoCommit(false);
+            try {
+                pool.getConnection();
+                fail("The pool has only one connection");
+            } catch (SQLException e) {
+                assertTrue(e.getMessage().contains("No free connection"));
+            }
+            held.close();
+            assertTrue(held.isClosed());
+            try (Connection connection = pool.getConnection()) {
+                // A returned connection is reset to auto-commit
+                assertTrue(connection.getAutoCommit());
+            }
+            assertEquals(2, pool.getAcquisitions());
+            assertTrue(pool.getMaxWaitMillis() >= 40);
+        }
+    }
+}
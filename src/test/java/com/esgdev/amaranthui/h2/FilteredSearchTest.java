@@ -0,0 +1,54 @@
+package com.esgdev.amaranthui.h2;
+
+import com.esgdev.amaranthui.db.filter.SearchFilter;
+import com.esgdev.amaranthui.db.h2.ChatChunkEmbeddingDaoH2;
+import com.esgdev.amaranthui.engine.embedding.ChatChunkEmbedding;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingConfiguration;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FilteredSearchTest {
+    private static final String URL = "jdbc:h2:mem:filtered_search_test;DB_CLOSE_DELAY=-1";
+
+    private static ChatChunkEmbedding chunk(String text, List<Double> vector, Long conversationId, String role) {
+        return new ChatChunkEmbedding(text, vector, new Date(), new Date(), conversationId, 1L, role, null, "topic",
+                "mock-model", 0.0);
+    }
+
+    @Test
+    public void testFilteredSearchScoresOnlyMatchingRows() {
+        EmbeddingConfiguration configuration = new EmbeddingConfiguration(512, 50, "mock-model", URL, "sa", "");
+        ChatChunkEmbeddingDaoH2 dao = new ChatChunkEmbeddingDaoH2(configuration);
+        ChatChunkEmbedding best = chunk("best", List.of(1.0, 0.0), 1L, "user");
+        ChatChunkEmbedding near = chunk("near", List.of(1.0, 0.5), 2L, "user");
+        ChatChunkEmbedding far = chunk("far", List.of(0.0, 1.0), 2L, "assistant");
+        dao.addEmbedding(List.of(best, near, far));
+
+        ChatChunkEmbedding query = chunk("query", List.of(1.0, 0.0), null, null);
+        List<ChatChunkEmbedding> hits = dao.findEmbeddingsNear(query, SearchFilter.conversation(2L), 5);
+        assertEquals(2, hits.size());
+        assertEquals("near", hits.get(0).getChunk());
+        assertEquals("far", hits.get(1).getChunk());
+        assertEquals(1.0 / Math.sqrt(1.25), hits.get(0).getSimilarity(), 1e-6);
+
+        SearchFilter assistant = SearchFilter.conversation(2L);
+        assistant.setRole("assistant");
+        assertEquals("far", dao.findEmbeddingsNear(query, assistant, 5).get(0).getChunk());
+
+        // Writes keep the bitmaps in sync
+        best.setConversationId(2L);
+        dao.updateEmbedding(best);
+        assertEquals("best", dao.findEmbeddingsNear(query, SearchFilter.conversation(2L), 1).get(0).getChunk());
+        dao.deleteEmbedding(best.getId());
+        assertEquals("near", dao.findEmbeddingsNear(query, SearchFilter.conversation(2L), 1).get(0).getChunk());
+
+        // A new DAO builds the bitmaps from the table
+        ChatChunkEmbeddingDaoH2 reopened = new ChatChunkEmbeddingDaoH2(configuration);
+        assertEquals(2, reopened.findEmbeddingsNear(query, SearchFilter.conversation(2L), 5).size());
+        assertTrue(reopened.findEmbeddingsNear(query, SearchFilter.conversation(1L), 5).isEmpty());
+    }
+}
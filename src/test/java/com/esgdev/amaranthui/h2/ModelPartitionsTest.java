@@ -0,0 +1,173 @@
+package com.esgdev.amaranthui.h2;
+
+import com.esgdev.amaranthui.db.filter.SearchFilter;
+import com.esgdev.amaranthui.db.h2.TextEmbeddingDaoH2;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingConfiguration;
+import com.esgdev.amaranthui.engine.embedding.TextEmbedding;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ModelPartitionsTest {
+
+    private static TextEmbedding embedding(String text, List<Double> vector, String model) {
+        return new TextEmbedding(text, vector, new Date(), new Date(), model, 0.0);
+    }
+
+    private static long count(String url, String sql) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    @Test
+    public void testModelsAreStoredInSeparatePartitions() throws SQLException {
+        String url = "jdbc:h2:mem:model_partitions_test;DB_CLOSE_DELAY=-1";
+        TextEmbeddingDaoH2 dao = new TextEmbeddingDaoH2(new EmbeddingConfiguration(512, 50, "small", url, "sa", ""));
+        TextEmbedding small = embedding("small", List.of(1.0, 0.0), "small");
+        TextEmbedding large = embedding("large", List.of(1.0, 0.0, 0.0), "large");
+        dao.addEmbedding(List.of(small, large));
+
+        assertEquals(2, count(url, "SELECT COUNT(*) FROM embedding_partitions WHERE base_table = 'embeddings'"));
+        assertEquals(3, count(url, "SELECT dimension FROM embedding_partitions WHERE embedding_model = 'large'"));
+        // The view still shows all rows under the old table name
+        assertEquals(2, count(url, "SELECT COUNT(*) FROM embeddings"));
+        assertNotEquals(small.getId(), large.getId());
+
+        // A search reads only the partition of its model, so vectors of another dimension never show up
+        List<TextEmbedding> hits = dao.findEmbeddingsNear(embedding("query", List.of(1.0, 0.0), "small"), 5);
+        assertEquals(1, hits.size());
+        assertEquals("small", hits.get(0).getChunk());
+        assertTrue(dao.findEmbeddingsNear(embedding("query", List.of(1.0, 0.0), "unknown"), 5).isEmpty());
+
+        // Changing the model moves the row to the other partition, keeping its id
+        small.setEmbeddingModel("large");
+        small.setVector(embedding("small", List.of(0.0, 1.0, 0.0), "large").getVector());
+        assertTrue(dao.updateEmbedding(small));
+        assertEquals("large", dao.getEmbeddingById(small.getId()).getEmbeddingModel());
+        assertEquals(2, dao.findEmbeddingsNear(embedding("query", List.of(1.0, 0.0, 0.0), "large"), 5).size());
+
+        // An id that no partition holds is neither updated nor moved, and nothing is written for it
+        TextEmbedding missing = embedding("missing", List.of(0.0, 0.0, 1.0), "large");
+        missing.setId(small.getId() + large.getId());
+        assertFalse(dao.updateEmbedding(missing));
+        assertNull(dao.getEmbeddingById(missing.getId()));
+        assertEquals(2, dao.findEmbeddingsNear(embedding("query", List.of(1.0, 0.0, 0.0), "large"), 5).size());
+
+        // A range delete reaches every partition and leaves the ids outside the range
+        TextEmbedding kept = embedding("kept", List.of(1.0, 0.0), "small");
+        dao.addEmbedding(kept);
+        dao.deleteEmbeddings(Math.min(small.getId(), large.getId()), Math.max(small.getId(), large.getId()));
+        assertEquals(1, dao.getAllEmbeddings().size());
+        assertEquals("kept", dao.getAllEmbeddings().get(0).getChunk());
+        assertTrue(dao.findEmbeddingsNear(embedding("query", List.of(1.0, 0.0, 0.0), "large"), new SearchFilter(), 5).isEmpty());
+        dao.deleteEmbedding(kept.getId());
+
+        dao.deleteEmbeddingModel("large");
+        assertTrue(dao.getAllEmbeddings().isEmpty());
+        assertEquals(1, count(url, "SELECT COUNT(*) FROM embedding_partitions WHERE base_table = 'embeddings'"));
+    }
+
+    @Test
+    public void testLegacyTableIsSplitByModel() throws SQLException {
+        String url = "jdbc:h2:mem:model_partitions_legacy_test;DB_CLOSE_DELAY=-1";
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE embeddings (
+                        id BIGINT PRIMARY KEY AUTO_INCREMENT,
+                        chunk VARCHAR NOT NULL,
+                        embedding DOUBLE ARRAY NOT NULL,
+                        creation_date TIMESTAMP NOT NULL,
+                        last_accessed TIMESTAMP NOT NULL,
+                        embedding_model VARCHAR NOT NULL
+                    )""");
+            statement.execute("INSERT INTO embeddings (id, chunk, embedding, creation_date, last_accessed, embedding_model) VALUES "
+                    + "(7, 'a', ARRAY[1.0, 0.0], CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, 'one'), "
+                    + "(9, 'b', ARRAY[0.0, 1.0, 0.0], CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, 'two')");
+        }
+        TextEmbeddingDaoH2 dao = new TextEmbeddingDaoH2(new EmbeddingConfiguration(512, 50, "one", url, "sa", ""));
+
+        assertEquals(2, count(url, "SELECT COUNT(*) FROM embedding_partitions"));
+        assertEquals("a", dao.getEmbeddingById(7L).getChunk());
+        assertEquals("b", dao.getEmbeddingById(9L).getChunk());
+        // New rows continue after the migrated ids
+        TextEmbedding added = embedding("c", List.of(1.0, 1.0), "one");
+        dao.addEmbedding(List.of(added));
+        assertTrue(added.getId() > 9);
+        assertEquals(3, count(url, "SELECT COUNT(*) FROM embeddings"));
+    }
+
+    @Test
+    public void testInterruptedSplitResumes() throws SQLException {
+        String url = "jdbc:h2:mem:model_partitions_resume_test;DB_CLOSE_DELAY=-1";
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE embeddings (
+                        id BIGINT PRIMARY KEY AUTO_INCREMENT,
+                        chunk VARCHAR,
+                        embedding DOUBLE ARRAY NOT NULL,
+                        creation_date TIMESTAMP NOT NULL,
+                        last_accessed TIMESTAMP NOT NULL,
+                        embedding_model VARCHAR NOT NULL
+                    )""");
+            // The row of the second model cannot be copied, since the chunk column of a partition is NOT NULL
+            statement.execute("INSERT INTO embeddings (id, chunk, embedding, creation_date, last_accessed, embedding_model) VALUES "
+                    + "(7, 'a', ARRAY[1.0, 0.0], CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, 'one'), "
+                    + "(9, NULL, ARRAY[0.0, 1.0, 0.0], CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, 'two')");
+        }
+        EmbeddingConfiguration configuration = new EmbeddingConfiguration(512, 50, "one", url, "sa", "");
+        try {
+            new TextEmbeddingDaoH2(configuration);
+            fail("The row of the second model cannot be moved");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        // The first model was moved completely and the second not at all
+        assertEquals(1, count(url, "SELECT COUNT(*) FROM embeddings"));
+        assertEquals(9, count(url, "SELECT id FROM embeddings"));
+
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("UPDATE embeddings SET chunk = 'b' WHERE id = 9");
+        }
+        TextEmbeddingDaoH2 dao = new TextEmbeddingDaoH2(configuration);
+        assertEquals("a", dao.getEmbeddingById(7L).getChunk());
+        assertEquals("b", dao.getEmbeddingById(9L).getChunk());
+        assertEquals(2, count(url, "SELECT COUNT(*) FROM embeddings"));
+        TextEmbedding added = embedding("c", List.of(1.0, 1.0), "one");
+        dao.addEmbedding(List.of(added));
+        assertTrue(added.getId() > 9);
+    }
+
+    @Test
+    public void testFailedBatchStoresNothing() throws SQLException {
+        String url = "jdbc:h2:mem:model_partitions_rollback_test;DB_CLOSE_DELAY=-1";
+        TextEmbeddingDaoH2 dao = new TextEmbeddingDaoH2(new EmbeddingConfiguration(512, 50, "one", url, "sa", ""));
+        TextEmbedding valid = embedding("valid", List.of(1.0, 0.0), "one");
+        // The chunk column is NOT NULL, so the second row fails the whole batch
+        TextEmbedding invalid = embedding(null, List.of(0.0, 1.0), "one");
+
+        assertFalse(dao.addEmbedding(List.of(valid, invalid)));
+        assertNull(valid.getId());
+        assertEquals(0, count(url, "SELECT COUNT(*) FROM embeddings"));
+        SearchFilter all = new SearchFilter();
+        all.setCreatedFrom(new Date(0));
+        assertTrue(dao.findEmbeddingsNear(embedding("query", List.of(1.0, 0.0), "one"), all, 5).isEmpty());
+
+        assertTrue(dao.addEmbedding(List.of(valid)));
+        assertEquals("valid", dao.findEmbeddingsNear(embedding("query", List.of(1.0, 0.0), "one"), all, 5).get(0).getChunk());
+    }
+}
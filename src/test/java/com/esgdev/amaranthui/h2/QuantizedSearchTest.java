@@ -0,0 +1,144 @@
+package com.esgdev.amaranthui.h2;
+
+import com.esgdev.amaranthui.db.SearchMode;
+import com.esgdev.amaranthui.db.h2.TextEmbeddingDaoH2;
+import com.esgdev.amaranthui.db.h2.VectorCodec;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingConfiguration;
+import com.esgdev.amaranthui.engine.embedding.TextEmbedding;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class QuantizedSearchTest {
+
+    @Test
+    public void testQuantizedSearchMatchesExactSearch() {
+        String url = "jdbc:h2:mem:int8_search_test;DB_CLOSE_DELAY=-1";
+        EmbeddingConfiguration exactConfiguration = new EmbeddingConfiguration(512, 50, "mock-model", url, "sa", "");
+        EmbeddingConfiguration int8Configuration = new EmbeddingConfiguration(512, 50, "mock-model", url, "sa", "");
+        int8Configuration.setSearchMode(SearchMode.INT8);
+        TextEmbeddingDaoH2 exact = new TextEmbeddingDaoH2(exactConfiguration);
+        TextEmbeddingDaoH2 quantized = new TextEmbeddingDaoH2(int8Configuration);
+
+        Random random = new Random(5);
+        List<TextEmbedding> embeddings = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            embeddings.add(new TextEmbedding("chunk " + i, randomVector(random, 64), new Date(), new Date(), "mock-model", 0.0));
+        }
+        // The int8 codes are only written where the int8 mode is configured
+        quantized.addEmbedding(embeddings);
+
+        for (int q = 0; q < 10; q++) {
+            TextEmbedding query = new TextEmbedding("query", randomVector(random, 64), new Date(), new Date(), "mock-model", 0.0);
+            List<TextEmbedding> expected = exact.findEmbeddingsNear(query, 5);
+            List<TextEmbedding> actual = quantized.findEmbeddingsNear(query, 5);
+            assertEquals(expected.size(), actual.size());
+            // The shortlist is rescored exactly, so the best hit and its score are unchanged
+            assertEquals(expected.get(0).getId(), actual.get(0).getId());
+            assertEquals(expected.get(0).getSimilarity(), actual.get(0).getSimilarity(), 1e-6);
+        }
+    }
+
+    @Test
+    public void testBinarySearchIsSelectablePerTable() throws Exception {
+        String url = "jdbc:h2:mem:binary_search_test;DB_CLOSE_DELAY=-1";
+        EmbeddingConfiguration configuration = new EmbeddingConfiguration(512, 50, "mock-model", url, "sa", "");
+        configuration.setSearchMode("embeddings", SearchMode.BINARY);
+        assertEquals(SearchMode.EXACT, configuration.getSearchMode("chat_chunk_embeddings"));
+        TextEmbeddingDaoH2 dao = new TextEmbeddingDaoH2(configuration);
+
+        Random random = new Random(9);
+        List<TextEmbedding> embeddings = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            embeddings.add(new TextEmbedding("chunk " + i, randomVector(random, 128), new Date(), new Date(), "mock-model", 0.0));
+        }
+        dao.addEmbedding(embeddings);
+        // Only the codes the mode reads are written
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(embedding_q8), COUNT(embedding_bits) FROM embeddings")) {
+            rs.next();
+            assertEquals(0, rs.getInt(1));
+            assertEquals(embeddings.size(), rs.getInt(2));
+        }
+
+        // A slightly perturbed copy of a stored vector keeps almost all of its sign bits
+        int found = 0;
+        for (int q = 0; q < 10; q++) {
+            TextEmbedding target = embeddings.get(random.nextInt(embeddings.size()));
+            List<Double> noisy = new ArrayList<>();
+            for (double value : target.getEmbedding()) {
+                noisy.add(value + random.nextGaussian() * 0.3);
+            }
+            TextEmbedding query = new TextEmbedding("query", noisy, new Date(), new Date(), "mock-model", 0.0);
+            List<TextEmbedding> hits = dao.findEmbeddingsNear(query, 3);
+            assertEquals(3, hits.size());
+            if (hits.get(0).getId().equals(target.getId())) {
+                found++;
+            }
+        }
+        assertTrue("too few exact matches: " + found, found >= 9);
+    }
+
+    @Test
+    public void testMigrationBackfillsExistingRows() throws Exception {
+        String url = "jdbc:h2:mem:int8_migration_test;DB_CLOSE_DELAY=-1";
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE embeddings (
+                        id BIGINT PRIMARY KEY AUTO_INCREMENT,
+                        chunk VARCHAR NOT NULL,
+                        embedding DOUBLE ARRAY NOT NULL,
+                        creation_date TIMESTAMP NOT NULL,
+                        last_accessed TIMESTAMP NOT NULL,
+                        embedding_model VARCHAR NOT NULL
+                    )""");
+            statement.execute("INSERT INTO embeddings (chunk, embedding, creation_date, last_accessed, embedding_model) "
+                    + "VALUES ('old', ARRAY[3.0, 4.0], CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, 'mock-model')");
+        }
+
+        EmbeddingConfiguration configuration = new EmbeddingConfiguration(512, 50, "mock-model", url, "sa", "");
+        configuration.setSearchMode(SearchMode.INT8);
+        TextEmbeddingDaoH2 dao = new TextEmbeddingDaoH2(configuration);
+
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(embedding_q8), COUNT(embedding_bits) FROM embeddings")) {
+            rs.next();
+            assertEquals(1, rs.getInt(1));
+            // The binary mode is not configured, so its codes are not backfilled
+            assertEquals(0, rs.getInt(2));
+        }
+        // The legacy vector was packed and normalized, keeping its original length
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT embedding, norm FROM embeddings")) {
+            rs.next();
+            float[] vector = VectorCodec.decode(rs.getBytes(1));
+            assertEquals(0.6, vector[0], 1e-6);
+            assertEquals(0.8, vector[1], 1e-6);
+            assertEquals(5.0, rs.getDouble(2), 1e-9);
+        }
+        TextEmbedding query = new TextEmbedding("query", List.of(3.0, 4.1), new Date(), new Date(), "mock-model", 0.0);
+        List<TextEmbedding> hits = dao.findEmbeddingsNear(query, 1);
+        assertEquals("old", hits.get(0).getChunk());
+    }
+
+    private static List<Double> randomVector(Random random, int dimension) {
+        List<Double> vector = new ArrayList<>();
+        for (int i = 0; i < dimension; i++) {
+            vector.add(random.nextGaussian());
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,171 @@
+package com.esgdev.amaranthui.h2;
+
+import com.esgdev.amaranthui.db.filter.SearchFilter;
+import com.esgdev.amaranthui.db.h2.ChatChunkEmbeddingDaoH2;
+import com.esgdev.amaranthui.engine.embedding.ChatChunkEmbedding;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingConfiguration;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TimeSegmentsTest {
+    private static final long WEEK = 7L * 24 * 60 * 60 * 1000;
+
+    private static ChatChunkEmbedding chunk(String text, List<Double> vector, Date creationDate) {
+        return new ChatChunkEmbedding(text, vector, creationDate, creationDate, 1L, 1L, "user", null, "topic", "mock-model", 0.0);
+    }
+
+    private static double cosine(List<Double> a, List<Double> b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.size(); i++) {
+            dot += a.get(i) * b.get(i);
+            normA += a.get(i) * a.get(i);
+            normB += b.get(i) * b.get(i);
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+
+    @Test
+    public void testSegmentedSearchMatchesExactSearch() throws Exception {
+        String url = "jdbc:h2:mem:time_segments_test;DB_CLOSE_DELAY=-1";
+        EmbeddingConfiguration configuration = new EmbeddingConfiguration(512, 50, "mock-model", url, "sa", "");
+        configuration.setSearchParallelism(2);
+        ChatChunkEmbeddingDaoH2 dao = new ChatChunkEmbeddingDaoH2(configuration);
+
+        // Every week talks about its own subject, so most sealed weeks can be skipped
+        Random random = new Random(17);
+        long now = System.currentTimeMillis();
+        List<ChatChunkEmbedding> chunks = new ArrayList<>();
+        for (int week = 0; week < 8; week++) {
+            for (int i = 0; i < 20; i++) {
+                List<Double> vector = new ArrayList<>();
+                for (int d = 0; d < 16; d++) {
+                    vector.add((d == week ? 5.0 : 0.0) + random.nextGaussian() * 0.3);
+                }
+                chunks.add(chunk("w" + week + "-" + i, vector, new Date(now - week * WEEK - i * 1000L)));
+            }
+        }
+        dao.addEmbedding(chunks);
+
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*), SUM(row_count), COUNT(centroid) FROM time_segments")) {
+            rs.next();
+            assertTrue(rs.getInt(1) >= 8);
+            assertEquals(160, rs.getInt(2));
+            // Only the current week stays open
+            assertTrue(rs.getInt(3) >= rs.getInt(1) - 1);
+        }
+
+        for (int q = 0; q < 4; q++) {
+            ChatChunkEmbedding query = chunks.get(random.nextInt(chunks.size()));
+            List<ChatChunkEmbedding> expected = new ArrayList<>(chunks);
+            expected.sort(Comparator.comparingDouble((ChatChunkEmbedding c) -> -cosine(c.getEmbedding(), query.getEmbedding())));
+            List<ChatChunkEmbedding> hits = dao.findEmbeddingsNear(query, 5);
+            assertEquals(5, hits.size());
+            for (int i = 0; i < 5; i++) {
+                assertEquals(cosine(expected.get(i).getEmbedding(), query.getEmbedding()), hits.get(i).getSimilarity(), 1e-5);
+            }
+        }
+
+        // A date range only reads the weeks it overlaps
+        SearchFilter lastTwoWeeks = new SearchFilter();
+        lastTwoWeeks.setCreatedFrom(new Date(now - 2 * WEEK + 1));
+        List<ChatChunkEmbedding> recent = dao.findEmbeddingsNear(chunks.get(100), lastTwoWeeks, 100);
+        assertEquals(40, recent.size());
+        for (ChatChunkEmbedding hit : recent) {
+            assertTrue(hit.getChunk().startsWith("w0") || hit.getChunk().startsWith("w1"));
+        }
+
+        // Deletes update the summaries, and a reopened DAO uses the stored ones
+        dao.deleteEmbedding(chunks.get(150).getId());
+        ChatChunkEmbeddingDaoH2 reopened = new ChatChunkEmbeddingDaoH2(configuration);
+        assertEquals(159, reopened.findEmbeddingsNear(chunks.get(0), 200).size());
+
+        // A range delete takes the summaries and the filter index along
+        long firstId = chunks.get(100).getId();
+        long lastId = chunks.get(119).getId();
+        long inRange = chunks.stream().filter(c -> c.getId() >= firstId && c.getId() <= lastId && c != chunks.get(150)).count();
+        dao.deleteEmbeddings(firstId, lastId);
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT SUM(row_count) FROM time_segments")) {
+            rs.next();
+            assertEquals(159 - inRange, rs.getLong(1));
+        }
+        assertEquals(159 - inRange, dao.findEmbeddingsNear(chunks.get(0), new SearchFilter(), 200).size());
+    }
+
+    @Test
+    public void testLegacyChatTableIsMigrated() throws Exception {
+        String url = "jdbc:h2:mem:time_segments_legacy_test;DB_CLOSE_DELAY=-1";
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE chat_chunk_embeddings (
+                        id BIGINT PRIMARY KEY AUTO_INCREMENT,
+                        chunk VARCHAR NOT NULL,
+                        embedding DOUBLE ARRAY NOT NULL,
+                        creation_date TIMESTAMP NOT NULL,
+                        last_accessed TIMESTAMP NOT NULL,
+                        embedding_model VARCHAR NOT NULL,
+                        conversation_id BIGINT,
+                        user_id BIGINT,
+                        role VARCHAR,
+                        reply_to_chunk_id BIGINT,
+                        topic VARCHAR
+                    )""");
+            statement.execute("INSERT INTO chat_chunk_embeddings (id, chunk, embedding, creation_date, last_accessed, embedding_model) "
+                    + "VALUES (3, 'old', ARRAY[1.0, 0.0], CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, 'mock-model')");
+        }
+        ChatChunkEmbeddingDaoH2 dao = new ChatChunkEmbeddingDaoH2(new EmbeddingConfiguration(512, 50, "mock-model", url, "sa", ""));
+
+        List<ChatChunkEmbedding> hits = dao.findEmbeddingsNear(chunk("query", List.of(1.0, 0.0), new Date()), 5);
+        assertEquals(1, hits.size());
+        assertEquals("old", hits.get(0).getChunk());
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM chat_chunk_embeddings WHERE time_segment IS NOT NULL")) {
+            rs.next();
+            assertEquals(1, rs.getInt(1));
+        }
+    }
+
+    @Test
+    public void testFailedBatchStoresNothing() throws Exception {
+        String url = "jdbc:h2:mem:time_segments_rollback_test;DB_CLOSE_DELAY=-1";
+        ChatChunkEmbeddingDaoH2 dao = new ChatChunkEmbeddingDaoH2(new EmbeddingConfiguration(512, 50, "mock-model", url, "sa", ""));
+        ChatChunkEmbedding valid = chunk("valid", List.of(1.0, 0.0), new Date());
+        // The chunk column is NOT NULL, so the group of the second model fails after the first one was inserted
+        ChatChunkEmbedding invalid = new ChatChunkEmbedding(null, List.of(0.0, 1.0, 0.0), new Date(), new Date(), 1L, 1L, "user", null,
+                "topic", "other-model", 0.0);
+
+        assertFalse(dao.addEmbedding(List.of(valid, invalid)));
+        assertNull(valid.getId());
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM chat_chunk_embeddings")) {
+            rs.next();
+            assertEquals(0, rs.getInt(1));
+        }
+        // Nothing was added to the metadata bitmaps either
+        SearchFilter topic = new SearchFilter();
+        topic.setTopic("topic");
+        assertTrue(dao.findEmbeddingsNear(chunk("query", List.of(1.0, 0.0), new Date()), topic, 5).isEmpty());
+
+        assertTrue(dao.addEmbedding(List.of(valid)));
+        assertEquals("valid", dao.findEmbeddingsNear(chunk("query", List.of(1.0, 0.0), new Date()), topic, 5).get(0).getChunk());
+    }
+}
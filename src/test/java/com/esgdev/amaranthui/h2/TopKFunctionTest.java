@@ -0,0 +1,87 @@
+package com.esgdev.amaranthui.h2;
+
+import com.esgdev.amaranthui.db.VectorEncoding;
+import com.esgdev.amaranthui.db.h2.TextEmbeddingDaoH2;
+import com.esgdev.amaranthui.db.h2.VectorCodec;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingConfiguration;
+import com.esgdev.amaranthui.engine.embedding.TextEmbedding;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TopKFunctionTest {
+    private static final String URL = "jdbc:h2:mem:top_k_test;DB_CLOSE_DELAY=-1";
+
+    @Test
+    public void testTopKReturnsBestIdsInOrder() throws SQLException {
+        EmbeddingConfiguration configuration = new EmbeddingConfiguration(512, 50, "mock-model", URL, "sa", "");
+        configuration.setSearchParallelism(1);
+        TextEmbeddingDaoH2 dao = new TextEmbeddingDaoH2(configuration);
+        TextEmbedding east = new TextEmbedding("east", List.of(1.0, 0.0), new Date(), new Date(), "mock-model", 0.0);
+        TextEmbedding north = new TextEmbedding("north", List.of(0.0, 1.0), new Date(), new Date(), "mock-model", 0.0);
+        TextEmbedding northEast = new TextEmbedding("north-east", List.of(1.0, 1.0), new Date(), new Date(), "mock-model", 0.0);
+        TextEmbedding other = new TextEmbedding("other", List.of(1.0, 0.0), new Date(), new Date(), "other-model", 0.0);
+        dao.addEmbedding(List.of(east, north, northEast, other));
+
+        try (Connection conn = DriverManager.getConnection(URL, "sa", "");
+             PreparedStatement stmt = conn.prepareStatement("SELECT id, score FROM TOP_K('embeddings', ?, ?, ?)")) {
+            stmt.setString(1, "mock-model");
+            stmt.setBytes(2, VectorCodec.encode(List.of(1.0, 0.0), VectorEncoding.FLOAT32));
+            stmt.setInt(3, 2);
+            try (ResultSet rs = stmt.executeQuery()) {
+                assertTrue(rs.next());
+                assertEquals((long) east.getId(), rs.getLong(1));
+                assertEquals(1.0, rs.getDouble(2), 1e-6);
+                assertTrue(rs.next());
+                assertEquals((long) northEast.getId(), rs.getLong(1));
+                assertFalse(rs.next());
+            }
+        }
+
+        // An id range leaves out the best row
+        try (Connection conn = DriverManager.getConnection(URL, "sa", "");
+             PreparedStatement stmt = conn.prepareStatement("SELECT id FROM TOP_K('embeddings', ?, ?, ?, ?, ?)")) {
+            stmt.setString(1, "mock-model");
+            stmt.setBytes(2, VectorCodec.encode(List.of(1.0, 0.0), VectorEncoding.FLOAT32));
+            stmt.setInt(3, 1);
+            stmt.setLong(4, north.getId());
+            stmt.setLong(5, northEast.getId());
+            try (ResultSet rs = stmt.executeQuery()) {
+                assertTrue(rs.next());
+                assertEquals((long) northEast.getId(), rs.getLong(1));
+                assertFalse(rs.next());
+            }
+        }
+
+        List<TextEmbedding> hits = dao.findEmbeddingsNear(north, 2);
+        assertEquals(2, hits.size());
+        assertEquals("north", hits.get(0).getChunk());
+        assertEquals("north-east", hits.get(1).getChunk());
+        assertEquals(Math.sqrt(0.5), hits.get(1).getSimilarity(), 1e-6);
+
+        // The parallel scan reads each id range through TOP_K
+        configuration.setSearchParallelism(4);
+        hits = dao.findEmbeddingsNear(north, 2);
+        assertEquals("north", hits.get(0).getChunk());
+        assertEquals("north-east", hits.get(1).getChunk());
+        assertEquals(Math.sqrt(0.5), hits.get(1).getSimilarity(), 1e-6);
+    }
+
+    @Test(expected = SQLException.class)
+    public void testTopKRejectsOtherTables() throws SQLException {
+        new TextEmbeddingDaoH2(new EmbeddingConfiguration(512, 50, "mock-model", URL, "sa", ""));
+        try (Connection conn = DriverManager.getConnection(URL, "sa", "");
+             PreparedStatement stmt = conn.prepareStatement("SELECT * FROM TOP_K('information_schema.users', 'mock-model', X'01', 1)");
+             ResultSet rs = stmt.executeQuery()) {
+            rs.next();
+        }
+    }
+}
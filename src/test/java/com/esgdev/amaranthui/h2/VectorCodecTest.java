@@ -0,0 +1,53 @@
+package com.esgdev.amaranthui.h2;
+
+import com.esgdev.amaranthui.db.VectorEncoding;
+import com.esgdev.amaranthui.db.h2.VectorCodec;
+import com.esgdev.amaranthui.db.h2.VectorSimilarity;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class VectorCodecTest {
+
+    @Test
+    public void testFloat32RoundTrip() {
+        List<Double> vector = List.of(0.25, -1.5, 3.0e-8, 1234.5);
+
+        byte[] packed = VectorCodec.encode(vector, VectorEncoding.FLOAT32);
+
+        Assert.assertEquals(1 + 4 * 4, packed.length);
+        Assert.assertEquals(4, VectorCodec.dimension(packed));
+        List<Double> decoded = VectorCodec.decodeList(packed);
+        for (int i = 0; i < vector.size(); i++) {
+            Assert.assertEquals((float) (double) vector.get(i), decoded.get(i), 0.0);
+        }
+    }
+
+    @Test
+    public void testFloat16RoundTrip() {
+        List<Double> vector = List.of(0.0, 1.0, -0.5, 0.1234, 1.0e-6, 65504.0, -2.0e-5);
+
+        byte[] packed = VectorCodec.encode(vector, VectorEncoding.FLOAT16);
+
+        Assert.assertEquals(1 + 2 * vector.size(), packed.length);
+        float[] decoded = VectorCodec.decode(packed);
+        for (int i = 0; i < vector.size(); i++) {
+            // Half precision keeps 11 significant bits
+            Assert.assertEquals(vector.get(i), decoded[i], Math.max(Math.abs(vector.get(i)) / 1024, 6.0e-8));
+        }
+    }
+
+    @Test
+    public void testPackedDotProductAcrossEncodings() {
+        List<Double> vectorA = List.of(0.6, 0.8, 0.0);
+        List<Double> vectorB = List.of(0.0, 0.6, 0.8);
+
+        double result = VectorSimilarity.packedDotProduct(VectorCodec.encode(vectorA, VectorEncoding.FLOAT32),
+                VectorCodec.encode(vectorB, VectorEncoding.FLOAT16));
+
+        Assert.assertEquals(0.48, result, 1e-3);
+        Assert.assertNull(VectorSimilarity.packedDotProduct(VectorCodec.encode(vectorA, VectorEncoding.FLOAT32),
+                VectorCodec.encode(List.of(1.0), VectorEncoding.FLOAT32)));
+    }
+}
@@ -51,4 +51,15 @@ public class VectorSimilarityTest {
         // Distance between identical vectors should be 0
         Assert.assertEquals(0.0, result, 1e-6);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testDotProductOfUnitVectorsIsCosineSimilarity() {
+        Double[] vectorA = {0.6, 0.8, 0.0};
+        Double[] vectorB = {0.0, 0.6, 0.8};
+
+        double result = VectorSimilarity.dotProduct(vectorA, vectorB);
+
+        Assert.assertEquals(VectorSimilarity.cosineSimilarity(vectorA, vectorB), result, 1e-9);
+        Assert.assertNull(VectorSimilarity.dotProduct(vectorA, new Double[]{1.0}));
+    }
+}
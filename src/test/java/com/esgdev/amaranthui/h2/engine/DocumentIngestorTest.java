@@ -0,0 +1,188 @@
+package com.esgdev.amaranthui.h2.engine;
+
+import com.esgdev.amaranthui.db.h2.CachedKeyValueStore;
+import com.esgdev.amaranthui.db.h2.KeyValueStoreDaoH2;
+import com.esgdev.amaranthui.db.h2.TextEmbeddingDaoH2;
+import com.esgdev.amaranthui.engine.embedding.DocumentIngestor;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingConfiguration;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingGenerationException;
+import com.esgdev.amaranthui.engine.embedding.IngestionConfiguration;
+import com.esgdev.amaranthui.engine.embedding.TextEmbedding;
+import com.esgdev.amaranthui.engine.embedding.TextEmbeddingManager;
+import io.github.ollama4j.OllamaAPI;
+import io.github.ollama4j.models.embeddings.OllamaEmbedResponseModel;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+public class DocumentIngestorTest {
+    private static final String URL = "jdbc:h2:mem:document_ingestor_test;DB_CLOSE_DELAY=-1";
+    private static final int CHUNK_SIZE = 100;
+    private static final int OVERLAP = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * @param failAfter the number of embed requests that succeed, -1 for all
+     */
+    private OllamaAPI mockOllamaAPI(int failAfter) throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        OllamaAPI ollamaAPI = Mockito.mock(OllamaAPI.class);
+        when(ollamaAPI.embed(anyString(), anyList())).thenAnswer(invocation -> {
+            if (failAfter >= 0 && calls.incrementAndGet() > failAfter) {
+                throw new IOException("Model is gone");
+            }
+            List<String> chunks = invocation.getArgument(1);
+            List<List<Double>> embeddings = new ArrayList<>();
+            for (String chunk : chunks) {
+                List<Double> embedding = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    embedding.add((double) (chunk.hashCode() % 100 + i));
+                }
+                embeddings.add(embedding);
+            }
+            OllamaEmbedResponseModel response = new OllamaEmbedResponseModel();
+            response.setEmbeddings(embeddings);
+            return response;
+        });
+        return ollamaAPI;
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(random.nextInt(8) == 0 ? ' ' : (char) ('a' + random.nextInt(26)));
+        }
+        return text.toString();
+    }
+
+    private static List<String> split(String text) {
+        List<String> chunks = new ArrayList<>();
+        for (int start = 0; start < text.length(); start += CHUNK_SIZE - OVERLAP) {
+            chunks.add(text.substring(start, Math.min(start + CHUNK_SIZE, text.length())));
+        }
+        return chunks;
+    }
+
+    @Test
+    public void testIngestsLazilyAndResumesAfterAFailure() throws Exception {
+        Random random = new Random(42);
+        Path root = folder.newFolder("corpus").toPath();
+        Files.createDirectories(root.resolve("nested"));
+        // The large file spans several read windows of the chunk reader
+        String large = randomText(random, 20_011);
+        String small = randomText(random, 250);
+        Files.writeString(root.resolve("large.txt"), large, StandardCharsets.UTF_8);
+        Files.writeString(root.resolve("nested").resolve("small.md"), small, StandardCharsets.UTF_8);
+        Files.writeString(root.resolve("empty.txt"), "", StandardCharsets.UTF_8);
+        Files.writeString(root.resolve("ignored.bin"), randomText(random, 500), StandardCharsets.UTF_8);
+        List<String> expected = new ArrayList<>(split(large));
+        expected.addAll(split(small));
+
+        EmbeddingConfiguration embeddingConfiguration = new EmbeddingConfiguration(CHUNK_SIZE, OVERLAP, "mock-model", URL, "sa", "");
+        TextEmbeddingDaoH2 dao = new TextEmbeddingDaoH2(embeddingConfiguration);
+        CachedKeyValueStore checkpoints = new CachedKeyValueStore(new KeyValueStoreDaoH2(URL, "sa", ""));
+        IngestionConfiguration configuration = new IngestionConfiguration();
+        configuration.setBatchSize(8);
+        configuration.setParallelism(3);
+        configuration.setWriteBatchSize(40);
+        configuration.setMaxBufferedChunks(48);
+
+        DocumentIngestor failing = new DocumentIngestor(new TextEmbeddingManager(dao, mockOllamaAPI(12), embeddingConfiguration),
+                checkpoints, embeddingConfiguration, configuration);
+        try {
+            failing.ingest(root, null);
+            fail("The embedding model fails after 12 requests");
+        } catch (EmbeddingGenerationException e) {
+            // expected
+        }
+        int storedBefore = dao.getAllEmbeddings().size();
+        assertTrue(storedBefore > 0 && storedBefore < expected.size());
+
+        List<DocumentIngestor.Progress> updates = new ArrayList<>();
+        DocumentIngestor ingestor = new DocumentIngestor(new TextEmbeddingManager(dao, mockOllamaAPI(-1), embeddingConfiguration),
+                checkpoints, embeddingConfiguration, configuration);
+        DocumentIngestor.Progress progress = ingestor.ingest(root, updates::add);
+        assertEquals(3, progress.getFilesTotal());
+        assertEquals(3, progress.getFilesDone());
+        assertEquals(expected.size() - storedBefore, progress.getChunksStored());
+        assertFalse(updates.isEmpty());
+
+        // Every chunk is stored once, as if each file had been split at once
+        List<String> stored = dao.getAllEmbeddings().stream().map(TextEmbedding::getChunk).sorted().collect(Collectors.toList());
+        assertEquals(expected.stream().sorted().collect(Collectors.toList()), stored);
+
+        // Complete files are not read again
+        progress = ingestor.ingest(root, null);
+        assertEquals(3, progress.getFilesSkipped());
+        assertEquals(0, progress.getChunksStored());
+        assertEquals(expected.size(), dao.getAllEmbeddings().size());
+
+        // A changed file replaces the chunks of its previous version
+        String edited = randomText(random, 420);
+        Files.writeString(root.resolve("nested").resolve("small.md"), edited, StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(root.resolve("nested").resolve("small.md"), FileTime.fromMillis(0));
+        ingestor.ingest(root, null);
+        expected = new ArrayList<>(split(large));
+        expected.addAll(split(edited));
+        stored = dao.getAllEmbeddings().stream().map(TextEmbedding::getChunk).sorted().collect(Collectors.toList());
+        assertEquals(expected.stream().sorted().collect(Collectors.toList()), stored);
+    }
+
+    @Test
+    public void testFailedWriteIsNotCheckpointed() throws Exception {
+        Random random = new Random(7);
+        Path root = folder.newFolder("failing").toPath();
+        String text = randomText(random, 2_000);
+        Files.writeString(root.resolve("text.txt"), text, StandardCharsets.UTF_8);
+
+        String url = "jdbc:h2:mem:document_ingestor_failing_test;DB_CLOSE_DELAY=-1";
+        EmbeddingConfiguration embeddingConfiguration = new EmbeddingConfiguration(CHUNK_SIZE, OVERLAP, "mock-model", url, "sa", "");
+        AtomicInteger writes = new AtomicInteger();
+        TextEmbeddingDaoH2 dao = new TextEmbeddingDaoH2(embeddingConfiguration) {
+            @Override
+            public boolean addEmbedding(List<TextEmbedding> embeddings) {
+                // The second write fails, e.g. because the disk is full
+                return writes.incrementAndGet() != 2 && super.addEmbedding(embeddings);
+            }
+        };
+        CachedKeyValueStore checkpoints = new CachedKeyValueStore(new KeyValueStoreDaoH2(url, "sa", ""));
+        IngestionConfiguration configuration = new IngestionConfiguration();
+        configuration.setBatchSize(4);
+        configuration.setParallelism(1);
+        configuration.setWriteBatchSize(8);
+        configuration.setMaxBufferedChunks(16);
+        DocumentIngestor ingestor = new DocumentIngestor(new TextEmbeddingManager(dao, mockOllamaAPI(-1), embeddingConfiguration),
+                checkpoints, embeddingConfiguration, configuration);
+
+        try {
+            ingestor.ingest(root, null);
+            fail("The second write fails");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(8, dao.getAllEmbeddings().size());
+
+        ingestor.ingest(root, null);
+        List<String> stored = dao.getAllEmbeddings().stream().map(TextEmbedding::getChunk).sorted().collect(Collectors.toList());
+        assertEquals(split(text).stream().sorted().collect(Collectors.toList()), stored);
+    }
+}
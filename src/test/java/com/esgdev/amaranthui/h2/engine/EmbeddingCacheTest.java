@@ -0,0 +1,103 @@
+package com.esgdev.amaranthui.h2.engine;
+
+import com.esgdev.amaranthui.db.h2.ConnectionPool;
+import com.esgdev.amaranthui.db.h2.EmbeddingCacheDaoH2;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingCache;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingConfiguration;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingVector;
+import com.esgdev.amaranthui.engine.embedding.TextEmbedding;
+import com.esgdev.amaranthui.engine.embedding.TextEmbeddingManager;
+import io.github.ollama4j.OllamaAPI;
+import io.github.ollama4j.models.embeddings.OllamaEmbedResponseModel;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+public class EmbeddingCacheTest {
+    private static final String URL = "jdbc:h2:mem:embedding_cache_test;DB_CLOSE_DELAY=-1";
+
+    private OllamaAPI mockOllamaAPI(AtomicInteger embeddedChunks) throws Exception {
+        OllamaAPI ollamaAPI = Mockito.mock(OllamaAPI.class);
+        when(ollamaAPI.embed(anyString(), anyList())).thenAnswer(invocation -> {
+            List<String> chunks = invocation.getArgument(1);
+            embeddedChunks.addAndGet(chunks.size());
+            List<List<Double>> embeddings = new ArrayList<>();
+            for (String chunk : chunks) {
+                List<Double> embedding = new ArrayList<>();
+                for (int i = 0; i < 16; i++) {
+                    embedding.add((double) (chunk.hashCode() % 100 + i));
+                }
+                embeddings.add(embedding);
+            }
+            OllamaEmbedResponseModel response = new OllamaEmbedResponseModel();
+            response.setEmbeddings(embeddings);
+            return response;
+        });
+        return ollamaAPI;
+    }
+
+    @Test
+    public void testOnlyMissesAreSentToTheModel() throws Exception {
+        AtomicInteger embeddedChunks = new AtomicInteger();
+        OllamaAPI ollamaAPI = mockOllamaAPI(embeddedChunks);
+        EmbeddingConfiguration configuration = new EmbeddingConfiguration(512, 50, "mock-model", URL, "sa", "");
+        try (ConnectionPool pool = new ConnectionPool(URL, "sa", "", 2)) {
+            EmbeddingCacheDaoH2 store = new EmbeddingCacheDaoH2(pool, 1000);
+            EmbeddingCache cache = new EmbeddingCache(1 << 20, store);
+            TextEmbeddingManager manager = new TextEmbeddingManager(null, ollamaAPI, configuration, cache);
+
+            List<TextEmbedding> first = manager.generateEmbeddings("What is the capital of Hungary?");
+            List<TextEmbedding> second = manager.generateEmbeddings("What is the capital of Hungary?");
+            assertEquals(1, embeddedChunks.get());
+            assertEquals(first.get(0).getVector(), second.get(0).getVector());
+            assertEquals(1, cache.getMemoryHits());
+
+            // Repeated chunks of one request are embedded once
+            manager.generateEmbeddings(List.of("alpha", "beta", "alpha"));
+            assertEquals(3, embeddedChunks.get());
+
+            // A new cache finds the vectors in H2, e.g. after a restart
+            EmbeddingCache restarted = new EmbeddingCache(1 << 20, store);
+            TextEmbeddingManager restartedManager = new TextEmbeddingManager(null, ollamaAPI, configuration, restarted);
+            List<TextEmbedding> stored = restartedManager.generateEmbeddings(List.of("alpha", "beta"));
+            assertEquals(3, embeddedChunks.get());
+            assertEquals(2, restarted.getStoreHits());
+            assertEquals(2, restarted.getSize());
+            assertEquals(1.0, stored.get(0).getVector().norm(), 1e-5);
+
+            // Another model does not share the vectors
+            configuration.setEmbeddingModel("other-model");
+            restartedManager.generateEmbeddings("alpha");
+            assertEquals(4, embeddedChunks.get());
+
+            cache.deleteEmbeddingModel("mock-model");
+            assertEquals(0, cache.getSize());
+            assertTrue(store.getVectors(List.of("unknown")).isEmpty());
+        }
+    }
+
+    @Test
+    public void testMemoryTierStaysWithinItsBudget() {
+        // Room for about three vectors of 64 dimensions
+        EmbeddingCache cache = new EmbeddingCache(3 * (160 + 4 * 64), null);
+        for (int i = 0; i < 10; i++) {
+            float[] values = new float[64];
+            values[i] = 1f;
+            cache.putAll("model", List.of("chunk " + i), List.of(EmbeddingVector.of(values)));
+        }
+        assertEquals(3, cache.getSize());
+        assertTrue(cache.getBytes() <= 3 * (160 + 4 * 64));
+        List<EmbeddingVector> found = cache.getAll("model", List.of("chunk 0", "chunk 9"));
+        assertNull(found.get(0));
+        assertNotNull(found.get(1));
+        assertEquals(1, cache.getMisses());
+    }
+}
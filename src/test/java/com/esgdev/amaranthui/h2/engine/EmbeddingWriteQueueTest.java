@@ -0,0 +1,147 @@
+package com.esgdev.amaranthui.h2.engine;
+
+import com.esgdev.amaranthui.db.h2.ChatChunkEmbeddingDaoH2;
+import com.esgdev.amaranthui.engine.ChatEntry;
+import com.esgdev.amaranthui.engine.embedding.ChatChunkEmbedding;
+import com.esgdev.amaranthui.engine.embedding.ChatChunkEmbeddingManager;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingConfiguration;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingWriteQueue;
+import io.github.ollama4j.OllamaAPI;
+import io.github.ollama4j.models.embeddings.OllamaEmbedResponseModel;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+public class EmbeddingWriteQueueTest {
+
+    private OllamaAPI mockOllamaAPI(AtomicInteger calls, CountDownLatch release) throws Exception {
+        OllamaAPI ollamaAPI = Mockito.mock(OllamaAPI.class);
+        when(ollamaAPI.embed(anyString(), anyList())).thenAnswer(invocation -> {
+            calls.incrementAndGet();
+            release.await(10, TimeUnit.SECONDS);
+            List<String> chunks = invocation.getArgument(1);
+            List<List<Double>> embeddings = new ArrayList<>();
+            for (String chunk : chunks) {
+                List<Double> embedding = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    embedding.add((double) (chunk.hashCode() % 100 + i));
+                }
+                embeddings.add(embedding);
+            }
+            OllamaEmbedResponseModel response = new OllamaEmbedResponseModel();
+            response.setEmbeddings(embeddings);
+            return response;
+        });
+        return ollamaAPI;
+    }
+
+    private ChatChunkEmbeddingDaoH2 createDao(String name) {
+        EmbeddingConfiguration configuration = new EmbeddingConfiguration(512, 50, "mock-model",
+                "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "");
+        return new ChatChunkEmbeddingDaoH2(configuration);
+    }
+
+    private ChatEntry entry(int i) {
+        return new ChatEntry("Queued message number " + i, 1L, 1L, "user", "technology", null, new Date());
+    }
+
+    @Test
+    public void testEntriesAreEmbeddedInBatches() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ChatChunkEmbeddingDaoH2 dao = createDao("write_queue_batches");
+        EmbeddingConfiguration configuration = new EmbeddingConfiguration(512, 50, "mock-model", null, null, null);
+        ChatChunkEmbeddingManager manager = new ChatChunkEmbeddingManager(dao, mockOllamaAPI(calls, release), configuration);
+
+        try (EmbeddingWriteQueue<ChatChunkEmbedding, ChatEntry> queue = new EmbeddingWriteQueue<>(manager, 64, 8, 20)) {
+            // The first batch waits for the model, so the rest pile up and are embedded together
+            for (int i = 0; i < 12; i++) {
+                queue.submit(entry(i));
+            }
+            release.countDown();
+            queue.drain();
+            assertEquals(0, queue.getPending());
+            assertEquals(0, queue.getFailed());
+        }
+        assertEquals(12, dao.getAllEmbeddings().size());
+        assertTrue("Expected fewer embed calls than entries, got " + calls.get(), calls.get() < 12);
+    }
+
+    @Test
+    public void testFullQueueRejectsOffersAndCloseStoresTheRest() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ChatChunkEmbeddingDaoH2 dao = createDao("write_queue_close");
+        EmbeddingConfiguration configuration = new EmbeddingConfiguration(512, 50, "mock-model", null, null, null);
+        ChatChunkEmbeddingManager manager = new ChatChunkEmbeddingManager(dao, mockOllamaAPI(calls, release), configuration);
+
+        EmbeddingWriteQueue<ChatChunkEmbedding, ChatEntry> queue = new EmbeddingWriteQueue<>(manager, 2, 1, 0);
+        queue.submit(entry(0));
+        // Wait until the writer took the first entry and blocks in the model
+        long deadline = System.currentTimeMillis() + 5000;
+        while (calls.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(queue.offer(entry(1)));
+        assertTrue(queue.offer(entry(2)));
+        assertFalse(queue.offer(entry(3)));
+        assertEquals(2, queue.getPending());
+
+        release.countDown();
+        queue.close();
+        assertEquals(3, dao.getAllEmbeddings().size());
+        try {
+            queue.submit(entry(4));
+            fail("A closed queue does not accept entries");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSubmitsRacingCloseAreStored() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(0);
+        ChatChunkEmbeddingDaoH2 dao = createDao("write_queue_race");
+        EmbeddingConfiguration configuration = new EmbeddingConfiguration(512, 50, "mock-model", null, null, null);
+        ChatChunkEmbeddingManager manager = new ChatChunkEmbeddingManager(dao, mockOllamaAPI(calls, release), configuration);
+
+        EmbeddingWriteQueue<ChatChunkEmbedding, ChatEntry> queue = new EmbeddingWriteQueue<>(manager, 4, 4, 0);
+        AtomicInteger accepted = new AtomicInteger();
+        AtomicInteger next = new AtomicInteger();
+        List<Thread> submitters = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread submitter = new Thread(() -> {
+                try {
+                    while (true) {
+                        queue.submit(entry(next.getAndIncrement()));
+                        accepted.incrementAndGet();
+                    }
+                } catch (IllegalStateException | InterruptedException e) {
+                    // closed
+                }
+            });
+            submitter.start();
+            submitters.add(submitter);
+        }
+        Thread.sleep(200);
+        queue.close();
+        for (Thread submitter : submitters) {
+            submitter.join(5000);
+        }
+        // Every accepted entry was stored, including those queued while the queue was closing
+        assertEquals(accepted.get(), dao.getAllEmbeddings().size());
+        assertEquals(0, queue.getFailed());
+    }
+}
@@ -0,0 +1,165 @@
+package com.esgdev.amaranthui.index;
+
+import com.esgdev.amaranthui.db.h2.TextEmbeddingDaoH2;
+import com.esgdev.amaranthui.db.index.FlatVectorIndex;
+import com.esgdev.amaranthui.db.index.IndexedEmbeddingDao;
+import com.esgdev.amaranthui.db.index.ScoredId;
+import com.esgdev.amaranthui.db.index.VectorIndex;
+import com.esgdev.amaranthui.db.index.VectorIndexConfiguration;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingConfiguration;
+import com.esgdev.amaranthui.engine.embedding.TextEmbedding;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class FlatVectorIndexTest {
+
+    @Test
+    public void testSearchReturnsClosestFirst() {
+        FlatVectorIndex index = new FlatVectorIndex();
+        index.add(1, new float[]{1f, 0f, 0f});
+        index.add(2, new float[]{0f, 1f, 0f});
+        index.add(3, new float[]{1f, 1f, 0f});
+
+        List<ScoredId> hits = index.search(new float[]{1f, 0.1f, 0f}, 2);
+
+        assertEquals(2, hits.size());
+        assertEquals(1, hits.get(0).getId());
+        assertEquals(3, hits.get(1).getId());
+        assertTrue(hits.get(0).getScore() > hits.get(1).getScore());
+    }
+
+    @Test
+    public void testRemoveKeepsRemainingVectors() {
+        FlatVectorIndex index = new FlatVectorIndex();
+        for (int i = 0; i < 2000; i++) {
+            index.add(i, new float[]{i, 1f});
+        }
+        assertTrue(index.remove(0));
+        assertFalse(index.remove(0));
+        assertEquals(1999, index.size());
+
+        List<ScoredId> hits = index.search(new float[]{0f, 1f}, 1);
+        assertEquals(1, hits.get(0).getId());
+    }
+
+    @Test
+    public void testIndexedDaoStaysInSyncWithWrites() {
+        EmbeddingConfiguration configuration = new EmbeddingConfiguration(512, 50, "mock-model",
+                "jdbc:h2:mem:flat_index_test;DB_CLOSE_DELAY=-1", "sa", "");
+        IndexedEmbeddingDao<TextEmbedding> dao = new IndexedEmbeddingDao<>(new TextEmbeddingDaoH2(configuration), model -> new FlatVectorIndex());
+        TextEmbedding first = new TextEmbedding("first", List.of(1.0, 0.0), new Date(), new Date(), "mock-model", 0.0);
+        dao.addEmbedding(first);
+
+        // The first search loads the index from the database
+        assertEquals("first", dao.findEmbeddingsNear(first, 1).get(0).getChunk());
+
+        TextEmbedding second = new TextEmbedding("second", List.of(0.0, 1.0), new Date(), new Date(), "mock-model", 0.0);
+        dao.addEmbedding(List.of(second));
+        assertNotNull(second.getId());
+        List<TextEmbedding> hits = dao.findEmbeddingsNear(second, 2);
+        assertEquals("second", hits.get(0).getChunk());
+        assertEquals(1.0, hits.get(0).getSimilarity(), 1e-6);
+
+        dao.deleteEmbedding(second.getId());
+        hits = dao.findEmbeddingsNear(second, 2);
+        assertEquals(1, hits.size());
+        assertEquals("first", hits.get(0).getChunk());
+    }
+
+    @Test
+    public void testWritesDuringALoadReachTheIndex() {
+        EmbeddingConfiguration configuration = new EmbeddingConfiguration(512, 50, "mock-model",
+                "jdbc:h2:mem:flat_index_load_test;DB_CLOSE_DELAY=-1", "sa", "");
+        TextEmbedding first = new TextEmbedding("first", List.of(1.0, 0.0), new Date(), new Date(), "mock-model", 0.0);
+        TextEmbedding late = new TextEmbedding("late", List.of(0.0, 1.0), new Date(), new Date(), "mock-model", 0.0);
+        AtomicReference<IndexedEmbeddingDao<TextEmbedding>> daoRef = new AtomicReference<>();
+        IndexedEmbeddingDao<TextEmbedding> dao = new IndexedEmbeddingDao<>(new TextEmbeddingDaoH2(configuration), model -> new FlatVectorIndex() {
+            @Override
+            public void load(VectorIndex.VectorSource source) {
+                super.load(source);
+                // Writes that land after the load has read the table, before the index is published
+                daoRef.get().addEmbedding(late);
+                daoRef.get().deleteEmbedding(first.getId());
+            }
+        });
+        daoRef.set(dao);
+        dao.addEmbedding(first);
+
+        List<TextEmbedding> hits = dao.findEmbeddingsNear(first, 2);
+        assertEquals(1, hits.size());
+        assertEquals("late", hits.get(0).getChunk());
+    }
+
+    @Test
+    public void testBatchSearchMatchesSingleSearches() {
+        VectorIndexConfiguration configuration = new VectorIndexConfiguration("flat");
+        configuration.setSearchParallelism(4);
+        FlatVectorIndex index = new FlatVectorIndex(configuration);
+        Random random = new Random(21);
+        for (int i = 0; i < 10_000; i++) {
+            index.add(i, randomVector(random, 16));
+        }
+        // The batch covers more queries than one block of the kernel, a query of another dimension and a zero vector
+        float[][] queries = new float[7][];
+        for (int q = 0; q < 5; q++) {
+            queries[q] = randomVector(random, 16);
+        }
+        queries[5] = randomVector(random, 8);
+        queries[6] = new float[16];
+
+        List<List<ScoredId>> batch = index.search(queries, 5);
+        assertEquals(queries.length, batch.size());
+        for (int q = 0; q < queries.length; q++) {
+            List<ScoredId> single = index.search(queries[q], 5);
+            assertEquals(single.size(), batch.get(q).size());
+            for (int i = 0; i < single.size(); i++) {
+                assertEquals(single.get(i).getId(), batch.get(q).get(i).getId());
+                assertEquals(single.get(i).getScore(), batch.get(q).get(i).getScore(), 1e-5);
+            }
+        }
+        assertTrue(batch.get(5).isEmpty());
+        assertTrue(batch.get(6).isEmpty());
+    }
+
+    @Test
+    public void testIndexedDaoSearchesABatchInOnePass() {
+        EmbeddingConfiguration configuration = new EmbeddingConfiguration(512, 50, "mock-model",
+                "jdbc:h2:mem:flat_index_batch_test;DB_CLOSE_DELAY=-1", "sa", "");
+        AtomicInteger batches = new AtomicInteger();
+        IndexedEmbeddingDao<TextEmbedding> dao = new IndexedEmbeddingDao<>(new TextEmbeddingDaoH2(configuration), model -> new FlatVectorIndex() {
+            @Override
+            public List<List<ScoredId>> search(float[][] queries, int k) {
+                batches.incrementAndGet();
+                return super.search(queries, k);
+            }
+        });
+        TextEmbedding east = new TextEmbedding("east", List.of(1.0, 0.0), new Date(), new Date(), "mock-model", 0.0);
+        TextEmbedding north = new TextEmbedding("north", List.of(0.0, 1.0), new Date(), new Date(), "mock-model", 0.0);
+        TextEmbedding other = new TextEmbedding("other", List.of(1.0, 0.0, 0.0), new Date(), new Date(), "other-model", 0.0);
+        dao.addEmbedding(List.of(east, north, other));
+
+        List<List<TextEmbedding>> results = dao.findEmbeddingsNear(List.of(north, other, east), 1);
+        assertEquals(3, results.size());
+        assertEquals("north", results.get(0).get(0).getChunk());
+        assertEquals("other", results.get(1).get(0).getChunk());
+        assertEquals("east", results.get(2).get(0).getChunk());
+        assertEquals(1.0, results.get(2).get(0).getSimilarity(), 1e-6);
+        // One batch per embedding model
+        assertEquals(2, batches.get());
+    }
+
+    private static float[] randomVector(Random random, int dimension) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
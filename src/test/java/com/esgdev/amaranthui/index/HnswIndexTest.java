@@ -0,0 +1,78 @@
+package com.esgdev.amaranthui.index;
+
+import com.esgdev.amaranthui.db.index.FlatVectorIndex;
+import com.esgdev.amaranthui.db.index.HnswIndex;
+import com.esgdev.amaranthui.db.index.ScoredId;
+import com.esgdev.amaranthui.db.index.VectorIndexConfiguration;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class HnswIndexTest {
+    private static final int DIMENSION = 32;
+
+    @Test
+    public void testRecallAgainstExactSearch() {
+        Random random = new Random(42);
+        int count = 3000;
+        long[] ids = new long[count];
+        float[][] vectors = new float[count][];
+        FlatVectorIndex exact = new FlatVectorIndex();
+        for (int i = 0; i < count; i++) {
+            ids[i] = i;
+            vectors[i] = randomVector(random);
+            exact.add(i, vectors[i]);
+        }
+        HnswIndex hnsw = new HnswIndex(new VectorIndexConfiguration("hnsw"));
+        hnsw.addAll(ids, vectors);
+        assertEquals(count, hnsw.size());
+
+        int found = 0;
+        int expected = 0;
+        for (int q = 0; q < 50; q++) {
+            float[] query = randomVector(random);
+            Set<Long> truth = new HashSet<>();
+            exact.search(query, 10).forEach(hit -> truth.add(hit.getId()));
+            for (ScoredId hit : hnsw.search(query, 10)) {
+                if (truth.contains(hit.getId())) {
+                    found++;
+                }
+            }
+            expected += truth.size();
+        }
+        assertTrue("recall too low: " + found + "/" + expected, found >= expected * 0.9);
+    }
+
+    @Test
+    public void testDeletedVectorsAreNotReturned() {
+        Random random = new Random(7);
+        HnswIndex hnsw = new HnswIndex(new VectorIndexConfiguration("hnsw"));
+        float[] target = randomVector(random);
+        hnsw.add(1, target);
+        for (int i = 2; i < 200; i++) {
+            hnsw.add(i, randomVector(random));
+        }
+        assertEquals(1, hnsw.search(target, 1).get(0).getId());
+
+        assertTrue(hnsw.remove(1));
+        List<ScoredId> hits = hnsw.search(target, 5);
+        assertEquals(5, hits.size());
+        for (ScoredId hit : hits) {
+            assertNotEquals(1, hit.getId());
+        }
+        assertEquals(198, hnsw.size());
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
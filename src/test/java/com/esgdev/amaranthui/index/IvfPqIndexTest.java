@@ -0,0 +1,127 @@
+package com.esgdev.amaranthui.index;
+
+import com.esgdev.amaranthui.db.index.FlatVectorIndex;
+import com.esgdev.amaranthui.db.index.IvfPqIndex;
+import com.esgdev.amaranthui.db.index.ScoredId;
+import com.esgdev.amaranthui.db.index.VectorIndexConfiguration;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class IvfPqIndexTest {
+    private static final int DIMENSION = 32;
+
+    @Test
+    public void testShortlistContainsExactNearestNeighbour() {
+        VectorIndexConfiguration configuration = new VectorIndexConfiguration("ivfpq");
+        configuration.setIvfLists(16);
+        configuration.setIvfProbes(4);
+        configuration.setPqSubspaces(8);
+        IvfPqIndex index = new IvfPqIndex(configuration);
+        FlatVectorIndex exact = new FlatVectorIndex();
+
+        // Clustered data, as embeddings are
+        Random random = new Random(3);
+        float[][] clusters = new float[16][];
+        for (int c = 0; c < clusters.length; c++) {
+            clusters[c] = randomVector(random, 1f);
+        }
+        int count = 4000;
+        long[] ids = new long[count];
+        float[][] vectors = new float[count][];
+        for (int i = 0; i < count; i++) {
+            float[] noise = randomVector(random, 0.3f);
+            float[] center = clusters[i % clusters.length];
+            for (int d = 0; d < DIMENSION; d++) {
+                noise[d] += center[d];
+            }
+            ids[i] = i;
+            vectors[i] = noise;
+            exact.add(i, noise);
+        }
+        index.addAll(ids, vectors);
+        assertTrue(index.isTrained());
+        assertEquals(count, index.size());
+
+        int hits = 0;
+        for (int q = 0; q < 50; q++) {
+            float[] query = vectors[random.nextInt(count)];
+            long nearest = exact.search(query, 1).get(0).getId();
+            List<ScoredId> shortlist = index.search(query, 40);
+            if (shortlist.stream().anyMatch(hit -> hit.getId() == nearest)) {
+                hits++;
+            }
+        }
+        assertTrue("nearest neighbour missing from too many shortlists: " + hits, hits >= 45);
+
+        assertTrue(index.remove(0));
+        assertEquals(count - 1, index.size());
+    }
+
+    @Test
+    public void testLoadStreamsTheSource() {
+        VectorIndexConfiguration configuration = new VectorIndexConfiguration("ivfpq");
+        configuration.setIvfLists(16);
+        configuration.setIvfProbes(4);
+        configuration.setPqSubspaces(8);
+        IvfPqIndex index = new IvfPqIndex(configuration);
+        FlatVectorIndex exact = new FlatVectorIndex();
+
+        Random random = new Random(5);
+        float[][] clusters = new float[16][];
+        for (int c = 0; c < clusters.length; c++) {
+            clusters[c] = randomVector(random, 1f);
+        }
+        int count = 4000;
+        float[][] vectors = new float[count][];
+        for (int i = 0; i < count; i++) {
+            float[] noise = randomVector(random, 0.3f);
+            float[] center = clusters[i % clusters.length];
+            for (int d = 0; d < DIMENSION; d++) {
+                noise[d] += center[d];
+            }
+            vectors[i] = noise;
+            exact.add(i, noise);
+        }
+        AtomicInteger passes = new AtomicInteger();
+        index.load(consumer -> {
+            passes.incrementAndGet();
+            for (int i = 0; i < count; i++) {
+                // A cursor hands out a new array per row
+                consumer.accept(i, vectors[i].clone());
+            }
+        });
+        // One pass draws the training sample, the other encodes
+        assertEquals(2, passes.get());
+        assertTrue(index.isTrained());
+        assertEquals(count, index.size());
+
+        int hits = 0;
+        for (int q = 0; q < 50; q++) {
+            float[] query = vectors[random.nextInt(count)];
+            long nearest = exact.search(query, 1).get(0).getId();
+            if (index.search(query, 40).stream().anyMatch(hit -> hit.getId() == nearest)) {
+                hits++;
+            }
+        }
+        assertTrue("nearest neighbour missing from too many shortlists: " + hits, hits >= 45);
+
+        // Too few vectors to train on are kept uncompressed
+        IvfPqIndex small = new IvfPqIndex(configuration);
+        small.load(consumer -> consumer.accept(1, vectors[0]));
+        assertFalse(small.isTrained());
+        assertEquals(1, small.search(vectors[0], 1).get(0).getId());
+    }
+
+    private static float[] randomVector(Random random, float scale) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian() * scale;
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,134 @@
+package com.esgdev.amaranthui.index;
+
+import com.esgdev.amaranthui.db.h2.TextEmbeddingDaoH2;
+import com.esgdev.amaranthui.db.index.FlatVectorIndex;
+import com.esgdev.amaranthui.db.index.ParallelSearch;
+import com.esgdev.amaranthui.db.index.ScoredId;
+import com.esgdev.amaranthui.db.index.TopK;
+import com.esgdev.amaranthui.db.index.VectorIndexConfiguration;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingConfiguration;
+import com.esgdev.amaranthui.engine.embedding.TextEmbedding;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ParallelSearchTest {
+
+    @Test
+    public void testPartitionedHeapsMergeToGlobalTopK() {
+        double[] scores = new double[100_000];
+        Random random = new Random(3);
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = random.nextDouble();
+        }
+        TopK expected = new TopK(10);
+        for (int i = 0; i < scores.length; i++) {
+            expected.offer(i, scores[i]);
+        }
+        TopK actual = ParallelSearch.of(4).search(scores.length, 10, 1000, (from, to, topK) -> {
+            for (int i = from; i < to; i++) {
+                topK.offer(i, scores[i]);
+            }
+        });
+        assertEquals(expected.toSortedList().size(), actual.toSortedList().size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(expected.toSortedList().get(i).getId(), actual.toSortedList().get(i).getId());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParallelismMustBePositive() {
+        ParallelSearch.of(0);
+    }
+
+    @Test
+    public void testParallelFlatIndexMatchesSequential() {
+        VectorIndexConfiguration configuration = new VectorIndexConfiguration("flat");
+        configuration.setSearchParallelism(4);
+        FlatVectorIndex parallel = new FlatVectorIndex(configuration);
+        FlatVectorIndex sequential = new FlatVectorIndex();
+        Random random = new Random(5);
+        for (int i = 0; i < 20_000; i++) {
+            float[] vector = {random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f};
+            parallel.add(i, vector);
+            sequential.add(i, vector);
+        }
+        float[] query = {0.3f, -0.2f, 0.1f, 0.4f};
+        List<ScoredId> expected = sequential.search(query, 20);
+        List<ScoredId> actual = parallel.search(query, 20);
+        assertEquals(20, actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+        }
+    }
+
+    @Test
+    public void testPartitionedH2ScanMatchesSingleQuery() {
+        EmbeddingConfiguration configuration = new EmbeddingConfiguration(512, 50, "mock-model",
+                "jdbc:h2:mem:parallel_scan_test;DB_CLOSE_DELAY=-1", "sa", "");
+        configuration.setSearchParallelism(1);
+        TextEmbeddingDaoH2 dao = new TextEmbeddingDaoH2(configuration);
+        Random random = new Random(9);
+        List<TextEmbedding> rows = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            rows.add(new TextEmbedding("chunk " + i, List.of(random.nextGaussian(), random.nextGaussian(), random.nextGaussian()),
+                    new Date(), new Date(), "mock-model", 0.0));
+        }
+        rows.add(new TextEmbedding("other model", List.of(1.0, 0.0, 0.0), new Date(), new Date(), "other-model", 0.0));
+        dao.addEmbedding(rows);
+
+        TextEmbedding query = new TextEmbedding("query", List.of(1.0, 0.5, -0.2), new Date(), new Date(), "mock-model", 0.0);
+        List<TextEmbedding> expected = dao.findEmbeddingsNear(query, 7);
+        configuration.setSearchParallelism(3);
+        List<TextEmbedding> actual = dao.findEmbeddingsNear(query, 7);
+
+        assertEquals(7, actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertEquals(expected.get(i).getSimilarity(), actual.get(i).getSimilarity(), 1e-6);
+            assertEquals("mock-model", actual.get(i).getEmbeddingModel());
+        }
+    }
+
+    @Test
+    public void testBatchSearchMatchesSingleQueries() {
+        EmbeddingConfiguration configuration = new EmbeddingConfiguration(512, 50, "mock-model",
+                "jdbc:h2:mem:batch_search_test;DB_CLOSE_DELAY=-1", "sa", "");
+        TextEmbeddingDaoH2 dao = new TextEmbeddingDaoH2(configuration);
+        Random random = new Random(17);
+        List<TextEmbedding> rows = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            rows.add(new TextEmbedding("chunk " + i, List.of(random.nextGaussian(), random.nextGaussian(), random.nextGaussian(), random.nextGaussian()),
+                    new Date(), new Date(), "mock-model", 0.0));
+        }
+        dao.addEmbedding(rows);
+
+        List<TextEmbedding> queries = new ArrayList<>();
+        for (int q = 0; q < 6; q++) {
+            queries.add(new TextEmbedding("query " + q, List.of(random.nextGaussian(), random.nextGaussian(), random.nextGaussian(), random.nextGaussian()),
+                    new Date(), new Date(), "mock-model", 0.0));
+        }
+        // A query of another dimension finds nothing, without affecting the others
+        queries.add(new TextEmbedding("short", List.of(1.0, 0.0), new Date(), new Date(), "mock-model", 0.0));
+
+        for (int parallelism : new int[]{1, 3}) {
+            configuration.setSearchParallelism(parallelism);
+            List<List<TextEmbedding>> batch = dao.findEmbeddingsNear(queries, 5);
+            assertEquals(queries.size(), batch.size());
+            for (int q = 0; q < 6; q++) {
+                List<TextEmbedding> single = dao.findEmbeddingsNear(queries.get(q), 5);
+                assertEquals(5, batch.get(q).size());
+                for (int i = 0; i < 5; i++) {
+                    assertEquals(single.get(i).getId(), batch.get(q).get(i).getId());
+                    assertEquals(single.get(i).getSimilarity(), batch.get(q).get(i).getSimilarity(), 1e-5);
+                }
+            }
+            assertTrue(batch.get(6).isEmpty());
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.esgdev.amaranthui.index;
+
+import com.esgdev.amaranthui.db.index.FlatVectorIndex;
+import com.esgdev.amaranthui.db.index.ScoredId;
+import com.esgdev.amaranthui.db.index.VamanaIndex;
+import com.esgdev.amaranthui.db.index.VectorIndexConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class VamanaIndexTest {
+    private static final int DIMENSION = 32;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testBuildReopenAndReconcile() throws Exception {
+        VectorIndexConfiguration configuration = new VectorIndexConfiguration("vamana");
+        configuration.setPqSubspaces(8);
+        configuration.setVamanaMaxDegree(24);
+        configuration.setVamanaSearchListSize(64);
+        Path file = folder.getRoot().toPath().resolve("test.vamana");
+
+        Random random = new Random(11);
+        int count = 2000;
+        float[][] vectors = new float[count][];
+        FlatVectorIndex exact = new FlatVectorIndex();
+        for (int i = 0; i < count; i++) {
+            vectors[i] = randomVector(random);
+            exact.add(i, vectors[i]);
+        }
+        VamanaIndex index = new VamanaIndex(file, configuration);
+        assertFalse(index.open());
+        index.build(consumer -> {
+            for (int i = 0; i < count; i++) {
+                consumer.accept(i, vectors[i]);
+            }
+        });
+        assertEquals(count, index.size());
+
+        // A fresh instance reads the graph back from the file
+        VamanaIndex reopened = new VamanaIndex(file, configuration);
+        assertTrue(reopened.open());
+        int found = 0;
+        for (int q = 0; q < 30; q++) {
+            float[] query = randomVector(random);
+            Set<Long> truth = new HashSet<>();
+            exact.search(query, 10).forEach(hit -> truth.add(hit.getId()));
+            for (ScoredId hit : reopened.search(query, 10)) {
+                if (truth.contains(hit.getId())) {
+                    found++;
+                }
+            }
+        }
+        assertTrue("recall too low: " + found, found >= 30 * 10 * 0.85);
+
+        // The table lost row 0 and gained row 5000 since the file was built
+        List<Long> missing = reopened.reconcile(consumer -> {
+            for (long id = 1; id < count; id++) {
+                consumer.accept(id);
+            }
+            consumer.accept(5000L);
+        });
+        assertEquals(List.of(5000L), missing);
+        reopened.add(5000L, vectors[0]);
+        List<ScoredId> hits = reopened.search(vectors[0], 1);
+        assertEquals(5000L, hits.get(0).getId());
+        assertEquals(count, reopened.size());
+    }
+
+    @Test
+    public void testWritesDuringABuildSurviveTheSwap() throws Exception {
+        VectorIndexConfiguration configuration = new VectorIndexConfiguration("vamana");
+        configuration.setPqSubspaces(8);
+        configuration.setVamanaMaxDegree(16);
+        configuration.setVamanaSearchListSize(32);
+        VamanaIndex index = new VamanaIndex(folder.getRoot().toPath().resolve("rebuild.vamana"), configuration);
+
+        Random random = new Random(13);
+        int count = 500;
+        float[][] vectors = new float[count][];
+        for (int i = 0; i < count; i++) {
+            vectors[i] = randomVector(random);
+        }
+        float[] updated = randomVector(random);
+        index.build(consumer -> {
+            for (int i = 0; i < count; i++) {
+                consumer.accept(i, vectors[i]);
+                if (i == 100) {
+                    // Rows 5 and 7 were already read from the snapshot when they were updated and deleted
+                    index.add(5, updated);
+                    index.remove(7);
+                }
+            }
+        });
+
+        assertEquals(count - 1, index.size());
+        ScoredId hit = index.search(updated, 1).get(0);
+        assertEquals(5L, hit.getId());
+        assertEquals(1f, hit.getScore(), 1e-4f);
+        assertTrue(index.search(vectors[7], count).stream().noneMatch(result -> result.getId() == 7L));
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
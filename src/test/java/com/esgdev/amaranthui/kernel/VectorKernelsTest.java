@@ -0,0 +1,100 @@
+package com.esgdev.amaranthui.kernel;
+
+import com.esgdev.amaranthui.db.VectorEncoding;
+import com.esgdev.amaranthui.db.h2.VectorCodec;
+import com.esgdev.amaranthui.db.kernel.VectorKernel;
+import com.esgdev.amaranthui.db.kernel.VectorKernels;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class VectorKernelsTest {
+
+    @Test
+    public void testSimdKernelIsLoadedWhenTheModuleIsPresent() {
+        // Surefire runs with --add-modules jdk.incubator.vector
+        assertNotEquals("scalar", VectorKernels.get().describe());
+    }
+
+    @Test
+    public void testKernelMatchesNaiveLoopsOnOddLengths() {
+        VectorKernel kernel = VectorKernels.get();
+        Random random = new Random(7);
+        for (int length : new int[]{0, 1, 3, 7, 8, 17, 33, 768, 1001}) {
+            float[] a = randomFloats(random, length + 5);
+            float[] b = randomFloats(random, length + 2);
+            double dot = 0.0;
+            double distance = 0.0;
+            for (int i = 0; i < length; i++) {
+                double x = a[5 + i];
+                double y = b[2 + i];
+                dot += x * y;
+                distance += (x - y) * (x - y);
+            }
+            assertEquals(dot, kernel.dot(a, 5, b, 2, length), 1e-3);
+            assertEquals(distance, kernel.squaredDistance(a, 5, b, 2, length), 1e-3);
+
+            double[] x = new double[length];
+            double[] y = new double[length];
+            for (int i = 0; i < length; i++) {
+                x[i] = a[5 + i];
+                y[i] = b[2 + i];
+            }
+            assertEquals(dot, kernel.dot(x, y), 1e-9);
+            assertEquals(distance, kernel.squaredDistance(x, y), 1e-9);
+        }
+    }
+
+    @Test
+    public void testPackedDotProductMatchesUnpacked() {
+        Random random = new Random(11);
+        for (int length : new int[]{1, 5, 16, 19, 768}) {
+            List<Double> a = new ArrayList<>();
+            List<Double> b = new ArrayList<>();
+            double expected = 0.0;
+            for (int i = 0; i < length; i++) {
+                float x = random.nextFloat() - 0.5f;
+                float y = random.nextFloat() - 0.5f;
+                a.add((double) x);
+                b.add((double) y);
+                expected += x * y;
+            }
+            Double actual = VectorCodec.dotProduct(VectorCodec.encode(a, VectorEncoding.FLOAT32), VectorCodec.encode(b, VectorEncoding.FLOAT32));
+            assertEquals(expected, actual, 1e-4);
+        }
+    }
+
+    @Test
+    public void testBatchDotProductMatchesSingleQueries() {
+        Random random = new Random(13);
+        for (int count : new int[]{1, 3, 4, 9}) {
+            for (int length : new int[]{3, 16, 37}) {
+                float[] queries = randomFloats(random, count * length);
+                float[] vector = randomFloats(random, length + 4);
+                float[] out = new float[count];
+                VectorKernels.dotBatch(queries, count, vector, 4, length, out);
+                for (int q = 0; q < count; q++) {
+                    assertEquals(VectorKernels.dot(queries, q * length, vector, 4, length), out[q], 1e-4);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCosineOfZeroVectorIsNaN() {
+        assertTrue(Double.isNaN(VectorKernels.cosine(new double[]{0.0, 0.0}, new double[]{1.0, 0.0})));
+        assertEquals(1.0, VectorKernels.cosine(new float[]{3f, 4f}, new float[]{6f, 8f}), 1e-6);
+    }
+
+    private static float[] randomFloats(Random random, int length) {
+        float[] values = new float[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = random.nextFloat() * 2f - 1f;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,139 @@
+package com.esgdev.amaranthui.segment;
+
+import com.esgdev.amaranthui.db.VectorStorage;
+import com.esgdev.amaranthui.db.h2.TextEmbeddingDaoH2;
+import com.esgdev.amaranthui.db.index.ScoredId;
+import com.esgdev.amaranthui.db.segment.SegmentVectorStore;
+import com.esgdev.amaranthui.engine.embedding.EmbeddingConfiguration;
+import com.esgdev.amaranthui.engine.embedding.TextEmbedding;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class SegmentVectorStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReopenReplaysLogAndIgnoresTornTail() throws Exception {
+        Path directory = folder.getRoot().toPath().resolve("store");
+        SegmentVectorStore store = new SegmentVectorStore(directory, 1 << 16);
+        store.append(1, new float[]{1f, 0f});
+        store.append(2, new float[]{0f, 1f});
+        store.append(2, new float[]{0.6f, 0.8f});
+        store.delete(1);
+        // Not closed: the changes are only in the mapped segments and the log, plus a half written record
+        try (OutputStream out = Files.newOutputStream(directory.resolve("wal.log"), StandardOpenOption.APPEND)) {
+            out.write(new byte[]{42, 0, 0, 0, 1, 2});
+        }
+
+        SegmentVectorStore reopened = new SegmentVectorStore(directory, 1 << 16);
+        assertEquals(1, reopened.size());
+        assertNull(reopened.read(1));
+        assertArrayEquals(new float[]{0.6f, 0.8f}, reopened.read(2), 0f);
+        List<ScoredId> hits = reopened.search(new float[]{0f, 1f}, 5);
+        assertEquals(1, hits.size());
+        assertEquals(0.8, hits.get(0).getScore(), 1e-6);
+        reopened.close();
+    }
+
+    @Test
+    public void testCompactionMovesLiveVectorsAndReportsLocations() throws Exception {
+        Path directory = folder.getRoot().toPath().resolve("compaction");
+        // Room for 4 records of 4 dimensions per segment
+        SegmentVectorStore store = new SegmentVectorStore(directory, 16 + 4 * 32);
+        Map<Long, Long> relocated = new ConcurrentHashMap<>();
+        store.setRelocationListener(relocated::putAll);
+        long[] locations = new long[12];
+        for (int i = 0; i < 12; i++) {
+            locations[i] = store.append(i, new float[]{i, 1f, 0f, 0f});
+        }
+        assertEquals(3, store.segmentCount());
+        for (int i = 0; i < 12; i++) {
+            if (i % 4 != 0) {
+                store.delete(i);
+            }
+        }
+        // Deletes also start a background compaction, compacting here just waits for the same result
+        store.compact();
+
+        assertEquals(3, store.size());
+        assertTrue(store.segmentCount() <= 2);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!(relocated.containsKey(0L) && relocated.containsKey(4L)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(relocated.containsKey(0L) && relocated.containsKey(4L));
+        for (long id : new long[]{0, 4, 8}) {
+            assertArrayEquals(new float[]{id, 1f, 0f, 0f}, store.read(id, locations[(int) id]), 0f);
+        }
+        assertEquals(8, store.search(new float[]{1f, 0f, 0f, 0f}, 1).get(0).getId());
+        store.close();
+    }
+
+    @Test
+    public void testDaoKeepsOnlyPointersInH2() throws Exception {
+        String url = "jdbc:h2:mem:segment_store_test;DB_CLOSE_DELAY=-1";
+        EmbeddingConfiguration configuration = new EmbeddingConfiguration(512, 50, "mock-model", url, "sa", "");
+        configuration.setVectorStorage(VectorStorage.SEGMENTS);
+        configuration.setSegmentDirectory(folder.getRoot().getPath());
+        TextEmbeddingDaoH2 dao = new TextEmbeddingDaoH2(configuration);
+
+        TextEmbedding first = new TextEmbedding("first", List.of(1.0, 0.0), new Date(), new Date(), "mock-model", 0.0);
+        TextEmbedding second = new TextEmbedding("second", List.of(0.0, 2.0), new Date(), new Date(), "mock-model", 0.0);
+        dao.addEmbedding(List.of(first, second));
+
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM embeddings WHERE embedding IS NULL AND segment_id IS NOT NULL")) {
+            rs.next();
+            assertEquals(2, rs.getInt(1));
+        }
+        List<TextEmbedding> hits = dao.findEmbeddingsNear(second, 2);
+        assertEquals("second", hits.get(0).getChunk());
+        assertEquals(1.0, hits.get(0).getSimilarity(), 1e-6);
+        assertEquals(List.of(0.0, 1.0), dao.getEmbeddingById(second.getId()).getEmbedding());
+
+        // An update replaces the vector in the segments without a copy in the table
+        second.setVector(new TextEmbedding("second", List.of(0.0, 0.0, 3.0), new Date(), new Date(), "mock-model", 0.0).getVector());
+        second.setEmbeddingModel("other-model");
+        dao.updateEmbedding(second);
+        second.setVector(new TextEmbedding("second", List.of(0.0, 3.0, 0.0), new Date(), new Date(), "mock-model", 0.0).getVector());
+        dao.updateEmbedding(second);
+        assertEquals(List.of(0.0, 1.0, 0.0), dao.getEmbeddingById(second.getId()).getEmbedding());
+
+        // A row whose pointer was never set, e.g. after a crash, is found by its id
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement()) {
+            assertEquals(0, statement.executeUpdate("UPDATE embeddings_1 SET segment_id = 1 WHERE embedding IS NOT NULL"));
+            statement.executeUpdate("UPDATE embeddings_1 SET segment_id = NULL, segment_offset = NULL WHERE id = " + first.getId());
+        }
+        assertEquals(List.of(1.0, 0.0), dao.getEmbeddingById(first.getId()).getEmbedding());
+
+        dao.deleteEmbedding(second.getId());
+        assertEquals(1, dao.findEmbeddingsNear(first, 2).size());
+
+        // Turning segment storage off moves the vectors back into the table
+        EmbeddingConfiguration h2Configuration = new EmbeddingConfiguration(512, 50, "mock-model", url, "sa", "");
+        h2Configuration.setSegmentDirectory(folder.getRoot().getPath());
+        TextEmbeddingDaoH2 h2Dao = new TextEmbeddingDaoH2(h2Configuration);
+        assertEquals(List.of(1.0, 0.0), h2Dao.getEmbeddingById(first.getId()).getEmbedding());
+        assertEquals("first", h2Dao.findEmbeddingsNear(first, 1).get(0).getChunk());
+    }
+}